@@ -0,0 +1,120 @@
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Wraps a single reusable PreparedStatement for one table
+ * and sends the bound rows to the database in batches.
+ * A batch size of 1 executes every row straight away (the original per-row behaviour)
+ * Keeps a count of the rows written so the throughput of each table can be reported
+ */
+public class BatchInserter implements AutoCloseable {
+
+    private final String tableName;
+    private final PreparedStatement statement;
+    private final int batchSize;
+
+    //number of rows added to the current batch but not executed yet
+    private int pendingRows = 0;
+    private long rowCount = 0;
+    private final long startTime = System.nanoTime();
+
+    /**
+     * @param tableName name of the table, used when reporting
+     * @param statement the insert statement that is reused for every row
+     * @param batchSize number of rows sent per executeBatch call
+     */
+    public BatchInserter(String tableName, PreparedStatement statement, int batchSize) {
+        this.tableName = tableName;
+        this.statement = statement;
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * @return the statement the caller binds the values of the next row to
+     */
+    public PreparedStatement getStatement() {
+        return statement;
+    }
+
+    /**
+     * Adds the row currently bound to the statement
+     * executes the batch once it is full
+     * @return true if the row (or the batch it completed) was inserted, otherwise returns false
+     * @throws SQLException if the statement execution causes an SQL error
+     */
+    public boolean addRow() throws SQLException {
+
+        if (batchSize == 1) {
+            int rowsAffected = statement.executeUpdate();
+            rowCount++;
+            Metrics.increment("rows_inserted_total", "table", tableName);
+            return rowsAffected > 0;
+        }
+
+        statement.addBatch();
+        pendingRows++;
+
+        if (pendingRows >= batchSize) return flush();
+        return true;
+    }
+
+    /**
+     * Executes any rows that are still waiting in the batch
+     * @return true if every row in the batch was inserted, otherwise returns false
+     * @throws SQLException if the statement execution causes an SQL error
+     */
+    public boolean flush() throws SQLException {
+
+        if (pendingRows == 0) return true;
+
+        long startTime = System.nanoTime();
+        int[] results = statement.executeBatch();
+        Metrics.recordNanos("batch_execute_seconds", System.nanoTime() - startTime, "table", tableName);
+        Metrics.add("rows_inserted_total", pendingRows, "table", tableName);
+        rowCount += pendingRows;
+        pendingRows = 0;
+
+        //checks if any row in the batch was not inserted
+        for (int result : results) {
+            if (result == 0 || result == Statement.EXECUTE_FAILED) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of rows sent to the database so far
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return the rows inserted per second since the inserter was created
+     */
+    public double getRowsPerSecond() {
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        return seconds > 0 ? rowCount / seconds : 0;
+    }
+
+    /**
+     * @return a one line summary of the rows inserted and the throughput for the table
+     */
+    public String report() {
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        return String.format("%s: %d rows in %.2fs (%.0f rows/sec)", tableName, rowCount, seconds, getRowsPerSecond());
+    }
+
+    /**
+     * Executes the remaining rows and closes the statement
+     * @throws SQLException if the statement execution causes an SQL error
+     */
+    @Override
+    public void close() throws SQLException {
+        try {
+            flush();
+        } finally {
+            statement.close();
+        }
+    }
+}
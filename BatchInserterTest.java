@@ -0,0 +1,131 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BatchInserterTest {
+
+   File dbFile;
+   Connection conn;
+
+   @Before
+   public void createTable() throws IOException, SQLException{
+      dbFile = File.createTempFile("batch-inserter", ".db");
+      conn = DriverManager.getConnection("jdbc:sqlite:" + dbFile.getPath());
+      try (Statement statement = conn.createStatement()) {
+         statement.executeUpdate("CREATE TABLE actors (Name VARCHAR(100) UNIQUE)");
+      }
+   }
+
+   @After
+   public void deleteDatabase() throws SQLException{
+      conn.close();
+      dbFile.delete();
+   }
+
+   private BatchInserter inserter(int batchSize) throws SQLException{
+      return new BatchInserter("actors", conn.prepareStatement("INSERT OR IGNORE INTO actors VALUES (?)"), batchSize);
+   }
+
+   private static boolean addRow(BatchInserter inserter, String name) throws SQLException{
+      inserter.getStatement().setString(1, name);
+      return inserter.addRow();
+   }
+
+   //counted on a second connection, so only committed rows are seen
+   private int committedRows() throws SQLException{
+      try (Connection reader = DriverManager.getConnection("jdbc:sqlite:" + dbFile.getPath());
+           Statement statement = reader.createStatement();
+           ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM actors")) {
+         return rs.getInt(1);
+      }
+   }
+
+   @Test
+   public void fullBatchIsExecutedAndTheRestOnFlush() throws SQLException{
+      try (BatchInserter inserter = inserter(3)) {
+         assertTrue(addRow(inserter, "Johnny Depp"));
+         assertTrue(addRow(inserter, "Orlando Bloom"));
+         assertEquals(0, inserter.getRowCount());
+         assertEquals(0, committedRows());
+
+         assertTrue(addRow(inserter, "Keira Knightley"));
+         assertEquals(3, inserter.getRowCount());
+         assertEquals(3, committedRows());
+
+         assertTrue(addRow(inserter, "Geoffrey Rush"));
+         assertTrue(inserter.flush());
+         assertEquals(4, inserter.getRowCount());
+         assertEquals(4, committedRows());
+         //nothing is left to execute
+         assertTrue(inserter.flush());
+         assertEquals(4, inserter.getRowCount());
+      }
+   }
+
+   @Test
+   public void batchSizeOfOneExecutesEveryRow() throws SQLException{
+      try (BatchInserter inserter = inserter(1)) {
+         assertTrue(addRow(inserter, "Johnny Depp"));
+         assertEquals(1, inserter.getRowCount());
+         assertEquals(1, committedRows());
+
+         assertTrue(addRow(inserter, "Orlando Bloom"));
+         assertEquals(2, committedRows());
+         //an ignored row is reported as not inserted
+         assertFalse(addRow(inserter, "Johnny Depp"));
+         assertEquals(2, committedRows());
+      }
+   }
+
+   @Test
+   public void closeFlushesTheLastBatch() throws SQLException{
+      try (BatchInserter inserter = inserter(100)) {
+         addRow(inserter, "Johnny Depp");
+         addRow(inserter, "Orlando Bloom");
+      }
+      assertEquals(2, committedRows());
+   }
+
+   @Test
+   public void batchWithAnIgnoredRowIsReportedAsNotInserted() throws SQLException{
+      try (BatchInserter inserter = inserter(10)) {
+         addRow(inserter, "Johnny Depp");
+         addRow(inserter, "Johnny Depp");
+         assertFalse(inserter.flush());
+         assertEquals(2, inserter.getRowCount());
+      }
+      assertEquals(1, committedRows());
+   }
+
+   @Test
+   public void rowsAreOnlyVisibleOnceTheTransactionCommits() throws SQLException{
+      conn.setAutoCommit(false);
+      try (BatchInserter inserter = inserter(2)) {
+         addRow(inserter, "Johnny Depp");
+         addRow(inserter, "Orlando Bloom");
+         addRow(inserter, "Keira Knightley");
+      }
+      assertEquals(0, committedRows());
+
+      conn.commit();
+      assertEquals(3, committedRows());
+
+      try (BatchInserter inserter = inserter(2)) {
+         addRow(inserter, "Geoffrey Rush");
+      }
+      conn.rollback();
+      assertEquals(3, committedRows());
+   }
+}
@@ -0,0 +1,216 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs a file of QueryDB options on several threads, each query on a read-only
+ * connection from a ConnectionPool, and writes the results in the order of the file
+ *
+ * Each line of the spec file is one query in the same form as a QueryServer request,
+ * e.g. "op=4&amp;actor=Johnny+Depp"; blank lines and lines starting with '#' are ignored
+ * Results are formatted on the worker threads and written as soon as every earlier
+ * query has been written, with at most a few queries per thread held in memory
+ */
+public class BatchQueryExecutor {
+
+    //queries in flight per thread, enough to keep every thread busy while the head of the queue is written
+    static final int QUERIES_IN_FLIGHT_PER_THREAD = 4;
+
+    /**
+     * One line of the spec file
+     */
+    static final class QuerySpec {
+        final int lineNumber;
+        final String text;
+        final Map<String, String> params;
+
+        QuerySpec(int lineNumber, String text) {
+            this.lineNumber = lineNumber;
+            this.text = text;
+            this.params = QueryServer.parseQueryString(text);
+        }
+    }
+
+    private final ConnectionPool pool;
+    private final int threads;
+
+    private long queriesRun = 0;
+    private long queriesFailed = 0;
+    private long rowsWritten = 0;
+    private long elapsedNanos = 0;
+
+    /**
+     * @param pool the read-only connections the queries run on
+     * @param threads the number of queries run at once
+     */
+    public BatchQueryExecutor(ConnectionPool pool, int threads) {
+        this.pool = pool;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Reads the query specs of a file
+     * @param specFile the spec file
+     * @return the queries in file order
+     * @throws IOException if the file cannot be read
+     */
+    static List<QuerySpec> readSpecs(File specFile) throws IOException {
+        List<QuerySpec> specs = new ArrayList<>();
+        List<String> lines = Files.readAllLines(specFile.toPath(), StandardCharsets.UTF_8);
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            specs.add(new QuerySpec(i + 1, line));
+        }
+        return specs;
+    }
+
+    /**
+     * Runs every query and writes the results in the order of the specs
+     * A query that fails is written as an error line and does not stop the others
+     * @param specs the queries to run
+     * @param out where the results are written
+     * @throws IOException if the results cannot be written
+     * @throws InterruptedException if interrupted while waiting for a query
+     */
+    public void run(List<QuerySpec> specs, Writer out) throws IOException, InterruptedException {
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        ArrayDeque<Future<String>> inFlight = new ArrayDeque<>();
+        int maxInFlight = threads * QUERIES_IN_FLIGHT_PER_THREAD;
+        long startTime = System.nanoTime();
+
+        try {
+            for (QuerySpec spec : specs) {
+                if (inFlight.size() >= maxInFlight) write(inFlight.poll(), out);
+                inFlight.add(executor.submit(() -> execute(spec)));
+            }
+            while (!inFlight.isEmpty()) {
+                write(inFlight.poll(), out);
+            }
+            out.flush();
+        } finally {
+            for (Future<String> pending : inFlight) {
+                pending.cancel(true);
+            }
+            executor.shutdownNow();
+            elapsedNanos += System.nanoTime() - startTime;
+        }
+    }
+
+    /**
+     * Runs one query on a pooled connection
+     * @return the header line and rows of the result, ready to be written
+     */
+    private String execute(QuerySpec spec) throws InterruptedException {
+
+        StringBuilder block = new StringBuilder("### ").append(spec.lineNumber).append(' ').append(spec.text).append('\n');
+        Connection conn = pool.borrow();
+        try {
+            List<String> rows = QueryDB.runOperation(conn, spec.params.getOrDefault("op", ""), spec.params);
+            for (String row : rows) {
+                block.append(row).append('\n');
+            }
+            synchronized (this) {
+                rowsWritten += rows.size();
+            }
+        } catch (SQLException | RuntimeException e) {
+            //any failure of one query, including SQL errors wrapped by KeysetPager, is reported in its place
+            synchronized (this) {
+                queriesFailed++;
+            }
+            block.append("!! ").append(e.getMessage() != null ? e.getMessage() : e.toString()).append('\n');
+        } finally {
+            pool.release(conn);
+        }
+        return block.toString();
+    }
+
+    private void write(Future<String> result, Writer out) throws IOException, InterruptedException {
+        try {
+            out.write(result.get());
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+        synchronized (this) {
+            queriesRun++;
+        }
+    }
+
+    /**
+     * @return the number of queries run, failures and the end-to-end throughput
+     */
+    public synchronized String report() {
+        double seconds = elapsedNanos / 1e9;
+        return String.format("%d queries (%d failed), %d rows on %d threads in %.2fs: %.1f queries/sec",
+                queriesRun, queriesFailed, rowsWritten, threads, seconds, seconds > 0 ? queriesRun / seconds : 0);
+    }
+
+    /**
+     * Main method: runs the queries of a spec file against a database
+     * @param args database file name, spec file name, then optionally "--threads",
+     * "--output" (standard output unless given), "--profile" and "--metrics"
+     * @throws IOException if a file cannot be read or written
+     * @throws SQLException if the connections cannot be opened
+     * @throws InterruptedException if interrupted while waiting for a query
+     */
+    public static void main(String[] args) throws IOException, SQLException, InterruptedException {
+
+        if (args.length < 2) {
+            System.out.println("Usage: java BatchQueryExecutor <database_file_name> <spec_file> [--threads n] [--output <file>]"
+                    + " [--profile <default|bulk-load|serve>] [--metrics <file>]");
+            return;
+        }
+
+        String dbFileName = args[0];
+        if (!DatabaseGenerations.exists(dbFileName)) {
+            System.err.println("Database \"" + dbFileName + "\" has not been initialized");
+            return;
+        }
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        File outputFile = null;
+        File metricsFile = null;
+        ConnectionProfile profile = ConnectionProfile.SERVE;
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].equals("--threads") && i + 1 < args.length) threads = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--output") && i + 1 < args.length) outputFile = new File(args[++i]);
+            else if (args[i].equals("--profile") && i + 1 < args.length) profile = ConnectionProfile.forName(args[++i]);
+            else if (args[i].equals("--metrics") && i + 1 < args.length) metricsFile = new File(args[++i]);
+            else {
+                System.err.println("Unknown option: " + args[i]);
+                return;
+            }
+        }
+
+        List<QuerySpec> specs = readSpecs(new File(args[1]));
+        BatchQueryExecutor executor;
+
+        try (ConnectionPool pool = new ConnectionPool(dbFileName, threads, profile);
+             Writer out = new BufferedWriter(outputFile != null
+                     ? new FileWriter(outputFile, StandardCharsets.UTF_8)
+                     : new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16)) {
+            executor = new BatchQueryExecutor(pool, threads);
+            executor.run(specs, out);
+        }
+
+        //the report goes to standard error so it is not mixed into results on standard output
+        System.err.println(executor.report());
+        if (metricsFile != null) Metrics.writeTo(metricsFile);
+    }
+}
@@ -0,0 +1,103 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BatchQueryExecutorTest {
+
+   File specFile;
+   File dbFile;
+
+   @Before
+   public void createFile() throws IOException{
+      specFile = File.createTempFile("batch-specs", ".txt");
+      dbFile = File.createTempFile("batch-movies", ".db");
+   }
+
+   @After
+   public void deleteFile(){
+      specFile.delete();
+      dbFile.delete();
+   }
+
+   //a database of movies "Movie i", each with the single actor "Actor i"
+   private void createMovies(int count) throws SQLException, IOException{
+      dbFile.delete();
+      InitialiseDB.initialiseDB(dbFile.getPath());
+      try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + dbFile.getPath());
+           PreparedStatement movie = conn.prepareStatement("INSERT INTO movies (Movie_ID, Title) VALUES (?, ?)");
+           PreparedStatement actor = conn.prepareStatement("INSERT INTO actors (Actor_ID, Name) VALUES (?, ?)");
+           PreparedStatement link = conn.prepareStatement("INSERT INTO actors_to_movies VALUES (?, ?)")) {
+         for (int i = 1; i <= count; i++) {
+            movie.setInt(1, i);
+            movie.setString(2, "Movie " + i);
+            movie.executeUpdate();
+            actor.setInt(1, i);
+            actor.setString(2, "Actor " + i);
+            actor.executeUpdate();
+            link.setInt(1, i);
+            link.setInt(2, i);
+            link.executeUpdate();
+         }
+      }
+   }
+
+   @Test
+   public void readsSpecsInFileOrder() throws IOException{
+      Files.write(specFile.toPath(), ("# report queries\n"
+            + "op=4&actor=Johnny+Depp\n"
+            + "\n"
+            + "op=3&actor=Johnny+Depp&director=Gore%20Verbinski\n"
+            + "op=5&genre=Action&limit=10\n").getBytes(StandardCharsets.UTF_8));
+
+      List<BatchQueryExecutor.QuerySpec> specs = BatchQueryExecutor.readSpecs(specFile);
+
+      assertEquals(3, specs.size());
+      assertEquals(2, specs.get(0).lineNumber);
+      assertEquals("Johnny Depp", specs.get(0).params.get("actor"));
+      assertEquals("Gore Verbinski", specs.get(1).params.get("director"));
+      assertEquals("10", specs.get(2).params.get("limit"));
+   }
+
+   @Test
+   public void resultsAreWrittenInSpecOrderWithFailuresInPlace() throws Exception{
+      int threads = 2;
+      int count = threads * BatchQueryExecutor.QUERIES_IN_FLIGHT_PER_THREAD * 3;
+      int failing = 7;
+      createMovies(count);
+
+      List<BatchQueryExecutor.QuerySpec> specs = new ArrayList<>();
+      StringBuilder expected = new StringBuilder();
+      for (int i = 1; i <= count; i++) {
+         //one spec misses its parameter, the ones after it must still run and keep their place
+         String text = i == failing ? "op=2" : "op=2&title=Movie+" + i;
+         specs.add(new BatchQueryExecutor.QuerySpec(i, text));
+         expected.append("### ").append(i).append(' ').append(text).append('\n');
+         expected.append(i == failing ? "!! Missing parameter: title" : "Actor " + i).append('\n');
+      }
+
+      StringWriter out = new StringWriter();
+      BatchQueryExecutor executor;
+      try (ConnectionPool pool = new ConnectionPool(dbFile.getPath(), threads, ConnectionProfile.DEFAULT)) {
+         executor = new BatchQueryExecutor(pool, threads);
+         executor.run(specs, out);
+      }
+
+      assertEquals(expected.toString(), out.toString());
+      assertTrue(executor.report(), executor.report().startsWith(count + " queries (1 failed), " + (count - 1) + " rows"));
+   }
+}
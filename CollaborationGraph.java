@@ -0,0 +1,509 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The actor and movie graph of 'actors_to_movies' and 'movies.Director_ID', held as the
+ * compressed sparse rows of a ColumnarSnapshot, for the questions SQLite can only answer
+ * with recursive queries: degrees of separation, an actor's neighbourhood, frequent co-stars
+ * and the directors two actors have both worked with
+ *
+ * Actors are linked through the movies they share, so every hop is actor, movie, actor
+ * The traversals keep their visited marks, parents and queues in int arrays that are
+ * borrowed from a small pool and reused by later queries, and allocate nothing per edge
+ * The pool is not per thread, as QueryServer may run every request on a new virtual thread
+ */
+public class CollaborationGraph {
+
+    //degrees of separation searched before two actors are taken to be unconnected
+    static final int DEFAULT_MAX_HOPS = 6;
+
+    //traversal states kept for reuse, more are allocated when every one is in use
+    static final int MAX_POOLED_SCRATCHES = Runtime.getRuntime().availableProcessors();
+
+    //graphs kept by database file, the live generation and the previous one while queries finish on it
+    static final int MAX_SHARED_GRAPHS = 1 + DatabaseGenerations.KEEP_PREVIOUS;
+
+    //a shared graph and the data version it was loaded at
+    private static final class SharedGraph {
+        final CollaborationGraph graph;
+        final long version;
+
+        SharedGraph(CollaborationGraph graph, long version) {
+            this.graph = graph;
+            this.version = version;
+        }
+    }
+
+    //the graphs shared by the QueryDB options, each reloaded when its database's data version changes
+    private static final Map<String, SharedGraph> shared = new LinkedHashMap<String, SharedGraph>(4, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SharedGraph> eldest) {
+            return size() > MAX_SHARED_GRAPHS;
+        }
+    };
+
+    private final ColumnarSnapshot snapshot;
+    private final NameIndex actorIndex;
+    private final Queue<Scratch> scratches = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooledScratches = new AtomicInteger();
+
+    /**
+     * @param snapshot the snapshot whose cast links and directors form the graph
+     */
+    public CollaborationGraph(ColumnarSnapshot snapshot) {
+        this.snapshot = snapshot;
+        this.actorIndex = new NameIndex("graph actors", Long.MAX_VALUE);
+        for (int actor = 0; actor < snapshot.actorNames.length; actor++) {
+            //stored one above the index, as 0 is a miss
+            actorIndex.put(snapshot.actorNames[actor], actor + 1);
+        }
+    }
+
+    /**
+     * Reads the actors, movies, directors and cast links from the database into a graph
+     * @param conn connection to the SQLite database
+     * @return the graph
+     * @throws SQLException if reading a table throws an SQL error
+     */
+    public static CollaborationGraph load(Connection conn) throws SQLException {
+
+        ColumnarSnapshot.Builder builder = new ColumnarSnapshot.Builder();
+        try (PreparedStatement statement = conn.prepareStatement("SELECT Actor_ID, Name FROM actors ORDER BY Actor_ID");
+             ResultSet rs = statement.executeQuery()) {
+            while (rs.next()) builder.addActor(rs.getInt(1), rs.getString(2));
+        }
+        try (PreparedStatement statement = conn.prepareStatement("SELECT Director_ID, Name FROM directors ORDER BY Director_ID");
+             ResultSet rs = statement.executeQuery()) {
+            while (rs.next()) builder.addDirector(rs.getInt(1), rs.getString(2));
+        }
+        try (PreparedStatement statement = conn.prepareStatement("SELECT Movie_ID, Title, Director_ID FROM movies ORDER BY Movie_ID");
+             ResultSet rs = statement.executeQuery()) {
+            while (rs.next()) builder.addMovie(rs.getInt(1), rs.getString(2), null, null, rs.getInt(3));
+        }
+        try (PreparedStatement statement = conn.prepareStatement("SELECT Actor_ID, Movie_ID FROM actors_to_movies");
+             ResultSet rs = statement.executeQuery()) {
+            while (rs.next()) builder.addActorMovie(rs.getInt(1), rs.getInt(2));
+        }
+        return new CollaborationGraph(builder.build());
+    }
+
+    /**
+     * Returns the graph of a connection's database, loading it the first time
+     * and again whenever a load has changed the data since
+     * Each database file has its own graph, so while a new generation is published, queries
+     * on connections to the old and the new one do not reload each other's graph
+     * @param conn connection to the SQLite database
+     * @return the graph
+     * @throws SQLException if the graph cannot be loaded
+     */
+    public static CollaborationGraph shared(Connection conn) throws SQLException {
+        String url = conn.getMetaData().getURL();
+        long version = QueryResultCache.getDataVersion(conn);
+        synchronized (shared) {
+            SharedGraph entry = shared.get(url);
+            if (entry == null || entry.version != version) {
+                long startTime = System.nanoTime();
+                entry = new SharedGraph(load(conn), version);
+                shared.put(url, entry);
+                Metrics.recordNanos("graph_load_seconds", System.nanoTime() - startTime);
+            }
+            return entry.graph;
+        }
+    }
+
+    /**
+     * Makes a graph built elsewhere, from a SnapshotFile for instance, the shared graph of a connection's
+     * database at its current data version, so graph queries start without reading the tables
+     * A load that changes the data version replaces it with one read from the database as usual
+     * @param conn connection to the database the graph was taken from
+     * @param graph the graph
+     * @throws SQLException if the data version cannot be read
+     */
+    public static void preload(Connection conn, CollaborationGraph graph) throws SQLException {
+        String url = conn.getMetaData().getURL();
+        long version = QueryResultCache.getDataVersion(conn);
+        synchronized (shared) {
+            shared.put(url, new SharedGraph(graph, version));
+        }
+    }
+
+    /**
+     * @param name the actor's name
+     * @return the index of the actor, or -1 if they are not in the graph
+     */
+    public int actorIndex(String name) {
+        return actorIndex.get(name) - 1;
+    }
+
+    /**
+     * @param actor the index of an actor
+     * @return the actor's name
+     */
+    public String actorName(int actor) {
+        return snapshot.actorNames[actor];
+    }
+
+    /**
+     * @param movie the index of a movie
+     * @return the movie's title
+     */
+    public String movieTitle(int movie) {
+        return snapshot.titles[movie];
+    }
+
+    /**
+     * @param director the index of a director
+     * @return the director's name
+     */
+    public String directorName(int director) {
+        return snapshot.directorNames[director];
+    }
+
+    /**
+     * @return the number of actors in the graph
+     */
+    public int actorCount() {
+        return snapshot.actorIds.length;
+    }
+
+    /**
+     * @return the number of actor to movie links
+     */
+    public int edgeCount() {
+        return snapshot.actorMovies.length;
+    }
+
+    /**
+     * Finds a shortest chain of co-stars between two actors, searching from both ends at once
+     * and always growing the smaller frontier by a whole level
+     * @param from the index of the first actor
+     * @param to the index of the second actor
+     * @param maxHops the most movies the chain may pass through
+     * @return the actor and movie indexes of the chain, alternating and starting and ending
+     * with an actor, or an empty array if they are not connected within maxHops
+     */
+    public int[] shortestPath(int from, int to, int maxHops) {
+
+        if (from == to) return new int[]{from};
+        Scratch s = borrowScratch();
+        int[] result = shortestPath(s, from, to, maxHops);
+        releaseScratch(s);
+        return result;
+    }
+
+    private int[] shortestPath(Scratch s, int from, int to, int maxHops) {
+
+        int stamp = s.nextStamp();
+
+        s.forwardSeen[from] = stamp;
+        s.forwardParent[from] = -1;
+        s.backwardSeen[to] = stamp;
+        s.backwardParent[to] = -1;
+        s.forwardQueue[0] = from;
+        s.backwardQueue[0] = to;
+        int forwardSize = 1;
+        int backwardSize = 1;
+
+        for (int hops = 0; hops < maxHops && forwardSize > 0 && backwardSize > 0; hops++) {
+            int meet;
+            if (forwardSize <= backwardSize) {
+                meet = expand(s, s.forwardQueue, forwardSize, s.forwardSeen, s.forwardMovieSeen, s.forwardParent,
+                        s.forwardVia, s.backwardSeen, stamp);
+                int[] frontier = s.forwardQueue;
+                s.forwardQueue = s.nextQueue;
+                s.nextQueue = frontier;
+                forwardSize = s.nextSize;
+            } else {
+                meet = expand(s, s.backwardQueue, backwardSize, s.backwardSeen, s.backwardMovieSeen, s.backwardParent,
+                        s.backwardVia, s.forwardSeen, stamp);
+                int[] frontier = s.backwardQueue;
+                s.backwardQueue = s.nextQueue;
+                s.nextQueue = frontier;
+                backwardSize = s.nextSize;
+            }
+            if (meet >= 0) return path(s, meet);
+        }
+        return new int[0];
+    }
+
+    /**
+     * Adds the co-stars of every actor in a frontier to the next frontier
+     * @return the first actor already reached from the other end, or -1
+     */
+    private int expand(Scratch s, int[] frontier, int size, int[] seen, int[] movieSeen, int[] parent, int[] via,
+                       int[] otherSeen, int stamp) {
+        int nextSize = 0;
+        for (int i = 0; i < size; i++) {
+            int actor = frontier[i];
+            for (int m = snapshot.actorMovieOffsets[actor]; m < snapshot.actorMovieOffsets[actor + 1]; m++) {
+                int movie = snapshot.actorMovies[m];
+                //a movie's cast is only read once per side
+                if (movieSeen[movie] == stamp) continue;
+                movieSeen[movie] = stamp;
+                for (int c = snapshot.movieActorOffsets[movie]; c < snapshot.movieActorOffsets[movie + 1]; c++) {
+                    int coStar = snapshot.movieActors[c];
+                    if (seen[coStar] == stamp) continue;
+                    seen[coStar] = stamp;
+                    parent[coStar] = actor;
+                    via[coStar] = movie;
+                    if (otherSeen[coStar] == stamp) {
+                        s.nextSize = nextSize;
+                        return coStar;
+                    }
+                    s.nextQueue[nextSize++] = coStar;
+                }
+            }
+        }
+        s.nextSize = nextSize;
+        return -1;
+    }
+
+    private static int[] path(Scratch s, int meet) {
+        int forwardHops = 0;
+        for (int actor = meet; s.forwardParent[actor] >= 0; actor = s.forwardParent[actor]) forwardHops++;
+        int backwardHops = 0;
+        for (int actor = meet; s.backwardParent[actor] >= 0; actor = s.backwardParent[actor]) backwardHops++;
+
+        int[] path = new int[2 * (forwardHops + backwardHops) + 1];
+        int position = 2 * forwardHops;
+        path[position] = meet;
+        for (int actor = meet; s.forwardParent[actor] >= 0; actor = s.forwardParent[actor]) {
+            path[--position] = s.forwardVia[actor];
+            path[--position] = s.forwardParent[actor];
+        }
+        position = 2 * forwardHops;
+        for (int actor = meet; s.backwardParent[actor] >= 0; actor = s.backwardParent[actor]) {
+            path[++position] = s.backwardVia[actor];
+            path[++position] = s.backwardParent[actor];
+        }
+        return path;
+    }
+
+    /**
+     * Finds the actors within a number of hops of an actor, nearest first
+     * @param actor the index of the actor
+     * @param hops the most movies away an actor may be
+     * @param limit the most actors returned
+     * @return the indexes of the actors and, in the second array, how many hops away each is
+     * @throws IllegalArgumentException if the limit is negative
+     */
+    public int[][] neighbourhood(int actor, int hops, int limit) {
+
+        if (limit < 0) throw new IllegalArgumentException("The limit cannot be negative: " + limit);
+        Scratch s = borrowScratch();
+        int[][] result = neighbourhood(s, actor, hops, limit);
+        releaseScratch(s);
+        return result;
+    }
+
+    private int[][] neighbourhood(Scratch s, int actor, int hops, int limit) {
+
+        int stamp = s.nextStamp();
+        //the queue holds every actor reached in order, and the parent array their distance
+        int[] queue = s.forwardQueue;
+        int[] distance = s.forwardParent;
+        s.forwardSeen[actor] = stamp;
+        distance[actor] = 0;
+        queue[0] = actor;
+        int head = 0;
+        int tail = 1;
+
+        while (head < tail && tail - 1 < limit) {
+            int current = queue[head++];
+            if (distance[current] == hops) break;
+            for (int m = snapshot.actorMovieOffsets[current]; m < snapshot.actorMovieOffsets[current + 1]; m++) {
+                int movie = snapshot.actorMovies[m];
+                if (s.forwardMovieSeen[movie] == stamp) continue;
+                s.forwardMovieSeen[movie] = stamp;
+                for (int c = snapshot.movieActorOffsets[movie]; c < snapshot.movieActorOffsets[movie + 1]; c++) {
+                    int coStar = snapshot.movieActors[c];
+                    if (s.forwardSeen[coStar] == stamp) continue;
+                    s.forwardSeen[coStar] = stamp;
+                    distance[coStar] = distance[current] + 1;
+                    queue[tail++] = coStar;
+                }
+            }
+        }
+
+        int count = Math.min(tail - 1, limit);
+        int[][] result = {Arrays.copyOfRange(queue, 1, 1 + count), new int[count]};
+        for (int i = 0; i < count; i++) {
+            result[1][i] = distance[result[0][i]];
+        }
+        return result;
+    }
+
+    /**
+     * Counts the movies an actor shares with each co-star and keeps the most frequent
+     * @param actor the index of the actor
+     * @param k the number of co-stars returned
+     * @return the indexes of the co-stars, most shared movies first (ties by index),
+     * and in the second array the number of movies shared with each
+     * @throws IllegalArgumentException if k is negative
+     */
+    public int[][] topCoStars(int actor, int k) {
+
+        if (k < 0) throw new IllegalArgumentException("The number of co-stars cannot be negative: " + k);
+        Scratch s = borrowScratch();
+        int[][] result = topCoStars(s, actor, k);
+        releaseScratch(s);
+        return result;
+    }
+
+    private int[][] topCoStars(Scratch s, int actor, int k) {
+
+        int touched = 0;
+        for (int m = snapshot.actorMovieOffsets[actor]; m < snapshot.actorMovieOffsets[actor + 1]; m++) {
+            int movie = snapshot.actorMovies[m];
+            for (int c = snapshot.movieActorOffsets[movie]; c < snapshot.movieActorOffsets[movie + 1]; c++) {
+                int coStar = snapshot.movieActors[c];
+                if (coStar == actor) continue;
+                if (s.counts[coStar]++ == 0) s.touched[touched++] = coStar;
+            }
+        }
+
+        //insertion into a sorted top k, which is small next to the number of co-stars
+        int[] top = new int[Math.min(k, touched)];
+        int[] topCounts = new int[top.length];
+        int size = 0;
+        for (int i = 0; i < touched; i++) {
+            int coStar = s.touched[i];
+            int count = s.counts[coStar];
+            s.counts[coStar] = 0;
+            int position = size;
+            while (position > 0 && (topCounts[position - 1] < count
+                    || (topCounts[position - 1] == count && top[position - 1] > coStar))) position--;
+            if (position >= top.length) continue;
+            int moved = Math.min(size, top.length - 1) - position;
+            System.arraycopy(top, position, top, position + 1, moved);
+            System.arraycopy(topCounts, position, topCounts, position + 1, moved);
+            top[position] = coStar;
+            topCounts[position] = count;
+            size = Math.min(size + 1, top.length);
+        }
+        return new int[][]{top, topCounts};
+    }
+
+    /**
+     * @param first the index of one actor
+     * @param second the index of another actor
+     * @return the indexes of the directors of movies with each of the actors, in the order first reached
+     */
+    public int[] sharedDirectors(int first, int second) {
+
+        Scratch s = borrowScratch();
+        int[] result = sharedDirectors(s, first, second);
+        releaseScratch(s);
+        return result;
+    }
+
+    private int[] sharedDirectors(Scratch s, int first, int second) {
+
+        int stamp = s.nextStamp();
+        for (int m = snapshot.actorMovieOffsets[first]; m < snapshot.actorMovieOffsets[first + 1]; m++) {
+            int director = snapshot.movieDirectors[snapshot.actorMovies[m]];
+            if (director != ColumnarSnapshot.NONE) s.directorSeen[director] = stamp;
+        }
+
+        int found = 0;
+        for (int m = snapshot.actorMovieOffsets[second]; m < snapshot.actorMovieOffsets[second + 1]; m++) {
+            int director = snapshot.movieDirectors[snapshot.actorMovies[m]];
+            if (director == ColumnarSnapshot.NONE || s.directorSeen[director] != stamp) continue;
+            //marked as found, so each director is listed once
+            s.directorSeen[director] = -stamp;
+            s.touched[found++] = director;
+        }
+        return Arrays.copyOf(s.touched, found);
+    }
+
+    /**
+     * @return a pooled traversal state, or a new one if every pooled one is in use
+     */
+    private Scratch borrowScratch() {
+        Scratch s = scratches.poll();
+        if (s == null) return new Scratch(snapshot.actorIds.length, snapshot.movieIds.length, snapshot.directorIds.length);
+        pooledScratches.decrementAndGet();
+        return s;
+    }
+
+    /**
+     * Gives a traversal state back to the pool, dropping it if the pool is full
+     * Only called once a query has returned: one that throws may leave counts behind, so its state is dropped
+     */
+    private void releaseScratch(Scratch s) {
+        if (pooledScratches.incrementAndGet() > MAX_POOLED_SCRATCHES) {
+            pooledScratches.decrementAndGet();
+            return;
+        }
+        scratches.offer(s);
+    }
+
+    /**
+     * @return the size of the graph
+     */
+    public String report() {
+        return String.format("collaboration graph: %d actors, %d movies, %d directors, %d cast links",
+                snapshot.actorIds.length, snapshot.movieIds.length, snapshot.directorIds.length, edgeCount());
+    }
+
+    /**
+     * Traversal state, used by one query at a time
+     * Marks are compared with a stamp that changes on every query, so the arrays never need clearing
+     */
+    private static final class Scratch {
+        private int stamp = 0;
+        final int[] forwardSeen;
+        final int[] backwardSeen;
+        final int[] forwardMovieSeen;
+        final int[] backwardMovieSeen;
+        final int[] forwardParent;
+        final int[] backwardParent;
+        final int[] forwardVia;
+        final int[] backwardVia;
+        int[] forwardQueue;
+        int[] backwardQueue;
+        int[] nextQueue;
+        int nextSize;
+        final int[] directorSeen;
+        //counts are set back to 0 by the query that raised them
+        final int[] counts;
+        final int[] touched;
+
+        Scratch(int actors, int movies, int directors) {
+            forwardSeen = new int[actors];
+            backwardSeen = new int[actors];
+            forwardMovieSeen = new int[movies];
+            backwardMovieSeen = new int[movies];
+            forwardParent = new int[actors];
+            backwardParent = new int[actors];
+            forwardVia = new int[actors];
+            backwardVia = new int[actors];
+            forwardQueue = new int[actors];
+            backwardQueue = new int[actors];
+            nextQueue = new int[actors];
+            directorSeen = new int[directors];
+            counts = new int[actors];
+            touched = new int[Math.max(actors, directors)];
+        }
+
+        int nextStamp() {
+            if (stamp == Integer.MAX_VALUE) {
+                Arrays.fill(forwardSeen, 0);
+                Arrays.fill(backwardSeen, 0);
+                Arrays.fill(forwardMovieSeen, 0);
+                Arrays.fill(backwardMovieSeen, 0);
+                Arrays.fill(directorSeen, 0);
+                stamp = 0;
+            }
+            return ++stamp;
+        }
+    }
+}
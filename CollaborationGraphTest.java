@@ -0,0 +1,129 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class CollaborationGraphTest {
+
+   //actors 1-2 share movie 1, 2-3 movie 2, 3-4 movie 3; actor 5 is in movies 1 and 2, actor 6 is alone
+   private static CollaborationGraph chain(){
+      ColumnarSnapshot.Builder builder = new ColumnarSnapshot.Builder();
+      for (int actor = 1; actor <= 6; actor++) {
+         builder.addActor(actor, "Actor " + actor);
+      }
+      builder.addDirector(1, "Director 1");
+      builder.addDirector(2, "Director 2");
+      builder.addMovie(1, "Movie 1", null, null, 1);
+      builder.addMovie(2, "Movie 2", null, null, 2);
+      builder.addMovie(3, "Movie 3", null, null, 1);
+      builder.addMovie(4, "Movie 4", null, null, 0);
+      builder.addActorMovie(1, 1);
+      builder.addActorMovie(2, 1);
+      builder.addActorMovie(2, 2);
+      builder.addActorMovie(3, 2);
+      builder.addActorMovie(3, 3);
+      builder.addActorMovie(4, 3);
+      builder.addActorMovie(5, 1);
+      builder.addActorMovie(5, 2);
+      builder.addActorMovie(6, 4);
+      return new CollaborationGraph(builder.build());
+   }
+
+   @Test
+   public void shortestPathAlternatesActorsAndMovies(){
+      CollaborationGraph graph = chain();
+
+      int[] path = graph.shortestPath(graph.actorIndex("Actor 1"), graph.actorIndex("Actor 4"), 6);
+      assertEquals(7, path.length);
+      assertEquals("Actor 1", graph.actorName(path[0]));
+      assertEquals("Movie 1", graph.movieTitle(path[1]));
+      assertEquals("Movie 3", graph.movieTitle(path[5]));
+      assertEquals("Actor 4", graph.actorName(path[6]));
+   }
+
+   @Test
+   public void unconnectedOrTooFarActorsHaveNoPath(){
+      CollaborationGraph graph = chain();
+
+      assertEquals(0, graph.shortestPath(graph.actorIndex("Actor 1"), graph.actorIndex("Actor 6"), 6).length);
+      assertEquals(0, graph.shortestPath(graph.actorIndex("Actor 1"), graph.actorIndex("Actor 4"), 2).length);
+      assertEquals(1, graph.shortestPath(0, 0, 6).length);
+      assertEquals(-1, graph.actorIndex("Nobody"));
+   }
+
+   @Test
+   public void neighbourhoodIsNearestFirst(){
+      CollaborationGraph graph = chain();
+
+      int[][] nearby = graph.neighbourhood(graph.actorIndex("Actor 1"), 2, 100);
+      assertEquals(3, nearby[0].length);
+      assertArrayEquals(new int[]{1, 1, 2}, nearby[1]);
+      assertEquals("Actor 3", graph.actorName(nearby[0][2]));
+   }
+
+   @Test
+   public void coStarsAreRankedBySharedMovies(){
+      CollaborationGraph graph = chain();
+
+      int[][] coStars = graph.topCoStars(graph.actorIndex("Actor 2"), 2);
+      assertEquals("Actor 5", graph.actorName(coStars[0][0]));
+      assertArrayEquals(new int[]{2, 1}, coStars[1]);
+      assertEquals("Actor 1", graph.actorName(coStars[0][1]));
+   }
+
+   @Test
+   public void sharedDirectorsAreListedOnce(){
+      CollaborationGraph graph = chain();
+
+      int[] directors = graph.sharedDirectors(graph.actorIndex("Actor 1"), graph.actorIndex("Actor 3"));
+      assertEquals(1, directors.length);
+      assertEquals("Director 1", graph.directorName(directors[0]));
+      assertEquals(2, graph.sharedDirectors(graph.actorIndex("Actor 5"), graph.actorIndex("Actor 5")).length);
+   }
+
+   @Test
+   public void concurrentQueriesDoNotShareTraversalState() throws Exception{
+      CollaborationGraph graph = chain();
+      int from = graph.actorIndex("Actor 1");
+      int to = graph.actorIndex("Actor 4");
+      int[] expected = graph.shortestPath(from, to, 6);
+
+      ExecutorService executor = Executors.newFixedThreadPool(8);
+      try {
+         List<Future<int[]>> paths = new ArrayList<>();
+         for (int i = 0; i < 200; i++) {
+            paths.add(executor.submit(() -> graph.shortestPath(from, to, 6)));
+         }
+         for (Future<int[]> path : paths) {
+            assertArrayEquals(expected, path.get());
+         }
+      } finally {
+         executor.shutdownNow();
+      }
+   }
+
+   @Test
+   public void negativeLimitIsRejectedWithoutSpoilingLaterQueries(){
+      CollaborationGraph graph = chain();
+      int actor = graph.actorIndex("Actor 2");
+      int[][] expected = graph.topCoStars(actor, 5);
+
+      try {
+         graph.topCoStars(actor, -1);
+         fail("Expected a negative k to be rejected");
+      } catch (IllegalArgumentException e) {
+         //expected
+      }
+
+      int[][] again = graph.topCoStars(actor, 5);
+      assertArrayEquals(expected[0], again[0]);
+      assertArrayEquals(expected[1], again[1]);
+   }
+}
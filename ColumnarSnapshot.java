@@ -0,0 +1,559 @@
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Read-only, in-memory copy of the catalog held in primitive column arrays, for
+ * analytics that would otherwise scan SQLite's rows (ratings by genre by year,
+ * award counts by director, the award/genre/rating filters of options 5 and 6)
+ *
+ * Movies, actors, directors and awards are numbered densely from 0 in ID order.
+ * Genres are dictionary-encoded as int codes, names and titles are kept once each,
+ * and the link tables are compressed sparse rows: the targets of row i are
+ * targets[offsets[i]] to targets[offsets[i + 1] - 1]
+ * Scans run over the arrays and allocate nothing per row
+ */
+public class ColumnarSnapshot {
+
+    //marks a movie without a director or a release year
+    static final int NONE = -1;
+
+    //movie columns, by movie index
+    final int[] movieIds;
+    final String[] titles;
+    final int[] movieGenres;
+    final int[] movieYears;
+    final int[] movieDirectors;
+    final float[] movieMaxRatings;
+
+    //dictionary of the genre codes
+    final String[] genres;
+
+    final int[] actorIds;
+    final String[] actorNames;
+    final int[] directorIds;
+    final String[] directorNames;
+    final int[] awardIds;
+    final String[] awardNames;
+
+    //one entry per row of 'ratings'
+    final int[] ratingMovies;
+    final float[] ratingValues;
+
+    //adjacency of the link tables
+    final int[] actorMovieOffsets;
+    final int[] actorMovies;
+    final int[] movieActorOffsets;
+    final int[] movieActors;
+    final int[] movieAwardOffsets;
+    final int[] movieAwards;
+    final int[] actorAwardOffsets;
+    final int[] actorAwards;
+
+    ColumnarSnapshot(int[] movieIds, String[] titles, int[] movieGenres, int[] movieYears, int[] movieDirectors,
+                     String[] genres, int[] actorIds, String[] actorNames, int[] directorIds, String[] directorNames,
+                     int[] awardIds, String[] awardNames, int[] ratingMovies, float[] ratingValues,
+                     int[] actorMovieOffsets, int[] actorMovies, int[] movieActorOffsets, int[] movieActors,
+                     int[] movieAwardOffsets, int[] movieAwards, int[] actorAwardOffsets, int[] actorAwards) {
+        this.movieIds = movieIds;
+        this.titles = titles;
+        this.movieGenres = movieGenres;
+        this.movieYears = movieYears;
+        this.movieDirectors = movieDirectors;
+        this.genres = genres;
+        this.actorIds = actorIds;
+        this.actorNames = actorNames;
+        this.directorIds = directorIds;
+        this.directorNames = directorNames;
+        this.awardIds = awardIds;
+        this.awardNames = awardNames;
+        this.ratingMovies = ratingMovies;
+        this.ratingValues = ratingValues;
+        this.actorMovieOffsets = actorMovieOffsets;
+        this.actorMovies = actorMovies;
+        this.movieActorOffsets = movieActorOffsets;
+        this.movieActors = movieActors;
+        this.movieAwardOffsets = movieAwardOffsets;
+        this.movieAwards = movieAwards;
+        this.actorAwardOffsets = actorAwardOffsets;
+        this.actorAwards = actorAwards;
+
+        //the best rating of each movie, used by the rating filters
+        this.movieMaxRatings = new float[movieIds.length];
+        Arrays.fill(movieMaxRatings, Float.NaN);
+        for (int i = 0; i < ratingMovies.length; i++) {
+            int movie = ratingMovies[i];
+            if (Float.isNaN(movieMaxRatings[movie]) || ratingValues[i] > movieMaxRatings[movie]) movieMaxRatings[movie] = ratingValues[i];
+        }
+    }
+
+    /**
+     * Reads the catalog from the database into a new snapshot
+     * @param conn connection to the SQLite database
+     * @return the snapshot
+     * @throws SQLException if reading a table throws an SQL error
+     */
+    public static ColumnarSnapshot load(Connection conn) throws SQLException {
+
+        Builder builder = new Builder();
+        try (PreparedStatement statement = conn.prepareStatement("SELECT Actor_ID, Name FROM actors ORDER BY Actor_ID");
+             ResultSet rs = statement.executeQuery()) {
+            while (rs.next()) builder.addActor(rs.getInt(1), rs.getString(2));
+        }
+        try (PreparedStatement statement = conn.prepareStatement("SELECT Director_ID, Name FROM directors ORDER BY Director_ID");
+             ResultSet rs = statement.executeQuery()) {
+            while (rs.next()) builder.addDirector(rs.getInt(1), rs.getString(2));
+        }
+        try (PreparedStatement statement = conn.prepareStatement("SELECT Award_ID, Award_Name FROM awards ORDER BY Award_ID");
+             ResultSet rs = statement.executeQuery()) {
+            while (rs.next()) builder.addAward(rs.getInt(1), rs.getString(2));
+        }
+        try (PreparedStatement statement = conn.prepareStatement(
+                "SELECT Movie_ID, Title, Genre, Release_Date, Director_ID FROM movies ORDER BY Movie_ID");
+             ResultSet rs = statement.executeQuery()) {
+            while (rs.next()) {
+                int director_ID = rs.getInt(5);
+                builder.addMovie(rs.getInt(1), rs.getString(2), rs.getString(3), rs.getString(4), rs.wasNull() ? 0 : director_ID);
+            }
+        }
+        try (PreparedStatement statement = conn.prepareStatement("SELECT Movie_ID, Rating_Value FROM ratings");
+             ResultSet rs = statement.executeQuery()) {
+            while (rs.next()) builder.addRating(rs.getInt(1), rs.getDouble(2));
+        }
+        try (PreparedStatement statement = conn.prepareStatement("SELECT Actor_ID, Movie_ID FROM actors_to_movies");
+             ResultSet rs = statement.executeQuery()) {
+            while (rs.next()) builder.addActorMovie(rs.getInt(1), rs.getInt(2));
+        }
+        try (PreparedStatement statement = conn.prepareStatement("SELECT Movie_ID, Award_ID FROM movies_to_awards");
+             ResultSet rs = statement.executeQuery()) {
+            while (rs.next()) builder.addMovieAward(rs.getInt(1), rs.getInt(2));
+        }
+        try (PreparedStatement statement = conn.prepareStatement("SELECT Actor_ID, Award_ID FROM actors_to_awards");
+             ResultSet rs = statement.executeQuery()) {
+            while (rs.next()) builder.addActorAward(rs.getInt(1), rs.getInt(2));
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return the number of movies in the snapshot
+     */
+    public int movieCount() {
+        return movieIds.length;
+    }
+
+    /**
+     * @return the number of actors in the snapshot
+     */
+    public int actorCount() {
+        return actorIds.length;
+    }
+
+    /**
+     * @param genre the genre
+     * @return the code of the genre, or NONE if no movie has it
+     */
+    public int genreCode(String genre) {
+        for (int code = 0; code < genres.length; code++) {
+            if (genres[code].equals(genre)) return code;
+        }
+        return NONE;
+    }
+
+    /**
+     * Counts and sums the ratings of every movie by genre and release year
+     * @return the totals, indexed by genre code and year
+     */
+    public GenreYearRatings ratingsByGenreAndYear() {
+
+        int minYear = Integer.MAX_VALUE;
+        int maxYear = Integer.MIN_VALUE;
+        for (int year : movieYears) {
+            if (year == NONE) continue;
+            minYear = Math.min(minYear, year);
+            maxYear = Math.max(maxYear, year);
+        }
+        if (minYear > maxYear) minYear = maxYear = 0;
+
+        GenreYearRatings totals = new GenreYearRatings(genres, minYear, maxYear);
+        for (int i = 0; i < ratingMovies.length; i++) {
+            int movie = ratingMovies[i];
+            int genre = movieGenres[movie];
+            int year = movieYears[movie];
+            if (genre == NONE || year == NONE) continue;
+            totals.counts[genre][year - minYear]++;
+            totals.sums[genre][year - minYear] += ratingValues[i];
+        }
+        return totals;
+    }
+
+    /**
+     * @return the number of awards won by the movies of each director, by director index
+     */
+    public int[] awardCountsByDirector() {
+        int[] counts = new int[directorIds.length];
+        for (int movie = 0; movie < movieIds.length; movie++) {
+            int director = movieDirectors[movie];
+            if (director != NONE) counts[director] += movieAwardOffsets[movie + 1] - movieAwardOffsets[movie];
+        }
+        return counts;
+    }
+
+    /**
+     * Same result as QueryDB option 5
+     * @param genre the genre of the movies
+     * @return the names of the actors with awards who acted in a movie of the genre, in name order
+     */
+    public List<String> actorsWithAwardsInGenre(String genre) {
+
+        int code = genreCode(genre);
+        TreeSet<String> names = new TreeSet<>();
+        if (code == NONE) return new ArrayList<>(names);
+
+        for (int actor = 0; actor < actorIds.length; actor++) {
+            if (actorAwardOffsets[actor] == actorAwardOffsets[actor + 1] || actorNames[actor] == null) continue;
+            for (int i = actorMovieOffsets[actor]; i < actorMovieOffsets[actor + 1]; i++) {
+                if (movieGenres[actorMovies[i]] == code) {
+                    names.add(actorNames[actor]);
+                    break;
+                }
+            }
+        }
+        return new ArrayList<>(names);
+    }
+
+    /**
+     * Same result as QueryDB option 6
+     * @param rating the rating a movie must be above
+     * @return the names of the directors of awarded movies rated above the value, in name order
+     */
+    public List<String> directorsOfAwardedMoviesAbove(double rating) {
+
+        TreeSet<String> names = new TreeSet<>();
+        for (int movie = 0; movie < movieIds.length; movie++) {
+            int director = movieDirectors[movie];
+            if (director == NONE || movieAwardOffsets[movie] == movieAwardOffsets[movie + 1]) continue;
+            //NaN, a movie without ratings, is never above the value
+            if (movieMaxRatings[movie] > rating && directorNames[director] != null) names.add(directorNames[director]);
+        }
+        return new ArrayList<>(names);
+    }
+
+    /**
+     * @return an estimate of the heap used by the columns and strings in bytes
+     */
+    public long estimatedBytes() {
+        long bytes = 4L * (movieIds.length * 5L + actorIds.length + directorIds.length + awardIds.length
+                + ratingMovies.length * 2L + actorMovieOffsets.length + actorMovies.length + movieActorOffsets.length
+                + movieActors.length + movieAwardOffsets.length + movieAwards.length + actorAwardOffsets.length + actorAwards.length);
+        for (String[] strings : new String[][]{titles, genres, actorNames, directorNames, awardNames}) {
+            for (String value : strings) {
+                bytes += 8 + (value == null ? 0 : 40 + value.length());
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the size of each table in the snapshot and its memory use
+     */
+    public String report() {
+        return String.format("columnar snapshot: %d movies, %d actors, %d directors, %d awards, %d genres, "
+                        + "%d ratings, %d cast links, %d movie awards, %d actor awards, %.1f MB",
+                movieIds.length, actorIds.length, directorIds.length, awardIds.length, genres.length, ratingMovies.length,
+                actorMovies.length, movieAwards.length, actorAwards.length, estimatedBytes() / (1024.0 * 1024.0));
+    }
+
+    /**
+     * Rating counts and sums by genre and year
+     */
+    public static final class GenreYearRatings {
+        final String[] genres;
+        final int minYear;
+        final long[][] counts;
+        final double[][] sums;
+
+        GenreYearRatings(String[] genres, int minYear, int maxYear) {
+            this.genres = genres;
+            this.minYear = minYear;
+            this.counts = new long[genres.length][maxYear - minYear + 1];
+            this.sums = new double[genres.length][maxYear - minYear + 1];
+        }
+
+        /**
+         * @param genreCode the code of the genre
+         * @param year the release year
+         * @return the number of ratings of the genre's movies released that year
+         */
+        public long count(int genreCode, int year) {
+            int column = year - minYear;
+            if (column < 0 || column >= counts[genreCode].length) return 0;
+            return counts[genreCode][column];
+        }
+
+        /**
+         * @param genreCode the code of the genre
+         * @param year the release year
+         * @return the average rating of the genre's movies released that year, NaN if none were rated
+         */
+        public double average(int genreCode, int year) {
+            long count = count(genreCode, year);
+            return count == 0 ? Double.NaN : sums[genreCode][year - minYear] / count;
+        }
+
+        /**
+         * @return one line per genre and year that has ratings
+         */
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (int genre = 0; genre < genres.length; genre++) {
+                for (int column = 0; column < counts[genre].length; column++) {
+                    if (counts[genre][column] == 0) continue;
+                    sb.append(String.format("%-20s %d %8d ratings, average %.2f%n", genres[genre], minYear + column,
+                            counts[genre][column], sums[genre][column] / counts[genre][column]));
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Collects rows in any order and numbers them into a snapshot
+     * Entities must be added before the rows that refer to them; rows whose IDs
+     * are not in the snapshot are dropped, as the SQL joins would drop them
+     */
+    static final class Builder {
+
+        private final IntList movieIds = new IntList();
+        private final List<String> titles = new ArrayList<>();
+        private final IntList movieGenres = new IntList();
+        private final IntList movieYears = new IntList();
+        private final IntList movieDirectorIds = new IntList();
+        private final Map<String, Integer> genreCodes = new HashMap<>();
+        private final List<String> genres = new ArrayList<>();
+
+        private final IntList actorIds = new IntList();
+        private final List<String> actorNames = new ArrayList<>();
+        private final IntList directorIds = new IntList();
+        private final List<String> directorNames = new ArrayList<>();
+        private final IntList awardIds = new IntList();
+        private final List<String> awardNames = new ArrayList<>();
+
+        private final IntList ratingMovieIds = new IntList();
+        //values are kept as float bits so they are not boxed
+        private final IntList ratingValues = new IntList();
+        private final IntList actorMovieFrom = new IntList();
+        private final IntList actorMovieTo = new IntList();
+        private final IntList movieAwardFrom = new IntList();
+        private final IntList movieAwardTo = new IntList();
+        private final IntList actorAwardFrom = new IntList();
+        private final IntList actorAwardTo = new IntList();
+
+        void addMovie(int movieId, String title, String genre, String releaseDate, int directorId) {
+            movieIds.add(movieId);
+            titles.add(title);
+            if (genre == null) movieGenres.add(NONE);
+            else movieGenres.add(genreCodes.computeIfAbsent(genre, key -> {
+                genres.add(key);
+                return genres.size() - 1;
+            }));
+            movieYears.add(parseYear(releaseDate));
+            movieDirectorIds.add(directorId);
+        }
+
+        void addActor(int actorId, String name) {
+            actorIds.add(actorId);
+            actorNames.add(name);
+        }
+
+        void addDirector(int directorId, String name) {
+            directorIds.add(directorId);
+            directorNames.add(name);
+        }
+
+        void addAward(int awardId, String name) {
+            awardIds.add(awardId);
+            awardNames.add(name);
+        }
+
+        void addRating(int movieId, double value) {
+            ratingMovieIds.add(movieId);
+            ratingValues.add(Float.floatToIntBits((float) value));
+        }
+
+        void addActorMovie(int actorId, int movieId) {
+            actorMovieFrom.add(actorId);
+            actorMovieTo.add(movieId);
+        }
+
+        void addMovieAward(int movieId, int awardId) {
+            movieAwardFrom.add(movieId);
+            movieAwardTo.add(awardId);
+        }
+
+        void addActorAward(int actorId, int awardId) {
+            actorAwardFrom.add(actorId);
+            actorAwardTo.add(awardId);
+        }
+
+        ColumnarSnapshot build() {
+
+            int[] movieIndex = indexByID(movieIds);
+            int[] actorIndex = indexByID(actorIds);
+            int[] directorIndex = indexByID(directorIds);
+            int[] awardIndex = indexByID(awardIds);
+
+            int[] movieDirectors = new int[movieIds.size()];
+            for (int i = 0; i < movieDirectors.length; i++) {
+                movieDirectors[i] = lookup(directorIndex, movieDirectorIds.get(i));
+            }
+
+            IntList ratingMovies = new IntList();
+            float[] values = new float[ratingMovieIds.size()];
+            for (int i = 0; i < ratingMovieIds.size(); i++) {
+                int movie = lookup(movieIndex, ratingMovieIds.get(i));
+                if (movie == NONE) continue;
+                values[ratingMovies.size()] = Float.intBitsToFloat(ratingValues.get(i));
+                ratingMovies.add(movie);
+            }
+
+            int[][] actorMovieRows = compressedRows(actorMovieFrom, actorIndex, actorMovieTo, movieIndex, actorIds.size());
+            int[][] movieActorRows = compressedRows(actorMovieTo, movieIndex, actorMovieFrom, actorIndex, movieIds.size());
+            int[][] movieAwardRows = compressedRows(movieAwardFrom, movieIndex, movieAwardTo, awardIndex, movieIds.size());
+            int[][] actorAwardRows = compressedRows(actorAwardFrom, actorIndex, actorAwardTo, awardIndex, actorIds.size());
+
+            return new ColumnarSnapshot(movieIds.toArray(), titles.toArray(new String[0]), movieGenres.toArray(),
+                    movieYears.toArray(), movieDirectors, genres.toArray(new String[0]),
+                    actorIds.toArray(), actorNames.toArray(new String[0]), directorIds.toArray(),
+                    directorNames.toArray(new String[0]), awardIds.toArray(), awardNames.toArray(new String[0]),
+                    ratingMovies.toArray(), Arrays.copyOf(values, ratingMovies.size()),
+                    actorMovieRows[0], actorMovieRows[1], movieActorRows[0], movieActorRows[1],
+                    movieAwardRows[0], movieAwardRows[1], actorAwardRows[0], actorAwardRows[1]);
+        }
+
+        private static int parseYear(String date) {
+            if (date == null || date.length() < 4) return NONE;
+            try {
+                return Integer.parseInt(date.substring(0, 4));
+            } catch (NumberFormatException e) {
+                return NONE;
+            }
+        }
+
+        /**
+         * @return an array from ID to dense index, NONE for IDs not in the list
+         */
+        private static int[] indexByID(IntList ids) {
+            int maxId = 0;
+            for (int i = 0; i < ids.size(); i++) maxId = Math.max(maxId, ids.get(i));
+            int[] index = new int[maxId + 1];
+            Arrays.fill(index, NONE);
+            for (int i = 0; i < ids.size(); i++) index[ids.get(i)] = i;
+            return index;
+        }
+
+        private static int lookup(int[] index, int id) {
+            return id > 0 && id < index.length ? index[id] : NONE;
+        }
+
+        /**
+         * Counting sort of the link pairs into offsets and targets, dropping pairs with an unknown ID
+         */
+        private static int[][] compressedRows(IntList fromIds, int[] fromIndex, IntList toIds, int[] toIndex, int rows) {
+            int[] offsets = new int[rows + 1];
+            for (int i = 0; i < fromIds.size(); i++) {
+                int from = lookup(fromIndex, fromIds.get(i));
+                if (from != NONE && lookup(toIndex, toIds.get(i)) != NONE) offsets[from + 1]++;
+            }
+            for (int row = 0; row < rows; row++) {
+                offsets[row + 1] += offsets[row];
+            }
+
+            int[] targets = new int[offsets[rows]];
+            int[] next = Arrays.copyOf(offsets, rows);
+            for (int i = 0; i < fromIds.size(); i++) {
+                int from = lookup(fromIndex, fromIds.get(i));
+                int to = lookup(toIndex, toIds.get(i));
+                if (from != NONE && to != NONE) targets[next[from]++] = to;
+            }
+            return new int[][]{offsets, targets};
+        }
+    }
+
+    /**
+     * Growable int array, so building the columns does not box every ID
+     */
+    static final class IntList {
+        private int[] values = new int[16];
+        private int size = 0;
+
+        void add(int value) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        int get(int i) {
+            return values[i];
+        }
+
+        int size() {
+            return size;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    /**
+     * Main method: builds a snapshot of a database, or reads one written by SnapshotFile, and prints the analytics
+     * @param args database or snapshot file name
+     * @throws SQLException if the database cannot be read
+     * @throws IOException if the snapshot file cannot be read
+     */
+    public static void main(String[] args) throws SQLException, IOException {
+
+        if (args.length < 1) {
+            System.out.println("Usage: java ColumnarSnapshot <database_file_name|snapshot_file>");
+            return;
+        }
+
+        ColumnarSnapshot snapshot;
+        long startTime = System.nanoTime();
+        if (SnapshotFile.isSnapshot(new File(args[0]))) {
+            snapshot = SnapshotFile.open(new File(args[0]), true).toColumnarSnapshot();
+        } else {
+            try (Connection conn = ConnectionProfile.SERVE.openReadOnly(args[0])) {
+                snapshot = load(conn);
+            }
+        }
+        System.out.printf("Built in %.2fs%n%s%n%n", (System.nanoTime() - startTime) / 1e9, snapshot.report());
+
+        long scanStart = System.nanoTime();
+        GenreYearRatings ratings = snapshot.ratingsByGenreAndYear();
+        int[] directorAwards = snapshot.awardCountsByDirector();
+        double scanMillis = (System.nanoTime() - scanStart) / 1e6;
+
+        System.out.println("Ratings by genre and year:");
+        System.out.print(ratings);
+        System.out.println();
+        System.out.println("Directors by awards won by their movies:");
+        Integer[] order = new Integer[directorAwards.length];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Integer.compare(directorAwards[b], directorAwards[a]));
+        for (int i = 0; i < Math.min(20, order.length) && directorAwards[order[i]] > 0; i++) {
+            System.out.println(directorAwards[order[i]] + " " + snapshot.directorNames[order[i]]);
+        }
+        System.out.printf("%nScans took %.2f ms%n", scanMillis);
+    }
+}
@@ -0,0 +1,75 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ColumnarSnapshotTest {
+
+   static ColumnarSnapshot sample(){
+      ColumnarSnapshot.Builder builder = new ColumnarSnapshot.Builder();
+      builder.addActor(1, "Johnny Depp");
+      builder.addActor(2, "Keira Knightley");
+      builder.addActor(3, "Orlando Bloom");
+      builder.addDirector(1, "Gore Verbinski");
+      builder.addDirector(2, "Tim Burton");
+      builder.addAward(1, "Oscar");
+      builder.addMovie(1, "Pirates of the Caribbean", "Adventure", "2003-07-09", 1);
+      builder.addMovie(2, "Sweeney Todd", "Musical", "2007-12-21", 2);
+      builder.addMovie(3, "Edward Scissorhands", "Fantasy", "1990-12-07", 2);
+      builder.addMovie(4, "Dead Man's Chest", "Adventure", "2006-07-07", 1);
+      builder.addRating(1, 8);
+      builder.addRating(1, 6);
+      builder.addRating(2, 7);
+      builder.addRating(4, 9);
+      builder.addRating(99, 10);
+      builder.addActorMovie(1, 1);
+      builder.addActorMovie(2, 1);
+      builder.addActorMovie(1, 2);
+      builder.addActorMovie(3, 4);
+      builder.addActorMovie(1, 3);
+      builder.addMovieAward(2, 1);
+      builder.addMovieAward(3, 1);
+      builder.addActorAward(1, 1);
+      builder.addActorAward(3, 1);
+      return builder.build();
+   }
+
+   @Test
+   public void linksAreGroupedByRow(){
+      ColumnarSnapshot snapshot = sample();
+
+      assertArrayEquals(new int[]{0, 3, 4, 5}, snapshot.actorMovieOffsets);
+      int[] depp = Arrays.copyOfRange(snapshot.actorMovies, 0, 3);
+      Arrays.sort(depp);
+      assertArrayEquals(new int[]{0, 1, 2}, depp);
+      assertEquals(2, snapshot.movieActorOffsets[1] - snapshot.movieActorOffsets[0]);
+   }
+
+   @Test
+   public void ratingsOfUnknownMoviesAreDropped(){
+      ColumnarSnapshot snapshot = sample();
+
+      assertEquals(4, snapshot.ratingMovies.length);
+      ColumnarSnapshot.GenreYearRatings ratings = snapshot.ratingsByGenreAndYear();
+      int adventure = snapshot.genreCode("Adventure");
+      assertEquals(2, ratings.count(adventure, 2003));
+      assertEquals(7.0, ratings.average(adventure, 2003), 1e-9);
+      assertEquals(0, ratings.count(adventure, 1990));
+      assertTrue(Double.isNaN(ratings.average(snapshot.genreCode("Fantasy"), 1990)));
+   }
+
+   @Test
+   public void aggregatesMatchTheQueries(){
+      ColumnarSnapshot snapshot = sample();
+
+      assertArrayEquals(new int[]{0, 2}, snapshot.awardCountsByDirector());
+      List<String> actors = snapshot.actorsWithAwardsInGenre("Musical");
+      assertEquals(Arrays.asList("Johnny Depp"), actors);
+      assertEquals(Arrays.asList("Tim Burton"), snapshot.directorsOfAwardedMoviesAbove(6.5));
+      assertTrue(snapshot.directorsOfAwardedMoviesAbove(7).isEmpty());
+   }
+}
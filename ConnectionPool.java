@@ -0,0 +1,254 @@
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed-size pool of read-only connections to the SQLite database
+ * Connections are opened once and handed out to one thread at a time,
+ * each keeping its own StatementCache for the lifetime of the pool
+ *
+ * If the database is kept in generations (see DatabaseGenerations) the pool follows
+ * the live one: once a new generation is published, new borrows get connections to it,
+ * while connections already borrowed finish their query on the old generation and
+ * are closed when they are released
+ * Each generation is held (see DatabaseGenerations.hold) until its last connection is closed,
+ * so a later publish does not delete it under those queries
+ */
+public class ConnectionPool implements AutoCloseable {
+
+    //how often the pool checks whether a new generation has been published
+    static final long GENERATION_CHECK_MILLIS = 1000;
+
+    //the connections opened to one generation of the database
+    private static final class Generation {
+        final String fileName;
+        final List<Connection> connections = new ArrayList<>();
+        final BlockingQueue<Connection> idle;
+        //connections of the generation not yet closed, and whether the generation is held against pruning
+        int open = 0;
+        boolean held = false;
+
+        Generation(String fileName, int size) {
+            this.fileName = fileName;
+            this.idle = new ArrayBlockingQueue<>(size);
+        }
+    }
+
+    private final String dbFileName;
+    private final ConnectionProfile profile;
+    private final int size;
+    private volatile Generation current;
+    private final Map<Connection, Generation> owners = new ConcurrentHashMap<>();
+    private volatile long nextCheckNanos;
+
+    private final LongAdder borrows = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAdder switches = new LongAdder();
+
+    /**
+     * Opens the connections of the pool with the serve profile
+     * @param dbFileName the name of the database file
+     * @param size the number of connections
+     * @throws SQLException if a connection cannot be opened
+     */
+    public ConnectionPool(String dbFileName, int size) throws SQLException {
+        this(dbFileName, size, ConnectionProfile.SERVE);
+    }
+
+    /**
+     * Opens the connections of the pool
+     * @param dbFileName the name of the database file, or of a database kept in generations
+     * @param size the number of connections
+     * @param profile the pragmas each connection is opened with
+     * @throws SQLException if a connection cannot be opened
+     */
+    public ConnectionPool(String dbFileName, int size, ConnectionProfile profile) throws SQLException {
+        this.dbFileName = dbFileName;
+        this.profile = profile;
+        this.size = Math.max(1, size);
+        this.current = open(DatabaseGenerations.resolve(dbFileName));
+        this.nextCheckNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(GENERATION_CHECK_MILLIS);
+    }
+
+    /**
+     * Takes a connection from the pool, waiting if every connection is in use
+     * @return the connection, to be given back with release
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public Connection borrow() throws InterruptedException {
+        long startTime = System.nanoTime();
+        Connection conn;
+        while (true) {
+            followPublishedGeneration();
+            //a wait is cut short now and then, so a thread waiting on an old generation moves to the new one
+            conn = current.idle.poll(GENERATION_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+            if (conn != null) break;
+        }
+        long waited = System.nanoTime() - startTime;
+        waitNanos.add(waited);
+        Metrics.recordNanos("connection_wait_seconds", waited);
+        borrows.increment();
+        return conn;
+    }
+
+    /**
+     * Gives a connection back to the pool
+     * A connection to a generation that is no longer live is closed instead
+     * @param conn a connection taken with borrow
+     */
+    public void release(Connection conn) {
+        //checked and offered under the lock of the switch, so no connection is parked in an old generation's queue
+        synchronized (this) {
+            Generation generation = owners.get(conn);
+            if (generation == current) {
+                generation.idle.offer(conn);
+                return;
+            }
+        }
+        closeConnection(conn);
+    }
+
+    /**
+     * @return the number of connections in the pool
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the database file the pool's new connections are borrowed from
+     */
+    public String getFileName() {
+        return current.fileName;
+    }
+
+    /**
+     * @return the total time threads have spent waiting for a connection, in nanoseconds
+     */
+    public long getWaitNanos() {
+        return waitNanos.sum();
+    }
+
+    /**
+     * @return the number of borrows, the average wait for a connection and the statement cache counts
+     */
+    public String stats() {
+        long count = borrows.sum();
+        double averageWaitMillis = count > 0 ? waitNanos.sum() / 1e6 / count : 0;
+        return String.format("connection pool: %d %s connections to %s (%d generation switches), %d borrows, %.3f ms average wait%n%s",
+                size, profile.getProfileName(), current.fileName, switches.sum(), count, averageWaitMillis, StatementCache.stats());
+    }
+
+    /**
+     * Closes the cached statements and every connection of the pool
+     * @throws SQLException if a connection cannot be closed
+     */
+    @Override
+    public void close() throws SQLException {
+        for (Connection conn : new ArrayList<>(owners.keySet())) {
+            closeConnection(conn);
+        }
+        synchronized (this) {
+            unhold(current);
+            current.connections.clear();
+            current.idle.clear();
+        }
+    }
+
+    /**
+     * Switches to the live generation if a new one has been published since the last check
+     * If the new generation cannot be opened the pool stays on the one it has
+     */
+    private void followPublishedGeneration() {
+
+        long now = System.nanoTime();
+        if (now < nextCheckNanos) return;
+
+        synchronized (this) {
+            if (now < nextCheckNanos) return;
+            nextCheckNanos = now + TimeUnit.MILLISECONDS.toNanos(GENERATION_CHECK_MILLIS);
+
+            String live = DatabaseGenerations.resolve(dbFileName);
+            if (live.equals(current.fileName)) return;
+
+            Generation previous = current;
+            try {
+                current = open(live);
+            } catch (SQLException e) {
+                e.printStackTrace();
+                return;
+            }
+            switches.increment();
+            Metrics.increment("generation_switches_total");
+
+            //idle connections to the old generation are closed now, borrowed ones when they are released
+            List<Connection> idle = new ArrayList<>();
+            previous.idle.drainTo(idle);
+            for (Connection conn : idle) {
+                closeConnection(conn);
+            }
+        }
+    }
+
+    private Generation open(String fileName) throws SQLException {
+
+        //the journal mode is stored in the file, so one read-write connection switches it to WAL for every reader
+        if (profile.usesWriteAheadLog()) {
+            profile.open(fileName).close();
+        }
+
+        Generation generation = new Generation(fileName, size);
+        try {
+            DatabaseGenerations.hold(fileName);
+            generation.held = true;
+        } catch (IOException e) {
+            //the generation is still served, it is only not protected from being pruned
+            e.printStackTrace();
+        }
+        try {
+            for (int i = 0; i < size; i++) {
+                Connection conn = profile.openReadOnly(fileName);
+                generation.connections.add(conn);
+                generation.open++;
+                owners.put(conn, generation);
+            }
+        } catch (SQLException e) {
+            for (Connection conn : generation.connections) {
+                closeConnection(conn);
+            }
+            unhold(generation);
+            throw e;
+        }
+        generation.idle.addAll(generation.connections);
+        return generation;
+    }
+
+    private void closeConnection(Connection conn) {
+        Generation generation = owners.remove(conn);
+        StatementCache.close(conn);
+        try {
+            conn.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        if (generation == null) return;
+        synchronized (this) {
+            //an old generation is let go once its last connection is closed
+            if (--generation.open == 0 && generation != current) unhold(generation);
+        }
+    }
+
+    private void unhold(Generation generation) {
+        if (!generation.held) return;
+        generation.held = false;
+        DatabaseGenerations.release(generation.fileName);
+    }
+}
@@ -0,0 +1,161 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConnectionPoolTest {
+
+   File workDirectory;
+   String dbFileName;
+
+   @Before
+   public void createDatabase() throws IOException, SQLException{
+      workDirectory = Files.createTempDirectory("pool").toFile();
+      dbFileName = new File(workDirectory, "movies").getPath();
+      createDatabase(dbFileName, "plain");
+   }
+
+   @After
+   public void deleteDirectory(){
+      delete(workDirectory);
+   }
+
+   private static void delete(File file){
+      File[] children = file.listFiles();
+      if (children != null) {
+         for (File child : children) delete(child);
+      }
+      file.delete();
+   }
+
+   private static void createDatabase(String fileName, String name) throws SQLException{
+      try (Connection conn = ConnectionProfile.DEFAULT.open(fileName);
+           Statement statement = conn.createStatement()) {
+         statement.executeUpdate("CREATE TABLE source (Name TEXT)");
+         statement.executeUpdate("INSERT INTO source VALUES ('" + name + "')");
+      }
+   }
+
+   private static String source(Connection conn) throws SQLException{
+      try (ResultSet results = StatementCache.prepare(conn, "SELECT Name FROM source").executeQuery()) {
+         results.next();
+         return results.getString(1);
+      }
+   }
+
+   private String publishGeneration(String name) throws IOException, SQLException{
+      File generation = DatabaseGenerations.stage(dbFileName);
+      createDatabase(generation.getPath(), name);
+      assertTrue(DatabaseGenerations.publish(dbFileName));
+      return generation.getPath();
+   }
+
+   @Test
+   public void releasedConnectionsAreBorrowedAgain() throws InterruptedException, SQLException{
+      try (ConnectionPool pool = new ConnectionPool(dbFileName, 2)) {
+         Connection first = pool.borrow();
+         Connection second = pool.borrow();
+         assertNotSame(first, second);
+         assertEquals("plain", source(first));
+
+         pool.release(first);
+         assertSame(first, pool.borrow());
+         pool.release(first);
+         pool.release(second);
+
+         Set<Connection> borrowed = new HashSet<>(Arrays.asList(pool.borrow(), pool.borrow()));
+         assertEquals(new HashSet<>(Arrays.asList(first, second)), borrowed);
+         for (Connection conn : borrowed) pool.release(conn);
+      }
+   }
+
+   @Test
+   public void borrowWaitsForARelease() throws Exception{
+      try (ConnectionPool pool = new ConnectionPool(dbFileName, 1)) {
+         Connection conn = pool.borrow();
+         Connection[] borrowed = new Connection[1];
+         Thread waiter = new Thread(() -> {
+            try {
+               borrowed[0] = pool.borrow();
+            } catch (InterruptedException e) {
+               Thread.currentThread().interrupt();
+            }
+         });
+         waiter.start();
+         waiter.join(200);
+         assertTrue(waiter.isAlive());
+
+         pool.release(conn);
+         waiter.join(5000);
+         assertSame(conn, borrowed[0]);
+         pool.release(conn);
+      }
+   }
+
+   @Test
+   public void newBorrowsFollowAPublishedGeneration() throws Exception{
+      String first = publishGeneration("first");
+      try (ConnectionPool pool = new ConnectionPool(dbFileName, 2)) {
+         assertEquals(first, pool.getFileName());
+         Connection old = pool.borrow();
+         Connection idle = pool.borrow();
+         assertEquals("first", source(old));
+         pool.release(idle);
+
+         String second = publishGeneration("second");
+         Thread.sleep(ConnectionPool.GENERATION_CHECK_MILLIS + 100);
+
+         Connection conn = pool.borrow();
+         assertEquals(second, pool.getFileName());
+         assertEquals("second", source(conn));
+         //the idle connection to the old generation was closed at the switch
+         assertTrue(idle.isClosed());
+         assertFalse(StatementCache.isCached(idle));
+
+         //the borrowed one finishes on the old generation, which is kept until it is released
+         assertEquals("first", source(old));
+         assertTrue(DatabaseGenerations.isHeld(new File(first)));
+         pool.release(old);
+         assertTrue(old.isClosed());
+         assertFalse(StatementCache.isCached(old));
+         assertFalse(DatabaseGenerations.isHeld(new File(first)));
+         pool.release(conn);
+      }
+   }
+
+   @Test
+   public void closeEvictsTheCachesOfItsConnections() throws Exception{
+      ConnectionPool pool = new ConnectionPool(dbFileName, 2);
+      Connection idle = pool.borrow();
+      Connection borrowed = pool.borrow();
+      source(idle);
+      source(borrowed);
+      pool.release(idle);
+
+      pool.close();
+
+      assertTrue(idle.isClosed());
+      assertTrue(borrowed.isClosed());
+      assertFalse(StatementCache.isCached(idle));
+      assertFalse(StatementCache.isCached(borrowed));
+      //giving back a connection after the pool is closed leaves nothing behind either
+      pool.release(borrowed);
+      assertFalse(StatementCache.isCached(borrowed));
+   }
+}
@@ -0,0 +1,118 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+
+/**
+ * Named sets of SQLite pragmas applied when a tool opens the database
+ *
+ *   default   - SQLite's own settings: rollback journal, full sync, small page cache
+ *   bulk-load - in-memory journal, no sync, a large page cache, temporary tables in memory
+ *               and an exclusive lock, for loading into a database nothing else is reading
+ *   serve     - write-ahead log and memory-mapped reads, so many read-only connections
+ *               can query alongside one writer
+ *
+ * A crash during a bulk load can leave the database corrupt, the load has to be rerun
+ * after initialising it again
+ */
+public enum ConnectionProfile {
+
+    DEFAULT("default"),
+
+    //journal_mode=MEMORY rather than OFF so a failed bulk load can still be rolled back
+    BULK_LOAD("bulk-load",
+            "journal_mode = MEMORY",
+            "synchronous = OFF",
+            "cache_size = -262144",
+            "temp_store = MEMORY",
+            "locking_mode = EXCLUSIVE"),
+
+    SERVE("serve",
+            "journal_mode = WAL",
+            "synchronous = NORMAL",
+            "cache_size = -65536",
+            "mmap_size = 268435456",
+            "temp_store = MEMORY");
+
+    private final String profileName;
+    private final String[] pragmas;
+
+    ConnectionProfile(String profileName, String... pragmas) {
+        this.profileName = profileName;
+        this.pragmas = pragmas;
+    }
+
+    /**
+     * @return the name used to select the profile on the command line
+     */
+    public String getProfileName() {
+        return profileName;
+    }
+
+    /**
+     * Opens a read-write connection with the pragmas of the profile
+     * @param dbFileName the name of the database file
+     * @return the connection
+     * @throws SQLException if the connection cannot be opened or a pragma fails
+     */
+    public Connection open(String dbFileName) throws SQLException {
+        Connection conn = DriverManager.getConnection("jdbc:sqlite:" + dbFileName);
+        apply(conn, false);
+        return conn;
+    }
+
+    /**
+     * Opens a read-only connection with the pragmas of the profile
+     * The journal mode is left as it is, a read-only connection cannot change it;
+     * open the database once with open() to switch it to WAL
+     * @param dbFileName the name of the database file
+     * @return the connection
+     * @throws SQLException if the connection cannot be opened or a pragma fails
+     */
+    public Connection openReadOnly(String dbFileName) throws SQLException {
+        Properties properties = new Properties();
+        //SQLITE_OPEN_READONLY, read by the sqlite-jdbc driver when opening the file
+        properties.setProperty("open_mode", "1");
+        Connection conn = DriverManager.getConnection("jdbc:sqlite:" + dbFileName, properties);
+        apply(conn, true);
+        return conn;
+    }
+
+    private void apply(Connection conn, boolean readOnly) throws SQLException {
+        try (Statement statement = conn.createStatement()) {
+            for (String pragma : pragmas) {
+                if (readOnly && pragma.startsWith("journal_mode")) continue;
+                statement.execute("PRAGMA " + pragma);
+            }
+        }
+    }
+
+    /**
+     * @return true if the profile puts the database in WAL mode
+     */
+    public boolean usesWriteAheadLog() {
+        for (String pragma : pragmas) {
+            if (pragma.equals("journal_mode = WAL")) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Finds a profile by the name used on the command line
+     * @param profileName default, bulk-load or serve
+     * @return the profile
+     * @throws IllegalArgumentException if there is no profile with the name
+     */
+    public static ConnectionProfile forName(String profileName) {
+        for (ConnectionProfile profile : values()) {
+            if (profile.profileName.equals(profileName)) return profile;
+        }
+        throw new IllegalArgumentException("Unknown profile \"" + profileName + "\", expected default, bulk-load or serve");
+    }
+
+    @Override
+    public String toString() {
+        return pragmas.length == 0 ? profileName : profileName + " (" + String.join(", ", pragmas) + ")";
+    }
+}
@@ -0,0 +1,208 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.Random;
+
+/**
+ * Generates a synthetic dataset in the same CSV format as the 'data' directory,
+ * at any scale, so loads and queries can be timed on catalogs of known size
+ * The scale is the number of movies; the other files are sized from it
+ * (roughly one actor per movie, five cast members per movie, one director per five movies)
+ * The same scale and seed always give the same files
+ */
+public class DataGenerator {
+
+    static final String[] GENRES = {"Action", "Adventure", "Animation", "Comedy", "Crime", "Drama",
+            "Fantasy", "Horror", "Mystery", "Romance", "Science Fiction", "Thriller", "Western"};
+
+    static final String[] RATING_SOURCES = {"IMDb", "Rotten Tomatoes", "Metacritic"};
+
+    private static final String[] FIRST_NAMES = {"James", "Mary", "John", "Patricia", "Robert", "Jennifer",
+            "Michael", "Linda", "William", "Elizabeth", "David", "Barbara", "Richard", "Susan", "Joseph", "Jessica",
+            "Thomas", "Sarah", "Charles", "Karen", "Daniel", "Nancy", "Matthew", "Lisa", "Anthony", "Betty"};
+
+    private static final String[] LAST_NAMES = {"Smith", "Johnson", "Williams", "Brown", "Jones", "Garcia",
+            "Miller", "Davis", "Rodriguez", "Martinez", "Hernandez", "Lopez", "Gonzalez", "Wilson", "Anderson",
+            "Thomas", "Taylor", "Moore", "Jackson", "Martin", "Lee", "Perez", "Thompson", "White", "Harris"};
+
+    private static final String[] TITLE_WORDS = {"Shadow", "River", "Last", "Empire", "Night", "Storm", "Silent",
+            "Golden", "Broken", "City", "Dream", "Fire", "Lost", "Hidden", "Iron", "Winter", "Secret", "Wild"};
+
+    private final int movieCount;
+    private final int actorCount;
+    private final int directorCount;
+    private final int awardCount;
+    private final Random random;
+
+    /**
+     * @param movieCount number of movies to generate
+     * @param seed seed of the random generator
+     */
+    public DataGenerator(int movieCount, long seed) {
+        this.movieCount = Math.max(1, movieCount);
+        this.actorCount = Math.max(1, movieCount);
+        this.directorCount = Math.max(1, movieCount / 5);
+        this.awardCount = Math.max(10, movieCount / 100);
+        this.random = new Random(seed);
+    }
+
+    /**
+     * @param i index of the actor
+     * @return the unique name of the actor
+     */
+    static String actorName(int i) {
+        return personName(i, 0);
+    }
+
+    /**
+     * @param i index of the director
+     * @return the unique name of the director
+     */
+    static String directorName(int i) {
+        return personName(i, 7);
+    }
+
+    /**
+     * @param i index of the movie
+     * @return the unique title of the movie
+     */
+    static String movieTitle(int i) {
+        return "The " + TITLE_WORDS[i % TITLE_WORDS.length] + " " + TITLE_WORDS[(i / TITLE_WORDS.length) % TITLE_WORDS.length]
+                + " " + (i + 1);
+    }
+
+    /**
+     * @param i index of the award
+     * @return the unique name of the award
+     */
+    static String awardName(int i) {
+        return "Best " + GENRES[i % GENRES.length] + " Award " + (i + 1);
+    }
+
+    private static String personName(int i, int offset) {
+        String name = FIRST_NAMES[(i + offset) % FIRST_NAMES.length] + " " + LAST_NAMES[(i / FIRST_NAMES.length) % LAST_NAMES.length];
+        int combinations = FIRST_NAMES.length * LAST_NAMES.length;
+        return i < combinations ? name : name + " " + (i / combinations + 1);
+    }
+
+    /**
+     * @return the number of actors the generator writes
+     */
+    public int getActorCount() {
+        return actorCount;
+    }
+
+    /**
+     * @return the number of movies the generator writes
+     */
+    public int getMovieCount() {
+        return movieCount;
+    }
+
+    /**
+     * @return the number of awards the generator writes
+     */
+    public int getAwardCount() {
+        return awardCount;
+    }
+
+    /**
+     * @return the number of directors the generator writes
+     */
+    public int getDirectorCount() {
+        return directorCount;
+    }
+
+    /**
+     * Writes every data file into a directory
+     * @param directory the directory to write into, created if missing
+     * @return the total number of lines written
+     * @throws IOException if a file cannot be written
+     */
+    public long generate(File directory) throws IOException {
+
+        directory.mkdirs();
+        long lines = 0;
+
+        try (BufferedWriter out = writer(directory, "actors.csv")) {
+            for (int i = 0; i < actorCount; i++) {
+                LocalDate birthday = LocalDate.of(1930, 1, 1).plusDays(random.nextInt(365 * 75));
+                out.write(actorName(i) + "," + birthday + "\n");
+                lines++;
+            }
+        }
+
+        try (BufferedWriter out = writer(directory, "awards.csv")) {
+            for (int i = 0; i < awardCount; i++) {
+                out.write(awardName(i) + "\n");
+                lines++;
+            }
+        }
+
+        try (BufferedWriter movies = writer(directory, "movies.csv");
+             BufferedWriter directors = writer(directory, "directors.csv");
+             BufferedWriter ratings = writer(directory, "ratings.csv");
+             BufferedWriter movieAwards = writer(directory, "movies_to_awards.csv");
+             BufferedWriter cast = writer(directory, "actors_to_movies.csv")) {
+
+            for (int i = 0; i < movieCount; i++) {
+                String title = movieTitle(i);
+                String genre = GENRES[random.nextInt(GENRES.length)];
+                LocalDate releaseDate = LocalDate.of(1950, 1, 1).plusDays(random.nextInt(365 * 74));
+                //plots are quoted as they contain commas
+                String plot = "\"A " + genre.toLowerCase() + " story about " + actorName(random.nextInt(actorCount))
+                        + ", set in " + TITLE_WORDS[random.nextInt(TITLE_WORDS.length)] + " City.\"";
+
+                movies.write(title + "," + genre + "," + (80 + random.nextInt(100)) + " minutes," + plot + "," + releaseDate + "\n");
+                directors.write(directorName(random.nextInt(directorCount)) + "," + title + "\n");
+
+                int ratingCount = 1 + random.nextInt(2);
+                for (int r = 0; r < ratingCount; r++) {
+                    ratings.write((1 + random.nextInt(10)) + "," + RATING_SOURCES[r] + "," + title + "\n");
+                }
+
+                if (random.nextInt(4) == 0) movieAwards.write(title + "," + awardName(random.nextInt(awardCount)) + "\n");
+                else movieAwards.write(title + ",No awards\n");
+
+                for (int c = 0; c < 5; c++) {
+                    cast.write(actorName(random.nextInt(actorCount)) + "," + title + "\n");
+                }
+                lines += 3 + ratingCount + 5;
+            }
+        }
+
+        try (BufferedWriter out = writer(directory, "actors_to_awards.csv")) {
+            for (int i = 0; i < actorCount / 10; i++) {
+                out.write(actorName(random.nextInt(actorCount)) + "," + awardName(random.nextInt(awardCount)) + "\n");
+                lines++;
+            }
+        }
+
+        return lines;
+    }
+
+    private static BufferedWriter writer(File directory, String fileName) throws IOException {
+        return new BufferedWriter(new FileWriter(new File(directory, fileName)), 1 << 16);
+    }
+
+    /**
+     * Main method: writes a dataset of the given number of movies
+     * @param args the output directory, the number of movies and optionally a seed
+     * @throws IOException if a file cannot be written
+     */
+    public static void main(String[] args) throws IOException {
+
+        if (args.length < 2) {
+            System.out.println("Usage: java DataGenerator <output_directory> <number_of_movies> [seed]");
+            return;
+        }
+
+        long startTime = System.nanoTime();
+        DataGenerator generator = new DataGenerator(Integer.parseInt(args[1]), args.length > 2 ? Long.parseLong(args[2]) : 42);
+        long lines = generator.generate(new File(args[0]));
+
+        System.out.printf("Wrote %d lines to %s in %.2fs%n", lines, args[0], (System.nanoTime() - startTime) / 1e9);
+    }
+}
@@ -0,0 +1,315 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Generations of a database, so it can be reloaded while queries keep running
+ * A reload initialises and populates a new generation file next to the live one,
+ * and publishes it by atomically replacing a pointer file, so readers never see
+ * a missing or half-loaded database and never wait on the loader's locks
+ *
+ * For a database named 'movies':
+ *   movies.generations/gen-000002.db  the generation files
+ *   movies.current                    names the live generation
+ *   movies.staging                    names the generation being loaded, until it is published
+ * A database without 'movies.current' is the plain file 'movies', as before
+ *
+ * Readers resolve the name once per connection, so a query in flight finishes on the
+ * generation it started on; the previous generation is kept when one is published so
+ * those queries can finish, and older ones are deleted unless a reader still holds them
+ * (see hold), in this or any other process
+ */
+public class DatabaseGenerations {
+
+    //generations kept besides the live one, for queries still running on them
+    static final int KEEP_PREVIOUS = 1;
+
+    //generations held by readers in this process, with the shared lock taken for them and the number of holders
+    private static final Map<String, FileLock> heldLocks = new HashMap<>();
+    private static final Map<String, Integer> holders = new HashMap<>();
+
+    private DatabaseGenerations() {
+    }
+
+    /**
+     * @param dbFileName the name of the database
+     * @return the file naming the live generation
+     */
+    static File currentPointer(String dbFileName) {
+        return new File(dbFileName + ".current");
+    }
+
+    /**
+     * @param dbFileName the name of the database
+     * @return the file naming the generation being loaded
+     */
+    static File stagingPointer(String dbFileName) {
+        return new File(dbFileName + ".staging");
+    }
+
+    /**
+     * @param dbFileName the name of the database
+     * @return the directory holding the generation files
+     */
+    static File directory(String dbFileName) {
+        return new File(dbFileName + ".generations");
+    }
+
+    /**
+     * @param dbFileName the name of the database
+     * @return true if the database is kept in generations
+     */
+    public static boolean isManaged(String dbFileName) {
+        return currentPointer(dbFileName).exists() || stagingPointer(dbFileName).exists();
+    }
+
+    /**
+     * @param dbFileName the name of the database
+     * @return true if the database has a live generation or is a plain file
+     */
+    public static boolean exists(String dbFileName) {
+        return new File(resolve(dbFileName)).exists();
+    }
+
+    /**
+     * Resolves a database name to the file readers should open
+     * @param dbFileName the name of the database
+     * @return the live generation, or the name itself if the database is not kept in generations
+     */
+    public static String resolve(String dbFileName) {
+        String current = readPointer(currentPointer(dbFileName));
+        return current != null ? new File(directory(dbFileName), current).getPath() : dbFileName;
+    }
+
+    /**
+     * Resolves a database name to the file a loader should write to
+     * @param dbFileName the name of the database
+     * @return the staged generation if there is one, otherwise the same file as resolve
+     */
+    public static String resolveForWrite(String dbFileName) {
+        String staging = readPointer(stagingPointer(dbFileName));
+        return staging != null ? new File(directory(dbFileName), staging).getPath() : resolve(dbFileName);
+    }
+
+    /**
+     * @param dbFileName the name of the database
+     * @return true if a generation has been staged and not yet published
+     */
+    public static boolean isStaged(String dbFileName) {
+        return readPointer(stagingPointer(dbFileName)) != null;
+    }
+
+    /**
+     * Starts a new generation, numbered after every existing one, and records it as staged
+     * Any earlier staged generation that was never published is deleted
+     * @param dbFileName the name of the database
+     * @return the new generation file, which does not exist yet
+     * @throws IOException if the directory or the staging pointer cannot be written
+     */
+    public static File stage(String dbFileName) throws IOException {
+
+        File directory = directory(dbFileName);
+        if (!directory.isDirectory() && !directory.mkdirs()) throw new IOException("Cannot create " + directory);
+
+        String abandoned = readPointer(stagingPointer(dbFileName));
+        if (abandoned != null) deleteGeneration(new File(directory, abandoned));
+
+        int next = 1;
+        for (String name : directory.list()) {
+            int number = generationNumber(name);
+            if (number >= next) next = number + 1;
+        }
+
+        File generation = new File(directory, String.format("gen-%06d.db", next));
+        writePointer(stagingPointer(dbFileName), generation.getName());
+        return generation;
+    }
+
+    /**
+     * Publishes the staged generation: its data version is moved past the live generation's,
+     * so cached results are dropped, then the current pointer is replaced in one atomic rename
+     * Generations older than the previous one are deleted afterwards
+     * @param dbFileName the name of the database
+     * @return true if the staged generation is now live, otherwise returns false
+     */
+    public static boolean publish(String dbFileName) {
+
+        String staging = readPointer(stagingPointer(dbFileName));
+        if (staging == null) {
+            System.err.println("No generation of \"" + dbFileName + "\" has been staged");
+            return false;
+        }
+        File directory = directory(dbFileName);
+        File generation = new File(directory, staging);
+        String live = resolve(dbFileName);
+
+        try {
+            //data versions only go up, so a reader's cache never mistakes the new generation for the old one
+            long liveVersion = 0;
+            if (new File(live).exists()) {
+                try (Connection conn = ConnectionProfile.DEFAULT.openReadOnly(live)) {
+                    liveVersion = QueryResultCache.getDataVersion(conn);
+                    StatementCache.close(conn);
+                }
+            }
+            try (Connection conn = ConnectionProfile.DEFAULT.open(generation.getPath());
+                 Statement statement = conn.createStatement()) {
+                if (QueryResultCache.getDataVersion(conn) <= liveVersion) {
+                    statement.executeUpdate("PRAGMA user_version = " + (liveVersion + 1));
+                }
+                StatementCache.close(conn);
+            }
+
+            writePointer(currentPointer(dbFileName), staging);
+            Files.deleteIfExists(stagingPointer(dbFileName).toPath());
+            Metrics.increment("generations_published_total");
+            System.out.println("Published " + generation.getPath() + " as the live database");
+
+        } catch (SQLException | IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+
+        prune(directory, generationNumber(staging));
+        return true;
+    }
+
+    /**
+     * Marks a generation as in use until release is called, so it is not deleted while readers
+     * have it open: a shared lock is taken on its '.lock' file, which prune tries to lock exclusively
+     * Files that are not generations are not locked
+     * @param fileName a file returned by resolve
+     * @throws IOException if the lock file cannot be opened or locked
+     */
+    public static synchronized void hold(String fileName) throws IOException {
+        if (generationNumber(new File(fileName).getName()) == 0) return;
+        Integer count = holders.get(fileName);
+        if (count == null) {
+            //lock files of the generations in one process are locked once, Java does not allow overlapping locks
+            FileChannel channel = FileChannel.open(new File(fileName + ".lock").toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                heldLocks.put(fileName, channel.lock(0, Long.MAX_VALUE, true));
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+            count = 0;
+        }
+        holders.put(fileName, count + 1);
+    }
+
+    /**
+     * Gives up one hold of a generation taken with hold
+     * @param fileName the file given to hold
+     */
+    public static synchronized void release(String fileName) {
+        Integer count = holders.get(fileName);
+        if (count == null) return;
+        if (count > 1) {
+            holders.put(fileName, count - 1);
+            return;
+        }
+        holders.remove(fileName);
+        FileLock lock = heldLocks.remove(fileName);
+        try {
+            lock.channel().close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return true if a reader in this or another process holds the generation
+     */
+    static synchronized boolean isHeld(File generation) {
+        if (holders.containsKey(generation.getPath())) return true;
+        File lockFile = new File(generation.getPath() + ".lock");
+        if (!lockFile.exists()) return false;
+        try (FileChannel channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            FileLock lock = channel.tryLock();
+            if (lock == null) return true;
+            lock.release();
+            return false;
+        } catch (OverlappingFileLockException e) {
+            return true;
+        } catch (IOException e) {
+            //when in doubt the generation is kept, a later publish tries again
+            e.printStackTrace();
+            return true;
+        }
+    }
+
+    /**
+     * Deletes every generation older than the live one minus KEEP_PREVIOUS, except those still held by readers
+     */
+    private static void prune(File directory, int liveNumber) {
+        for (String name : directory.list()) {
+            int number = generationNumber(name);
+            if (number > 0 && number < liveNumber - KEEP_PREVIOUS && name.endsWith(".db")) {
+                File generation = new File(directory, name);
+                if (isHeld(generation)) continue;
+                deleteGeneration(generation);
+            }
+        }
+    }
+
+    /**
+     * Deletes a generation file with its journal, WAL and lock files
+     */
+    private static void deleteGeneration(File generation) {
+        for (String suffix : new String[]{"", "-journal", "-wal", "-shm", ".lock"}) {
+            File file = new File(generation.getPath() + suffix);
+            if (file.exists() && !file.delete()) System.err.println("Could not delete " + file);
+        }
+    }
+
+    /**
+     * @return the number of a generation file, or 0 if the name is not one
+     */
+    static int generationNumber(String name) {
+        if (!name.startsWith("gen-") || !name.endsWith(".db")) return 0;
+        try {
+            return Integer.parseInt(name.substring(4, name.length() - 3));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * @return the generation named in a pointer file, or null if there is none
+     */
+    static String readPointer(File pointer) {
+        try {
+            String name = new String(Files.readAllBytes(pointer.toPath()), StandardCharsets.UTF_8).trim();
+            return name.isEmpty() ? null : name;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Replaces a pointer file in one rename, so it is never seen half written
+     */
+    static void writePointer(File pointer, String generation) throws IOException {
+        File parent = pointer.getAbsoluteFile().getParentFile();
+        File temp = File.createTempFile(pointer.getName(), ".tmp", parent);
+        try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap((generation + "\n").getBytes(StandardCharsets.UTF_8)));
+            channel.force(true);
+        }
+        Files.move(temp.toPath(), pointer.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
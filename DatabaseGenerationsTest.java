@@ -0,0 +1,111 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DatabaseGenerationsTest {
+
+   File workDirectory;
+   String dbFileName;
+
+   @Before
+   public void createDirectory() throws IOException{
+      workDirectory = Files.createTempDirectory("generations").toFile();
+      dbFileName = new File(workDirectory, "movies").getPath();
+   }
+
+   @After
+   public void deleteDirectory(){
+      delete(workDirectory);
+   }
+
+   private static void delete(File file){
+      File[] children = file.listFiles();
+      if (children != null) {
+         for (File child : children) delete(child);
+      }
+      file.delete();
+   }
+
+   @Test
+   public void plainDatabaseResolvesToItself(){
+      assertFalse(DatabaseGenerations.isManaged(dbFileName));
+      assertEquals(dbFileName, DatabaseGenerations.resolve(dbFileName));
+      assertEquals(dbFileName, DatabaseGenerations.resolveForWrite(dbFileName));
+   }
+
+   @Test
+   public void stagedGenerationIsOnlyWrittenTo() throws IOException{
+      File generation = DatabaseGenerations.stage(dbFileName);
+
+      assertEquals("gen-000001.db", generation.getName());
+      assertTrue(DatabaseGenerations.isManaged(dbFileName));
+      assertTrue(DatabaseGenerations.isStaged(dbFileName));
+      assertEquals(generation.getPath(), DatabaseGenerations.resolveForWrite(dbFileName));
+      //readers stay on the plain file until the generation is published
+      assertEquals(dbFileName, DatabaseGenerations.resolve(dbFileName));
+   }
+
+   @Test
+   public void readersFollowTheCurrentPointer() throws IOException{
+      DatabaseGenerations.writePointer(DatabaseGenerations.currentPointer(dbFileName), "gen-000003.db");
+
+      assertEquals(new File(DatabaseGenerations.directory(dbFileName), "gen-000003.db").getPath(),
+            DatabaseGenerations.resolve(dbFileName));
+   }
+
+   @Test
+   public void newGenerationsAreNumberedAfterExistingOnes() throws IOException{
+      File directory = DatabaseGenerations.directory(dbFileName);
+      directory.mkdirs();
+      new File(directory, "gen-000007.db").createNewFile();
+      new File(directory, "gen-000007.db-wal").createNewFile();
+
+      assertEquals("gen-000008.db", DatabaseGenerations.stage(dbFileName).getName());
+   }
+
+   @Test
+   public void restagingReplacesAnUnpublishedGeneration() throws IOException{
+      File abandoned = DatabaseGenerations.stage(dbFileName);
+      abandoned.createNewFile();
+
+      File generation = DatabaseGenerations.stage(dbFileName);
+
+      assertFalse(abandoned.exists());
+      assertEquals(generation.getPath(), DatabaseGenerations.resolveForWrite(dbFileName));
+   }
+
+   @Test
+   public void parsesGenerationNumbers(){
+      assertEquals(12, DatabaseGenerations.generationNumber("gen-000012.db"));
+      assertEquals(0, DatabaseGenerations.generationNumber("gen-000012.db-wal"));
+      assertEquals(0, DatabaseGenerations.generationNumber("movies.db"));
+      assertNull(DatabaseGenerations.readPointer(new File(workDirectory, "missing")));
+   }
+
+   @Test
+   public void heldGenerationsAreNotPrunable() throws IOException{
+      File generation = DatabaseGenerations.stage(dbFileName);
+      generation.createNewFile();
+
+      DatabaseGenerations.hold(generation.getPath());
+      DatabaseGenerations.hold(generation.getPath());
+      assertTrue(DatabaseGenerations.isHeld(generation));
+      DatabaseGenerations.release(generation.getPath());
+      assertTrue(DatabaseGenerations.isHeld(generation));
+      DatabaseGenerations.release(generation.getPath());
+      assertFalse(DatabaseGenerations.isHeld(generation));
+
+      //a plain database is not a generation and is never locked
+      DatabaseGenerations.hold(dbFileName);
+      assertFalse(new File(dbFileName + ".lock").exists());
+   }
+}
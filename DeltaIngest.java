@@ -0,0 +1,356 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.zip.CRC32C;
+
+/**
+ * Incremental, idempotent ingest of the data directory into an existing database
+ * Rows are upserted against unique natural keys (actor name, movie title, award name,
+ * and the ID pairs of the link tables), so running it twice changes nothing
+ * and link rows are never duplicated
+ * Each file's size, checksum and ingested byte offset are kept in 'ingest_manifest':
+ * unchanged files are skipped, files that only had rows appended are read from
+ * where the last ingest stopped, and any other change re-upserts the whole file
+ */
+public class DeltaIngest {
+
+    /**
+     * Binds one record of a data file to the upsert statement of its table
+     */
+    interface RecordBinder {
+
+        /**
+         * @param record the reader, positioned on the record
+         * @param statement the upsert statement
+         * @param resolver dictionaries for the foreign keys, null while loading entity tables
+         * @return false if the record is skipped
+         */
+        boolean bind(MappedCsvReader record, PreparedStatement statement, IDResolver resolver) throws SQLException;
+    }
+
+    //a data file, the statement that upserts its rows and how a record is bound to it
+    //records of files with a typed row are parsed and validated into it before they are bound
+    private static final class FileSpec {
+        final String fileName;
+        final String upsertSQL;
+        final TypedRows.Row row;
+        final RecordBinder binder;
+
+        FileSpec(String fileName, String upsertSQL, RecordBinder binder) {
+            this(fileName, upsertSQL, null, binder);
+        }
+
+        FileSpec(String fileName, String upsertSQL, TypedRows.Row row, RecordBinder binder) {
+            this.fileName = fileName;
+            this.upsertSQL = upsertSQL;
+            this.row = row;
+            this.binder = binder;
+        }
+    }
+
+    //typed rows reused for every record of their file, each ingest has its own and runs on a single thread
+    private final TypedRows.ActorRow actorRow = new TypedRows.ActorRow();
+    private final TypedRows.AwardRow awardRow = new TypedRows.AwardRow();
+    private final TypedRows.MovieRow movieRow = new TypedRows.MovieRow();
+    private final TypedRows.RatingRow ratingRow = new TypedRows.RatingRow();
+
+    //entity tables, upserted before the link tables that reference them
+    private final FileSpec[] entityFiles = {
+        new FileSpec("actors.csv",
+                "INSERT INTO actors(Name, Birthday) VALUES(?, ?) " +
+                "ON CONFLICT(Name) DO UPDATE SET Birthday = excluded.Birthday WHERE Birthday IS NOT excluded.Birthday",
+                actorRow, (record, statement, resolver) -> bindRow(actorRow, statement)),
+        new FileSpec("awards.csv",
+                "INSERT INTO awards(Award_Name) VALUES(?) ON CONFLICT(Award_Name) DO NOTHING",
+                awardRow, (record, statement, resolver) -> bindRow(awardRow, statement)),
+        new FileSpec("movies.csv",
+                "INSERT INTO movies(Title, Genre, Running_Time, Plot, Release_Date) VALUES(?, ?, ?, ?, ?) " +
+                "ON CONFLICT(Title) DO UPDATE SET Genre = excluded.Genre, Running_Time = excluded.Running_Time, " +
+                "Plot = excluded.Plot, Release_Date = excluded.Release_Date",
+                movieRow, (record, statement, resolver) -> bindRow(movieRow, statement)),
+    };
+
+    //link tables, ratings and the directors of the movies, whose names are resolved to IDs
+    private final FileSpec[] linkFiles = {
+        new FileSpec("directors.csv",
+                "UPDATE movies SET Director_ID = ? WHERE Movie_ID = ?",
+                (record, statement, resolver) -> {
+                    int movie_ID = resolver.getMovieID(record.field(1));
+                    return movie_ID != 0 && bindIDs(statement, resolver.getOrInsertDirectorID(record.field(0)), movie_ID);
+                }),
+        new FileSpec("actors_to_movies.csv",
+                "INSERT INTO actors_to_movies(Actor_ID, Movie_ID) VALUES(?, ?) ON CONFLICT DO NOTHING",
+                (record, statement, resolver) -> bindIDs(statement, resolver.getActorID(record.field(0)), resolver.getMovieID(record.field(1)))),
+        new FileSpec("movies_to_awards.csv",
+                "INSERT INTO movies_to_awards(Movie_ID, Award_ID) VALUES(?, ?) ON CONFLICT DO NOTHING",
+                (record, statement, resolver) -> !"No awards".contentEquals(record.field(1))
+                        && bindIDs(statement, resolver.getMovieID(record.field(0)), resolver.getAwardID(record.field(1)))),
+        new FileSpec("actors_to_awards.csv",
+                "INSERT INTO actors_to_awards(Actor_ID, Award_ID) VALUES(?, ?) ON CONFLICT DO NOTHING",
+                (record, statement, resolver) -> bindIDs(statement, resolver.getActorID(record.field(0)), resolver.getAwardID(record.field(1)))),
+        new FileSpec("ratings.csv",
+                "INSERT INTO ratings(Rating_Value, Rating_Source, Movie_ID) VALUES(?, ?, ?) " +
+                "ON CONFLICT(Movie_ID, COALESCE(Rating_Source, '')) DO UPDATE SET Rating_Value = excluded.Rating_Value",
+                ratingRow, (record, statement, resolver) -> {
+                    ratingRow.movieID = resolver.getMovieID(ratingRow.title);
+                    return ratingRow.movieID != 0 && bindRow(ratingRow, statement);
+                }),
+    };
+
+    //link tables whose duplicate rows are removed before their unique index is created,
+    //grouped by the same key as the index
+    private static final String[][] LINK_KEYS = {
+        {"actors_to_movies", "Actor_ID, Movie_ID", "ux_actors_to_movies"},
+        {"actors_to_awards", "Actor_ID, Award_ID", "ux_actors_to_awards"},
+        {"movies_to_awards", "Movie_ID, Award_ID", "ux_movies_to_awards"},
+        {"ratings", "Movie_ID, COALESCE(Rating_Source, '')", "ux_ratings_movie_source_key"},
+    };
+
+    private final Connection conn;
+    private final File dataDirectory;
+    private final int batchSize;
+    private final long dictionaryBytes;
+    private final RejectFile rejects;
+    private int filesIngested = 0;
+
+    /**
+     * @param conn connection to the SQLite database
+     * @param dataDirectory the directory holding the data files
+     * @param batchSize number of rows sent per executeBatch call
+     * @param dictionaryBytes memory budget for the name to ID dictionaries
+     * @param rejects where records that fail validation are recorded
+     */
+    public DeltaIngest(Connection conn, File dataDirectory, int batchSize, long dictionaryBytes, RejectFile rejects) {
+        this.conn = conn;
+        this.dataDirectory = dataDirectory;
+        this.batchSize = Math.max(1, batchSize);
+        this.dictionaryBytes = dictionaryBytes;
+        this.rejects = rejects;
+    }
+
+    /**
+     * Creates the manifest table and the unique natural-key indexes the upserts rely on
+     * Duplicate link rows left by earlier full loads are removed first; duplicate
+     * names in the entity tables cannot be merged automatically and are reported
+     * @return true if every natural key is in place, otherwise returns false
+     */
+    public boolean ensureNaturalKeys() {
+
+        try (Statement statement = conn.createStatement()) {
+            for (String[] link : LINK_KEYS) {
+                if (!indexExists(link[2])) {
+                    int removed = statement.executeUpdate("DELETE FROM " + link[0] + " WHERE rowid NOT IN "
+                            + "(SELECT MIN(rowid) FROM " + link[0] + " GROUP BY " + link[1] + ")");
+                    if (removed > 0) System.out.println("Removed " + removed + " duplicate rows from " + link[0]);
+                }
+            }
+            statement.executeUpdate(InitialiseDB.readScript("natural_keys.sql"));
+            if (!conn.getAutoCommit()) conn.commit();
+            return true;
+
+        } catch (SQLException | IOException e) {
+            System.err.println("Natural keys could not be created, check the entity tables for duplicate names: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Ingests every new or changed data file, entity tables first
+     * Each file is committed together with its manifest row
+     * @return true if every file was ingested or skipped, otherwise returns false
+     * @throws SQLException if a transaction cannot be committed or rolled back
+     * @throws IOException if a data file cannot be read
+     */
+    public boolean run() throws SQLException, IOException {
+
+        if (!ensureNaturalKeys()) return false;
+        filesIngested = 0;
+
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        boolean success = true;
+
+        try {
+            for (FileSpec spec : entityFiles) {
+                success &= ingestFile(spec, null);
+            }
+
+            IDResolver resolver = IDResolver.build(conn, dictionaryBytes);
+            for (FileSpec spec : linkFiles) {
+                success &= ingestFile(spec, resolver);
+            }
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+        return success;
+    }
+
+    /**
+     * @return the number of files with new or changed rows in the last run
+     */
+    public int getFilesIngested() {
+        return filesIngested;
+    }
+
+    /**
+     * Upserts the new rows of one data file, or skips it if it has not changed
+     */
+    private boolean ingestFile(FileSpec spec, IDResolver resolver) throws SQLException, IOException {
+
+        File file = new File(dataDirectory, spec.fileName);
+        if (!file.exists()) return true;
+
+        long[] previous = readManifest(spec.fileName);
+        long size = file.length();
+        long startOffset = 0;
+
+        //checksum of the bytes ingested last time, and of the whole file now, in one pass
+        long[] checksums = checksum(file, previous == null ? -1 : previous[1]);
+        if (previous != null) {
+            if (previous[0] == size && previous[2] == checksums[1]) {
+                System.out.println(spec.fileName + ": unchanged, skipped");
+                return true;
+            }
+            //the old contents are still at the start of the file, so only appended rows are new
+            if (size > previous[1] && previous[2] == checksums[0]) startOffset = previous[1];
+        }
+
+        long upserted = 0;
+        long skipped = 0;
+        long startTime = System.nanoTime();
+
+        try (BatchInserter inserter = new BatchInserter(spec.fileName.replace(".csv", ""), conn.prepareStatement(spec.upsertSQL), batchSize);
+             MappedCsvReader reader = new MappedCsvReader(file)) {
+
+            reader.seek(startOffset);
+            while (reader.next()) {
+                if (spec.row != null) {
+                    String reason = spec.row.parse(reader);
+                    if (reason != null) {
+                        rejects.reject(spec.fileName, reader, reason);
+                        skipped++;
+                        continue;
+                    }
+                } else if (reader.fieldCount() < 2) {
+                    skipped++;
+                    continue;
+                }
+                if (!spec.binder.bind(reader, inserter.getStatement(), resolver)) {
+                    Metrics.increment("rows_skipped_total", "table", spec.fileName.replace(".csv", ""), "reason", "unbound");
+                    skipped++;
+                    continue;
+                }
+                //an upsert that changes nothing affects no rows, which is not a failure here
+                inserter.addRow();
+                upserted++;
+            }
+            inserter.flush();
+            writeManifest(spec.fileName, size, reader.position(), checksums[1]);
+            long commitStart = System.nanoTime();
+            QueryResultCache.bumpDataVersion(conn);
+            conn.commit();
+            Metrics.recordNanos("commit_seconds", System.nanoTime() - commitStart, "table", spec.fileName.replace(".csv", ""));
+
+        } catch (SQLException | RuntimeException e) {
+            conn.rollback();
+            System.err.println(spec.fileName + ": ingest failed and was rolled back: " + e.getMessage());
+            return false;
+        }
+
+        filesIngested++;
+        System.out.printf("%s: %d rows upserted, %d skipped from byte %d (%.2fs)%n", spec.fileName, upserted, skipped,
+                startOffset, (System.nanoTime() - startTime) / 1e9);
+        return true;
+    }
+
+    /**
+     * @return size, byte offset and checksum recorded for the file, or null if it has never been ingested
+     */
+    private long[] readManifest(String fileName) throws SQLException {
+        try (PreparedStatement statement = conn.prepareStatement("SELECT Size, Byte_Offset, Checksum FROM ingest_manifest WHERE File_Name = ?")) {
+            statement.setString(1, fileName);
+            try (ResultSet rs = statement.executeQuery()) {
+                if (!rs.next()) return null;
+                return new long[]{rs.getLong("Size"), rs.getLong("Byte_Offset"), rs.getLong("Checksum")};
+            }
+        }
+    }
+
+    private void writeManifest(String fileName, long size, long offset, long checksum) throws SQLException {
+        try (PreparedStatement statement = conn.prepareStatement(
+                "INSERT INTO ingest_manifest(File_Name, Size, Byte_Offset, Checksum, Ingested_At) VALUES(?, ?, ?, ?, datetime('now')) " +
+                "ON CONFLICT(File_Name) DO UPDATE SET Size = excluded.Size, Byte_Offset = excluded.Byte_Offset, " +
+                "Checksum = excluded.Checksum, Ingested_At = excluded.Ingested_At")) {
+            statement.setString(1, fileName);
+            statement.setLong(2, size);
+            statement.setLong(3, offset);
+            statement.setLong(4, checksum);
+            statement.executeUpdate();
+        }
+    }
+
+    private boolean indexExists(String indexName) throws SQLException {
+        try (PreparedStatement statement = conn.prepareStatement("SELECT 1 FROM sqlite_master WHERE type = 'index' AND name = ?")) {
+            statement.setString(1, indexName);
+            try (ResultSet rs = statement.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    /**
+     * Computes the CRC32C of the first 'prefixLength' bytes and of the whole file in one read
+     * @param file the data file
+     * @param prefixLength length of the prefix, or -1 if no prefix checksum is needed
+     * @return the prefix checksum (or -1) and the whole-file checksum
+     * @throws IOException if the file cannot be read
+     */
+    static long[] checksum(File file, long prefixLength) throws IOException {
+
+        CRC32C crc = new CRC32C();
+        long prefixChecksum = -1;
+        long read = 0;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (prefixLength == 0) prefixChecksum = crc.getValue();
+            int n;
+            while ((n = channel.read(buffer)) > 0) {
+                buffer.flip();
+                if (prefixLength > read && prefixLength < read + n) {
+                    //the prefix ends inside this block
+                    int prefixBytes = (int) (prefixLength - read);
+                    ByteBuffer prefix = buffer.duplicate();
+                    prefix.limit(prefixBytes);
+                    crc.update(prefix);
+                    prefixChecksum = crc.getValue();
+                    buffer.position(prefixBytes);
+                }
+                crc.update(buffer);
+                read += n;
+                if (read == prefixLength) prefixChecksum = crc.getValue();
+                buffer.clear();
+            }
+        }
+        return new long[]{prefixChecksum, crc.getValue()};
+    }
+
+    private static boolean bindRow(TypedRows.Row row, PreparedStatement statement) throws SQLException {
+        row.bind(statement);
+        return true;
+    }
+
+    private static boolean bindIDs(PreparedStatement statement, int firstID, int secondID) throws SQLException {
+        if (firstID == 0 || secondID == 0) return false;
+        statement.setInt(1, firstID);
+        statement.setInt(2, secondID);
+        return true;
+    }
+}
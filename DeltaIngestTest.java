@@ -0,0 +1,172 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DeltaIngestTest {
+
+   File csvFile;
+   File dataDirectory;
+   File dbFile;
+
+   @Before
+   public void createFile() throws IOException{
+      csvFile = File.createTempFile("delta-ingest", ".csv");
+      dataDirectory = Files.createTempDirectory("delta-ingest-data").toFile();
+      dbFile = File.createTempFile("delta-ingest", ".db");
+   }
+
+   @After
+   public void deleteFile(){
+      csvFile.delete();
+      for (File file : dataDirectory.listFiles()) file.delete();
+      dataDirectory.delete();
+      dbFile.delete();
+   }
+
+   private void writeData(String fileName, String contents) throws IOException{
+      Files.write(new File(dataDirectory, fileName).toPath(), contents.getBytes(StandardCharsets.UTF_8));
+   }
+
+   private void appendData(String fileName, String contents) throws IOException{
+      Files.write(new File(dataDirectory, fileName).toPath(), contents.getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+   }
+
+   //runs one ingest of the data directory, returning the number of files with new or changed rows
+   private int ingest() throws SQLException, IOException{
+      try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + dbFile.getPath())) {
+         DeltaIngest ingest = new DeltaIngest(conn, dataDirectory, 100, 1 << 20, new RejectFile(null));
+         assertTrue(ingest.run());
+         StatementCache.close(conn);
+         return ingest.getFilesIngested();
+      }
+   }
+
+   private String query(String sql) throws SQLException{
+      try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + dbFile.getPath());
+           Statement statement = conn.createStatement();
+           ResultSet rs = statement.executeQuery(sql)) {
+         return rs.next() ? rs.getString(1) : null;
+      }
+   }
+
+   private void update(String sql) throws SQLException{
+      try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + dbFile.getPath());
+           Statement statement = conn.createStatement()) {
+         statement.executeUpdate(sql);
+      }
+   }
+
+   private void loadSample() throws SQLException, IOException{
+      InitialiseDB.initialiseDB(dbFile.getPath());
+      writeData("actors.csv", "Johnny Depp,1963-06-09\nOrlando Bloom,1977-01-13\n");
+      writeData("movies.csv", "Pirates of the Caribbean,Action,143,Pirates,2003-07-09\n");
+      writeData("ratings.csv", "8.1,IMDb,Pirates of the Caribbean\n6,,Pirates of the Caribbean\n");
+      assertEquals(3, ingest());
+   }
+
+   @Test
+   public void prefixChecksumMatchesChecksumBeforeAppend() throws IOException{
+      Files.write(csvFile.toPath(), "Johnny Depp,1963-06-09\n".getBytes(StandardCharsets.UTF_8));
+      long before = DeltaIngest.checksum(csvFile, -1)[1];
+      long length = csvFile.length();
+
+      Files.write(csvFile.toPath(), "Keira Knightley,1985-03-26\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+      long[] after = DeltaIngest.checksum(csvFile, length);
+
+      assertEquals(before, after[0]);
+      assertEquals(DeltaIngest.checksum(csvFile, -1)[1], after[1]);
+   }
+
+   @Test
+   public void prefixChecksumDetectsRewrittenRows() throws IOException{
+      Files.write(csvFile.toPath(), "Johnny Depp,1963-06-09\n".getBytes(StandardCharsets.UTF_8));
+      long before = DeltaIngest.checksum(csvFile, -1)[1];
+      long length = csvFile.length();
+
+      Files.write(csvFile.toPath(), "Johnny Depp,1963-06-10\nKeira Knightley,1985-03-26\n".getBytes(StandardCharsets.UTF_8));
+
+      assertNotEquals(before, DeltaIngest.checksum(csvFile, length)[0]);
+   }
+
+   @Test
+   public void rerunWithoutChangesIsANoOp() throws SQLException, IOException{
+      loadSample();
+
+      assertEquals(0, ingest());
+      assertEquals("2", query("SELECT COUNT(*) FROM actors"));
+      assertEquals("2", query("SELECT COUNT(*) FROM ratings"));
+   }
+
+   @Test
+   public void appendedRowsAreReadFromTheStoredOffset() throws SQLException, IOException{
+      loadSample();
+      //a row before the offset is not upserted again, so a change made to it in the database stays
+      update("UPDATE actors SET Birthday = '2000-01-01' WHERE Name = 'Johnny Depp'");
+
+      appendData("actors.csv", "Keira Knightley,1985-03-26\n");
+      assertEquals(1, ingest());
+
+      assertEquals("3", query("SELECT COUNT(*) FROM actors"));
+      assertEquals("2000-01-01", query("SELECT Birthday FROM actors WHERE Name = 'Johnny Depp'"));
+      assertEquals(String.valueOf(new File(dataDirectory, "actors.csv").length()),
+            query("SELECT Byte_Offset FROM ingest_manifest WHERE File_Name = 'actors.csv'"));
+   }
+
+   @Test
+   public void editedFileIsUpsertedAgainWithoutDuplicates() throws SQLException, IOException{
+      loadSample();
+      update("UPDATE actors SET Birthday = '2000-01-01' WHERE Name = 'Orlando Bloom'");
+
+      writeData("actors.csv", "Johnny Depp,1963-06-10\nOrlando Bloom,1977-01-13\n");
+      writeData("ratings.csv", "8.2,IMDb,Pirates of the Caribbean\n6,,Pirates of the Caribbean\n");
+      assertEquals(2, ingest());
+
+      assertEquals("2", query("SELECT COUNT(*) FROM actors"));
+      assertEquals("1963-06-10", query("SELECT Birthday FROM actors WHERE Name = 'Johnny Depp'"));
+      //the whole file was read again, so the row after the edit is back to the file's values
+      assertEquals("1977-01-13", query("SELECT Birthday FROM actors WHERE Name = 'Orlando Bloom'"));
+      assertEquals("2", query("SELECT COUNT(*) FROM ratings"));
+      assertEquals("8.2", query("SELECT Rating_Value FROM ratings WHERE Rating_Source = 'IMDb'"));
+   }
+
+   @Test
+   public void ratingWithoutSourceIsUpsertedInPlace() throws SQLException, IOException{
+      loadSample();
+
+      for (String value : new String[]{"7", "7.5", "5"}) {
+         writeData("ratings.csv", "8.1,IMDb,Pirates of the Caribbean\n" + value + ",,Pirates of the Caribbean\n");
+         assertEquals(1, ingest());
+      }
+
+      assertEquals("1", query("SELECT COUNT(*) FROM ratings WHERE Rating_Source IS NULL"));
+      assertEquals("5.0", query("SELECT Rating_Value FROM ratings WHERE Rating_Source IS NULL"));
+   }
+
+   @Test
+   public void duplicateRatingsWithoutSourceAreRemovedBeforeKeying() throws SQLException, IOException{
+      InitialiseDB.initialiseDB(dbFile.getPath());
+      update("INSERT INTO movies(Title) VALUES('Pirates of the Caribbean')");
+      update("INSERT INTO ratings(Rating_Value, Rating_Source, Movie_ID) VALUES(6, NULL, 1), (7, NULL, 1), (8, 'IMDb', 1)");
+
+      try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + dbFile.getPath())) {
+         assertTrue(new DeltaIngest(conn, dataDirectory, 100, 1 << 20, new RejectFile(null)).ensureNaturalKeys());
+      }
+
+      assertEquals("2", query("SELECT COUNT(*) FROM ratings"));
+   }
+}
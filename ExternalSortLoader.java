@@ -0,0 +1,374 @@
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Comparator;
+
+/**
+ * Loads the many-many tables, 'ratings' and the directors of the movies without
+ * holding a name to ID dictionary in memory, for datasets whose names do not fit the heap
+ *
+ * Each link file is sorted on disk by the name in its first column (ExternalSorter),
+ * then merge-joined with the entity table read in the same order through its name index,
+ * which is built first; the rows are re-sorted by the second name and joined
+ * again, and finally sorted by their IDs so they are written in primary-key order
+ * SQLite's own sorts (building the indexes) use temporary files while the loader runs,
+ * whatever temp_store the connection profile sets
+ * Only the memory budget given is used for buffering, whatever the size of the files
+ */
+public class ExternalSortLoader {
+
+    //an entity table read in name order, the first ID of a duplicated name wins as in IDResolver
+    private static final class Entity {
+        final String name;
+        final String query;
+
+        Entity(String name, String query) {
+            this.name = name;
+            this.query = query;
+        }
+    }
+
+    private static final Entity ACTOR = new Entity("actor",
+            "SELECT Name, Actor_ID FROM actors WHERE Name IS NOT NULL ORDER BY Name, Actor_ID");
+    private static final Entity MOVIE = new Entity("movie",
+            "SELECT Title, Movie_ID FROM movies WHERE Title IS NOT NULL ORDER BY Title, Movie_ID");
+    private static final Entity AWARD = new Entity("award",
+            "SELECT Award_Name, Award_ID FROM awards WHERE Award_Name IS NOT NULL ORDER BY Award_Name, Award_ID");
+    private static final Entity DIRECTOR = new Entity("director",
+            "SELECT Name, Director_ID FROM directors WHERE Name IS NOT NULL ORDER BY Name, Director_ID");
+
+    //the name indexes of indexes.sql, built before the joins so the entity tables are read in name order without a sort
+    private static final String[] NAME_INDEXES = {
+        "CREATE INDEX IF NOT EXISTS idx_actors_name ON actors(Name)",
+        "CREATE INDEX IF NOT EXISTS idx_movies_title ON movies(Title)",
+        "CREATE INDEX IF NOT EXISTS idx_awards_name ON awards(Award_Name)",
+        "CREATE INDEX IF NOT EXISTS idx_directors_name ON directors(Name)",
+    };
+
+    //orders of the records between the joins
+    private static final Comparator<String[]> BY_NAME = ExternalSorter.byColumn(0, ExternalSorter.CODE_POINT_ORDER);
+    private static final Comparator<String[]> BY_IDS = ExternalSorter.byColumn(0, ExternalSorter.ID_ORDER)
+            .thenComparing(ExternalSorter.byColumn(1, ExternalSorter.ID_ORDER));
+    private static final Comparator<String[]> BY_ID = ExternalSorter.byColumn(0, ExternalSorter.ID_ORDER);
+
+    /**
+     * Receives a record whose key was found in the entity table
+     */
+    private interface Joined {
+        void accept(String[] record, int id) throws IOException, SQLException;
+    }
+
+    private final Connection conn;
+    private final File dataDirectory;
+    private final int batchSize;
+    private final long memoryBytes;
+    private final RejectFile rejects;
+    private final StringBuilder report = new StringBuilder();
+
+    /**
+     * @param conn connection to the SQLite database, with the entity tables loaded
+     * @param dataDirectory the directory holding the data files
+     * @param batchSize number of rows sent to the database at once
+     * @param memoryBytes memory budget for buffering records before they are spilled, split between the sorts holding records at the same time
+     * @param rejects where ratings that fail validation are recorded
+     */
+    public ExternalSortLoader(Connection conn, File dataDirectory, int batchSize, long memoryBytes, RejectFile rejects) {
+        this.conn = conn;
+        this.dataDirectory = dataDirectory;
+        this.batchSize = Math.max(1, batchSize);
+        this.memoryBytes = memoryBytes;
+        this.rejects = rejects;
+    }
+
+    /**
+     * Loads every link file, committing each table when it is done if auto-commit is off
+     * @return true if every table was loaded, otherwise returns false
+     * @throws SQLException if a statement cannot be prepared or a commit fails
+     * @throws IOException if a data file or a run file cannot be read or written
+     */
+    public boolean run() throws SQLException, IOException {
+
+        //the bulk-load profile keeps temporary files in memory, which would put SQLite's sorts back in the heap's place
+        String tempStore;
+        try (Statement statement = conn.createStatement();
+             ResultSet rs = statement.executeQuery("PRAGMA temp_store")) {
+            tempStore = rs.next() ? rs.getString(1) : "0";
+        }
+        try (Statement statement = conn.createStatement()) {
+            statement.executeUpdate("PRAGMA temp_store = FILE");
+            for (String index : NAME_INDEXES) {
+                statement.executeUpdate(index);
+            }
+        }
+
+        try {
+            return loadLinks("actors_to_movies", "INSERT INTO actors_to_movies VALUES (?, ?)", ACTOR, MOVIE)
+                    && loadLinks("movies_to_awards", "INSERT INTO movies_to_awards VALUES(?, ?)", MOVIE, AWARD)
+                    && loadLinks("actors_to_awards", "INSERT INTO actors_to_awards VALUES (?, ?)", ACTOR, AWARD)
+                    && loadDirectors()
+                    && loadRatings();
+        } finally {
+            try (Statement statement = conn.createStatement()) {
+                statement.executeUpdate("PRAGMA temp_store = " + tempStore);
+            }
+        }
+    }
+
+    /**
+     * @param sorters the number of sorters holding records at the same time
+     * @return the memory budget of each of them
+     */
+    private long share(int sorters) {
+        return Math.max(1, memoryBytes / sorters);
+    }
+
+    /**
+     * @return the records sorted, spilled and written for each table
+     */
+    public String report() {
+        return report.toString().trim();
+    }
+
+    /**
+     * Loads a link file of two names into a table of their two IDs
+     * @param table the table, whose data file is '<table>.csv'
+     * @param insertSQL insert statement taking the two IDs
+     * @param first the entity named in the first column
+     * @param second the entity named in the second column
+     */
+    private boolean loadLinks(String table, String insertSQL, Entity first, Entity second) throws SQLException, IOException {
+
+        File file = new File(dataDirectory, table + ".csv");
+        if (!file.exists()) return true;
+
+        //each sorter is closed once its join is done, so at most two hold records at a time
+        long sorterBytes = share(2);
+        try (ExternalSorter byIDs = new ExternalSorter(table + ".by_ids", BY_IDS, sorterBytes)) {
+
+            try (ExternalSorter bySecond = new ExternalSorter(table + ".by_" + second.name, BY_NAME, sorterBytes)) {
+
+                try (ExternalSorter byFirst = new ExternalSorter(table + ".by_" + first.name, BY_NAME, sorterBytes)) {
+                    try (MappedCsvReader reader = new MappedCsvReader(file)) {
+                        while (reader.next()) {
+                            if (reader.fieldCount() < 2) continue;
+                            //movies without awards are listed with "No awards" instead of an award name
+                            if (second == AWARD && "No awards".contentEquals(reader.field(1))) continue;
+                            byFirst.add(reader.getString(0), reader.getString(1));
+                        }
+                    }
+                    join(byFirst, 0, first, table, (record, id) -> bySecond.add(record[1], Integer.toString(id)));
+                    report.append(byFirst.report()).append('\n');
+                }
+
+                join(bySecond, 0, second, table, (record, id) -> byIDs.add(record[1], Integer.toString(id)));
+                report.append(bySecond.report()).append('\n');
+            }
+
+            boolean written = write(table, insertSQL, byIDs, (statement, record) -> {
+                statement.setInt(1, Integer.parseInt(record[0]));
+                statement.setInt(2, Integer.parseInt(record[1]));
+            });
+            report.append(byIDs.report()).append('\n');
+            return written;
+        }
+    }
+
+    /**
+     * Sets the Director_ID of every movie in 'directors.csv', adding each director not
+     * yet in 'directors' once; the updates are made in Movie_ID order
+     */
+    private boolean loadDirectors() throws SQLException, IOException {
+
+        File file = new File(dataDirectory, "directors.csv");
+        if (!file.exists()) return true;
+        String table = "movies.Director_ID";
+
+        //each sorter is closed once its records have been passed on, so at most three hold records at a time
+        long sorterBytes = share(3);
+        try (ExternalSorter byIDs = new ExternalSorter(table + ".by_ids", BY_ID, sorterBytes)) {
+
+            try (ExternalSorter newDirectors = new ExternalSorter(table + ".new_directors", BY_NAME, sorterBytes)) {
+
+                try (ExternalSorter byDirector = new ExternalSorter(table + ".by_director", BY_NAME, sorterBytes)) {
+
+                    try (ExternalSorter byMovie = new ExternalSorter(table + ".by_movie", BY_NAME, sorterBytes)) {
+                        try (MappedCsvReader reader = new MappedCsvReader(file)) {
+                            while (reader.next()) {
+                                if (reader.fieldCount() < 2) continue;
+                                byMovie.add(reader.getString(1), reader.getString(0));
+                            }
+                        }
+                        join(byMovie, 0, MOVIE, table, (record, id) -> byDirector.add(record[1], Integer.toString(id)));
+                        report.append(byMovie.report()).append('\n');
+                    }
+
+                    //directors that are not in the table yet are kept aside, so none is inserted while the table is being read
+                    try (ExternalSorter.Cursor directors = byDirector.sorted();
+                         PreparedStatement statement = conn.prepareStatement(DIRECTOR.query);
+                         ResultSet rs = statement.executeQuery()) {
+                        EntityCursor entities = new EntityCursor(rs);
+                        for (String[] record = directors.next(); record != null; record = directors.next()) {
+                            int id = entities.seek(record[0]);
+                            if (id != 0) byIDs.add(record[1], Integer.toString(id));
+                            else newDirectors.add(record);
+                        }
+                    }
+                    report.append(byDirector.report()).append('\n');
+                }
+
+                //sorted by name, so each new director is inserted once however many movies they directed
+                try (ExternalSorter.Cursor directors = newDirectors.sorted();
+                     PreparedStatement insert = conn.prepareStatement("INSERT INTO directors(Name) VALUES(?) RETURNING Director_ID")) {
+                    String name = null;
+                    int id = 0;
+                    for (String[] record = directors.next(); record != null; record = directors.next()) {
+                        if (!record[0].equals(name)) {
+                            name = record[0];
+                            insert.setString(1, name);
+                            try (ResultSet rs = insert.executeQuery()) {
+                                rs.next();
+                                id = rs.getInt(1);
+                            }
+                        }
+                        byIDs.add(record[1], Integer.toString(id));
+                    }
+                }
+            }
+
+            boolean written = write(table, "UPDATE movies SET Director_ID = ? WHERE Movie_ID = ?", byIDs, (statement, record) -> {
+                statement.setInt(1, Integer.parseInt(record[1]));
+                statement.setInt(2, Integer.parseInt(record[0]));
+            });
+            report.append(byIDs.report()).append('\n');
+            return written;
+        }
+    }
+
+    /**
+     * Loads 'ratings.csv', writing ratings that fail validation to the reject file,
+     * in Movie_ID order
+     */
+    private boolean loadRatings() throws SQLException, IOException {
+
+        File file = new File(dataDirectory, "ratings.csv");
+        if (!file.exists()) return true;
+
+        //the two sorters hold records at the same time while they are joined
+        long sorterBytes = share(2);
+        try (ExternalSorter byID = new ExternalSorter("ratings.by_id", BY_ID, sorterBytes)) {
+
+            try (ExternalSorter byMovie = new ExternalSorter("ratings.by_movie", BY_NAME, sorterBytes)) {
+                TypedRows.RatingRow rating = new TypedRows.RatingRow();
+                try (MappedCsvReader reader = new MappedCsvReader(file)) {
+                    while (reader.next()) {
+                        String reason = rating.parse(reader);
+                        if (reason != null) {
+                            rejects.reject("ratings.csv", reader, reason);
+                            continue;
+                        }
+                        byMovie.add(rating.title.toString(), Double.toString(rating.value), rating.source);
+                    }
+                }
+                join(byMovie, 0, MOVIE, "ratings", (record, id) -> byID.add(Integer.toString(id), record[1], record[2]));
+                report.append(byMovie.report()).append('\n');
+            }
+
+            boolean written = write("ratings", "INSERT INTO ratings (Rating_Value, Rating_Source, Movie_ID) VALUES (?, ?, ?)", byID,
+                    (statement, record) -> {
+                        statement.setDouble(1, Double.parseDouble(record[1]));
+                        statement.setString(2, record[2]);
+                        statement.setInt(3, Integer.parseInt(record[0]));
+                    });
+            report.append(byID.report()).append('\n');
+            return written;
+        }
+    }
+
+    /**
+     * Merge-joins sorted records with an entity table read in the same order,
+     * counting the records whose name is not in the table as skipped
+     * @param records the records, sorted by the key column in code point order
+     * @param keyColumn the column holding the entity's name
+     * @param entity the entity table
+     * @param table the table being loaded, used to label skipped records
+     * @param joined receives each record found and the entity's ID
+     */
+    private void join(ExternalSorter records, int keyColumn, Entity entity, String table, Joined joined) throws SQLException, IOException {
+
+        try (ExternalSorter.Cursor cursor = records.sorted();
+             PreparedStatement statement = conn.prepareStatement(entity.query);
+             ResultSet rs = statement.executeQuery()) {
+            EntityCursor entities = new EntityCursor(rs);
+            for (String[] record = cursor.next(); record != null; record = cursor.next()) {
+                int id = entities.seek(record[keyColumn]);
+                if (id == 0) PopulateDB.skipped(table, entity.name + "_not_found");
+                else joined.accept(record, id);
+            }
+        }
+    }
+
+    /**
+     * Binds a sorted record to the statement that writes it
+     */
+    private interface RowBinder {
+        void bind(PreparedStatement statement, String[] record) throws SQLException;
+    }
+
+    /**
+     * Writes sorted records through a BatchInserter, committing the table if auto-commit is off
+     */
+    private boolean write(String table, String insertSQL, ExternalSorter records, RowBinder binder) throws SQLException, IOException {
+
+        try (BatchInserter inserter = new BatchInserter(table, conn.prepareStatement(insertSQL), batchSize);
+             ExternalSorter.Cursor cursor = records.sorted()) {
+            PreparedStatement statement = inserter.getStatement();
+            for (String[] record = cursor.next(); record != null; record = cursor.next()) {
+                binder.bind(statement, record);
+                //checks if any rows were affected by the operation
+                if (!inserter.addRow()) return false;
+            }
+            if (!inserter.flush()) return false;
+            PopulateDB.commitIfInTransaction(conn, table);
+            report.append(inserter.report()).append('\n');
+        }
+        return true;
+    }
+
+    /**
+     * Walks an entity table in name order, moving forward to each key looked up
+     * Keys have to be looked up in code point order, the order of the query
+     */
+    private static final class EntityCursor {
+        private final ResultSet rs;
+        private String name = null;
+        private int id = 0;
+        private boolean exhausted = false;
+
+        EntityCursor(ResultSet rs) {
+            this.rs = rs;
+        }
+
+        /**
+         * @return the ID of the first row with the name, or 0 if there is none
+         */
+        int seek(String key) throws SQLException {
+            while (name == null || ExternalSorter.compareCodePoints(name, key) < 0) {
+                if (exhausted || !rs.next()) {
+                    exhausted = true;
+                    return 0;
+                }
+                String next = rs.getString(1);
+                //a duplicated name keeps the ID of its first row
+                if (!next.equals(name)) {
+                    name = next;
+                    id = rs.getInt(2);
+                }
+            }
+            return name.equals(key) ? id : 0;
+        }
+    }
+}
@@ -0,0 +1,354 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts more records than fit in memory: records are buffered until the memory budget
+ * is reached, then sorted and spilled to a temporary run file, and the runs are merged
+ * back in order when the sorted records are read
+ * Runs are merged at most MAX_MERGE_FAN_IN at a time, so only that many files are open at once
+ * Records are String arrays, nulls allowed; run files are deleted on close
+ */
+public class ExternalSorter implements AutoCloseable {
+
+    //rough JVM sizes used for the memory estimate (compressed references), as in NameIndex
+    private static final int RECORD_OVERHEAD = 16 + 8;
+    private static final int STRING_OVERHEAD = 24 + 16;
+
+    //number of runs read at once while merging
+    static final int MAX_MERGE_FAN_IN = 64;
+
+    //buffer per run file read or written
+    private static final int RUN_BUFFER_BYTES = 64 * 1024;
+
+    /**
+     * Orders Strings by Unicode code point, the order SQLite's BINARY collation gives to UTF-8 text,
+     * so sorted files can be merge-joined with tables read with ORDER BY
+     * String.compareTo differs from it for characters above U+FFFF
+     */
+    static final Comparator<String> CODE_POINT_ORDER = ExternalSorter::compareCodePoints;
+
+    /**
+     * Orders non-negative integer IDs written as decimal Strings without parsing them
+     */
+    static final Comparator<String> ID_ORDER = (a, b) -> a.length() != b.length() ? Integer.compare(a.length(), b.length()) : a.compareTo(b);
+
+    /**
+     * Sequential reader of sorted records
+     */
+    public interface Cursor extends AutoCloseable {
+
+        /**
+         * @return the next record, or null after the last one
+         * @throws IOException if a run file cannot be read
+         */
+        String[] next() throws IOException;
+
+        @Override
+        void close() throws IOException;
+    }
+
+    private final String name;
+    private final Comparator<String[]> order;
+    private final long maxBytes;
+
+    private List<String[]> buffer = new ArrayList<>();
+    private long bufferedBytes = 0;
+    private final List<File> runs = new ArrayList<>();
+    private final List<Long> runCounts = new ArrayList<>();
+
+    private long recordCount = 0;
+    private long spilledBytes = 0;
+    private int spilledRuns = 0;
+
+    /**
+     * @param name name of the sort, used in the spill metrics
+     * @param order the order of the records
+     * @param maxBytes memory budget for the buffered records in bytes
+     */
+    public ExternalSorter(String name, Comparator<String[]> order, long maxBytes) {
+        this.name = name;
+        this.order = order;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @param column the column to sort on
+     * @param keyOrder the order of the column's values
+     * @return an order of records by one column
+     */
+    static Comparator<String[]> byColumn(int column, Comparator<String> keyOrder) {
+        return (a, b) -> keyOrder.compare(a[column], b[column]);
+    }
+
+    /**
+     * Adds a record, spilling the buffered records to a run file if the memory budget is reached
+     * @param record the record, not copied
+     * @throws IOException if the run file cannot be written
+     */
+    public void add(String... record) throws IOException {
+        long bytes = estimateBytes(record);
+        if (!buffer.isEmpty() && bufferedBytes + bytes > maxBytes) spill();
+        buffer.add(record);
+        bufferedBytes += bytes;
+        recordCount++;
+    }
+
+    /**
+     * Reads the records back in order; records that were not spilled are merged from memory
+     * and handed to the cursor, which lets go of each one as it is read
+     * No more records can be added afterwards
+     * @return a cursor over every record added
+     * @throws IOException if a run file cannot be read or written
+     */
+    public Cursor sorted() throws IOException {
+
+        buffer.sort(order);
+        if (runs.isEmpty()) {
+            List<String[]> records = buffer;
+            buffer = new ArrayList<>();
+            bufferedBytes = 0;
+            return fromMemory(records);
+        }
+
+        //the records still in memory are spilled too, so every run is read the same way
+        if (!buffer.isEmpty()) spill();
+        while (runs.size() > MAX_MERGE_FAN_IN) mergeRuns();
+
+        List<Cursor> cursors = new ArrayList<>();
+        for (int i = 0; i < runs.size(); i++) {
+            cursors.add(fromRun(runs.get(i), runCounts.get(i)));
+        }
+        return merge(cursors);
+    }
+
+    /**
+     * @return the number of records added
+     */
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * @return the number of run files written, including those written while merging
+     */
+    public int getSpilledRuns() {
+        return spilledRuns;
+    }
+
+    /**
+     * @return the bytes written to run files
+     */
+    public long getSpilledBytes() {
+        return spilledBytes;
+    }
+
+    /**
+     * @return a one line summary of the records sorted and spilled
+     */
+    public String report() {
+        return String.format("%s: %d records, %d runs spilled (%.1f MB)", name, recordCount, spilledRuns, spilledBytes / (1024.0 * 1024.0));
+    }
+
+    /**
+     * Deletes the run files
+     */
+    @Override
+    public void close() {
+        for (File run : runs) {
+            run.delete();
+        }
+        runs.clear();
+        runCounts.clear();
+        buffer.clear();
+    }
+
+    /**
+     * Sorts the buffered records and writes them to a new run file
+     */
+    private void spill() throws IOException {
+        buffer.sort(order);
+        List<String[]> records = buffer;
+        buffer = new ArrayList<>();
+        bufferedBytes = 0;
+        writeRun(fromMemory(records), records.size(), runs.size());
+    }
+
+    /**
+     * Merges the first MAX_MERGE_FAN_IN runs into one, which takes their place at the front
+     * so equal records still come out in the order they were added
+     */
+    private void mergeRuns() throws IOException {
+        List<Cursor> cursors = new ArrayList<>();
+        long count = 0;
+        List<File> merged = new ArrayList<>(runs.subList(0, MAX_MERGE_FAN_IN));
+        for (int i = 0; i < MAX_MERGE_FAN_IN; i++) {
+            cursors.add(fromRun(runs.get(i), runCounts.get(i)));
+            count += runCounts.get(i);
+        }
+        runs.subList(0, MAX_MERGE_FAN_IN).clear();
+        runCounts.subList(0, MAX_MERGE_FAN_IN).clear();
+        writeRun(merge(cursors), count, 0);
+        for (File run : merged) {
+            run.delete();
+        }
+    }
+
+    private void writeRun(Cursor records, long count, int position) throws IOException {
+
+        File run = File.createTempFile("sort-" + name.replaceAll("[^A-Za-z0-9_]", "_") + "-", ".run");
+        run.deleteOnExit();
+        runs.add(position, run);
+        runCounts.add(position, count);
+
+        try (Cursor cursor = records;
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), RUN_BUFFER_BYTES))) {
+            for (String[] record = cursor.next(); record != null; record = cursor.next()) {
+                out.writeShort(record.length);
+                for (String field : record) {
+                    if (field == null) {
+                        out.writeInt(-1);
+                        continue;
+                    }
+                    byte[] bytes = field.getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                }
+            }
+        }
+
+        spilledRuns++;
+        spilledBytes += run.length();
+        Metrics.increment("sort_spill_runs_total", "sort", name);
+        Metrics.add("sort_spill_bytes_total", run.length(), "sort", name);
+    }
+
+    private static Cursor fromMemory(List<String[]> records) {
+        return new Cursor() {
+            int next = 0;
+
+            @Override
+            public String[] next() {
+                //each record is dropped once read, so memory is freed while the next sorter fills up
+                return next < records.size() ? records.set(next++, null) : null;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    private static Cursor fromRun(File run, long count) throws IOException {
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), RUN_BUFFER_BYTES));
+        return new Cursor() {
+            long remaining = count;
+
+            @Override
+            public String[] next() throws IOException {
+                if (remaining == 0) return null;
+                remaining--;
+                String[] record = new String[in.readShort()];
+                for (int i = 0; i < record.length; i++) {
+                    int length = in.readInt();
+                    if (length < 0) continue;
+                    byte[] bytes = new byte[length];
+                    in.readFully(bytes);
+                    record[i] = new String(bytes, StandardCharsets.UTF_8);
+                }
+                return record;
+            }
+
+            @Override
+            public void close() throws IOException {
+                in.close();
+            }
+        };
+    }
+
+    //the current record of a run being merged, ties go to the earlier run so the sort is stable
+    private static final class Head {
+        final String[] record;
+        final Cursor cursor;
+        final int index;
+
+        Head(String[] record, Cursor cursor, int index) {
+            this.record = record;
+            this.cursor = cursor;
+            this.index = index;
+        }
+    }
+
+    private Cursor merge(List<Cursor> cursors) throws IOException {
+
+        PriorityQueue<Head> heads = new PriorityQueue<>(Math.max(1, cursors.size()), (a, b) -> {
+            int compared = order.compare(a.record, b.record);
+            return compared != 0 ? compared : Integer.compare(a.index, b.index);
+        });
+        for (int i = 0; i < cursors.size(); i++) {
+            String[] record = cursors.get(i).next();
+            if (record != null) heads.add(new Head(record, cursors.get(i), i));
+        }
+
+        return new Cursor() {
+            @Override
+            public String[] next() throws IOException {
+                Head head = heads.poll();
+                if (head == null) return null;
+                String[] following = head.cursor.next();
+                if (following != null) heads.add(new Head(following, head.cursor, head.index));
+                return head.record;
+            }
+
+            @Override
+            public void close() throws IOException {
+                for (Cursor cursor : cursors) {
+                    cursor.close();
+                }
+            }
+        };
+    }
+
+    private static long estimateBytes(String[] record) {
+        long bytes = RECORD_OVERHEAD + 4L * record.length;
+        for (String field : record) {
+            if (field != null) bytes += STRING_OVERHEAD + field.length();
+        }
+        return bytes;
+    }
+
+    /**
+     * Compares two Strings by code point: UTF-16 order except that surrogate pairs
+     * (characters above U+FFFF) sort after every other character, as they do in UTF-8
+     */
+    static int compareCodePoints(String a, String b) {
+        int length = Math.min(a.length(), b.length());
+        for (int i = 0; i < length; i++) {
+            char x = a.charAt(i);
+            char y = b.charAt(i);
+            if (x == y) continue;
+            if (x >= Character.MIN_SURROGATE && y >= Character.MIN_SURROGATE) {
+                //moves surrogates above U+E000..U+FFFF, which UTF-16 puts after them
+                x = fixUp(x);
+                y = fixUp(y);
+            }
+            return x - y;
+        }
+        return a.length() - b.length();
+    }
+
+    private static char fixUp(char c) {
+        return (char) (c >= 0xE000 ? c - 0x800 : c + 0x2000);
+    }
+}
@@ -0,0 +1,112 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ExternalSorterTest {
+
+   private static List<String> keys(ExternalSorter sorter) throws IOException{
+      List<String> keys = new ArrayList<>();
+      try (ExternalSorter.Cursor cursor = sorter.sorted()) {
+         for (String[] record = cursor.next(); record != null; record = cursor.next()) {
+            keys.add(record[0]);
+         }
+      }
+      return keys;
+   }
+
+   @Test
+   public void sortsInMemoryWithoutSpilling() throws IOException{
+      try (ExternalSorter sorter = new ExternalSorter("test", ExternalSorter.byColumn(0, ExternalSorter.CODE_POINT_ORDER), 1 << 20)) {
+         sorter.add("Orlando Bloom", "1");
+         sorter.add("Johnny Depp", "2");
+         sorter.add("Keira Knightley", "3");
+
+         assertEquals(List.of("Johnny Depp", "Keira Knightley", "Orlando Bloom"), keys(sorter));
+         assertEquals(0, sorter.getSpilledRuns());
+      }
+   }
+
+   @Test
+   public void spillsAndMergesRunsInOrder() throws IOException{
+      Random random = new Random(42);
+      List<String> expected = new ArrayList<>();
+
+      //a budget of a few records forces more runs than are merged at once
+      try (ExternalSorter sorter = new ExternalSorter("test", ExternalSorter.byColumn(0, ExternalSorter.CODE_POINT_ORDER), 1000)) {
+         for (int i = 0; i < 2000; i++) {
+            String key = "Actor " + random.nextInt(500);
+            expected.add(key);
+            sorter.add(key, null);
+         }
+         Collections.sort(expected);
+
+         assertEquals(expected, keys(sorter));
+         assertTrue(sorter.getSpilledRuns() > ExternalSorter.MAX_MERGE_FAN_IN);
+         assertTrue(sorter.getSpilledBytes() > 0);
+         assertEquals(2000, sorter.getRecordCount());
+      }
+   }
+
+   @Test
+   public void keepsNullFieldsAndEqualKeysInOrder() throws IOException{
+      try (ExternalSorter sorter = new ExternalSorter("test", ExternalSorter.byColumn(0, ExternalSorter.CODE_POINT_ORDER), 100)) {
+         sorter.add("b", "first", null);
+         sorter.add("a", null, "x");
+         sorter.add("b", "second", "y");
+
+         try (ExternalSorter.Cursor cursor = sorter.sorted()) {
+            assertArrayEquals(new String[]{"a", null, "x"}, cursor.next());
+            assertArrayEquals(new String[]{"b", "first", null}, cursor.next());
+            assertArrayEquals(new String[]{"b", "second", "y"}, cursor.next());
+            assertNull(cursor.next());
+         }
+      }
+   }
+
+   @Test
+   public void equalKeysStayInOrderAcrossMergedRuns() throws IOException{
+      //a budget of one record spills every record to its own run
+      try (ExternalSorter sorter = new ExternalSorter("test", ExternalSorter.byColumn(0, ExternalSorter.CODE_POINT_ORDER), 1)) {
+         int count = 3 * ExternalSorter.MAX_MERGE_FAN_IN + 5;
+         for (int i = 0; i < count; i++) {
+            sorter.add("same", Integer.toString(i));
+         }
+
+         try (ExternalSorter.Cursor cursor = sorter.sorted()) {
+            for (int i = 0; i < count; i++) {
+               assertEquals(Integer.toString(i), cursor.next()[1]);
+            }
+            assertNull(cursor.next());
+         }
+         assertTrue(sorter.getSpilledRuns() > count);
+      }
+   }
+
+   @Test
+   public void ordersByCodePointLikeSqlite(){
+      //U+FF21 (fullwidth A) is below U+1F600 (an emoji, a surrogate pair in UTF-16)
+      String fullwidth = "\uFF21";
+      String emoji = new String(Character.toChars(0x1F600));
+
+      assertTrue(fullwidth.compareTo(emoji) > 0);
+      assertTrue(ExternalSorter.compareCodePoints(fullwidth, emoji) < 0);
+      assertTrue(ExternalSorter.compareCodePoints("Depp", "Depp Jr") < 0);
+      assertEquals(0, ExternalSorter.compareCodePoints("Depp", "Depp"));
+   }
+
+   @Test
+   public void ordersIDsNumerically(){
+      assertTrue(ExternalSorter.ID_ORDER.compare("9", "10") < 0);
+      assertTrue(ExternalSorter.ID_ORDER.compare("123", "122") > 0);
+      assertEquals(0, ExternalSorter.ID_ORDER.compare("42", "42"));
+   }
+}
@@ -0,0 +1,150 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Resolves actor names, movie titles, award names and director names to their IDs
+ * while the many-many tables, 'ratings' and the directors of the movies are populated
+ * The dictionaries are built once, after the entity tables are loaded,
+ * so each link row is resolved in memory instead of with a SELECT per name
+ */
+public class IDResolver {
+
+    private final Connection conn;
+    private final NameIndex actors;
+    private final NameIndex movies;
+    private final NameIndex awards;
+    private final NameIndex directors;
+
+    private IDResolver(Connection conn, NameIndex actors, NameIndex movies, NameIndex awards, NameIndex directors) {
+        this.conn = conn;
+        this.actors = actors;
+        this.movies = movies;
+        this.awards = awards;
+        this.directors = directors;
+    }
+
+    /**
+     * Builds the Name to Actor_ID, Title to Movie_ID, Award_Name to Award_ID
+     * and Name to Director_ID dictionaries
+     * The memory budget is shared: each dictionary may use what the previous ones left over
+     * @param conn connection to the SQLite database
+     * @param maxBytes memory budget for all four dictionaries in bytes
+     * @return the resolver
+     * @throws SQLException if reading a table throws an SQL error
+     */
+    public static IDResolver build(Connection conn, long maxBytes) throws SQLException {
+
+        //ordered by ID so the first row for a duplicated name wins, as in getActorID
+        NameIndex actors = NameIndex.load(conn, "actors", "SELECT Name, Actor_ID FROM actors ORDER BY Actor_ID", maxBytes);
+        NameIndex movies = NameIndex.load(conn, "movies", "SELECT Title, Movie_ID FROM movies ORDER BY Movie_ID",
+                maxBytes - actors.estimatedBytes());
+        NameIndex awards = NameIndex.load(conn, "awards", "SELECT Award_Name, Award_ID FROM awards ORDER BY Award_ID",
+                maxBytes - actors.estimatedBytes() - movies.estimatedBytes());
+        NameIndex directors = NameIndex.load(conn, "directors", "SELECT Name, Director_ID FROM directors ORDER BY Director_ID",
+                maxBytes - actors.estimatedBytes() - movies.estimatedBytes() - awards.estimatedBytes());
+
+        return new IDResolver(conn, actors, movies, awards, directors);
+    }
+
+    /**
+     * @param actorName the name of the actor
+     * @return the Actor_ID, or 0 if the actor is not in the database
+     * @throws SQLException if the fallback lookup throws an SQL error
+     */
+    public int getActorID(CharSequence actorName) throws SQLException {
+        int id = actors.get(actorName);
+        if (id != 0 || actors.isComplete()) return id;
+        return PopulateDB.getActorID(actorName.toString(), conn);
+    }
+
+    /**
+     * @param movieTitle the title of the movie
+     * @return the Movie_ID, or 0 if the movie is not in the database
+     * @throws SQLException if the fallback lookup throws an SQL error
+     */
+    public int getMovieID(CharSequence movieTitle) throws SQLException {
+        int id = movies.get(movieTitle);
+        if (id != 0 || movies.isComplete()) return id;
+        return PopulateDB.getMovieID(movieTitle.toString(), conn);
+    }
+
+    /**
+     * @param awardName the name of the award
+     * @return the Award_ID, or 0 if the award is not in the database
+     * @throws SQLException if the fallback lookup throws an SQL error
+     */
+    public int getAwardID(CharSequence awardName) throws SQLException {
+        int id = awards.get(awardName);
+        if (id != 0 || awards.isComplete()) return id;
+        return PopulateDB.getAwardID(awardName.toString(), conn);
+    }
+
+    /**
+     * @param directorName the name of the director
+     * @return the Director_ID, or 0 if the director is not in the database
+     * @throws SQLException if the fallback lookup throws an SQL error
+     */
+    public int getDirectorID(CharSequence directorName) throws SQLException {
+        int id = directors.get(directorName);
+        if (id != 0 || directors.isComplete()) return id;
+        PreparedStatement lookup = StatementCache.prepare(conn, QueryDB.DIRECTOR_ID_QUERY);
+        lookup.setString(1, directorName.toString());
+        try (ResultSet rs = lookup.executeQuery()) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    /**
+     * Looks up a director by name, adding the director the first time the name is seen
+     * so a director of many movies has a single row in 'directors'
+     * @param directorName the name of the director
+     * @return the Director_ID of the existing or new director
+     * @throws SQLException if the lookup or the insert throws an SQL error
+     */
+    public int getOrInsertDirectorID(CharSequence directorName) throws SQLException {
+        int id = directors.get(directorName);
+        if (id != 0) return id;
+
+        String name = directorName.toString();
+        if (!directors.isComplete()) {
+            PreparedStatement lookup = StatementCache.prepare(conn, QueryDB.DIRECTOR_ID_QUERY);
+            lookup.setString(1, name);
+            try (ResultSet rs = lookup.executeQuery()) {
+                if (rs.next()) return rs.getInt(1);
+            }
+        }
+
+        PreparedStatement insert = StatementCache.prepare(conn, "INSERT INTO directors(Name) VALUES(?) RETURNING Director_ID");
+        insert.setString(1, name);
+        try (ResultSet rs = insert.executeQuery()) {
+            rs.next();
+            id = rs.getInt(1);
+        }
+        directors.put(name, id);
+        return id;
+    }
+
+    /**
+     * @return true if every dictionary fitted in the memory budget, so no lookup uses the database
+     */
+    public boolean isComplete() {
+        return actors.isComplete() && movies.isComplete() && awards.isComplete() && directors.isComplete();
+    }
+
+    /**
+     * @return the total estimated heap used by the dictionaries in bytes
+     */
+    public long estimatedBytes() {
+        return actors.estimatedBytes() + movies.estimatedBytes() + awards.estimatedBytes() + directors.estimatedBytes();
+    }
+
+    /**
+     * @return the entries and memory used by each dictionary, one per line
+     */
+    public String report() {
+        return "ID dictionaries:\n  " + actors.report() + "\n  " + movies.report() + "\n  " + awards.report()
+                + "\n  " + directors.report();
+    }
+}
@@ -3,6 +3,9 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * Initialises the 'movies' database by reading the DDL script
@@ -86,7 +89,9 @@ public class InitialiseDB {
         try {
             //reads the DDL file 
             String ddlString = readScript(ddlFileName); 
+            long startTime = System.nanoTime();
             statement.executeUpdate(ddlString);
+            Metrics.recordNanos("script_seconds", System.nanoTime() - startTime, "script", ddlFileName);
             statement.close();
 
             System.out
@@ -98,6 +103,97 @@ public class InitialiseDB {
 
     }
 
+    /**
+     * Creates the secondary and covering indexes in 'indexes.sql' and runs ANALYZE
+     * so the query planner has statistics to choose join orders from
+     * Called once the tables are populated, as keeping the indexes up to date
+     * row by row during a bulk load is slower than building them afterwards
+     * @param conn connection to the SQLite database
+     * @return true if the indexes were created, otherwise returns false
+     */
+    public static boolean createIndexes(Connection conn) {
+
+        String indexFileName = "indexes.sql";
+
+        try (Statement statement = conn.createStatement()) {
+            String indexString = readScript(indexFileName);
+            long startTime = System.nanoTime();
+            statement.executeUpdate(indexString);
+            long indexed = System.nanoTime();
+            Metrics.recordNanos("script_seconds", indexed - startTime, "script", indexFileName);
+            statement.executeUpdate("ANALYZE");
+            Metrics.recordNanos("script_seconds", System.nanoTime() - indexed, "script", "ANALYZE");
+            if (!conn.getAutoCommit()) conn.commit();
+
+            System.out.println("Successfully created indexes and analyzed tables");
+            return true;
+
+        } catch (SQLException | IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Rebuilds the summary tables in 'summaries.sql' from the loaded data:
+     * ratings and award counts per movie, the genres of every actor with awards
+     * and the best rating of each director's awarded movies, which QueryDB options 5 and 6 read
+     * The tables are rebuilt in one transaction, so queries see either the old or the new summaries
+     * @param conn connection to the SQLite database
+     * @return true if the summaries were rebuilt, otherwise returns false
+     */
+    public static boolean refreshSummaries(Connection conn) {
+
+        String summaryFileName = "summaries.sql";
+
+        try (Statement statement = conn.createStatement()) {
+            String summaryString = readScript(summaryFileName);
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            try {
+                long startTime = System.nanoTime();
+                statement.executeUpdate(summaryString);
+                statement.executeUpdate("ANALYZE movie_summary; ANALYZE actor_award_genres; ANALYZE director_award_ratings;");
+                QueryResultCache.bumpDataVersion(conn);
+                conn.commit();
+                Metrics.recordNanos("script_seconds", System.nanoTime() - startTime, "script", summaryFileName);
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(autoCommit);
+            }
+
+            System.out.println("Successfully rebuilt summary tables");
+            return true;
+
+        } catch (SQLException | IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Prints the EXPLAIN QUERY PLAN output for every query run by QueryDB
+     * to show which tables are searched through an index and which are scanned
+     * @param conn connection to the SQLite database
+     * @throws SQLException if a query cannot be explained
+     */
+    public static void printQueryPlans(Connection conn) throws SQLException {
+
+        for (String[] option : QueryDB.OPTION_QUERIES) {
+            System.out.println(option[0] + ":");
+
+            //parameters are left unbound, the plan does not depend on their values
+            try (PreparedStatement statement = conn.prepareStatement("EXPLAIN QUERY PLAN " + option[1]);
+                 ResultSet plan = statement.executeQuery()) {
+                while (plan.next()) {
+                    System.out.println("    " + plan.getString("detail"));
+                }
+            }
+        }
+    }
+
     /**
      * Reads each line of a file
      * returns the whole file as a String object
@@ -121,20 +217,72 @@ public class InitialiseDB {
     /**
      * Main method to read the command-line arguments
      * and initialise the database 
+     * "--indexes" creates the indexes on an existing, populated database instead,
+     * "--summaries" rebuilds its summary tables, "--search" its full-text search index
+     * and "--explain" prints the query plans of the QueryDB queries,
+     * with the connection pragmas chosen by "--profile"
+     * "--metrics" writes how long each script took to a file
+     * "--stage" creates the new database as a generation next to the live one instead of deleting it,
+     * so queries keep running until PopulateDB publishes it; once a database is kept in generations
+     * every initialisation is staged
      * @param args  command-line arguments
      * @throws SQLException if there is an SQL error while initialization
      */
     public static void main(String[] args) throws SQLException, IOException {
 
         if(args.length < 1) {
-            System.out.println("Usage: java InitialiseDB <database_file_name>");
+            System.out.println("Usage: java InitialiseDB <database_file_name> [--indexes] [--summaries] [--search] [--explain] [--profile <default|bulk-load|serve>] [--metrics <file>] [--stage]");
             System.exit(0);
            }
 
+        List<String> arguments = new ArrayList<>(Arrays.asList(args));
+        boolean stage = arguments.remove("--stage");
+        args = arguments.toArray(new String[0]);
+
         //sets the database file name to the first argument
         String dbFileName = args[0];
+
+        File metricsFile = null;
+        for (int i = 1; i + 1 < args.length; i++) {
+            if (args[i].equals("--metrics")) metricsFile = new File(args[i + 1]);
+        }
+
+        if (args.length > 1 && !(args.length == 3 && metricsFile != null)) {
+            //options apply to the generation being loaded if there is one, otherwise to the live database
+            String targetFileName = DatabaseGenerations.resolveForWrite(dbFileName);
+            if (!databaseExists("jdbc:sqlite:" + targetFileName)) {
+                System.err.println("Database \"" + dbFileName + "\" has not been initialized");
+                return;
+            }
+
+            ConnectionProfile profile = ConnectionProfile.DEFAULT;
+            for (int i = 1; i + 1 < args.length; i++) {
+                if (args[i].equals("--profile")) profile = ConnectionProfile.forName(args[i + 1]);
+            }
+
+            try (Connection connection = profile.open(targetFileName)) {
+                for (int i = 1; i < args.length; i++) {
+                    if (args[i].equals("--profile") || args[i].equals("--metrics")) i++;
+                    else if (args[i].equals("--indexes")) createIndexes(connection);
+                    else if (args[i].equals("--summaries")) refreshSummaries(connection);
+                    else if (args[i].equals("--search")) SearchIndex.rebuild(connection);
+                    else if (args[i].equals("--explain")) printQueryPlans(connection);
+                    else System.err.println("Unknown option: " + args[i]);
+                }
+                StatementCache.close(connection);
+            }
+            if (metricsFile != null) Metrics.writeTo(metricsFile);
+            return;
+        }
         
-        initialiseDB(dbFileName);
+        //a database kept in generations is never deleted, the new one is staged next to the live one
+        if (stage || DatabaseGenerations.isManaged(dbFileName)) {
+            File generation = DatabaseGenerations.stage(dbFileName);
+            System.out.println("Staged generation " + generation.getPath() + ", PopulateDB loads and publishes it");
+            initialiseDB(generation.getPath());
+        }
+        else initialiseDB(dbFileName);
+        if (metricsFile != null) Metrics.writeTo(metricsFile);
 
     }
 
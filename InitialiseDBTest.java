@@ -4,6 +4,8 @@ import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
 import java.sql.SQLException;
 
 import org.junit.Before;
@@ -38,6 +40,22 @@ public class InitialiseDBTest {
         assertFalse(dbFile.exists());
     }
 
+    @Test
+    public void checkIfIndexesWereCreated() throws SQLException{
+        Connection conn = DriverManager.getConnection(dbUrl);
+
+        assertTrue(InitialiseDB.createIndexes(conn));
+        conn.close();
+    }
+
+    @Test
+    public void checkIfSummariesWereRebuilt() throws SQLException{
+        Connection conn = DriverManager.getConnection(dbUrl);
+
+        assertTrue(InitialiseDB.refreshSummaries(conn));
+        conn.close();
+    }
+
 
 
 
@@ -0,0 +1,154 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Lazily pages through a query with keyset pagination:
+ * each page seeks past the last key of the previous page (WHERE key &gt; ? ORDER BY key LIMIT ?)
+ * instead of using OFFSET, so page N costs the same as page 1
+ * Rows are read from the open result set as they are asked for, and no further
+ * pages are fetched once the caller stops, so results can be abandoned early
+ *
+ * Both queries return the key in the first column and the value in the second;
+ * their parameters are the fixed parameters, then (next page only) the last key, then the page size
+ */
+public class KeysetPager implements Iterator<String>, AutoCloseable {
+
+    //rows per page when no page size is given
+    static final int DEFAULT_PAGE_SIZE = 1000;
+
+    private final Connection conn;
+    private final String firstPageSQL;
+    private final String nextPageSQL;
+    private final Object[] params;
+    private final int pageSize;
+    private final int fetchSize;
+
+    private ResultSet page;
+    private int rowsInPage = 0;
+    private Object lastKey = null;
+    private boolean firstPageRead = false;
+    private boolean hasNextRow = false;
+    private boolean finished = false;
+
+    /**
+     * @param conn connection to the database
+     * @param firstPageSQL query for the first page, with no key condition
+     * @param nextPageSQL query for the following pages, with a condition on the key
+     * @param params the fixed parameters of both queries
+     * @param pageSize the number of rows per page
+     * @param fetchSize the JDBC fetch size hint for each page
+     */
+    public KeysetPager(Connection conn, String firstPageSQL, String nextPageSQL, Object[] params, int pageSize, int fetchSize) {
+        this.conn = conn;
+        this.firstPageSQL = firstPageSQL;
+        this.nextPageSQL = nextPageSQL;
+        this.params = params;
+        this.pageSize = Math.max(1, pageSize);
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * @return true if there is another row, fetching the next page if the current one is used up
+     * @throws IllegalStateException wrapping an SQLException from the query
+     */
+    @Override
+    public boolean hasNext() {
+        if (hasNextRow) return true;
+        if (finished) return false;
+
+        try {
+            if (page == null) {
+                openPage();
+            }
+            if (page.next()) {
+                hasNextRow = true;
+                return true;
+            }
+
+            //a short page means the query has no more rows
+            page.close();
+            page = null;
+            if (rowsInPage < pageSize) {
+                finished = true;
+                return false;
+            }
+            openPage();
+            hasNextRow = page.next();
+            if (!hasNextRow) close();
+            return hasNextRow;
+
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the value of the next row
+     */
+    @Override
+    public String next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        hasNextRow = false;
+        try {
+            lastKey = page.getObject(1);
+            rowsInPage++;
+            return page.getString(2);
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the remaining rows as a sequential stream, which closes the pager when closed
+     */
+    public Stream<String> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED), false)
+                .onClose(this::close);
+    }
+
+    /**
+     * Closes the open page, no more pages are fetched
+     */
+    @Override
+    public void close() {
+        finished = true;
+        hasNextRow = false;
+        if (page != null) {
+            try {
+                page.close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+            page = null;
+        }
+    }
+
+    private void openPage() throws SQLException {
+
+        boolean first = !firstPageRead;
+        firstPageRead = true;
+        PreparedStatement statement = StatementCache.prepare(conn, first ? firstPageSQL : nextPageSQL);
+
+        int index = 1;
+        for (Object param : params) {
+            statement.setObject(index++, param);
+        }
+        if (!first) statement.setObject(index++, lastKey);
+        statement.setInt(index, pageSize);
+        statement.setFetchSize(fetchSize);
+
+        long startTime = System.nanoTime();
+        page = statement.executeQuery();
+        Metrics.recordNanos("query_execute_seconds", System.nanoTime() - startTime,
+                "query", QueryDB.queryLabel(first ? firstPageSQL : nextPageSQL));
+        rowsInPage = 0;
+    }
+}
@@ -0,0 +1,114 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class KeysetPagerTest {
+
+   static final String FIRST_PAGE = "SELECT Movie_ID, Title FROM movies WHERE Genre = ? ORDER BY Movie_ID LIMIT ?";
+   static final String NEXT_PAGE = "SELECT Movie_ID, Title FROM movies WHERE Genre = ? AND Movie_ID > ? ORDER BY Movie_ID LIMIT ?";
+   static final int PAGE_SIZE = 3;
+
+   Connection conn;
+
+   @Before
+   public void createTable() throws SQLException{
+      conn = DriverManager.getConnection("jdbc:sqlite::memory:");
+      try (Statement statement = conn.createStatement()) {
+         statement.executeUpdate("CREATE TABLE movies (Movie_ID INTEGER PRIMARY KEY, Title VARCHAR(100), Genre VARCHAR(100))");
+      }
+   }
+
+   @After
+   public void closeConnection() throws SQLException{
+      StatementCache.close(conn);
+      conn.close();
+   }
+
+   //inserts movies of the genre with the titles "<genre> i", interleaved with movies of another genre
+   private List<String> insertMovies(String genre, int count) throws SQLException{
+      List<String> titles = new ArrayList<>();
+      try (PreparedStatement statement = conn.prepareStatement("INSERT INTO movies (Title, Genre) VALUES (?, ?)")) {
+         for (int i = 1; i <= count; i++) {
+            statement.setString(1, genre + " " + i);
+            statement.setString(2, genre);
+            statement.executeUpdate();
+            titles.add(genre + " " + i);
+            statement.setString(1, "Drama " + i);
+            statement.setString(2, "Drama");
+            statement.executeUpdate();
+         }
+      }
+      return titles;
+   }
+
+   private KeysetPager pager(String genre){
+      return new KeysetPager(conn, FIRST_PAGE, NEXT_PAGE, new Object[] {genre}, PAGE_SIZE, PAGE_SIZE);
+   }
+
+   private List<String> readAll(String genre){
+      try (KeysetPager pager = pager(genre)) {
+         List<String> rows = new ArrayList<>();
+         while (pager.hasNext()) rows.add(pager.next());
+         return rows;
+      }
+   }
+
+   @Test
+   public void exactMultipleOfThePageSizeEndsOnAnEmptyPage() throws SQLException{
+      List<String> titles = insertMovies("Action", PAGE_SIZE * 2);
+
+      assertEquals(titles, readAll("Action"));
+   }
+
+   @Test
+   public void shortLastPageEndsTheQuery() throws SQLException{
+      List<String> titles = insertMovies("Action", PAGE_SIZE * 2 + 1);
+
+      assertEquals(titles, readAll("Action"));
+   }
+
+   @Test
+   public void noRowsGivesAnEmptyPager() throws SQLException{
+      insertMovies("Action", PAGE_SIZE);
+
+      assertEquals(new ArrayList<String>(), readAll("Comedy"));
+   }
+
+   @Test
+   public void hasNextDoesNotSkipRows() throws SQLException{
+      insertMovies("Action", PAGE_SIZE + 1);
+
+      try (KeysetPager pager = pager("Action")) {
+         for (int i = 1; i <= PAGE_SIZE + 1; i++) {
+            //asked twice at every page boundary, the row must only be read once
+            assertTrue(pager.hasNext());
+            assertTrue(pager.hasNext());
+            assertEquals("Action " + i, pager.next());
+         }
+         assertFalse(pager.hasNext());
+      }
+   }
+
+   @Test
+   public void streamStopsWhereTheCallerStops() throws SQLException{
+      List<String> titles = insertMovies("Action", PAGE_SIZE * 3);
+
+      KeysetPager pager = pager("Action");
+      assertEquals(titles.subList(0, PAGE_SIZE + 1), pager.stream().limit(PAGE_SIZE + 1).collect(Collectors.toList()));
+      pager.close();
+      assertFalse(pager.hasNext());
+   }
+}
@@ -0,0 +1,89 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with logarithmic buckets,
+ * safe to record into from many threads at once
+ * Each bucket is 25% wider than the one before, so a percentile
+ * read from the histogram is within 25% of the true value
+ */
+public class LatencyRecorder {
+
+    private static final double BUCKET_GROWTH = 1.25;
+    private static final int BUCKETS = 128;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Records one measurement
+     * @param nanos the latency in nanoseconds
+     */
+    public void record(long nanos) {
+        counts.incrementAndGet(bucketOf(nanos));
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * @return the number of measurements recorded
+     */
+    public long count() {
+        return count.get();
+    }
+
+    /**
+     * @return the mean latency in milliseconds
+     */
+    public double meanMillis() {
+        long n = count.get();
+        return n > 0 ? totalNanos.get() / 1e6 / n : 0;
+    }
+
+    /**
+     * @return the largest latency recorded in milliseconds
+     */
+    public double maxMillis() {
+        return maxNanos.get() / 1e6;
+    }
+
+    /**
+     * Gets a percentile of the recorded latencies
+     * @param percentile the percentile, between 0 and 100
+     * @return the upper bound of the bucket holding the percentile, in milliseconds
+     */
+    public double percentileMillis(double percentile) {
+        long n = count.get();
+        if (n == 0) return 0;
+
+        long rank = (long) Math.ceil(n * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) return Math.min(upperBoundNanos(i), maxNanos.get()) / 1e6;
+        }
+        return maxMillis();
+    }
+
+    /**
+     * @return the count, mean, p50, p90, p99 and max on one line
+     */
+    public String summary() {
+        return String.format("count=%d mean=%.3fms p50=%.3fms p90=%.3fms p99=%.3fms max=%.3fms",
+                count(), meanMillis(), percentileMillis(50), percentileMillis(90), percentileMillis(99), maxMillis());
+    }
+
+    //the first bucket holds everything up to one microsecond
+    private static int bucketOf(long nanos) {
+        if (nanos <= 1000) return 0;
+        int bucket = 1 + (int) (Math.log(nanos / 1000.0) / Math.log(BUCKET_GROWTH));
+        return Math.min(bucket, BUCKETS - 1);
+    }
+
+    private static long upperBoundNanos(int bucket) {
+        return (long) (1000 * Math.pow(BUCKET_GROWTH, bucket));
+    }
+}
@@ -0,0 +1,33 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyRecorderTest {
+
+   @Test
+   public void emptyRecorderReportsZero(){
+      LatencyRecorder recorder = new LatencyRecorder();
+
+      assertEquals(0, recorder.count());
+      assertEquals(0.0, recorder.percentileMillis(99), 0.0);
+   }
+
+   @Test
+   public void percentilesAreWithinBucketWidth(){
+      LatencyRecorder recorder = new LatencyRecorder();
+      //1ms to 100ms in 1ms steps
+      for (int i = 1; i <= 100; i++) {
+         recorder.record(i * 1_000_000L);
+      }
+
+      assertEquals(100, recorder.count());
+      assertEquals(50.5, recorder.meanMillis(), 0.001);
+      assertEquals(100.0, recorder.maxMillis(), 0.001);
+
+      double p50 = recorder.percentileMillis(50);
+      assertTrue(p50 >= 50 && p50 <= 50 * 1.25);
+      double p99 = recorder.percentileMillis(99);
+      assertTrue(p99 >= 99 && p99 <= 100);
+   }
+}
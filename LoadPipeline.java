@@ -0,0 +1,305 @@
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Staged loading pipeline: several parser threads turn the records of the data files
+ * into rows and pass them in batches through a bounded queue to a single writer,
+ * which matches SQLite allowing only one writer at a time
+ * Each file is parsed by one thread, so the rows of a table reach the writer in file order
+ * A full queue blocks the parsers until the writer catches up
+ * Every file shares the writer's transaction, so the files of a run are committed together
+ */
+public class LoadPipeline {
+
+    /**
+     * Turns one record of a data file into the values bound to the insert statement
+     */
+    public interface RowParser {
+
+        /**
+         * @param record the reader, positioned on the record to parse
+         * @return the values to bind in parameter order, or null to skip the record
+         */
+        Object[] parse(MappedCsvReader record);
+    }
+
+    //a file to load and the table it is loaded into
+    private static final class Source {
+        final File file;
+        final String tableName;
+        final String insertSQL;
+        final RowParser parser;
+
+        //parser stage counters, read by the writer once the parser has finished
+        long recordsRead = 0;
+        long rowsParsed = 0;
+        long parseNanos = 0;
+        long blockedNanos = 0;
+        Exception error = null;
+
+        Source(File file, String tableName, String insertSQL, RowParser parser) {
+            this.file = file;
+            this.tableName = tableName;
+            this.insertSQL = insertSQL;
+            this.parser = parser;
+        }
+    }
+
+    //a group of parsed rows for one table, the last batch of a file has 'last' set
+    private static final class Batch {
+        final Source source;
+        final List<Object[]> rows;
+        final boolean last;
+
+        Batch(Source source, List<Object[]> rows, boolean last) {
+            this.source = source;
+            this.rows = rows;
+            this.last = last;
+        }
+    }
+
+    private final Connection conn;
+    private final int batchSize;
+    private final int parserThreads;
+    private final BlockingQueue<Batch> queue;
+    private final List<Source> sources = new ArrayList<>();
+
+    //writer stage counters
+    private long rowsWritten = 0;
+    private long writeNanos = 0;
+    private long waitNanos = 0;
+    private final StringBuilder report = new StringBuilder();
+
+    /**
+     * @param conn connection to the SQLite database, only used by the writer
+     * @param batchSize rows per batch passed to the writer and per executeBatch call
+     * @param queueCapacity number of batches that can wait for the writer before the parsers block
+     * @param parserThreads number of files parsed at the same time
+     */
+    public LoadPipeline(Connection conn, int batchSize, int queueCapacity, int parserThreads) {
+        this.conn = conn;
+        this.batchSize = Math.max(1, batchSize);
+        this.parserThreads = Math.max(1, parserThreads);
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+    }
+
+    /**
+     * Adds a data file to the pipeline
+     * @param file the data file
+     * @param tableName the table the rows are inserted into
+     * @param insertSQL insert statement for the table
+     * @param parser turns each record into the values to insert
+     */
+    public void addFile(File file, String tableName, String insertSQL, RowParser parser) {
+        sources.add(new Source(file, tableName, insertSQL, parser));
+    }
+
+    /**
+     * Parses every file on the parser threads while the calling thread writes the rows
+     * The rows of every file are committed together once the last batch of each has been written,
+     * so a failure leaves none of the tables of the run half loaded
+     * @return true if every file was parsed and written, otherwise returns false
+     * @throws SQLException if the connection cannot be committed or rolled back
+     * @throws InterruptedException if the writer is interrupted while waiting for rows
+     */
+    public boolean run() throws SQLException, InterruptedException {
+
+        if (sources.isEmpty()) return true;
+
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+
+        ExecutorService parsers = Executors.newFixedThreadPool(Math.min(parserThreads, sources.size()));
+        for (Source source : sources) {
+            parsers.execute(() -> parse(source));
+        }
+        parsers.shutdown();
+
+        long startTime = System.nanoTime();
+        boolean success = write();
+
+        parsers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        conn.setAutoCommit(autoCommit);
+
+        for (Source source : sources) {
+            if (source.error != null) {
+                System.err.println("Failed to parse " + source.file.getName() + ": " + source.error.getMessage());
+                success = false;
+            }
+        }
+
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        report.append(String.format("writer: %d rows in %.2fs (%.0f rows/sec), %.2fs writing, %.2fs waiting for parsers%n",
+                rowsWritten, seconds, seconds > 0 ? rowsWritten / seconds : 0, writeNanos / 1e9, waitNanos / 1e9));
+        return success;
+    }
+
+    /**
+     * @return the per-file parser counters and the writer counters of the last run
+     */
+    public String report() {
+        return report.toString().trim();
+    }
+
+    /**
+     * Parser stage: reads a file record by record and queues its rows in batches
+     * @param source the file to parse
+     */
+    private void parse(Source source) {
+
+        List<Object[]> rows = new ArrayList<>(batchSize);
+        long startTime = System.nanoTime();
+
+        try (MappedCsvReader reader = new MappedCsvReader(source.file)) {
+            while (reader.next()) {
+                source.recordsRead++;
+                Object[] values = source.parser.parse(reader);
+                if (values == null) continue;
+
+                rows.add(values);
+                source.rowsParsed++;
+                if (rows.size() >= batchSize) {
+                    put(new Batch(source, rows, false), source);
+                    rows = new ArrayList<>(batchSize);
+                }
+            }
+        } catch (IOException | RuntimeException | InterruptedException e) {
+            source.error = e;
+        } finally {
+            source.parseNanos = System.nanoTime() - startTime - source.blockedNanos;
+            //always sent, even after an error or an interrupt, so the writer knows the file is finished
+            putLast(new Batch(source, rows, true), source);
+        }
+    }
+
+    /**
+     * Queues the last batch of a file, waiting through interrupts and restoring the interrupt status afterwards
+     */
+    private void putLast(Batch batch, Source source) {
+        boolean interrupted = Thread.interrupted();
+        while (true) {
+            try {
+                put(batch, source);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    /**
+     * Queues a batch, counting the time spent blocked on a full queue
+     */
+    private void put(Batch batch, Source source) throws InterruptedException {
+        long startTime = System.nanoTime();
+        queue.put(batch);
+        source.blockedNanos += System.nanoTime() - startTime;
+    }
+
+    /**
+     * Writer stage: drains the queue until the last batch of every file has arrived
+     * After a failure the remaining batches are still drained, so no parser stays blocked
+     * @return true if every row was written, otherwise returns false
+     */
+    private boolean write() throws SQLException, InterruptedException {
+
+        Map<Source, BatchInserter> inserters = new HashMap<>();
+        int filesRemaining = sources.size();
+        boolean success = true;
+
+        while (filesRemaining > 0) {
+            long waitStart = System.nanoTime();
+            Batch batch = queue.take();
+            long writeStart = System.nanoTime();
+            waitNanos += writeStart - waitStart;
+
+            if (success) {
+                try {
+                    success = writeBatch(batch, inserters);
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                    success = false;
+                }
+                if (!success) conn.rollback();
+            }
+
+            if (batch.last) filesRemaining--;
+            writeNanos += System.nanoTime() - writeStart;
+        }
+
+        //one commit for the whole run, so a failure rolls back every table of it
+        if (success) {
+            long commitStart = System.nanoTime();
+            try {
+                QueryResultCache.bumpDataVersion(conn);
+                conn.commit();
+            } catch (SQLException e) {
+                e.printStackTrace();
+                conn.rollback();
+                success = false;
+            }
+            Metrics.recordNanos("commit_seconds", System.nanoTime() - commitStart, "table", tableNames());
+        }
+
+        for (BatchInserter inserter : inserters.values()) {
+            inserter.getStatement().close();
+        }
+        return success;
+    }
+
+    /**
+     * Binds and inserts the rows of a batch, flushing the table after its last batch
+     */
+    private boolean writeBatch(Batch batch, Map<Source, BatchInserter> inserters) throws SQLException {
+
+        Source source = batch.source;
+        BatchInserter inserter = inserters.get(source);
+        if (inserter == null) {
+            inserter = new BatchInserter(source.tableName, conn.prepareStatement(source.insertSQL), batchSize);
+            inserters.put(source, inserter);
+        }
+
+        PreparedStatement statement = inserter.getStatement();
+        for (Object[] values : batch.rows) {
+            for (int i = 0; i < values.length; i++) {
+                statement.setObject(i + 1, values[i]);
+            }
+            if (!inserter.addRow()) return false;
+            rowsWritten++;
+        }
+
+        if (batch.last) {
+            if (!inserter.flush()) return false;
+            if (source.error != null) return false;
+            report.append(inserter.report()).append(String.format(
+                    " | parser %s: %d records, %.2fs parsing, %.2fs blocked on full queue%n",
+                    source.file.getName(), source.recordsRead, source.parseNanos / 1e9, source.blockedNanos / 1e9));
+        }
+        return true;
+    }
+
+    /**
+     * @return the tables of the run joined with '+', the label of its commit
+     */
+    private String tableNames() {
+        StringBuilder names = new StringBuilder();
+        for (Source source : sources) {
+            if (names.length() > 0) names.append('+');
+            names.append(source.tableName);
+        }
+        return names.toString();
+    }
+}
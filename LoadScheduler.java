@@ -0,0 +1,367 @@
+import java.io.File;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Loads the data files in dependency order: a table is only loaded once every table
+ * it references is committed, and tables that do not depend on each other are loaded together
+ * Each level of the dependency graph runs as one LoadPipeline, so its files are parsed
+ * (and their names resolved to IDs) on several threads while a single thread writes,
+ * and a level takes about as long as its largest file instead of the sum of its files
+ *
+ * The ID dictionaries are rebuilt before each level that references other tables
+ * If they do not fit in the memory budget, lookups would have to query the writer's
+ * connection from the parser threads, so the remaining levels are left to the caller
+ * to load serially (see isFinished)
+ */
+public class LoadScheduler {
+
+    /**
+     * Creates the parser for a table once the tables it depends on are loaded
+     */
+    interface ParserFactory {
+
+        /**
+         * @param resolver dictionaries of the loaded tables, null for a table with no dependencies
+         * @return the parser for the table's data file
+         */
+        LoadPipeline.RowParser create(IDResolver resolver);
+    }
+
+    /**
+     * Turns one record of a link file into the values to insert, resolving names to IDs
+     */
+    interface LinkParser {
+
+        /**
+         * @param record the reader, positioned on the record
+         * @param resolver dictionaries of the loaded tables
+         * @return the values to bind, or null to skip the record
+         * @throws SQLException if a lookup throws an SQL error
+         */
+        Object[] parse(MappedCsvReader record, IDResolver resolver) throws SQLException;
+    }
+
+    //a table, the data file it is loaded from and the tables it references
+    private static final class Task {
+        final String tableName;
+        final File file;
+        final String insertSQL;
+        final ParserFactory factory;
+        final String[] dependsOn;
+
+        Task(String tableName, File file, String insertSQL, ParserFactory factory, String[] dependsOn) {
+            this.tableName = tableName;
+            this.file = file;
+            this.insertSQL = insertSQL;
+            this.factory = factory;
+            this.dependsOn = dependsOn;
+        }
+    }
+
+    private final Connection conn;
+    private final int batchSize;
+    private final int parserThreads;
+    private final long dictionaryBytes;
+    private final Map<String, Task> tasks = new LinkedHashMap<>();
+
+    private int maxLevels = Integer.MAX_VALUE;
+    private IDResolver resolver = null;
+    private boolean finished = false;
+    private final StringBuilder report = new StringBuilder();
+
+    /**
+     * @param conn connection to the SQLite database, only written to by the calling thread
+     * @param batchSize rows per batch passed to the writer and per executeBatch call
+     * @param parserThreads number of files parsed at the same time
+     * @param dictionaryBytes memory budget for the name to ID dictionaries
+     */
+    public LoadScheduler(Connection conn, int batchSize, int parserThreads, long dictionaryBytes) {
+        this.conn = conn;
+        this.batchSize = Math.max(1, batchSize);
+        this.parserThreads = Math.max(1, parserThreads);
+        this.dictionaryBytes = dictionaryBytes;
+    }
+
+    /**
+     * Schedules every data file of a directory: the entity tables (actors, awards, movies
+     * and the distinct directors) first, then the link tables, ratings and the directors of the movies
+     * @param conn connection to the SQLite database
+     * @param dataDirectory the directory holding the data files
+     * @param batchSize rows per batch passed to the writer and per executeBatch call
+     * @param parserThreads number of files parsed at the same time
+     * @param dictionaryBytes memory budget for the name to ID dictionaries
+     * @param rejects where records that fail validation are recorded
+     * @return the scheduler, with a table for every data file that exists
+     */
+    public static LoadScheduler forDataDirectory(Connection conn, File dataDirectory, int batchSize, int parserThreads,
+                                                 long dictionaryBytes, RejectFile rejects) {
+
+        LoadScheduler scheduler = new LoadScheduler(conn, batchSize, parserThreads, dictionaryBytes);
+
+        for (String fileName : new String[]{"actors.csv", "awards.csv", "movies.csv"}) {
+            scheduler.addTable(fileName.replace(".csv", ""), new File(dataDirectory, fileName), PopulateDB.getInsertStatement(fileName),
+                    resolver -> typedParser(fileName, TypedRows.forFile(fileName), rejects));
+        }
+
+        File directorsFile = new File(dataDirectory, "directors.csv");
+        scheduler.addTable("directors", directorsFile, "INSERT INTO directors(Name) VALUES(?)",
+                resolver -> {
+                    //each director is added once, however many movies they directed
+                    Set<String> seen = new HashSet<>();
+                    return record -> {
+                        if (record.fieldCount() < 2 || TypedRows.isBlank(record, 0)) return null;
+                        String name = record.getString(0);
+                        return seen.add(name) ? new Object[]{name} : null;
+                    };
+                });
+
+        scheduler.addLinkTable("movies.Director_ID", directorsFile, "UPDATE movies SET Director_ID = ? WHERE Movie_ID = ?",
+                (record, resolver) -> {
+                    if (record.fieldCount() < 2) return null;
+                    int movie_ID = resolver.getMovieID(record.field(1));
+                    if (movie_ID == 0) return skipped("movies.Director_ID", "movie_not_found");
+                    int director_ID = resolver.getDirectorID(record.field(0));
+                    if (director_ID == 0) return skipped("movies.Director_ID", "director_not_found");
+                    return new Object[]{director_ID, movie_ID};
+                }, "movies", "directors");
+
+        scheduler.addLinkTable("actors_to_movies", new File(dataDirectory, "actors_to_movies.csv"), "INSERT INTO actors_to_movies VALUES (?, ?)",
+                (record, resolver) -> {
+                    if (record.fieldCount() < 2) return null;
+                    int actor_ID = resolver.getActorID(record.field(0));
+                    if (actor_ID == 0) return skipped("actors_to_movies", "actor_not_found");
+                    int movie_ID = resolver.getMovieID(record.field(1));
+                    if (movie_ID == 0) return skipped("actors_to_movies", "movie_not_found");
+                    return new Object[]{actor_ID, movie_ID};
+                }, "actors", "movies");
+
+        scheduler.addLinkTable("movies_to_awards", new File(dataDirectory, "movies_to_awards.csv"), "INSERT INTO movies_to_awards VALUES(?, ?)",
+                (record, resolver) -> {
+                    if (record.fieldCount() < 2 || "No awards".contentEquals(record.field(1))) return null;
+                    int movie_ID = resolver.getMovieID(record.field(0));
+                    if (movie_ID == 0) return skipped("movies_to_awards", "movie_not_found");
+                    int award_ID = resolver.getAwardID(record.field(1));
+                    if (award_ID == 0) return skipped("movies_to_awards", "award_not_found");
+                    return new Object[]{movie_ID, award_ID};
+                }, "movies", "awards");
+
+        scheduler.addLinkTable("actors_to_awards", new File(dataDirectory, "actors_to_awards.csv"), "INSERT INTO actors_to_awards VALUES (?, ?)",
+                (record, resolver) -> {
+                    if (record.fieldCount() < 2) return null;
+                    int actor_ID = resolver.getActorID(record.field(0));
+                    if (actor_ID == 0) return skipped("actors_to_awards", "actor_not_found");
+                    int award_ID = resolver.getAwardID(record.field(1));
+                    if (award_ID == 0) return skipped("actors_to_awards", "award_not_found");
+                    return new Object[]{actor_ID, award_ID};
+                }, "actors", "awards");
+
+        File ratingsFile = new File(dataDirectory, "ratings.csv");
+        scheduler.addTable("ratings", ratingsFile, "INSERT INTO ratings (Rating_Value, Rating_Source, Movie_ID) VALUES (?, ?, ?)",
+                resolver -> {
+                    TypedRows.RatingRow rating = new TypedRows.RatingRow();
+                    return record -> {
+                        String reason = rating.parse(record);
+                        if (reason != null) {
+                            rejects.reject("ratings.csv", record, reason);
+                            return null;
+                        }
+                        rating.movieID = lookup(() -> resolver.getMovieID(rating.title));
+                        if (rating.movieID == 0) return skipped("ratings", "movie_not_found");
+                        return rating.values();
+                    };
+                }, "movies");
+
+        return scheduler;
+    }
+
+    /**
+     * Adds a table to the schedule
+     * @param tableName the table, also the name other tables depend on
+     * @param file the data file, the table is left out of the run if it does not exist
+     * @param insertSQL insert (or update) statement for each row
+     * @param factory creates the parser once the tables the table depends on are loaded
+     * @param dependsOn the tables that have to be loaded first
+     */
+    public void addTable(String tableName, File file, String insertSQL, ParserFactory factory, String... dependsOn) {
+        tasks.put(tableName, new Task(tableName, file, insertSQL, factory, dependsOn));
+    }
+
+    /**
+     * Adds a table whose rows reference other tables through the ID dictionaries
+     * @see #addTable
+     */
+    void addLinkTable(String tableName, File file, String insertSQL, LinkParser parser, String... dependsOn) {
+        addTable(tableName, file, insertSQL, resolver -> record -> lookup(() -> parser.parse(record, resolver)), dependsOn);
+    }
+
+    /**
+     * Stops the run after the given number of levels, leaving the rest to the caller
+     * @param maxLevels the number of levels to load, 1 loads only the tables with no dependencies
+     */
+    public void setMaxLevels(int maxLevels) {
+        this.maxLevels = maxLevels;
+    }
+
+    /**
+     * Loads each level of tables in turn, committing each level once all of its files are written
+     * @return true if every scheduled table was loaded, otherwise returns false
+     * @throws SQLException if the connection cannot be committed or rolled back
+     * @throws InterruptedException if the writer is interrupted while waiting for rows
+     */
+    public boolean run() throws SQLException, InterruptedException {
+
+        Map<String, String[]> dependencies = new LinkedHashMap<>();
+        for (Task task : tasks.values()) {
+            dependencies.put(task.tableName, task.dependsOn);
+        }
+        List<List<String>> levels = levels(dependencies);
+
+        for (int level = 0; level < levels.size(); level++) {
+
+            if (level >= maxLevels) {
+                report.append(remaining(levels, level)).append(" left to load by the caller\n");
+                return true;
+            }
+
+            if (level > 0) {
+                resolver = IDResolver.build(conn, dictionaryBytes);
+                report.append(resolver.report()).append('\n');
+                if (!resolver.isComplete()) {
+                    report.append("ID dictionaries exceed the memory budget, ").append(remaining(levels, level)).append(" left to load serially\n");
+                    return true;
+                }
+            }
+
+            LoadPipeline pipeline = new LoadPipeline(conn, batchSize, PopulateDB.PIPELINE_QUEUE_BATCHES, parserThreads);
+            List<String> loading = new ArrayList<>();
+            for (String tableName : levels.get(level)) {
+                Task task = tasks.get(tableName);
+                if (!task.file.exists()) continue;
+                pipeline.addFile(task.file, task.tableName, task.insertSQL, task.factory.create(resolver));
+                loading.add(tableName);
+            }
+
+            long startTime = System.nanoTime();
+            boolean success = pipeline.run();
+            long nanos = System.nanoTime() - startTime;
+            Metrics.recordNanos("load_stage_seconds", nanos, "stage", String.valueOf(level));
+            report.append(String.format("stage %d %s: %.2fs%n", level, loading, nanos / 1e9)).append(pipeline.report()).append('\n');
+            if (!success) return false;
+        }
+
+        finished = true;
+        return true;
+    }
+
+    /**
+     * @return true if the last run loaded every level, false if levels were left for a serial load
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * @return the ID dictionaries built for the last level that was run, or null if none was needed
+     */
+    public IDResolver getResolver() {
+        return resolver;
+    }
+
+    /**
+     * @return the tables loaded at each level, with their stage and per-file counters
+     */
+    public String report() {
+        return report.toString().trim();
+    }
+
+    /**
+     * Groups tables into levels: a table's level is one more than the highest level
+     * of the tables it depends on, and dependencies on tables that are not scheduled are
+     * treated as already loaded
+     * @param dependencies each table and the tables it depends on, in the order they were added
+     * @return the tables of each level, in the order they were added
+     * @throws IllegalArgumentException if the dependencies form a cycle
+     */
+    static List<List<String>> levels(Map<String, String[]> dependencies) {
+
+        Map<String, Integer> levelOf = new LinkedHashMap<>();
+        List<List<String>> levels = new ArrayList<>();
+        for (String table : dependencies.keySet()) {
+            int level = level(table, dependencies, levelOf, new HashSet<>());
+            while (levels.size() <= level) levels.add(new ArrayList<>());
+            levels.get(level).add(table);
+        }
+        return levels;
+    }
+
+    private static int level(String table, Map<String, String[]> dependencies, Map<String, Integer> levelOf, Set<String> visiting) {
+
+        Integer known = levelOf.get(table);
+        if (known != null) return known;
+        if (!visiting.add(table)) throw new IllegalArgumentException("Tables depend on each other: " + visiting);
+
+        int level = 0;
+        for (String dependency : dependencies.get(table)) {
+            if (dependencies.containsKey(dependency)) {
+                level = Math.max(level, level(dependency, dependencies, levelOf, visiting) + 1);
+            }
+        }
+        visiting.remove(table);
+        levelOf.put(table, level);
+        return level;
+    }
+
+    private static List<String> remaining(List<List<String>> levels, int from) {
+        List<String> tables = new ArrayList<>();
+        for (int level = from; level < levels.size(); level++) {
+            tables.addAll(levels.get(level));
+        }
+        return tables;
+    }
+
+    /**
+     * Parses each record into a typed row, writing the records that fail validation to the reject file
+     */
+    private static LoadPipeline.RowParser typedParser(String fileName, TypedRows.Row row, RejectFile rejects) {
+        return record -> {
+            String reason = row.parse(record);
+            if (reason == null) return row.values();
+            rejects.reject(fileName, record, reason);
+            return null;
+        };
+    }
+
+    /**
+     * Counts a record that was not loaded because a name had no ID
+     * @return null, so the record is skipped
+     */
+    private static Object[] skipped(String table, String reason) {
+        Metrics.increment("rows_skipped_total", "table", table, "reason", reason);
+        return null;
+    }
+
+    /**
+     * A lookup that may fall back to the database
+     */
+    private interface Lookup<T> {
+        T get() throws SQLException;
+    }
+
+    /**
+     * Runs a lookup on a parser thread, where an SQL error fails the file it was parsing
+     */
+    private static <T> T lookup(Lookup<T> lookup) {
+        try {
+            return lookup.get();
+        } catch (SQLException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class LoadSchedulerTest {
+
+   @Test
+   public void groupsIndependentTablesIntoLevels(){
+      Map<String, String[]> dependencies = new LinkedHashMap<>();
+      dependencies.put("actors_to_movies", new String[]{"actors", "movies"});
+      dependencies.put("actors", new String[]{});
+      dependencies.put("movies", new String[]{});
+      dependencies.put("ratings", new String[]{"movies"});
+      dependencies.put("awards", new String[]{});
+
+      List<List<String>> levels = LoadScheduler.levels(dependencies);
+
+      assertEquals(2, levels.size());
+      assertEquals(Arrays.asList("actors", "movies", "awards"), levels.get(0));
+      assertEquals(Arrays.asList("actors_to_movies", "ratings"), levels.get(1));
+   }
+
+   @Test
+   public void chainsDependenciesAcrossLevels(){
+      Map<String, String[]> dependencies = new LinkedHashMap<>();
+      dependencies.put("c", new String[]{"b"});
+      dependencies.put("b", new String[]{"a"});
+      dependencies.put("a", new String[]{});
+
+      List<List<String>> levels = LoadScheduler.levels(dependencies);
+
+      assertEquals(Arrays.asList(Arrays.asList("a"), Arrays.asList("b"), Arrays.asList("c")), levels);
+   }
+
+   @Test
+   public void treatsUnscheduledTablesAsLoaded(){
+      Map<String, String[]> dependencies = new LinkedHashMap<>();
+      dependencies.put("ratings", new String[]{"movies"});
+
+      assertEquals(Arrays.asList(Arrays.asList("ratings")), LoadScheduler.levels(dependencies));
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void rejectsCycles(){
+      Map<String, String[]> dependencies = new LinkedHashMap<>();
+      dependencies.put("a", new String[]{"b"});
+      dependencies.put("b", new String[]{"a"});
+
+      LoadScheduler.levels(dependencies);
+   }
+}
@@ -0,0 +1,297 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads a CSV data file through a memory-mapped window instead of a FileReader
+ * The bytes are scanned in place: each field of the current record is only
+ * an offset into the mapping, handed out as a reusable CharSequence view,
+ * and a String is only created when a value is asked for with getString
+ * Fields may be quoted, so a plot containing commas, quotes ("") or line breaks is one field
+ * Files larger than the window are mapped one window at a time
+ */
+public class MappedCsvReader implements AutoCloseable {
+
+    //bytes mapped at once, a single record has to fit in one window
+    static final int DEFAULT_WINDOW_BYTES = 256 * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private final int windowBytes;
+
+    private MappedByteBuffer buffer;
+    //file offset of the first byte in the current window
+    private long windowStart = 0;
+    //position in the window of the next record
+    private int position = 0;
+    private int limit = 0;
+    //file offset of the current record
+    private long recordStart = 0;
+
+    //offsets of the fields of the current record within the window
+    private int fieldCount = 0;
+    private int[] starts = new int[8];
+    private int[] ends = new int[8];
+    private boolean[] escapedQuotes = new boolean[8];
+    private boolean[] nonAscii = new boolean[8];
+    private Field[] fields = new Field[8];
+
+    /**
+     * @param file the CSV file to read
+     * @throws IOException if the file cannot be opened or mapped
+     */
+    public MappedCsvReader(File file) throws IOException {
+        this(file, DEFAULT_WINDOW_BYTES);
+    }
+
+    /**
+     * @param file the CSV file to read
+     * @param windowBytes the number of bytes mapped at once
+     * @throws IOException if the file cannot be opened or mapped
+     */
+    public MappedCsvReader(File file, int windowBytes) throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.fileSize = channel.size();
+        this.windowBytes = windowBytes;
+        map(0);
+    }
+
+    /**
+     * Moves to the next record, empty lines are skipped
+     * The views returned by field are only valid until the next call
+     * @return true if there was another record, false at the end of the file
+     * @throws IOException if a record is larger than the window or the file cannot be mapped
+     */
+    public boolean next() throws IOException {
+
+        while (windowStart + position < fileSize) {
+
+            boolean atEndOfFile = windowStart + limit >= fileSize;
+            int recordEnd = scanRecord(atEndOfFile);
+
+            if (recordEnd < 0) {
+                //the record carries on past the window, so the window is moved to start at the record
+                if (position == 0) throw new IOException("Record at byte " + windowStart + " is larger than the mapping window");
+                map(windowStart + position);
+                continue;
+            }
+
+            recordStart = windowStart + position;
+            position = recordEnd;
+            for (int i = 0; i < fieldCount; i++) {
+                fields[i].value = null;
+            }
+
+            //an empty line is a single empty field
+            if (fieldCount == 1 && starts[0] == ends[0]) continue;
+            return true;
+        }
+        fieldCount = 0;
+        return false;
+    }
+
+    /**
+     * @return the number of fields in the current record
+     */
+    public int fieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * Gets a view of a field of the current record without creating a String
+     * @param index the index of the field
+     * @return the field, valid until the next call to next
+     */
+    public CharSequence field(int index) {
+        if (index >= fieldCount) throw new IndexOutOfBoundsException("Record has " + fieldCount + " fields, no field " + index);
+        return fields[index];
+    }
+
+    /**
+     * Gets a field of the current record as a String
+     * @param index the index of the field
+     * @return the field, or null if the record has fewer fields
+     */
+    public String getString(int index) {
+        return index < fieldCount ? fields[index].toString() : null;
+    }
+
+    /**
+     * @return the byte offset in the file of the next record to be read
+     */
+    public long position() {
+        return windowStart + position;
+    }
+
+    /**
+     * @return the byte offset in the file of the current record
+     */
+    public long recordStart() {
+        return recordStart;
+    }
+
+    /**
+     * Moves the reader to a byte offset, which has to be the start of a record
+     * @param offset the byte offset in the file
+     * @throws IOException if the file cannot be mapped
+     */
+    public void seek(long offset) throws IOException {
+        map(Math.min(offset, fileSize));
+        fieldCount = 0;
+    }
+
+    /**
+     * @throws IOException if the file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void map(long offset) throws IOException {
+        long size = Math.min(windowBytes, fileSize - offset);
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+        windowStart = offset;
+        position = 0;
+        limit = (int) size;
+    }
+
+    /**
+     * Finds the fields of the record starting at the current position
+     * @param atEndOfFile true if the window reaches the end of the file
+     * @return the position after the record, or -1 if the record is cut off by the window
+     */
+    private int scanRecord(boolean atEndOfFile) {
+
+        int p = position;
+        fieldCount = 0;
+
+        while (true) {
+            int start;
+            int end;
+            boolean escaped = false;
+            boolean wide = false;
+
+            if (p < limit && buffer.get(p) == '"') {
+                //quoted field: runs to the next quote that is not doubled
+                p++;
+                start = p;
+                while (true) {
+                    if (p >= limit) {
+                        if (!atEndOfFile) return -1;
+                        end = p;
+                        break;
+                    }
+                    byte b = buffer.get(p);
+                    if (b == '"') {
+                        if (p + 1 >= limit && !atEndOfFile) return -1;
+                        if (p + 1 < limit && buffer.get(p + 1) == '"') {
+                            escaped = true;
+                            p += 2;
+                            continue;
+                        }
+                        end = p;
+                        p++;
+                        break;
+                    }
+                    if (b < 0) wide = true;
+                    p++;
+                }
+                //anything between the closing quote and the delimiter is ignored
+                while (p < limit && buffer.get(p) != ',' && buffer.get(p) != '\n') p++;
+                if (p >= limit && !atEndOfFile) return -1;
+            } else {
+                start = p;
+                while (p < limit) {
+                    byte b = buffer.get(p);
+                    if (b == ',' || b == '\n') break;
+                    if (b < 0) wide = true;
+                    p++;
+                }
+                if (p >= limit && !atEndOfFile) return -1;
+                end = p;
+                if (end > start && buffer.get(end - 1) == '\r') end--;
+            }
+
+            addField(start, end, escaped, wide);
+
+            if (p >= limit) return p;
+            if (buffer.get(p) == '\n') return p + 1;
+
+            //a comma: another field follows, which is empty if the file ends here
+            p++;
+            if (p >= limit && atEndOfFile) {
+                addField(p, p, false, false);
+                return p;
+            }
+        }
+    }
+
+    private void addField(int start, int end, boolean escaped, boolean wide) {
+        if (fieldCount == starts.length) {
+            int capacity = fieldCount * 2;
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            escapedQuotes = Arrays.copyOf(escapedQuotes, capacity);
+            nonAscii = Arrays.copyOf(nonAscii, capacity);
+            fields = Arrays.copyOf(fields, capacity);
+        }
+        if (fields[fieldCount] == null) fields[fieldCount] = new Field(fieldCount);
+
+        starts[fieldCount] = start;
+        ends[fieldCount] = end;
+        escapedQuotes[fieldCount] = escaped;
+        nonAscii[fieldCount] = wide;
+        fieldCount++;
+    }
+
+    /**
+     * View of one field of the current record
+     * ASCII fields without escaped quotes are read straight from the mapping,
+     * anything else is decoded to a String on first use
+     */
+    private final class Field implements CharSequence {
+
+        private final int index;
+        //the decoded field, cleared when the reader moves to the next record
+        String value;
+
+        Field(int index) {
+            this.index = index;
+        }
+
+        private boolean direct() {
+            return value == null && !escapedQuotes[index] && !nonAscii[index];
+        }
+
+        @Override
+        public int length() {
+            return direct() ? ends[index] - starts[index] : toString().length();
+        }
+
+        @Override
+        public char charAt(int i) {
+            return direct() ? (char) buffer.get(starts[index] + i) : toString().charAt(i);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            if (value == null) {
+                byte[] bytes = new byte[ends[index] - starts[index]];
+                buffer.get(starts[index], bytes);
+                value = new String(bytes, StandardCharsets.UTF_8);
+                if (escapedQuotes[index]) value = value.replace("\"\"", "\"");
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MappedCsvReaderTest {
+
+   File csvFile;
+
+   @Before
+   public void createFile() throws IOException{
+      csvFile = File.createTempFile("mapped-csv", ".csv");
+   }
+
+   @After
+   public void deleteFile(){
+      csvFile.delete();
+   }
+
+   private void write(String contents) throws IOException{
+      Files.write(csvFile.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+   }
+
+   @Test
+   public void readsPlainFields() throws IOException{
+      write("Johnny Depp,1963-06-09\nKeira Knightley,1985-03-26\n");
+
+      try (MappedCsvReader reader = new MappedCsvReader(csvFile)) {
+         assertTrue(reader.next());
+         assertEquals(2, reader.fieldCount());
+         assertEquals("Johnny Depp", reader.getString(0));
+         assertEquals("1963-06-09", reader.field(1).toString());
+         assertTrue(reader.next());
+         assertEquals("Keira Knightley", reader.getString(0));
+         assertFalse(reader.next());
+      }
+   }
+
+   @Test
+   public void quotedFieldKeepsCommasAndQuotes() throws IOException{
+      write("Pirates,Action,\"Will, a blacksmith, says \"\"hello\"\"\",2003-07-09\r\n");
+
+      try (MappedCsvReader reader = new MappedCsvReader(csvFile)) {
+         assertTrue(reader.next());
+         assertEquals(4, reader.fieldCount());
+         assertEquals("Will, a blacksmith, says \"hello\"", reader.getString(2));
+         assertEquals("2003-07-09", reader.getString(3));
+         assertNull(reader.getString(4));
+      }
+   }
+
+   @Test
+   public void skipsEmptyLinesAndKeepsLastLineWithoutNewline() throws IOException{
+      write("a,b\n\nc,d");
+
+      try (MappedCsvReader reader = new MappedCsvReader(csvFile)) {
+         assertTrue(reader.next());
+         assertTrue(reader.next());
+         assertEquals("c", reader.getString(0));
+         assertEquals("d", reader.getString(1));
+         assertFalse(reader.next());
+      }
+   }
+
+   @Test
+   public void recordsSpanningWindowsAreRead() throws IOException{
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < 200; i++) {
+         sb.append("Actor ").append(i).append(",\"Movie, ").append(i).append("\"\n");
+      }
+      write(sb.toString());
+
+      try (MappedCsvReader reader = new MappedCsvReader(csvFile, 64)) {
+         for (int i = 0; i < 200; i++) {
+            assertTrue(reader.next());
+            assertEquals("Actor " + i, reader.getString(0));
+            assertEquals("Movie, " + i, reader.getString(1));
+         }
+         assertFalse(reader.next());
+      }
+   }
+
+   @Test
+   public void decodesUtf8Fields() throws IOException{
+      write("Pen\u00e9lope Cruz,1974-04-28\n");
+
+      try (MappedCsvReader reader = new MappedCsvReader(csvFile)) {
+         assertTrue(reader.next());
+         assertEquals("Pen\u00e9lope Cruz", reader.getString(0));
+         assertTrue("Pen\u00e9lope Cruz".contentEquals(reader.field(0)));
+      }
+   }
+}
@@ -0,0 +1,160 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide counters and latency histograms for the load and query paths,
+ * written in the Prometheus text format so a run can be scraped afterwards
+ * (each tool takes "--metrics &lt;file&gt;", and QueryServer serves them on /metrics)
+ *
+ * Metrics are named with their labels, e.g. rows_inserted_total{table="actors"};
+ * each name and label set is created the first time it is used
+ */
+public class Metrics {
+
+    //prefix of every metric name written out
+    static final String PREFIX = "moviedb_";
+
+    //quantiles written for each latency summary
+    private static final double[] QUANTILES = {50, 90, 99};
+
+    private static final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private static final Map<String, LatencyRecorder> timers = new ConcurrentHashMap<>();
+
+    //groups every label set of a metric together, as the text format requires
+    private static final Comparator<String> BY_NAME = Comparator.comparing(Metrics::baseName).thenComparing(Comparator.naturalOrder());
+
+    private Metrics() {
+    }
+
+    /**
+     * Adds to a counter
+     * @param name the metric name
+     * @param amount the amount to add
+     * @param labels label names and values, alternating
+     */
+    public static void add(String name, long amount, String... labels) {
+        counters.computeIfAbsent(key(name, labels), key -> new LongAdder()).add(amount);
+    }
+
+    /**
+     * Adds one to a counter
+     * @param name the metric name
+     * @param labels label names and values, alternating
+     */
+    public static void increment(String name, String... labels) {
+        add(name, 1, labels);
+    }
+
+    /**
+     * Records one duration in a latency summary
+     * @param name the metric name, in seconds when written out
+     * @param nanos the duration in nanoseconds
+     * @param labels label names and values, alternating
+     */
+    public static void recordNanos(String name, long nanos, String... labels) {
+        timers.computeIfAbsent(key(name, labels), key -> new LatencyRecorder()).record(nanos);
+    }
+
+    /**
+     * @param name the metric name
+     * @param labels label names and values, alternating
+     * @return the value of a counter, 0 if it has never been incremented
+     */
+    public static long count(String name, String... labels) {
+        LongAdder counter = counters.get(key(name, labels));
+        return counter == null ? 0 : counter.sum();
+    }
+
+    /**
+     * Discards every metric, so a tool run several times in one JVM reports each run alone
+     */
+    public static void reset() {
+        counters.clear();
+        timers.clear();
+    }
+
+    /**
+     * @return every metric in the Prometheus text format, counters first, in name order
+     */
+    public static String prometheus() {
+
+        StringBuilder out = new StringBuilder();
+        String lastName = null;
+        for (Map.Entry<String, LongAdder> counter : sorted(counters).entrySet()) {
+            String name = baseName(counter.getKey());
+            if (!name.equals(lastName)) out.append("# TYPE ").append(PREFIX).append(name).append(" counter\n");
+            lastName = name;
+            out.append(PREFIX).append(counter.getKey()).append(' ').append(counter.getValue().sum()).append('\n');
+        }
+
+        for (Map.Entry<String, LatencyRecorder> timer : sorted(timers).entrySet()) {
+            String name = baseName(timer.getKey());
+            String labels = timer.getKey().substring(name.length());
+            LatencyRecorder recorder = timer.getValue();
+            if (!name.equals(lastName)) out.append("# TYPE ").append(PREFIX).append(name).append(" summary\n");
+            lastName = name;
+
+            for (double quantile : QUANTILES) {
+                out.append(PREFIX).append(name).append(withLabel(labels, "quantile", String.valueOf(quantile / 100)))
+                        .append(' ').append(recorder.percentileMillis(quantile) / 1e3).append('\n');
+            }
+            out.append(PREFIX).append(name).append("_sum").append(labels).append(' ')
+                    .append(recorder.meanMillis() * recorder.count() / 1e3).append('\n');
+            out.append(PREFIX).append(name).append("_count").append(labels).append(' ').append(recorder.count()).append('\n');
+        }
+        return out.toString();
+    }
+
+    /**
+     * Writes every metric to a file, replacing its contents
+     * @param file the file to write
+     * @return true if the file was written, otherwise returns false
+     */
+    public static boolean writeTo(File file) {
+        try (PrintWriter out = new PrintWriter(file, StandardCharsets.UTF_8)) {
+            out.print(prometheus());
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private static <V> Map<String, V> sorted(Map<String, V> metrics) {
+        Map<String, V> sorted = new TreeMap<>(BY_NAME);
+        sorted.putAll(metrics);
+        return sorted;
+    }
+
+    private static String key(String name, String... labels) {
+        if (labels.length == 0) return name;
+        StringBuilder key = new StringBuilder(name).append('{');
+        for (int i = 0; i + 1 < labels.length; i += 2) {
+            if (i > 0) key.append(',');
+            key.append(labels[i]).append("=\"").append(escape(labels[i + 1])).append('"');
+        }
+        return key.append('}').toString();
+    }
+
+    private static String baseName(String key) {
+        int brace = key.indexOf('{');
+        return brace < 0 ? key : key.substring(0, brace);
+    }
+
+    private static String withLabel(String labels, String labelName, String value) {
+        String label = labelName + "=\"" + value + "\"";
+        if (labels.isEmpty()) return "{" + label + "}";
+        return labels.substring(0, labels.length() - 1) + "," + label + "}";
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,45 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class MetricsTest {
+
+   @Before
+   public void resetMetrics(){
+      Metrics.reset();
+   }
+
+   @Test
+   public void countersAreKeptPerLabelSet(){
+      Metrics.add("rows_inserted_total", 10, "table", "actors");
+      Metrics.add("rows_inserted_total", 5, "table", "actors");
+      Metrics.increment("rows_inserted_total", "table", "movies");
+
+      assertEquals(15, Metrics.count("rows_inserted_total", "table", "actors"));
+      assertEquals(1, Metrics.count("rows_inserted_total", "table", "movies"));
+      assertEquals(0, Metrics.count("rows_inserted_total", "table", "awards"));
+   }
+
+   @Test
+   public void writesPrometheusTextFormat(){
+      Metrics.add("rows_skipped_total", 3, "table", "actors_to_movies", "reason", "actor_not_found");
+      Metrics.recordNanos("commit_seconds", 2_000_000L, "table", "actors");
+
+      String text = Metrics.prometheus();
+
+      assertTrue(text.contains("# TYPE moviedb_rows_skipped_total counter\n"));
+      assertTrue(text.contains("moviedb_rows_skipped_total{table=\"actors_to_movies\",reason=\"actor_not_found\"} 3\n"));
+      assertTrue(text.contains("# TYPE moviedb_commit_seconds summary\n"));
+      assertTrue(text.contains("moviedb_commit_seconds{table=\"actors\",quantile=\"0.5\"} "));
+      assertTrue(text.contains("moviedb_commit_seconds_count{table=\"actors\"} 1\n"));
+   }
+
+   @Test
+   public void labelValuesAreEscaped(){
+      Metrics.increment("operation_total", "op", "say \"hi\"");
+
+      assertTrue(Metrics.prometheus().contains("moviedb_operation_total{op=\"say \\\"hi\\\"\"} 1\n"));
+   }
+}
@@ -0,0 +1,199 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Compact in-memory dictionary from a name (or title) to its database ID
+ * Uses open addressing over a String[] and an int[] instead of a HashMap,
+ * so there is no entry or Integer object per name
+ * The dictionary has a memory budget: once it is reached no more names are added
+ * and the dictionary is marked as incomplete, so callers know a miss has to be
+ * checked against the database
+ */
+public class NameIndex {
+
+    //rough JVM sizes used for the memory estimate (compressed references)
+    private static final int STRING_OVERHEAD = 24 + 16;
+    private static final int SLOT_BYTES = 4 + 4;
+
+    private final String name;
+    private final long maxBytes;
+
+    private String[] keys;
+    private int[] ids;
+    private int size = 0;
+    private long keyBytes = 0;
+    private boolean complete = true;
+
+    /**
+     * @param name name of the dictionary, used when reporting
+     * @param maxBytes memory budget for the dictionary in bytes
+     */
+    public NameIndex(String name, long maxBytes) {
+        this.name = name;
+        this.maxBytes = maxBytes;
+        this.keys = new String[16];
+        this.ids = new int[16];
+    }
+
+    /**
+     * Adds a name and its ID, the first ID added for a name is kept
+     * (the same row getActorID, getMovieID and getAwardID would return)
+     * @param key the name or title
+     * @param id the database ID
+     * @return false if the name was not added because the memory budget was reached
+     */
+    public boolean put(String key, int id) {
+
+        if (key == null) return true;
+
+        //grows the table before it is more than half full
+        if ((size + 1) * 2 > keys.length) {
+            if (estimateBytes(keys.length * 2, keyBytes) > maxBytes) {
+                complete = false;
+                return false;
+            }
+            resize(keys.length * 2);
+        }
+
+        long entryBytes = stringBytes(key);
+        if (estimateBytes(keys.length, keyBytes + entryBytes) > maxBytes) {
+            complete = false;
+            return false;
+        }
+
+        int slot = findSlot(key);
+        if (keys[slot] == null) {
+            keys[slot] = key;
+            ids[slot] = id;
+            size++;
+            keyBytes += entryBytes;
+        }
+        return true;
+    }
+
+    /**
+     * Gets the ID stored for a name
+     * Accepts any CharSequence, so a field read by MappedCsvReader is looked up
+     * without creating a String for it
+     * @param key the name or title
+     * @return the ID, or 0 if the name is not in the dictionary
+     */
+    public int get(CharSequence key) {
+        if (key == null) return 0;
+        int slot = findSlot(key);
+        return keys[slot] == null ? 0 : ids[slot];
+    }
+
+    /**
+     * @return true if every name offered to the dictionary was added
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * @return the number of names in the dictionary
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the estimated heap used by the dictionary in bytes
+     */
+    public long estimatedBytes() {
+        return estimateBytes(keys.length, keyBytes);
+    }
+
+    /**
+     * @return a one line summary of the entries and memory used by the dictionary
+     */
+    public String report() {
+        return String.format("%s: %d entries, ~%.1f MB%s", name, size, estimatedBytes() / (1024.0 * 1024.0),
+                complete ? "" : " (memory budget reached, remaining lookups use the database)");
+    }
+
+    /**
+     * Builds a dictionary from a query returning a name in the first column
+     * and its ID in the second
+     * @param conn connection to the SQLite database
+     * @param name name of the dictionary, used when reporting
+     * @param query the query to read the names and IDs from
+     * @param maxBytes memory budget for the dictionary in bytes
+     * @return the dictionary
+     * @throws SQLException if the query throws an SQL error
+     */
+    public static NameIndex load(Connection conn, String name, String query, long maxBytes) throws SQLException {
+
+        NameIndex index = new NameIndex(name, maxBytes);
+
+        try (PreparedStatement statement = conn.prepareStatement(query);
+             ResultSet rs = statement.executeQuery()) {
+            while (rs.next()) {
+                if (!index.put(rs.getString(1), rs.getInt(2))) break;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Finds the slot holding the key, or the empty slot where it would be added
+     * @param key the name or title
+     * @return index into the keys and ids arrays
+     */
+    private int findSlot(CharSequence key) {
+        int mask = keys.length - 1;
+        int slot = mix(hash(key)) & mask;
+        while (keys[slot] != null && !keys[slot].contentEquals(key)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void resize(int capacity) {
+        String[] oldKeys = keys;
+        int[] oldIds = ids;
+        keys = new String[capacity];
+        ids = new int[capacity];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                int slot = findSlot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                ids[slot] = oldIds[i];
+            }
+        }
+    }
+
+    /**
+     * @return the same hash String.hashCode gives for the characters
+     */
+    private static int hash(CharSequence key) {
+        if (key instanceof String) return key.hashCode();
+        int hash = 0;
+        for (int i = 0; i < key.length(); i++) {
+            hash = 31 * hash + key.charAt(i);
+        }
+        return hash;
+    }
+
+    private static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private static long stringBytes(String key) {
+        //compact strings store one byte per Latin-1 character, otherwise two
+        boolean latin1 = true;
+        for (int i = 0; i < key.length() && latin1; i++) {
+            if (key.charAt(i) > 0xFF) latin1 = false;
+        }
+        long bytes = STRING_OVERHEAD + (latin1 ? key.length() : key.length() * 2L);
+        return (bytes + 7) & ~7L;
+    }
+
+    private static long estimateBytes(int capacity, long keyBytes) {
+        return (long) capacity * SLOT_BYTES + keyBytes;
+    }
+}
@@ -0,0 +1,53 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class NameIndexTest {
+
+   @Test
+   public void getReturnsStoredID(){
+      NameIndex index = new NameIndex("actors", 1024 * 1024);
+      index.put("Johnny Depp", 1);
+      index.put("Keira Knightley", 2);
+
+      assertEquals(1, index.get("Johnny Depp"));
+      assertEquals(2, index.get("Keira Knightley"));
+      assertEquals(0, index.get("Orlando Bloom"));
+   }
+
+   @Test
+   public void firstIDIsKeptForDuplicateNames(){
+      NameIndex index = new NameIndex("actors", 1024 * 1024);
+      index.put("Johnny Depp", 1);
+      index.put("Johnny Depp", 7);
+
+      assertEquals(1, index.get("Johnny Depp"));
+      assertEquals(1, index.size());
+   }
+
+   @Test
+   public void growsPastInitialCapacity(){
+      NameIndex index = new NameIndex("movies", 64 * 1024 * 1024);
+      for (int i = 1; i <= 10000; i++) {
+         index.put("Movie " + i, i);
+      }
+
+      assertEquals(10000, index.size());
+      assertEquals(5000, index.get("Movie 5000"));
+      assertTrue(index.isComplete());
+   }
+
+   @Test
+   public void stopsAddingOnceBudgetIsReached(){
+      NameIndex index = new NameIndex("awards", 4096);
+      for (int i = 1; i <= 1000; i++) {
+         index.put("Award " + i, i);
+      }
+
+      assertFalse(index.isComplete());
+      assertTrue(index.estimatedBytes() <= 4096);
+      assertEquals(1, index.get("Award 1"));
+   }
+}
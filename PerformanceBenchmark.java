@@ -0,0 +1,379 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Benchmarks for the load, lookup and query paths, run against a dataset
+ * written by DataGenerator so the numbers can be compared between changes
+ * Each benchmark is warmed up before it is measured and reports the mean time
+ * per operation and the operations per second over the measured iterations
+ *
+ * Suites:
+ *   load   - insertRecordsIntoTable row by row, and full PopulateDB runs in each load mode
+ *            and connection profile
+ *   lookup - getActorID, getMovieID and getAwardID
+ *   query  - each of the six QueryDB options, on default and serve profile connections,
+ *            and repeated lookups through the QueryResultCache
+ *   batch  - a mix of options 2, 3 and 4 through BatchQueryExecutor on 1, 2, 4 ... threads
+ *   graph  - CollaborationGraph degrees of separation, neighbourhoods and co-stars of random actors
+ */
+public class PerformanceBenchmark {
+
+    static final int WARMUP_ITERATIONS = 3;
+    static final int MEASURED_ITERATIONS = 5;
+
+    //datasets above this size are not loaded row by row, which would take hours
+    static final int ROW_BY_ROW_LIMIT = 20000;
+
+    /**
+     * A piece of work timed by the benchmark
+     */
+    interface Task {
+        void run() throws Exception;
+    }
+
+    private final File workDirectory;
+    private final DataGenerator generator;
+    private final File dataDirectory;
+    private final Random random = new Random(7);
+
+    /**
+     * @param workDirectory directory for the generated data and benchmark databases
+     * @param movieCount size of the generated dataset
+     */
+    public PerformanceBenchmark(File workDirectory, int movieCount) {
+        this.workDirectory = workDirectory;
+        this.generator = new DataGenerator(movieCount, 42);
+        this.dataDirectory = new File(workDirectory, "data");
+    }
+
+    /**
+     * Times a task and prints one result line
+     * @param name name of the benchmark
+     * @param operations number of operations the task performs per run
+     * @param task the work to time
+     * @throws Exception if the task fails
+     */
+    static void measure(String name, long operations, Task task) throws Exception {
+        measure(name, WARMUP_ITERATIONS, MEASURED_ITERATIONS, operations, task);
+    }
+
+    /**
+     * Times a task and prints one result line
+     * @param name name of the benchmark
+     * @param warmups runs before measuring
+     * @param iterations measured runs
+     * @param operations number of operations the task performs per run
+     * @param task the work to time
+     * @throws Exception if the task fails
+     */
+    static void measure(String name, int warmups, int iterations, long operations, Task task) throws Exception {
+
+        for (int i = 0; i < warmups; i++) {
+            task.run();
+        }
+
+        long totalNanos = 0;
+        long fastest = Long.MAX_VALUE;
+        long slowest = 0;
+        for (int i = 0; i < iterations; i++) {
+            long startTime = System.nanoTime();
+            task.run();
+            long nanos = System.nanoTime() - startTime;
+            totalNanos += nanos;
+            fastest = Math.min(fastest, nanos);
+            slowest = Math.max(slowest, nanos);
+        }
+
+        double meanMicrosPerOp = totalNanos / 1e3 / iterations / operations;
+        double opsPerSecond = operations * iterations / (totalNanos / 1e9);
+        System.out.printf("%-55s %12.1f ops/s %12.3f us/op  (runs %.1f-%.1f ms)%n",
+                name, opsPerSecond, meanMicrosPerOp, fastest / 1e6, slowest / 1e6);
+    }
+
+    /**
+     * Load suite: per-row inserts through insertRecordsIntoTable, then full
+     * PopulateDB runs against the generated dataset in each load mode
+     * @throws Exception if a load fails
+     */
+    public void runLoadBenchmarks() throws Exception {
+
+        File insertDb = new File(workDirectory, "bench-insert");
+        int rows = 2000;
+        String[][] actors = new String[rows][];
+        for (int i = 0; i < rows; i++) {
+            actors[i] = new String[]{DataGenerator.actorName(i), "1970-01-01"};
+        }
+
+        measure("insertRecordsIntoTable (actors, per row)", 1, MEASURED_ITERATIONS, rows, () -> {
+            quietly(() -> InitialiseDB.initialiseDB(insertDb.getPath()));
+            try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + insertDb.getPath())) {
+                for (String[] actor : actors) {
+                    PreparedStatement statement = conn.prepareStatement("INSERT INTO actors VALUES(NULL,?,?)");
+                    PopulateDB.insertRecordsIntoTable(actor, statement, 1, conn);
+                }
+            }
+        });
+
+        long lines = countLines();
+        if (generator.getMovieCount() <= ROW_BY_ROW_LIMIT) {
+            measure("PopulateDB.main (row by row)", 0, 1, lines, () -> load(new File(workDirectory, "bench-rows")));
+        }
+        measure("PopulateDB.main --bulk --profile default", 0, 3, lines,
+                () -> load(new File(workDirectory, "bench-bulk-default"), "--bulk", "--profile", "default"));
+        measure("PopulateDB.main --bulk --profile bulk-load", 0, 3, lines, () -> load(new File(workDirectory, "bench-bulk"), "--bulk"));
+        measure("PopulateDB.main --parallel", 0, 3, lines, () -> load(new File(workDirectory, "bench-parallel"), "--parallel"));
+    }
+
+    /**
+     * Lookup suite: the name to ID lookups used while loading the link tables
+     * @throws Exception if a lookup fails
+     */
+    public void runLookupBenchmarks() throws Exception {
+
+        File db = loadedDatabase();
+        int lookups = 1000;
+
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + db.getPath())) {
+            measure("getActorID", lookups, () -> {
+                for (int i = 0; i < lookups; i++) PopulateDB.getActorID(DataGenerator.actorName(random.nextInt(generator.getActorCount())), conn);
+            });
+            measure("getMovieID", lookups, () -> {
+                for (int i = 0; i < lookups; i++) PopulateDB.getMovieID(DataGenerator.movieTitle(random.nextInt(generator.getMovieCount())), conn);
+            });
+            measure("getAwardID", lookups, () -> {
+                for (int i = 0; i < lookups; i++) PopulateDB.getAwardID(DataGenerator.awardName(random.nextInt(generator.getAwardCount())), conn);
+            });
+        }
+    }
+
+    /**
+     * Query suite: each of the six QueryDB options with parameters from the generated dataset,
+     * first on connections with SQLite's defaults, then with the serve profile
+     * The serve profile switches the database to WAL, so it is measured second
+     * @throws Exception if a query fails
+     */
+    public void runQueryBenchmarks() throws Exception {
+
+        File db = loadedDatabase();
+
+        for (ConnectionProfile profile : new ConnectionProfile[]{ConnectionProfile.DEFAULT, ConnectionProfile.SERVE}) {
+            try (ConnectionPool pool = new ConnectionPool(db.getPath(), 1, profile)) {
+                Connection conn = pool.borrow();
+                int queries = 20;
+                String prefix = "[" + profile.getProfileName() + "] ";
+
+                measure(prefix + "QueryDB option 1 (all movies)", 1, () -> QueryDB.runOperation(conn, "1", new HashMap<>()));
+                measure(prefix + "QueryDB option 2 (cast of a movie)", queries, () -> {
+                    for (int i = 0; i < queries; i++) QueryDB.runOperation(conn, "2", params("title", randomTitle()));
+                });
+                measure(prefix + "QueryDB option 3 (plots by actor and director)", queries, () -> {
+                    for (int i = 0; i < queries; i++) QueryDB.runOperation(conn, "3", params("actor", randomActor(),
+                            "director", DataGenerator.directorName(random.nextInt(generator.getDirectorCount()))));
+                });
+                measure(prefix + "QueryDB option 4 (directors with an actor)", queries, () -> {
+                    for (int i = 0; i < queries; i++) QueryDB.runOperation(conn, "4", params("actor", randomActor()));
+                });
+                measure(prefix + "QueryDB option 5 (award winners in a genre)", 1, () -> QueryDB.runOperation(conn, "5", params("genre", "Action")));
+                measure(prefix + "QueryDB option 6 (directors over a rating)", 1, () -> QueryDB.runOperation(conn, "6", params("rating", "7.0")));
+
+                //the same popular questions again, answered from the result cache after the first run
+                QueryResultCache cache = new QueryResultCache(QueryResultCache.DEFAULT_CAPACITY, 64L << 20);
+                String[] popularActors = {randomActor(), randomActor(), randomActor()};
+                measure(prefix + "QueryDB option 4 (popular actors, cached)", queries, () -> {
+                    for (int i = 0; i < queries; i++) cache.get(conn, "4", params("actor", popularActors[i % popularActors.length]));
+                });
+                measure(prefix + "QueryDB option 5 (award winners in a genre, cached)", 1, () -> cache.get(conn, "5", params("genre", "Action")));
+                System.out.println(cache.stats());
+
+                pool.release(conn);
+            }
+        }
+    }
+
+    /**
+     * Batch suite: the same mix of queries through BatchQueryExecutor with more threads
+     * each time, to show how far throughput scales with the number of connections
+     * @throws Exception if a query fails
+     */
+    public void runBatchBenchmarks() throws Exception {
+
+        File db = loadedDatabase();
+        List<BatchQueryExecutor.QuerySpec> specs = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            String encodedActor = URLEncoder.encode(randomActor(), StandardCharsets.UTF_8);
+            switch (i % 3) {
+                case 0:
+                    specs.add(new BatchQueryExecutor.QuerySpec(i + 1, "op=2&title=" + URLEncoder.encode(randomTitle(), StandardCharsets.UTF_8)));
+                    break;
+                case 1:
+                    specs.add(new BatchQueryExecutor.QuerySpec(i + 1, "op=3&actor=" + encodedActor + "&director="
+                            + URLEncoder.encode(DataGenerator.directorName(random.nextInt(generator.getDirectorCount())), StandardCharsets.UTF_8)));
+                    break;
+                default:
+                    specs.add(new BatchQueryExecutor.QuerySpec(i + 1, "op=4&actor=" + encodedActor));
+            }
+        }
+
+        int processors = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= processors; threads *= 2) {
+            int poolSize = threads;
+            try (ConnectionPool pool = new ConnectionPool(db.getPath(), poolSize)) {
+                measure("BatchQueryExecutor (" + poolSize + " threads)", specs.size(),
+                        () -> new BatchQueryExecutor(pool, poolSize).run(specs, Writer.nullWriter()));
+            }
+        }
+    }
+
+    /**
+     * Graph suite: builds the CollaborationGraph of the loaded database and times
+     * its traversals between random actors
+     * @throws Exception if the graph cannot be loaded
+     */
+    public void runGraphBenchmarks() throws Exception {
+
+        File db = loadedDatabase();
+        CollaborationGraph[] graph = new CollaborationGraph[1];
+        try (Connection conn = ConnectionProfile.SERVE.openReadOnly(db.getPath())) {
+            measure("CollaborationGraph.load", 1, () -> graph[0] = CollaborationGraph.load(conn));
+            StatementCache.close(conn);
+        }
+        System.out.println(graph[0].report());
+
+        int queries = 1000;
+        int actors = graph[0].actorCount();
+        measure("CollaborationGraph.shortestPath (random pairs)", queries, () -> {
+            for (int i = 0; i < queries; i++) {
+                graph[0].shortestPath(random.nextInt(actors), random.nextInt(actors), CollaborationGraph.DEFAULT_MAX_HOPS);
+            }
+        });
+        measure("CollaborationGraph.neighbourhood (2 hops, first 1000)", queries, () -> {
+            for (int i = 0; i < queries; i++) graph[0].neighbourhood(random.nextInt(actors), 2, 1000);
+        });
+        measure("CollaborationGraph.topCoStars (top 10)", queries, () -> {
+            for (int i = 0; i < queries; i++) graph[0].topCoStars(random.nextInt(actors), 10);
+        });
+        measure("CollaborationGraph.sharedDirectors", queries, () -> {
+            for (int i = 0; i < queries; i++) graph[0].sharedDirectors(random.nextInt(actors), random.nextInt(actors));
+        });
+    }
+
+    private String randomActor() {
+        return DataGenerator.actorName(random.nextInt(generator.getActorCount()));
+    }
+
+    private String randomTitle() {
+        return DataGenerator.movieTitle(random.nextInt(generator.getMovieCount()));
+    }
+
+    private static Map<String, String> params(String... pairs) {
+        Map<String, String> params = new HashMap<>();
+        for (int i = 0; i + 1 < pairs.length; i += 2) {
+            params.put(pairs[i], pairs[i + 1]);
+        }
+        return params;
+    }
+
+    /**
+     * Writes the dataset unless it is already in the work directory
+     */
+    private void generateData() throws IOException {
+        if (new File(dataDirectory, "movies.csv").exists()) return;
+        long startTime = System.nanoTime();
+        long lines = generator.generate(dataDirectory);
+        System.out.printf("Generated %d lines (%d movies) in %.2fs%n", lines, generator.getMovieCount(), (System.nanoTime() - startTime) / 1e9);
+    }
+
+    /**
+     * @return a database populated with the dataset, loaded in bulk the first time it is needed
+     */
+    private File loadedDatabase() throws Exception {
+        File db = new File(workDirectory, "bench-movies");
+        if (!db.exists()) load(db, "--bulk");
+        return db;
+    }
+
+    /**
+     * Initialises a database and runs PopulateDB on it, with its output hidden
+     */
+    private void load(File db, String... options) throws Exception {
+        generateData();
+
+        String[] args = new String[options.length + 3];
+        args[0] = db.getPath();
+        System.arraycopy(options, 0, args, 1, options.length);
+        args[options.length + 1] = "--data";
+        args[options.length + 2] = dataDirectory.getPath();
+
+        quietly(() -> {
+            InitialiseDB.initialiseDB(db.getPath());
+            PopulateDB.main(args);
+        });
+    }
+
+    private long countLines() throws IOException {
+        generateData();
+        long lines = 0;
+        for (File file : dataDirectory.listFiles()) {
+            try (java.util.stream.Stream<String> fileLines = Files.lines(file.toPath())) {
+                lines += fileLines.count();
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Runs a task with System.out discarded
+     */
+    private static void quietly(Task task) throws Exception {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            task.run();
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+    /**
+     * Main method: runs the chosen suites
+     * @param args the suite (load, lookup, query, batch, graph or all), the number of movies
+     * in the dataset, and optionally the work directory
+     * @throws Exception if a benchmark fails
+     */
+    public static void main(String[] args) throws Exception {
+
+        if (args.length < 2) {
+            System.out.println("Usage: java PerformanceBenchmark <load|lookup|query|batch|graph|all> <number_of_movies> [work_directory]");
+            return;
+        }
+
+        String suite = args[0];
+        int movieCount = Integer.parseInt(args[1]);
+        File workDirectory = args.length > 2 ? new File(args[2]) : new File("bench-" + movieCount);
+        workDirectory.mkdirs();
+
+        PerformanceBenchmark benchmark = new PerformanceBenchmark(workDirectory, movieCount);
+        System.out.println("Dataset: " + movieCount + " movies in " + workDirectory.getPath());
+
+        if (suite.equals("load") || suite.equals("all")) benchmark.runLoadBenchmarks();
+        if (suite.equals("lookup") || suite.equals("all")) benchmark.runLookupBenchmarks();
+        if (suite.equals("query") || suite.equals("all")) benchmark.runQueryBenchmarks();
+        if (suite.equals("batch") || suite.equals("all")) benchmark.runBatchBenchmarks();
+        if (suite.equals("graph") || suite.equals("all")) benchmark.runGraphBenchmarks();
+    }
+}
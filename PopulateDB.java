@@ -1,10 +1,7 @@
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -16,8 +13,17 @@ import java.sql.SQLException;
  */
 public class PopulateDB {
     
-    //directory of the data
+    //directory of the data, unless another is given with "--data"
    static final File dataDir = new File("data");
+
+   //number of rows sent per executeBatch call in bulk-load mode when no size is given
+   static final int DEFAULT_BATCH_SIZE = 10000;
+
+   //number of parsed batches that can wait for the writer in parallel mode
+   static final int PIPELINE_QUEUE_BATCHES = 16;
+
+   //memory budget in MB for sorting the link files when "--external-sort" is given without one
+   static final int DEFAULT_SORT_MEMORY_MB = 64;
    
    /**
     * General method to insert values into 
@@ -58,6 +64,31 @@ public class PopulateDB {
     
 }
 
+/**
+ * Inserts a parsed, validated row into its table with the row's column types
+ * @param row the row, parsed from a data file
+ * @param statement  SQL statement to use to insert values
+ * @param connection connection to the SQL database
+ * @return   true if the operation was successful, otherwise returns false
+ * @throws SQLException  if the statement execution causes an SQL error
+ */
+public static boolean insertRecordsIntoTable(TypedRows.Row row, PreparedStatement statement, Connection connection) throws SQLException {
+
+    try {
+        row.bind(statement);
+        int rowsAffected = statement.executeUpdate();
+        statement.close();
+
+        //checks if any rows were affected by the statement execution
+        return rowsAffected > 0;
+    }
+    //catches the SQLException caused by the SQL error
+    catch (SQLException e) {
+        e.printStackTrace();
+        return false;
+    }
+}
+
 /**
  * Gets the 'Actor_ID' from the 'actors' table for the 'actorName' entered 
  * @param actorName the name of the actor whose ID is being searched for
@@ -141,163 +172,228 @@ public static int getAwardID(String awardName, Connection conn) throws SQLExcept
 /**
  * inserts the foreign keys into the many-many tables 
  * @param conn connection to the SQLite database
+ * @param resolver dictionaries used to look up the actor, movie and award IDs
+ * @param batchSize number of rows sent to the database at once, 1 inserts row by row
+ * @param dataDirectory the directory holding the data files
  * @return true if the operation was successful, otherwise returns false
  * @throws SQLException if the SQL command causes an error
  * @throws IOException if the data files are unreadable or non-existant
  */
-private static boolean insertForeignKeyValuesIntoTable(Connection conn) throws SQLException, IOException{
+private static boolean insertForeignKeyValuesIntoTable(Connection conn, IDResolver resolver, int batchSize, File dataDirectory) throws SQLException, IOException{
 
-    File actorsWithMovies = new File("data/actors_to_movies.csv");
-    File actorsWithAwards = new File("data/actors_to_awards.csv");
-    File moviesWithAwards = new File("data/movies_to_awards.csv");
-    File directorsWithMovies = new File("data/directors.csv");
+    File actorsWithMovies = new File(dataDirectory, "actors_to_movies.csv");
+    File actorsWithAwards = new File(dataDirectory, "actors_to_awards.csv");
+    File moviesWithAwards = new File(dataDirectory, "movies_to_awards.csv");
 
-    BufferedReader actorsMovieReader = new BufferedReader(new FileReader(actorsWithMovies));
-    BufferedReader actorsAwardReader = new BufferedReader(new FileReader(actorsWithAwards));
-    BufferedReader movieAwardReader = new BufferedReader(new FileReader(moviesWithAwards));
-    BufferedReader directorReader = new BufferedReader(new FileReader(directorsWithMovies));
+    MappedCsvReader actorsMovieReader = new MappedCsvReader(actorsWithMovies);
+    MappedCsvReader actorsAwardReader = new MappedCsvReader(actorsWithAwards);
+    MappedCsvReader movieAwardReader = new MappedCsvReader(moviesWithAwards);
 
-    PreparedStatement actorAwardStatement = conn.prepareStatement("INSERT INTO actors_to_awards VALUES (?, ?)");
-    PreparedStatement actorMovieStatement = conn.prepareStatement("INSERT INTO actors_to_movies VALUES (?, ?)");
-    PreparedStatement movieAwardStatement = conn.prepareStatement("INSERT INTO movies_to_awards VALUES(?, ?)");
+    BatchInserter actorAwardInserter = new BatchInserter("actors_to_awards", conn.prepareStatement("INSERT INTO actors_to_awards VALUES (?, ?)"), batchSize);
+    BatchInserter actorMovieInserter = new BatchInserter("actors_to_movies", conn.prepareStatement("INSERT INTO actors_to_movies VALUES (?, ?)"), batchSize);
+    BatchInserter movieAwardInserter = new BatchInserter("movies_to_awards", conn.prepareStatement("INSERT INTO movies_to_awards VALUES(?, ?)"), batchSize);
 
-    String line;
+    PreparedStatement actorMovieStatement = actorMovieInserter.getStatement();
+    PreparedStatement actorAwardStatement = actorAwardInserter.getStatement();
+    PreparedStatement movieAwardStatement = movieAwardInserter.getStatement();
 
     //Sets values to 'actors_to_movies' table
-    while((line = actorsMovieReader.readLine()) != null) {
-        String[] record = line.split(",");
-        String actorName = record[0];
-        String movieTitle = record[1];
+    while(actorsMovieReader.next()) {
+        if(actorsMovieReader.fieldCount() < 2) continue;
+        CharSequence actorName = actorsMovieReader.field(0);
+        CharSequence movieTitle = actorsMovieReader.field(1);
 
           //Sets the actor ID or skips if no ID was found
-         int actor_ID = getActorID(actorName, conn);
-         if(actor_ID == 0) continue;
+         int actor_ID = resolver.getActorID(actorName);
+         if(actor_ID == 0) {
+            skipped("actors_to_movies", "actor_not_found");
+            continue;
+         }
 
         //Sets the movie ID or skips if no ID was found
-        int movie_ID = getMovieID(movieTitle, conn);
-        if(movie_ID == 0) continue;
+        int movie_ID = resolver.getMovieID(movieTitle);
+        if(movie_ID == 0) {
+            skipped("actors_to_movies", "movie_not_found");
+            continue;
+        }
         
 
         actorMovieStatement.setInt(1, actor_ID);
         actorMovieStatement.setInt(2, movie_ID);
-        int rowsAffected = actorMovieStatement.executeUpdate();
 
-        if(!(rowsAffected > 0)) return false;
+        if(!actorMovieInserter.addRow()) return false;
 
     }
 
-    actorMovieStatement.close();
+    if(!actorMovieInserter.flush()) return false;
+    actorMovieInserter.close();
     actorsMovieReader.close();
+    commitIfInTransaction(conn, "actors_to_movies");
+    System.out.println(actorMovieInserter.report());
 
     //Sets the values to 'movies_to_awards'
-    while((line = movieAwardReader.readLine()) != null) {
-        String [] record = line.split(",");
-        String movieTitle = record[0];
-        String awardName = record[1];
-        boolean hasAwards = (awardName.equals("No awards")) ? false : true;
+    while(movieAwardReader.next()) {
+        if(movieAwardReader.fieldCount() < 2) continue;
+        CharSequence movieTitle = movieAwardReader.field(0);
+        CharSequence awardName = movieAwardReader.field(1);
+        boolean hasAwards = ("No awards".contentEquals(awardName)) ? false : true;
 
         if(hasAwards){
             //Sets the movie ID or skips if no ID was found
-            int movie_ID = getMovieID(movieTitle, conn);
-                if(movie_ID == 0) continue;
+            int movie_ID = resolver.getMovieID(movieTitle);
+                if(movie_ID == 0) {
+                    skipped("movies_to_awards", "movie_not_found");
+                    continue;
+                }
             //Sets the award ID or skips if no ID was found
-            int award_ID = getAwardID(awardName, conn); 
-                if(award_ID == 0) continue;
+            int award_ID = resolver.getAwardID(awardName); 
+                if(award_ID == 0) {
+                    skipped("movies_to_awards", "award_not_found");
+                    continue;
+                }
 
         movieAwardStatement.setInt(1, movie_ID);
         movieAwardStatement.setInt(2, award_ID);
-        int rowsAffected = movieAwardStatement.executeUpdate();
         
         //checks if any rows were affected by the operation
-         if(!(rowsAffected > 0)) return false;
+         if(!movieAwardInserter.addRow()) return false;
         }
         
     }
     
-   movieAwardStatement.close();
+   if(!movieAwardInserter.flush()) return false;
+   movieAwardInserter.close();
    movieAwardReader.close();
+   commitIfInTransaction(conn, "movies_to_awards");
+   System.out.println(movieAwardInserter.report());
 
    //Sets the valyes to 'actors_to_awards'
-    while((line = actorsAwardReader.readLine()) != null) {
-        String [] record = line.split(",");
-        String actorName = record[0];
-        String awardName = record[1];
+    while(actorsAwardReader.next()) {
+        if(actorsAwardReader.fieldCount() < 2) continue;
+        CharSequence actorName = actorsAwardReader.field(0);
+        CharSequence awardName = actorsAwardReader.field(1);
         
         //Sets the 'actorID' or skips if no ID was found
-        int actor_ID = getActorID(actorName, conn);
-        if(actor_ID == 0) continue;
+        int actor_ID = resolver.getActorID(actorName);
+        if(actor_ID == 0) {
+            skipped("actors_to_awards", "actor_not_found");
+            continue;
+        }
 
         //Sets the 'awardID' or skips if no ID was found
-        int award_ID = getAwardID(awardName, conn);
-        if(award_ID == 0) continue;
+        int award_ID = resolver.getAwardID(awardName);
+        if(award_ID == 0) {
+            skipped("actors_to_awards", "award_not_found");
+            continue;
+        }
 
 
         actorAwardStatement.setInt(1, actor_ID);
         actorAwardStatement.setInt(2, award_ID);
-        int rowsAffected = actorAwardStatement.executeUpdate();
 
         //checks if any rows were affected by the operation
-        if(!(rowsAffected > 0)) return false;
+        if(!actorAwardInserter.addRow()) return false;
 
      }
-        actorAwardStatement.close();
+        if(!actorAwardInserter.flush()) return false;
+        actorAwardInserter.close();
         actorsAwardReader.close();
+        commitIfInTransaction(conn, "actors_to_awards");
+        System.out.println(actorAwardInserter.report());
 
-        //Sets the director IDs in the 'movies' table
-        String updateQuery = "UPDATE movies "
-                           + "SET Director_ID = (SELECT Director_ID FROM directors WHERE Movie_Title = movies.Title)";
-        
-        try (PreparedStatement updateStatement = conn.prepareStatement(updateQuery)) {
-            // Execute the update query
-            int rowsAffected = updateStatement.executeUpdate();
-            
-            //checks if any rows were affected by the statement
-            if(!(rowsAffected > 0)) return false;
+        return populateMovieDirectors(conn, resolver, batchSize, dataDirectory);
+ }
+
+    /**
+     * Sets the Director_ID of every movie in 'directors.csv'
+     * Each director is looked up by name, or added on the first movie they directed,
+     * so a director of many movies has one row, and each movie is updated by its primary key
+     * @param conn connection to the SQLite database
+     * @param resolver dictionaries used to look up the movie and director IDs
+     * @param batchSize number of rows sent to the database at once, 1 updates row by row
+     * @param dataDirectory the directory holding the data files
+     * @return true if the operation was successful, otherwise returns false
+     * @throws SQLException if the SQL command causes an error
+     * @throws IOException if the data file is unreadable or non-existant
+     */
+    private static boolean populateMovieDirectors(Connection conn, IDResolver resolver, int batchSize, File dataDirectory) throws SQLException, IOException {
+
+        try (BatchInserter updater = new BatchInserter("movies.Director_ID", conn.prepareStatement("UPDATE movies SET Director_ID = ? WHERE Movie_ID = ?"), batchSize);
+             MappedCsvReader reader = new MappedCsvReader(new File(dataDirectory, "directors.csv"))) {
+
+            PreparedStatement statement = updater.getStatement();
+
+            while (reader.next()) {
+                if (reader.fieldCount() < 2) continue;
+
+                //Sets the movie ID or skips if no ID was found
+                int movie_ID = resolver.getMovieID(reader.field(1));
+                if (movie_ID == 0) {
+                    skipped("movies.Director_ID", "movie_not_found");
+                    continue;
+                }
+
+                statement.setInt(1, resolver.getOrInsertDirectorID(reader.field(0)));
+                statement.setInt(2, movie_ID);
+
+                //checks if any rows were affected by the operation
+                if (!updater.addRow()) return false;
+            }
+
+            if (!updater.flush()) return false;
+            commitIfInTransaction(conn, "movies.Director_ID");
+            System.out.println(updater.report());
         }
-        
         return true;
- }
+    }
 
     /**
      * Populates the 'ratings' table 
+     * Ratings that are not a number from 0 to 10 are written to the reject file,
+     * and ratings of movies that were not loaded are skipped
      * @param conn connection to the SQLite database
+     * @param resolver dictionaries used to look up the movie IDs
+     * @param batchSize number of rows sent to the database at once, 1 inserts row by row
+     * @param dataDirectory the directory holding the data files
+     * @param rejects where ratings that fail validation are recorded
      * @return true or false depending on whether the operation was successful or not
      * @throws SQLException if the SQL command throws an error
      */
-    private static boolean populateRatingsTable(Connection conn) throws SQLException{
+    private static boolean populateRatingsTable(Connection conn, IDResolver resolver, int batchSize, File dataDirectory, RejectFile rejects) throws SQLException{
 
-        PreparedStatement stmt = null;
+        // Prepare the statement for inserting data into the ratings table
+        try (BatchInserter inserter = new BatchInserter("ratings", conn.prepareStatement("INSERT INTO ratings (Rating_Value, Rating_Source, Movie_ID) VALUES (?, ?, ?)"), batchSize);
+             MappedCsvReader reader = new MappedCsvReader(new File(dataDirectory, "ratings.csv"))) {
 
-        try {
-    
-            // Prepare the statement for inserting data into the ratings table
-            stmt = conn.prepareStatement("INSERT INTO ratings (Rating_Value, Rating_Source, Movie_ID) VALUES (?, ?, ?)");
+            PreparedStatement stmt = inserter.getStatement();
+            TypedRows.RatingRow rating = new TypedRows.RatingRow();
 
             // Read data from the file and insert into the ratings table
-            BufferedReader reader = new BufferedReader(new FileReader("data/ratings.csv"));
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] data = line.split(",");
-                double ratingValue = Double.parseDouble(data[0]);
-                String ratingSource = data[1];
-                String movieTitle = data[2];;
+            while (reader.next()) {
+                String reason = rating.parse(reader);
+                if (reason != null) {
+                    rejects.reject("ratings.csv", reader, reason);
+                    continue;
+                }
 
-                int movieId = getMovieID(movieTitle, conn);
+                //Sets the movie ID or skips if no ID was found
+                rating.movieID = resolver.getMovieID(rating.title);
+                if (rating.movieID == 0) {
+                    skipped("ratings", "movie_not_found");
+                    continue;
+                }
 
                     // Insert the rating data into the ratings table
-                    stmt.setDouble(1, ratingValue);
-                    stmt.setString(2, ratingSource);
-                    stmt.setInt(3, movieId);
-                   int rowsAffected =  stmt.executeUpdate();
+                    rating.bind(stmt);
 
                    //checks if any rows were affected by the operation
-                   if(!(rowsAffected > 0)) return false;
+                   if(!inserter.addRow()) return false;
 
             }
 
-            // Close resources
-            reader.close();
-            stmt.close();
+            if(!inserter.flush()) return false;
+            commitIfInTransaction(conn, "ratings");
+            System.out.println(inserter.report());
         
         return true;
 
@@ -307,12 +403,178 @@ private static boolean insertForeignKeyValuesIntoTable(Connection conn) throws S
         }
 
     }
+
+    /**
+     * Commits the current transaction when the connection is in bulk-load mode
+     * (auto-commit switched off), otherwise does nothing
+     * The data version is bumped in the same transaction so cached query results are dropped
+     * @param conn connection to the SQLite database
+     * @param table the table the transaction loaded, used to label the commit latency
+     * @throws SQLException if the commit fails
+     */
+    static void commitIfInTransaction(Connection conn, String table) throws SQLException {
+        if (conn.getAutoCommit()) return;
+        long startTime = System.nanoTime();
+        QueryResultCache.bumpDataVersion(conn);
+        conn.commit();
+        Metrics.recordNanos("commit_seconds", System.nanoTime() - startTime, "table", table);
+    }
+
+    /**
+     * Counts a row of a link file that was not loaded because a name had no ID
+     * @param table the table the row was for
+     * @param reason which lookup returned 0
+     */
+    static void skipped(String table, String reason) {
+        Metrics.increment("rows_skipped_total", "table", table, "reason", reason);
+    }
+
+    /**
+     * Gets the insert statement for the entity table loaded from the given data file
+     * @param fileName name of the file in the data directory
+     * @return the insert statement, or null if the file is not an entity table
+     */
+    static String getInsertStatement(String fileName) {
+        switch (fileName) {
+            case "actors.csv":
+                return "INSERT INTO actors VALUES(NULL,?,?)";
+            case "awards.csv":
+                return "INSERT INTO awards VALUES(NULL, ?)";
+            case "movies.csv":
+                return "INSERT INTO movies VALUES(NULL, ?, ?, ?, ?, ?, NULL)";
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Checks if the data file holds rows for the many-many tables, 'ratings' or the
+     * directors of the movies, which are loaded after every entity table
+     * @param fileName name of the file in the data directory
+     * @return true if the file is loaded by insertForeignKeyValuesIntoTable or populateRatingsTable
+     */
+    static boolean isLinkFile(String fileName) {
+        switch (fileName) {
+            case "ratings.csv":
+            case "actors_to_awards.csv":
+            case "movies_to_awards.csv":
+            case "actors_to_movies.csv":
+            case "directors.csv":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Loads a data file into its table the original way:
+     * a new statement and an auto-committed transaction for every line
+     * @param file the data file
+     * @param insertSQL insert statement for the table
+     * @param row the row each line is parsed into before it is inserted
+     * @param connection connection to the SQLite database
+     * @param rejects where lines that fail validation are recorded
+     * @return the number of rows inserted, or -1 if an insert failed
+     * @throws SQLException if a statement cannot be prepared
+     * @throws IOException if the data file is unreadable
+     */
+    private static long loadTableRowByRow(File file, String insertSQL, TypedRows.Row row, Connection connection, RejectFile rejects) throws SQLException, IOException {
+
+        long rowCount = 0;
+
+        try (MappedCsvReader reader = new MappedCsvReader(file)) {
+            while (reader.next()) {
+
+                String reason = row.parse(reader);
+                if (reason != null) {
+                    rejects.reject(file.getName(), reader, reason);
+                    continue;
+                }
+                PreparedStatement preparedStatement = connection.prepareStatement(insertSQL);
+
+                if (!insertRecordsIntoTable(row, preparedStatement, connection)) return -1;
+                rowCount++;
+            }
+        }
+        return rowCount;
+    }
+
+    /**
+     * Loads a data file into its table in bulk-load mode:
+     * one prepared statement for the whole file, rows sent with executeBatch
+     * and the whole file committed as a single transaction
+     * @param file the data file
+     * @param insertSQL insert statement for the table
+     * @param row the row each line is parsed into before it is bound
+     * @param connection connection to the SQLite database, with auto-commit switched off
+     * @param batchSize number of rows sent per executeBatch call
+     * @param rejects where lines that fail validation are recorded
+     * @return the number of rows inserted, or -1 if the file was rolled back
+     * @throws IOException if the data file is unreadable
+     */
+    public static long loadTableInBatches(File file, String insertSQL, TypedRows.Row row, Connection connection, int batchSize, RejectFile rejects) throws IOException {
+
+        String tableName = file.getName().replace(".csv", "");
+
+        try (BatchInserter inserter = new BatchInserter(tableName, connection.prepareStatement(insertSQL), batchSize);
+             MappedCsvReader reader = new MappedCsvReader(file)) {
+
+            PreparedStatement statement = inserter.getStatement();
+            while (reader.next()) {
+
+                //only the values being bound are turned into Strings
+                String reason = row.parse(reader);
+                if (reason != null) {
+                    rejects.reject(file.getName(), reader, reason);
+                    continue;
+                }
+                row.bind(statement);
+
+                if (!inserter.addRow()) {
+                    connection.rollback();
+                    return -1;
+                }
+            }
+
+            if (!inserter.flush()) {
+                connection.rollback();
+                return -1;
+            }
+            long commitStart = System.nanoTime();
+            QueryResultCache.bumpDataVersion(connection);
+            connection.commit();
+            Metrics.recordNanos("commit_seconds", System.nanoTime() - commitStart, "table", file.getName().replace(".csv", ""));
+            System.out.println(inserter.report());
+            return inserter.getRowCount();
+
+        } catch (SQLException e) {
+            e.printStackTrace();
+            try {
+                connection.rollback();
+            } catch (SQLException rollbackError) {
+                rollbackError.printStackTrace();
+            }
+            return -1;
+        }
+    }
                 
     /**
      * Main method: goes through all the files in the data directory
      * reads in its contents and populates the appropriate table
      * prints out success or error messages depending on whether each 
      * operation was successful or not
+     * Passing "--bulk" (optionally followed by a batch size) loads every table
+     * with batched inserts and one transaction per table
+     * and "--parallel" parses the data files on several threads feeding one writer,
+     * loading tables that do not depend on each other at the same time
+     * "--incremental" upserts only new or changed data into an already populated database
+     * and "--profile" chooses the connection pragmas, bulk-load by default in bulk mode
+     * "--metrics" writes the row counts and batch and commit latencies to a file once the load ends
+     * and "--rejects" names the file lines that fail validation are written to, '<database>.rejects' by default
+     * "--external-sort" (optionally followed by a memory budget in MB) loads the link tables by sorting
+     * them on disk instead of building the name to ID dictionaries, for datasets larger than the heap
+     * If a generation has been staged with "InitialiseDB --stage" it is loaded instead of the live
+     * database and published once the load succeeds
      * @param args  command-line arguments
      * @throws SQLException if any statement throws an SQL error
      * @throws IOException  if the data directory is unreadabale or does not exist
@@ -320,104 +582,216 @@ private static boolean insertForeignKeyValuesIntoTable(Connection conn) throws S
     public static void main(String[] args) throws SQLException, IOException {
 
         if(args.length < 1) {
-            System.out.println("Usage: java PopulateDB <database_file_name>");
+            System.out.println("Usage: java PopulateDB <database_file_name> [--bulk [batch_size]] [--parallel [threads]] [--incremental] [--profile <default|bulk-load|serve>] [--dict-memory <MB>] [--data <directory>] [--metrics <file>] [--rejects <file>] [--external-sort [MB]]");
             return;
         }
 
         String dbFileName = args[0];
-        File dbFile = new File(dbFileName);
+        //a staged generation is loaded and published at the end, the live one is left to the readers
+        boolean staged = DatabaseGenerations.isStaged(dbFileName);
+        String targetFileName = DatabaseGenerations.resolveForWrite(dbFileName);
+        File dbFile = new File(targetFileName);
 
         if(!(dbFile.exists())){
             System.err.println("Database \"" + dbFileName + "\" has not been initialized");
             return;
         }
 
-        String dbUrl = "jdbc:sqlite:"+args[0];
-        
-        Connection connection = DriverManager.getConnection(dbUrl);
+        //batch size of 1 keeps the original row by row behaviour
+        int batchSize = 1;
+        //memory budget for the name to ID dictionaries, a quarter of the heap unless given in MB
+        long dictionaryBytes = Runtime.getRuntime().maxMemory() / 4;
+        //number of threads parsing the data files, 0 parses on the writing thread
+        int parserThreads = 0;
+        boolean incremental = false;
+        ConnectionProfile profile = null;
+        File metricsFile = null;
+        File rejectsFile = new File(dbFileName + ".rejects");
+        //memory budget for the external sort of the link files, 0 resolves names with the dictionaries
+        long sortBytes = 0;
+        File dataDirectory = dataDir;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--bulk")) {
+                batchSize = DEFAULT_BATCH_SIZE;
+                if (i + 1 < args.length && args[i + 1].matches("\\d+")) batchSize = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--parallel")) {
+                //parsing on several threads implies bulk-load mode for the single writer
+                if (batchSize == 1) batchSize = DEFAULT_BATCH_SIZE;
+                parserThreads = Runtime.getRuntime().availableProcessors();
+                if (i + 1 < args.length && args[i + 1].matches("\\d+")) parserThreads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--incremental")) {
+                incremental = true;
+            } else if (args[i].equals("--profile") && i + 1 < args.length) {
+                try {
+                    profile = ConnectionProfile.forName(args[++i]);
+                } catch (IllegalArgumentException e) {
+                    System.err.println(e.getMessage());
+                    return;
+                }
+            } else if (args[i].equals("--data") && i + 1 < args.length) {
+                dataDirectory = new File(args[++i]);
+            } else if (args[i].equals("--metrics") && i + 1 < args.length) {
+                metricsFile = new File(args[++i]);
+            } else if (args[i].equals("--rejects") && i + 1 < args.length) {
+                rejectsFile = new File(args[++i]);
+            } else if (args[i].equals("--external-sort")) {
+                sortBytes = DEFAULT_SORT_MEMORY_MB * 1024L * 1024;
+                if (i + 1 < args.length && args[i + 1].matches("\\d+")) sortBytes = Long.parseLong(args[++i]) * 1024 * 1024;
+            } else if (args[i].equals("--dict-memory") && i + 1 < args.length) {
+                dictionaryBytes = Long.parseLong(args[++i]) * 1024 * 1024;
+            } else {
+                System.err.println("Unknown option: " + args[i]);
+                return;
+            }
+        }
+        boolean bulkLoad = batchSize > 1;
+        if (profile == null) profile = bulkLoad && !incremental ? ConnectionProfile.BULK_LOAD : ConnectionProfile.DEFAULT;
+
+        Connection connection = profile.open(targetFileName);
+        if (staged) System.out.println("Loading staged generation " + targetFileName);
+        System.out.println("Connection profile: " + profile);
+        RejectFile rejects = new RejectFile(rejectsFile);
+        //whether every file was loaded, a staged generation is only published if so
+        boolean loaded = false;
+
+        if(dataDirectory.exists() && dataDirectory.canRead() && incremental){
+
+            //only rows that are new or changed since the last ingest are upserted
+            DeltaIngest ingest = new DeltaIngest(connection, dataDirectory, Math.max(batchSize, DEFAULT_BATCH_SIZE), dictionaryBytes, rejects);
+            boolean ingested = ingest.run();
+            if (ingested) {
+                loaded = true;
+                System.out.println("Incremental ingest completed successfully.");
+                InitialiseDB.createIndexes(connection);
+            }
+            else System.out.println("Incremental ingest failed, files that were not committed will be retried on the next run.");
 
-        if(dataDir.exists() && dataDir.canRead()){
+            //summaries are rebuilt for whatever was committed, even if a later file failed
+            if (ingest.getFilesIngested() > 0) {
+                InitialiseDB.refreshSummaries(connection);
+                SearchIndex.rebuild(connection);
+            }
+        }
+        else if(dataDirectory.exists() && dataDirectory.canRead()){
 
             boolean recordsInserted = true;
 
-            for(File file :  dataDir.listFiles()){
-
-                BufferedReader reader = new BufferedReader(new FileReader(file));
-
-                String line;
-
-                while((line = reader.readLine()) != null) {
-
-                    String [] dataArr = line.split(",");
-
-                    //preparedStatement and end_index to be initialized later
-                    PreparedStatement preparedStatement;
-                    int end_index;
-
-                    //checks the file name and sets the preparedStatement and end index depending on the table
-                    switch(file.getName()){
-                        case "actors.csv":
-                            preparedStatement = connection.prepareStatement("INSERT INTO actors VALUES(NULL,?,?)");
-                            end_index = 1;
-                            break;
-                        case "awards.csv":
-                            preparedStatement = connection.prepareStatement("INSERT INTO awards VALUES(NULL, ?)");
-                            end_index = 0;
-                            break;
-                        case "directors.csv":
-                            preparedStatement = connection.prepareStatement("INSERT INTO directors VALUES(NULL, ?, ?)");
-                            end_index = 1;
-                            break;
-                        case "movies.csv":
-                            preparedStatement = connection.prepareStatement("INSERT INTO movies VALUES(NULL, ?, ?, ?, ?, ?, NULL)");
-                            end_index = 4;
-                            break;
-                        case "ratings.csv":
-                            continue;
-                        case "actors_to_awards.csv":
-                            continue;
-                        case "movies_to_awards.csv":
-                            continue;
-                        case "actors_to_movies.csv":
-                            continue;
-                        default:
-                            System.err.println("Unexpected data file found in 'data' directory.");
-                            return;
-                    
+            if (bulkLoad) {
+                connection.setAutoCommit(false);
+                System.out.println("Bulk-loading with a batch size of " + batchSize);
+            }
+
+            //in parallel mode the scheduler loads every file, tables that do not depend on each other at the same time
+            LoadScheduler scheduler = null;
+            if (parserThreads > 0) {
+                for (File file : dataDirectory.listFiles()) {
+                    if (!isLinkFile(file.getName()) && getInsertStatement(file.getName()) == null) {
+                        System.err.println("Unexpected data file found in 'data' directory.");
+                        return;
                     }
-                
-                    //checks if the record insertion failed, if so sets 'recordsInserted' to false
-                    if(!insertRecordsIntoTable(dataArr, preparedStatement, end_index, connection)) {
+                }
+                scheduler = LoadScheduler.forDataDirectory(connection, dataDirectory, batchSize, parserThreads, dictionaryBytes, rejects);
+                //with an external sort only the entity tables are loaded in parallel
+                if (sortBytes > 0) scheduler.setMaxLevels(1);
+                System.out.println("Parsing data files on " + parserThreads + " threads");
+                try {
+                    if (!scheduler.run()) recordsInserted = false;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    recordsInserted = false;
+                }
+                System.out.println(scheduler.report());
+                if(!recordsInserted) System.out.println("Records failed to be inserted into database from the data directory");
+                else System.out.println("Records inserted successfully from the data directory");
+            }
+            else for(File file :  dataDirectory.listFiles()){
+
+                //link tables and ratings are loaded once every entity table is populated
+                if (isLinkFile(file.getName())) continue;
 
-                        recordsInserted = false;
-                        break; //prevents the boolean from being reset to false
-                    } 
+                String insertSQL = getInsertStatement(file.getName());
+                if (insertSQL == null) {
+                    System.err.println("Unexpected data file found in 'data' directory.");
+                    return;
                 }
 
-                reader.close();
+                //each line is parsed into a typed row, reused for the whole file
+                TypedRows.Row row = TypedRows.forFile(file.getName());
+
+                long startTime = System.nanoTime();
+                long rowCount = bulkLoad
+                        ? loadTableInBatches(file, insertSQL, row, connection, batchSize, rejects)
+                        : loadTableRowByRow(file, insertSQL, row, connection, rejects);
+
+                //checks if the record insertion failed, if so sets 'recordsInserted' to false
+                if (rowCount < 0) recordsInserted = false;
 
                 //if the records were not inserted
-                if(!recordsInserted) System.out.println("Records failed to be inserted into database from " + file.getName());
-                else System.out.println("Records inserted successfully from " + file.getName());
+                if(rowCount < 0) System.out.println("Records failed to be inserted into database from " + file.getName());
+                else {
+                    double seconds = (System.nanoTime() - startTime) / 1e9;
+                    System.out.println("Records inserted successfully from " + file.getName()
+                            + String.format(" (%d rows, %.0f rows/sec)", rowCount, seconds > 0 ? rowCount / seconds : 0));
+                }
             }
 
-            //checks if the foreign key insertion or 'ratings table' insertion failed
-            if(!insertForeignKeyValuesIntoTable(connection) || !populateRatingsTable(connection)){
-                recordsInserted = false;
+            //the link tables are sorted on disk and merge-joined with the entity tables, with no dictionaries in memory
+            if (sortBytes > 0 && (scheduler == null || recordsInserted)) {
+
+                ExternalSortLoader loader = new ExternalSortLoader(connection, dataDirectory, batchSize, sortBytes, rejects);
+                System.out.printf("Sorting link files on disk with %d MB of memory%n", sortBytes / (1024 * 1024));
+                if (!loader.run()) {
+                    recordsInserted = false;
+                    if (bulkLoad) connection.rollback();
+                }
+                System.out.println(loader.report());
+            }
+            //the scheduler leaves the link tables to be loaded here when the ID dictionaries do not fit in memory
+            else if (scheduler == null || (recordsInserted && !scheduler.isFinished())) {
+
+                //builds the name to ID dictionaries now that every entity table is populated
+                IDResolver resolver = scheduler != null && scheduler.getResolver() != null
+                        ? scheduler.getResolver() : IDResolver.build(connection, dictionaryBytes);
+                System.out.println(resolver.report());
+
+                //checks if the foreign key insertion or 'ratings table' insertion failed
+                if(!insertForeignKeyValuesIntoTable(connection, resolver, batchSize, dataDirectory) || !populateRatingsTable(connection, resolver, batchSize, dataDirectory, rejects)){
+                    recordsInserted = false;
+                    if (bulkLoad) connection.rollback();
+                }
             }
             if(!recordsInserted) System.out.println("Foreign key values failed to be inserted.");
             else System.out.println("Foreign key values inserted succesfully.");
+
+            //indexes are built once the data is in, rather than maintained on every insert
+            if(recordsInserted) InitialiseDB.createIndexes(connection);
+
+            //the summary tables read by QueryDB options 5 and 6
+            if(recordsInserted) InitialiseDB.refreshSummaries(connection);
+
+            //the full-text index used by the search option and fuzzy name lookups
+            if(recordsInserted) SearchIndex.rebuild(connection);
+
+            //row by row inserts commit as they go, so the data version is bumped once they are done
+            if (!bulkLoad) QueryResultCache.bumpDataVersion(connection);
+            loaded = recordsInserted;
           
         }
         else System.out.println("Directory does not exist");
-       
 
-        }
-
-    }
-
-         
+        rejects.close();
+        if (rejects.getRejectedCount() > 0) System.out.println(rejects.getRejectedCount() + " lines failed validation, see " + rejectsFile);
 
+        StatementCache.close(connection);
+        connection.close();
 
+        //readers switch to the staged generation only once it is complete
+        if (staged) {
+            if (loaded) DatabaseGenerations.publish(dbFileName);
+            else System.out.println("The staged generation was not published, readers stay on the live database.");
+        }
+        if (metricsFile != null) Metrics.writeTo(metricsFile);
 
+        }
 
+    }
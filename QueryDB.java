@@ -2,12 +2,19 @@
 import java.io.File;
 import java.io.IOException;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 
 
@@ -20,6 +27,88 @@ public class QueryDB {
     //field for the url to the SQLite database
     static final String dbUrl = "jdbc:sqlite:movies";
 
+    //queries run by the options, kept here so InitialiseDB can print their query plans
+    static final String ALL_MOVIES_QUERY = "SELECT Title FROM movies";
+
+    static final String CAST_QUERY = "SELECT a.Name " +
+                       "FROM movies m " +
+                       "JOIN actors_to_movies atm ON atm.Movie_ID = m.Movie_ID " +
+                       "JOIN actors a ON a.Actor_ID = atm.Actor_ID " +
+                       "WHERE m.Title = ?";
+
+    //number of titles looked up per statement by getCastsForMovies
+    static final int CAST_BATCH_SIZE = 100;
+
+    static final String CAST_BATCH_QUERY = "SELECT m.Title, a.Name " +
+                       "FROM movies m " +
+                       "JOIN actors_to_movies atm ON atm.Movie_ID = m.Movie_ID " +
+                       "JOIN actors a ON a.Actor_ID = atm.Actor_ID " +
+                       "WHERE m.Title IN (" + String.join(", ", Collections.nCopies(CAST_BATCH_SIZE, "?")) + ")";
+
+    static final String ACTOR_ID_QUERY = "SELECT Actor_ID FROM actors WHERE Name = ?";
+
+    static final String DIRECTOR_ID_QUERY = "SELECT Director_ID FROM directors WHERE Name = ?";
+
+    static final String PLOT_QUERY = "SELECT Plot " +
+               "FROM (SELECT movies.Movie_ID, Plot, directors.Director_ID, Actor_ID " +
+                     "FROM movies " +
+                     "INNER JOIN actors_to_movies ON movies.Movie_ID = actors_to_movies.Movie_ID " +
+                     "INNER JOIN directors ON movies.Director_ID = directors.Director_ID) AS subquery " +
+               "WHERE Actor_ID = ? AND subquery.Director_ID = ?";
+
+    static final String PLOT_BY_NAMES_QUERY = "SELECT m.Plot " +
+                       "FROM movies m " +
+                       "JOIN actors_to_movies atm ON atm.Movie_ID = m.Movie_ID " +
+                       "JOIN actors a ON a.Actor_ID = atm.Actor_ID " +
+                       "JOIN directors d ON d.Director_ID = m.Director_ID " +
+                       "WHERE a.Name = ? AND d.Name = ?";
+
+    static final String DIRECTORS_WITH_ACTOR_QUERY = "SELECT DISTINCT directors.Name AS Director_Name " +
+                        "FROM movies " +
+                        "INNER JOIN actors_to_movies ON movies.Movie_ID = actors_to_movies.Movie_ID " +
+                        "INNER JOIN directors ON movies.Director_ID = directors.Director_ID " +
+                        "INNER JOIN actors ON actors_to_movies.Actor_ID = actors.Actor_ID " +
+                        "WHERE actors.Name = ?";
+
+    //options 5 and 6 read the summary tables rebuilt at the end of every load, see summaries.sql
+    static final String ACTORS_WITH_AWARDS_IN_GENRE_QUERY = "SELECT Name FROM actor_award_genres WHERE Genre = ?";
+
+    static final String DIRECTORS_WITH_AWARDS_AND_RATING_QUERY = "SELECT Name FROM director_award_ratings WHERE Max_Awarded_Rating > ?";
+
+    //keyset-paginated versions of the unbounded queries, see KeysetPager
+    static final String MOVIES_FIRST_PAGE = "SELECT Movie_ID, Title FROM movies ORDER BY Movie_ID LIMIT ?";
+
+    static final String MOVIES_NEXT_PAGE = "SELECT Movie_ID, Title FROM movies WHERE Movie_ID > ? ORDER BY Movie_ID LIMIT ?";
+
+    static final String ACTORS_WITH_AWARDS_IN_GENRE_FIRST_PAGE = "SELECT Name AS Name_Key, Name FROM actor_award_genres " +
+                       "WHERE Genre = ? ORDER BY Name LIMIT ?";
+
+    static final String ACTORS_WITH_AWARDS_IN_GENRE_NEXT_PAGE = "SELECT Name AS Name_Key, Name FROM actor_award_genres " +
+                       "WHERE Genre = ? AND Name > ? ORDER BY Name LIMIT ?";
+
+    static final String DIRECTORS_WITH_AWARDS_AND_RATING_FIRST_PAGE = "SELECT Name AS Name_Key, Name FROM director_award_ratings " +
+                       "WHERE Max_Awarded_Rating > ? ORDER BY Name LIMIT ?";
+
+    static final String DIRECTORS_WITH_AWARDS_AND_RATING_NEXT_PAGE = "SELECT Name AS Name_Key, Name FROM director_award_ratings " +
+                       "WHERE Max_Awarded_Rating > ? AND Name > ? ORDER BY Name LIMIT ?";
+
+    //every query run by each of the six options, labelled with the option
+    static final String[][] OPTION_QUERIES = {
+        {"1. List all movies", ALL_MOVIES_QUERY},
+        {"1. Next page of movies", MOVIES_NEXT_PAGE},
+        {"2. Cast of a movie", CAST_QUERY},
+        {"2. Casts of a batch of movies", CAST_BATCH_QUERY},
+        {"3. Actor ID for a name", ACTOR_ID_QUERY},
+        {"3. Director ID for a name", DIRECTOR_ID_QUERY},
+        {"3. Plots with an actor and director", PLOT_QUERY},
+        {"3. Plots by actor and director name", PLOT_BY_NAMES_QUERY},
+        {"4. Directors of movies with an actor", DIRECTORS_WITH_ACTOR_QUERY},
+        {"5. Actors with awards in a genre", ACTORS_WITH_AWARDS_IN_GENRE_QUERY},
+        {"5. Next page of actors with awards in a genre", ACTORS_WITH_AWARDS_IN_GENRE_NEXT_PAGE},
+        {"6. Directors of awarded movies above a rating", DIRECTORS_WITH_AWARDS_AND_RATING_QUERY},
+        {"6. Next page of directors of awarded movies above a rating", DIRECTORS_WITH_AWARDS_AND_RATING_NEXT_PAGE},
+    };
+
     /**
      * List all the movies in the database
      * @param conn connection to the database
@@ -27,17 +116,13 @@ public class QueryDB {
      */
     private static void listAllMovies(Connection conn) throws SQLException{
         
-        try (Statement statement = conn.createStatement();) {
-            ResultSet rs = statement.executeQuery("SELECT Title FROM movies");
+        //paged, so memory use stays flat however many movies there are
+        try (Stream<String> movieTitles = streamAllMovies(conn, KeysetPager.DEFAULT_PAGE_SIZE)) {
             System.out.println("Movies in Database:");
-            int counter = 1;
-            while(rs.next()){
-                String movieTitle = rs.getString("Title");
-                System.out.println(counter + ". " + movieTitle);
-                counter++;
-            }
+            int[] counter = {1};
+            movieTitles.forEach(movieTitle -> System.out.println(counter[0]++ + ". " + movieTitle));
             
-        } catch (SQLException e) {
+        } catch (IllegalStateException e) {
                 e.printStackTrace();
         }
     
@@ -51,30 +136,22 @@ public class QueryDB {
      */
     private static void listAllActorsInMovie(Connection conn, String movieTitle) {
 
-        String getMovieIDQuery = "SELECT Movie_ID FROM movies WHERE Title = ?";
-        String getActorRowsQuery = "SELECT * FROM actors_to_movies WHERE Movie_ID = (?)";
-
-        try (PreparedStatement movieIDStatement = conn.prepareStatement(getMovieIDQuery); 
-        PreparedStatement actorsRowsStatement = conn.prepareStatement(getActorRowsQuery)) {
-            movieIDStatement.setString(1, movieTitle);
-            int movie_ID = movieIDStatement.executeQuery().getInt("Movie_ID");
-            
-            actorsRowsStatement.setInt(1, movie_ID);
-            ResultSet actorsResultSet = actorsRowsStatement.executeQuery();
-            boolean hasRows = actorsResultSet.isBeforeFirst();
-            if(!hasRows){
-                System.out.println("No actors were found for \"" + movieTitle + "\" in the database");
-            } else {
-                System.out.println("The actors/actresses that acted in " + movieTitle + " are:");
-                while(actorsResultSet.next()){
-                    PreparedStatement getActorNameStatement = conn.prepareStatement("SELECT Name FROM actors WHERE Actor_ID = ?");
-                    
-                    int actor_ID = actorsResultSet.getInt("Actor_ID");
-                    getActorNameStatement.setInt(1, actor_ID);
-                    String actorName = getActorNameStatement.executeQuery().getString("Name");
-    
-                    System.out.println(actorName);
-                    
+        try {
+            //one join for the whole cast, printed as the rows arrive
+            PreparedStatement castStatement = StatementCache.prepare(conn, CAST_QUERY);
+            castStatement.setString(1, movieTitle);
+
+            try (ResultSet actorNames = castStatement.executeQuery()) {
+                boolean hasRows = false;
+                while(actorNames.next()){
+                    if(!hasRows){
+                        System.out.println("The actors/actresses that acted in " + movieTitle + " are:");
+                        hasRows = true;
+                    }
+                    System.out.println(actorNames.getString("Name"));
+                }
+                if(!hasRows){
+                    System.out.println("No actors were found for \"" + movieTitle + "\" in the database");
                 }
             }
             
@@ -85,6 +162,41 @@ public class QueryDB {
 
     }
 
+    /**
+     * Gets the casts of many movies with one query per CAST_BATCH_SIZE titles
+     * instead of one query per movie
+     * @param conn connection to the database
+     * @param movieTitles the titles of the movies
+     * @return the actor names for each title, in the order the titles were given;
+     * a title with no actors in the database has an empty list
+     * @throws SQLException if the statement throws an SQL error
+     */
+    public static Map<String, List<String>> getCastsForMovies(Connection conn, List<String> movieTitles) throws SQLException {
+
+        Map<String, List<String>> casts = new LinkedHashMap<>();
+        for (String movieTitle : movieTitles) {
+            casts.put(movieTitle, new ArrayList<>());
+        }
+        if (casts.isEmpty()) return casts;
+
+        List<String> titles = new ArrayList<>(casts.keySet());
+        PreparedStatement castStatement = StatementCache.prepare(conn, CAST_BATCH_QUERY);
+
+        for (int start = 0; start < titles.size(); start += CAST_BATCH_SIZE) {
+            //the last batch repeats its final title so every batch uses the same statement
+            for (int i = 0; i < CAST_BATCH_SIZE; i++) {
+                castStatement.setString(i + 1, titles.get(Math.min(start + i, titles.size() - 1)));
+            }
+
+            try (ResultSet rs = castStatement.executeQuery()) {
+                while (rs.next()) {
+                    casts.get(rs.getString("Title")).add(rs.getString("Name"));
+                }
+            }
+        }
+        return casts;
+    }
+
     /**
      * Get the plot of a movie with a particular actor and director
      * @param actorName name of the actor
@@ -95,19 +207,13 @@ public class QueryDB {
     private static void getPlotForMovieWithActorAndDirector(String actorName, String directorName, Connection conn) throws SQLException{
 
         //check if there is a movie with the actor and director passed in the method 
-        String query = "SELECT Plot " +
-               "FROM (SELECT movies.Movie_ID, Plot, directors.Director_ID, Actor_ID " +
-                     "FROM movies " +
-                     "INNER JOIN actors_to_movies ON movies.Movie_ID = actors_to_movies.Movie_ID " +
-                     "INNER JOIN directors ON movies.Director_ID = directors.Director_ID) AS subquery " +
-               "WHERE Actor_ID = ? AND subquery.Director_ID = ?";
-
-        PreparedStatement plotPreparedStatement = conn.prepareStatement(query);
+        PreparedStatement plotPreparedStatement = StatementCache.prepare(conn, PLOT_QUERY);
+        PreparedStatement actorIDStatement = StatementCache.prepare(conn, ACTOR_ID_QUERY);
+        PreparedStatement directorIDStatement = StatementCache.prepare(conn, DIRECTOR_ID_QUERY);
 
         int actor_ID;
-        try (PreparedStatement actorIDStatement = conn.prepareStatement("SELECT Actor_ID FROM actors WHERE Name = ?")) {
-            actorIDStatement.setString(1, actorName);
-            ResultSet actorIDResult = actorIDStatement.executeQuery();
+        actorIDStatement.setString(1, actorName);
+        try (ResultSet actorIDResult = actorIDStatement.executeQuery()) {
             if (actorIDResult.next()) {
                 actor_ID = actorIDResult.getInt("Actor_ID");
             } else {
@@ -118,9 +224,8 @@ public class QueryDB {
         }
 
         int director_ID;
-        try (PreparedStatement directorIDStatement = conn.prepareStatement("SELECT Director_ID FROM directors WHERE Name = ?")) {
-            directorIDStatement.setString(1, directorName);
-            ResultSet directorIDResult = directorIDStatement.executeQuery();
+        directorIDStatement.setString(1, directorName);
+        try (ResultSet directorIDResult = directorIDStatement.executeQuery()) {
             if (directorIDResult.next()) {
                 director_ID = directorIDResult.getInt("Director_ID");
             } else {
@@ -131,13 +236,13 @@ public class QueryDB {
 
         plotPreparedStatement.setInt(1, actor_ID);
         plotPreparedStatement.setInt(2, director_ID);
-        ResultSet plots = plotPreparedStatement.executeQuery();
-
-        while(plots.next()){
-            String plot = plots.getString("Plot");
+        try (ResultSet plots = plotPreparedStatement.executeQuery()) {
             int counter = 1;
-            System.out.println("Plot "+ counter + ": " + plot );
-            counter++;
+            while(plots.next()){
+                String plot = plots.getString("Plot");
+                System.out.println("Plot "+ counter + ": " + plot );
+                counter++;
+            }
         }
 
     }
@@ -151,33 +256,25 @@ public class QueryDB {
      */
     private static void getDirectorOfMoviesWithActor(String actorName, Connection conn) throws SQLException{
         
-        String query = "SELECT DISTINCT directors.Name AS Director_Name " +
-                        "FROM movies " +
-                        "INNER JOIN actors_to_movies ON movies.Movie_ID = actors_to_movies.Movie_ID " +
-                        "INNER JOIN directors ON movies.Director_ID = directors.Director_ID " +
-                        "INNER JOIN actors ON actors_to_movies.Actor_ID = actors.Actor_ID " +
-                        "WHERE actors.Name = ?";
-
-        PreparedStatement directorStatement = conn.prepareStatement(query);
+        PreparedStatement directorStatement = StatementCache.prepare(conn, DIRECTORS_WITH_ACTOR_QUERY);
         directorStatement.setString(1, actorName);
         
-        ResultSet rs = directorStatement.executeQuery();
+        try (ResultSet rs = directorStatement.executeQuery()) {
 
-        System.out.println("Directors of movie with " + actorName + " : ");
+            System.out.println("Directors of movie with " + actorName + " : ");
         
-        int counter = 1;
-        while((rs.next())) {
-            String directorName = rs.getString("Director_Name");
-            System.out.println("Director " + counter + ": " + directorName);
-            counter++;
-        }
+            int counter = 1;
+            while((rs.next())) {
+                String directorName = rs.getString("Director_Name");
+                System.out.println("Director " + counter + ": " + directorName);
+                counter++;
+            }
 
-        if (counter == 1){
-            System.out.println("No movies found with actor " + actorName);
+            if (counter == 1){
+                System.out.println("No movies found with actor " + actorName);
+            }
         }
 
-        directorStatement.close();
-
     }
     
     /**
@@ -188,28 +285,19 @@ public class QueryDB {
      */
     private static void listActorsWithAwardsInGenre(String genre, Connection conn) throws SQLException{
 
-        String query = "SELECT DISTINCT a.Name "+
-                       "FROM actors a " +
-                       "JOIN actors_to_awards ata ON a.Actor_ID = ata.Actor_ID " +
-                       "JOIN actors_to_movies atm ON a.Actor_ID = atm.Actor_ID " +
-                       "JOIN movies m ON atm.Movie_ID = m.Movie_ID " +
-                       "WHERE m.Genre = ?";
+        try (Stream<String> actorNames = streamActorsWithAwardsInGenre(conn, genre, KeysetPager.DEFAULT_PAGE_SIZE)) {
 
-        PreparedStatement stmt = conn.prepareStatement(query);
-        stmt.setString(1, genre);
-
-        ResultSet actorNames = stmt.executeQuery();
-
-        System.out.println("The actors that have won awards and acted in \"" + genre + "\" movies");
-        int counter = 1;
-        while((actorNames.next())){
-            String actorName = actorNames.getString("Name");
-            System.out.println(counter + ". " + actorName);
-            counter++;
-        }
+            System.out.println("The actors that have won awards and acted in \"" + genre + "\" movies");
+            int counter = 1;
+            for (Iterator<String> names = actorNames.iterator(); names.hasNext(); ) {
+                String actorName = names.next();
+                System.out.println(counter + ". " + actorName);
+                counter++;
+            }
 
-        if(counter==1){
-            System.out.println("No actors have won awards and acted in \"" + genre + "\" movies.");
+            if(counter==1){
+                System.out.println("No actors have won awards and acted in \"" + genre + "\" movies.");
+            }
         }
 
                        
@@ -224,109 +312,358 @@ public class QueryDB {
      */
     private static void listDirectorsOfMoviesWithAwardsAndRating(Double rating, Connection conn) throws SQLException{
 
-        String query = "SELECT DISTINCT d.Name " +
-                       "FROM directors d " +
-                       "JOIN movies m ON m.Title = d.Movie_Title " +
-                       "JOIN ratings r ON r.Movie_ID = m.Movie_ID " +
-                       "JOIN movies_to_awards mta ON mta.Movie_ID = m.Movie_ID " +
-                       "WHERE r.Rating_Value > ?";
-                       
-                       
-        PreparedStatement stmt = conn.prepareStatement(query);
-        stmt.setDouble(1, rating);
-        ResultSet directorNames = stmt.executeQuery();
+        try (Stream<String> directorNames = streamDirectorsOfMoviesWithAwardsAndRating(conn, rating, KeysetPager.DEFAULT_PAGE_SIZE)) {
 
-        System.out.println("The directors of movies that have won awards and have a rating over " + rating + " are: " );
+            System.out.println("The directors of movies that have won awards and have a rating over " + rating + " are: " );
 
-        int counter = 1;
-        while((directorNames.next())){
-            String directorName = directorNames.getString("Name");
-            System.out.println(counter + ". " + directorName);
-            counter++;
-        }
+            int counter = 1;
+            for (Iterator<String> names = directorNames.iterator(); names.hasNext(); ) {
+                String directorName = names.next();
+                System.out.println(counter + ". " + directorName);
+                counter++;
+            }
 
-        if(counter == 1){
-            System.out.println("No directors have directed movies with awards and a rating over " + rating + ".");
+            if(counter == 1){
+                System.out.println("No directors have directed movies with awards and a rating over " + rating + ".");
+            }
         }
         
     }
 
 
 
+    /**
+     * Streams the titles of every movie in Movie_ID order, one page at a time
+     * Stop early by limiting or closing the stream; later pages are then never fetched
+     * @param conn connection to the database
+     * @param pageSize number of rows fetched per page
+     * @return the titles, to be closed after use
+     */
+    public static Stream<String> streamAllMovies(Connection conn, int pageSize) {
+        return new KeysetPager(conn, MOVIES_FIRST_PAGE, MOVIES_NEXT_PAGE, new Object[0], pageSize, pageSize).stream();
+    }
+
+    /**
+     * Streams the names of the actors with awards who acted in movies of a genre, in name order
+     * @param conn connection to the database
+     * @param genre the genre of the movies
+     * @param pageSize number of rows fetched per page
+     * @return the actor names, to be closed after use
+     */
+    public static Stream<String> streamActorsWithAwardsInGenre(Connection conn, String genre, int pageSize) {
+        return new KeysetPager(conn, ACTORS_WITH_AWARDS_IN_GENRE_FIRST_PAGE, ACTORS_WITH_AWARDS_IN_GENRE_NEXT_PAGE,
+                new Object[]{genre}, pageSize, pageSize).stream();
+    }
+
+    /**
+     * Streams the names of the directors of awarded movies rated above a value, in name order
+     * @param conn connection to the database
+     * @param rating the rating the movies must be above
+     * @param pageSize number of rows fetched per page
+     * @return the director names, to be closed after use
+     */
+    public static Stream<String> streamDirectorsOfMoviesWithAwardsAndRating(Connection conn, double rating, int pageSize) {
+        return new KeysetPager(conn, DIRECTORS_WITH_AWARDS_AND_RATING_FIRST_PAGE, DIRECTORS_WITH_AWARDS_AND_RATING_NEXT_PAGE,
+                new Object[]{rating}, pageSize, pageSize).stream();
+    }
+
+    /**
+     * Runs one of the options and returns its rows instead of printing them,
+     * so the queries can be served to other programs (see QueryServer)
+     * Options 5 and 6 take their genre and rating as parameters, defaulting to "Action" and 7.0
+     * Options 1, 5 and 6 take an optional 'limit', which stops reading after that many rows
+     * With 'fuzzy=1' the title, actor and director are first resolved through the SearchIndex,
+     * so partial or misspelled names find the stored ones
+     * @param conn connection to the database
+     * @param option "1" to "6", "casts" for the casts of several titles separated by '|',
+     * "search" for a ranked search of 'q', optionally of one 'kind' and up to 'limit' results,
+     * or one of the CollaborationGraph options: "path" between 'actor' and 'other', "costars" of 'actor'
+     * (the top 'limit'), "nearby" actors within 'hops' of 'actor', or "shareddirectors" of 'actor' and 'other'
+     * @param params the parameters of the option by name: title, actor, director, genre, rating, titles, q, other or hops
+     * @return the rows of the result
+     * @throws SQLException if the statement throws an SQL error
+     * @throws IllegalArgumentException if the option is unknown or a parameter is missing
+     */
+    public static List<String> runOperation(Connection conn, String option, Map<String, String> params) throws SQLException {
+
+        long startTime = System.nanoTime();
+        try {
+            return runOperationUntimed(conn, option, params);
+        } finally {
+            Metrics.recordNanos("operation_seconds", System.nanoTime() - startTime, "op", option);
+        }
+    }
+
+    private static List<String> runOperationUntimed(Connection conn, String option, Map<String, String> params) throws SQLException {
+
+        if ("1".equals(params.get("fuzzy"))) params = SearchIndex.resolveParams(conn, params);
+
+        switch (option) {
+            case "1":
+                if (params.containsKey("limit")) return firstRows(streamAllMovies(conn, KeysetPager.DEFAULT_PAGE_SIZE), params);
+                return queryStrings(conn, ALL_MOVIES_QUERY);
+            case "2":
+                return queryStrings(conn, CAST_QUERY, requireParam(params, "title"));
+            case "3":
+                return queryStrings(conn, PLOT_BY_NAMES_QUERY, requireParam(params, "actor"), requireParam(params, "director"));
+            case "4":
+                return queryStrings(conn, DIRECTORS_WITH_ACTOR_QUERY, requireParam(params, "actor"));
+            case "5":
+                if (params.containsKey("limit")) return firstRows(streamActorsWithAwardsInGenre(conn,
+                        params.getOrDefault("genre", "Action"), KeysetPager.DEFAULT_PAGE_SIZE), params);
+                return queryStrings(conn, ACTORS_WITH_AWARDS_IN_GENRE_QUERY, params.getOrDefault("genre", "Action"));
+            case "6":
+                if (params.containsKey("limit")) return firstRows(streamDirectorsOfMoviesWithAwardsAndRating(conn,
+                        Double.parseDouble(params.getOrDefault("rating", "7.0")), KeysetPager.DEFAULT_PAGE_SIZE), params);
+                return queryStrings(conn, DIRECTORS_WITH_AWARDS_AND_RATING_QUERY, Double.parseDouble(params.getOrDefault("rating", "7.0")));
+            case "casts":
+                List<String> rows = new ArrayList<>();
+                List<String> titles = Arrays.asList(requireParam(params, "titles").split("\\|"));
+                for (Map.Entry<String, List<String>> cast : getCastsForMovies(conn, titles).entrySet()) {
+                    rows.add(cast.getKey() + ": " + String.join(", ", cast.getValue()));
+                }
+                return rows;
+            case "search":
+                List<String> matches = new ArrayList<>();
+                for (SearchIndex.Match match : SearchIndex.search(conn, requireParam(params, "q"), params.get("kind"),
+                        Integer.parseInt(params.getOrDefault("limit", "10")))) {
+                    matches.add(match.toString());
+                }
+                return matches;
+            case "path":
+            case "costars":
+            case "nearby":
+            case "shareddirectors":
+                return runGraphOperation(CollaborationGraph.shared(conn), option, params);
+            default:
+                throw new IllegalArgumentException("Unknown option: " + option);
+        }
+    }
+
+    /**
+     * Runs one of the graph options and formats its result as rows
+     * Unknown actors give no rows, as the SQL options do
+     */
+    private static List<String> runGraphOperation(CollaborationGraph graph, String option, Map<String, String> params) {
+
+        List<String> rows = new ArrayList<>();
+        int actor = graph.actorIndex(requireParam(params, "actor"));
+        int limit = Integer.parseInt(params.getOrDefault("limit", option.equals("nearby") ? "100" : "10"));
+        switch (option) {
+            case "path":
+                int other = graph.actorIndex(requireParam(params, "other"));
+                if (actor < 0 || other < 0) return rows;
+                int[] path = graph.shortestPath(actor, other,
+                        Integer.parseInt(params.getOrDefault("hops", String.valueOf(CollaborationGraph.DEFAULT_MAX_HOPS))));
+                //actors and the movies that link them alternate
+                for (int i = 0; i < path.length; i++) {
+                    rows.add(i % 2 == 0 ? graph.actorName(path[i]) : "  in " + graph.movieTitle(path[i]));
+                }
+                return rows;
+            case "costars":
+                if (actor < 0) return rows;
+                int[][] coStars = graph.topCoStars(actor, limit);
+                for (int i = 0; i < coStars[0].length; i++) {
+                    rows.add(graph.actorName(coStars[0][i]) + " (" + coStars[1][i] + " movies)");
+                }
+                return rows;
+            case "nearby":
+                if (actor < 0) return rows;
+                int[][] nearby = graph.neighbourhood(actor, Integer.parseInt(params.getOrDefault("hops", "2")), limit);
+                for (int i = 0; i < nearby[0].length; i++) {
+                    rows.add(nearby[1][i] + " " + graph.actorName(nearby[0][i]));
+                }
+                return rows;
+            default:
+                int second = graph.actorIndex(requireParam(params, "other"));
+                if (actor < 0 || second < 0) return rows;
+                for (int director : graph.sharedDirectors(actor, second)) {
+                    rows.add(graph.directorName(director));
+                }
+                return rows;
+        }
+    }
+
+    /**
+     * Runs a cached query and collects the first column of every row
+     * @param conn connection to the database
+     * @param sql the query
+     * @param values the parameters of the query in order
+     * @return the first column of each row as a String
+     * @throws SQLException if the statement throws an SQL error
+     */
+    private static List<String> queryStrings(Connection conn, String sql, Object... values) throws SQLException {
+
+        PreparedStatement statement = StatementCache.prepare(conn, sql);
+        for (int i = 0; i < values.length; i++) {
+            statement.setObject(i + 1, values[i]);
+        }
+
+        //execution is the time to the first row, fetching is stepping through the rest
+        List<String> rows = new ArrayList<>();
+        long startTime = System.nanoTime();
+        try (ResultSet rs = statement.executeQuery()) {
+            long executed = System.nanoTime();
+            Metrics.recordNanos("query_execute_seconds", executed - startTime, "query", queryLabel(sql));
+            while (rs.next()) {
+                rows.add(rs.getString(1));
+            }
+            Metrics.recordNanos("query_fetch_seconds", System.nanoTime() - executed, "query", queryLabel(sql));
+        }
+        Metrics.add("query_rows_total", rows.size(), "query", queryLabel(sql));
+        return rows;
+    }
+
+    /**
+     * @param sql one of the queries of OPTION_QUERIES
+     * @return the label of the query, used to name its metrics
+     */
+    static String queryLabel(String sql) {
+        for (String[] query : OPTION_QUERIES) {
+            if (query[1].equals(sql)) return query[0];
+        }
+        return "other";
+    }
+
+    /**
+     * Collects the first 'limit' rows of a stream and closes it, so no further pages are read
+     */
+    private static List<String> firstRows(Stream<String> rows, Map<String, String> params) throws SQLException {
+        try (rows) {
+            return rows.limit(Long.parseLong(params.get("limit"))).collect(Collectors.toList());
+        } catch (IllegalStateException e) {
+            //KeysetPager wraps the SQLException as iterators cannot throw checked exceptions
+            if (e.getCause() instanceof SQLException) throw (SQLException) e.getCause();
+            throw e;
+        }
+    }
+
+    /**
+     * Resolves a typed name through the search index, printing the stored name when it differs
+     * @return the stored name, or the typed one if nothing matches
+     */
+    private static String resolveTyped(Connection conn, String kind, String typed) throws SQLException {
+        String name = SearchIndex.resolve(conn, kind, typed);
+        if (name == null) return typed;
+        if (!name.equals(typed)) System.out.println("Showing results for " + kind + " \"" + name + "\"");
+        return name;
+    }
+
+    private static String requireParam(Map<String, String> params, String name) {
+        String value = params.get(name);
+        if (value == null || value.isEmpty()) throw new IllegalArgumentException("Missing parameter: " + name);
+        return value;
+    }
+
     /**
      * Main method: executes the corresponding query depending on 
      * the user input
+     * "--profile" chooses the connection pragmas, SQLite's defaults unless given,
+     * "--metrics" writes the timings of the query to a file
+     * and "--fuzzy" resolves the names typed for options 2 to 4 through the search index
      * @param args command-line arguments
      * @throws IOException if any sub-method throws an I/O error
      * @throws SQLException if any SQL command in any sub-method throws an SQL error
      */
     public static void main(String[] args) throws IOException, SQLException{
 
-       if(args.length != 2) {
-        System.out.println("Usage: java QueryDB <database_file_name> <query_number>");
+       ConnectionProfile profile = ConnectionProfile.DEFAULT;
+       File metricsFile = null;
+       boolean fuzzy = false;
+       boolean validOptions = args.length >= 2;
+       for (int i = 2; i < args.length && validOptions; i++) {
+            if (args[i].equals("--profile") && i + 1 < args.length) profile = ConnectionProfile.forName(args[++i]);
+            else if (args[i].equals("--metrics") && i + 1 < args.length) metricsFile = new File(args[++i]);
+            else if (args[i].equals("--fuzzy")) fuzzy = true;
+            else validOptions = false;
+       }
+
+       if(!validOptions) {
+        System.out.println("Usage: java QueryDB <database_file_name> <query_number> [--profile <default|bulk-load|serve>] [--metrics <file>] [--fuzzy]");
         return;
        }
 
        String dbFileName = args[0];
-       String dbUrl = "jdbc:sqlite:"+dbFileName;
-       File dbFile = new File(dbFileName);
-       if(!(dbFile.exists())){
+       if(!DatabaseGenerations.exists(dbFileName)){
             System.err.println("Database \"" + dbFileName +"\" has not been initialized");
             return;
        }
 
-       Connection conn = DriverManager.getConnection(dbUrl);
-       Scanner scanner = new Scanner(System.in);
-       String option = args[1];
-
-        switch(option){
-            case "1":
-                //list all the movies in the database
-                listAllMovies(conn);
-                break;
-
-            case "2":
-                //list all the actors in a movie
-                System.out.print("Enter movie name: ");
-                String movieTitle = scanner.nextLine();
-                listAllActorsInMovie(conn, movieTitle); //include a check to whether movie is in the db in method
-                break;
-
-            case "3":
-                //get the plots/synopses of all the movies with a particular actor and a particular director
-                System.out.print("Enter actor's/actress' name: ");
-                String actorName = scanner.nextLine();
-                System.out.print("Enter director's name: ");
-                String directorName = scanner.nextLine();
-                getPlotForMovieWithActorAndDirector(actorName, directorName, conn);
-
-                break;
-            case "4":
-                //get the director of all movies where a certain actor appears
-                System.out.print("Enter actor's/actress' name: ");
-                actorName = scanner.nextLine();
-                getDirectorOfMoviesWithActor(actorName, conn);
+       //a database kept in generations is read from the live one, which a reload does not touch,
+       //and is held so it is not pruned while this waits for input
+       String resolvedFileName = DatabaseGenerations.resolve(dbFileName);
+       DatabaseGenerations.hold(resolvedFileName);
+       try {
+           Connection conn = profile.open(resolvedFileName);
+           Scanner scanner = new Scanner(System.in);
+           String option = args[1];
+           //the clock starts once any input has been read, so only the query is timed
+           long startTime = System.nanoTime();
+
+            switch(option){
+                case "1":
+                    //list all the movies in the database
+                    listAllMovies(conn);
+                    break;
+
+                case "2":
+                    //list all the actors in a movie
+                    System.out.print("Enter movie name: ");
+                    String movieTitle = scanner.nextLine();
+                    startTime = System.nanoTime();
+                    if (fuzzy) movieTitle = resolveTyped(conn, SearchIndex.MOVIE, movieTitle);
+                    listAllActorsInMovie(conn, movieTitle); //include a check to whether movie is in the db in method
+                    break;
+
+                case "3":
+                    //get the plots/synopses of all the movies with a particular actor and a particular director
+                    System.out.print("Enter actor's/actress' name: ");
+                    String actorName = scanner.nextLine();
+                    System.out.print("Enter director's name: ");
+                    String directorName = scanner.nextLine();
+                    startTime = System.nanoTime();
+                    if (fuzzy) {
+                        actorName = resolveTyped(conn, SearchIndex.ACTOR, actorName);
+                        directorName = resolveTyped(conn, SearchIndex.DIRECTOR, directorName);
+                    }
+                    getPlotForMovieWithActorAndDirector(actorName, directorName, conn);
+
+                    break;
+                case "4":
+                    //get the director of all movies where a certain actor appears
+                    System.out.print("Enter actor's/actress' name: ");
+                    actorName = scanner.nextLine();
+                    startTime = System.nanoTime();
+                    if (fuzzy) actorName = resolveTyped(conn, SearchIndex.ACTOR, actorName);
+                    getDirectorOfMoviesWithActor(actorName, conn);
+                    break;
+
+                case "5":
+                    String genre = "Action";
+                    //list the actors that have won awards and acted in movies of a certain genre 
+                    listActorsWithAwardsInGenre(genre, conn);
+                    break;
+
+                case "6":
+                    //list the directors of all movies that have won awards and have ratings higher than 7.0 
+                    Double rating = 7.0;
+                    listDirectorsOfMoviesWithAwardsAndRating(rating, conn);
+                
                 break;
-
-            case "5":
-                String genre = "Action";
-                //list the actors that have won awards and acted in movies of a certain genre 
-                listActorsWithAwardsInGenre(genre, conn);
+                default:
+                    System.err.println("Invalid value entered.");
+                    System.exit(0);
                 break;
-
-            case "6":
-                //list the directors of all movies that have won awards and have ratings higher than 7.0 
-                Double rating = 7.0;
-                listDirectorsOfMoviesWithAwardsAndRating(rating, conn);
-                
-            break;
-            default:
-                System.err.println("Invalid value entered.");
-                System.exit(0);
-            break;
             
-        }
-        scanner.close();
+            }
+            Metrics.recordNanos("operation_seconds", System.nanoTime() - startTime, "op", option);
+            if (metricsFile != null) Metrics.writeTo(metricsFile);
+            scanner.close();
+            StatementCache.close(conn);
+            conn.close();
+       } finally {
+           DatabaseGenerations.release(resolvedFileName);
+       }
     }
     
 }
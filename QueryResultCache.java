@@ -0,0 +1,225 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Least-recently-used cache of QueryDB.runOperation results, keyed by the option and its parameters
+ * Bounded both by a number of entries and by an estimate of the memory the results use
+ *
+ * The cache is tied to the data version kept in the database header (PRAGMA user_version),
+ * which PopulateDB and DeltaIngest increment in every transaction that loads data:
+ * when a lookup sees a different version every cached result is dropped
+ */
+public class QueryResultCache {
+
+    //results kept when no capacity is given
+    static final int DEFAULT_CAPACITY = 10000;
+
+    //rough per-entry and per-row overheads of the map entry, list and strings
+    private static final int ENTRY_OVERHEAD = 96;
+    private static final int ROW_OVERHEAD = 48;
+
+    /**
+     * Runs the query on a miss
+     */
+    interface Loader {
+        List<String> load() throws SQLException;
+    }
+
+    private static final class Entry {
+        final List<String> rows;
+        final long bytes;
+
+        Entry(List<String> rows, long bytes) {
+            this.rows = rows;
+            this.bytes = bytes;
+        }
+    }
+
+    private final int capacity;
+    private final long maxBytes;
+
+    //access-ordered, so iteration starts at the least recently used result
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes = 0;
+    private long dataVersion = Long.MIN_VALUE;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    /**
+     * @param capacity the maximum number of cached results
+     * @param maxBytes the maximum estimated memory used by the cached results
+     */
+    public QueryResultCache(int capacity, long maxBytes) {
+        this.capacity = Math.max(1, capacity);
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Runs a QueryDB option, or returns its result from the cache if the data has not changed
+     * @param conn connection to the SQLite database
+     * @param option the option, as accepted by QueryDB.runOperation
+     * @param params the parameters of the option
+     * @return the rows of the result, which must not be modified
+     * @throws SQLException if the query or the data version lookup throws an SQL error
+     */
+    public List<String> get(Connection conn, String option, Map<String, String> params) throws SQLException {
+        return get(getDataVersion(conn), key(option, params), () -> QueryDB.runOperation(conn, option, params));
+    }
+
+    /**
+     * Looks up a result, loading and caching it on a miss
+     * @param version the data version the result is read at
+     * @param key the option and its parameters
+     * @param loader runs the query on a miss
+     * @return the rows of the result
+     * @throws SQLException if the loader throws an SQL error
+     */
+    List<String> get(long version, String key, Loader loader) throws SQLException {
+
+        synchronized (this) {
+            //versions only go up, a thread that read the version just before a load is not allowed to reset it
+            if (version > dataVersion) {
+                if (!entries.isEmpty()) invalidations.increment();
+                entries.clear();
+                bytes = 0;
+                dataVersion = version;
+            }
+            Entry entry = version == dataVersion ? entries.get(key) : null;
+            if (entry != null) {
+                hits.increment();
+                return entry.rows;
+            }
+        }
+
+        //the query runs outside the lock, two threads missing on the same key both run it
+        misses.increment();
+        List<String> rows = Collections.unmodifiableList(loader.load());
+        long entryBytes = estimateBytes(key, rows);
+
+        synchronized (this) {
+            //a result read at an older version than the cache has seen is not kept
+            if (version != dataVersion || entryBytes > maxBytes) return rows;
+            Entry previous = entries.put(key, new Entry(rows, entryBytes));
+            if (previous != null) bytes -= previous.bytes;
+            bytes += entryBytes;
+
+            Iterator<Entry> eldest = entries.values().iterator();
+            while ((entries.size() > capacity || bytes > maxBytes) && eldest.hasNext()) {
+                bytes -= eldest.next().bytes;
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * @return the fraction of lookups answered from the cache
+     */
+    public double hitRatio() {
+        long lookups = hits.sum() + misses.sum();
+        return lookups > 0 ? (double) hits.sum() / lookups : 0;
+    }
+
+    /**
+     * @return the number of results evicted to stay within the capacity or memory cap
+     */
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return the number of times the cache was emptied because the data changed
+     */
+    public long invalidations() {
+        return invalidations.sum();
+    }
+
+    /**
+     * @return the number of cached results
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the estimated memory used by the cached results in bytes
+     */
+    public synchronized long estimatedBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return a one line summary of the cache counters
+     */
+    public String stats() {
+        return String.format("result cache: %d entries (%.1f MB), %d hits, %d misses (%.1f%% hit ratio), %d evictions, %d invalidations",
+                size(), estimatedBytes() / (1024.0 * 1024.0), hits.sum(), misses.sum(), hitRatio() * 100,
+                evictions.sum(), invalidations.sum());
+    }
+
+    /**
+     * @return the option and its parameters in name order, so the same question always has the same key
+     */
+    static String key(String option, Map<String, String> params) {
+        StringBuilder key = new StringBuilder(option);
+        for (Map.Entry<String, String> param : new TreeMap<>(params).entrySet()) {
+            if (param.getKey().equals("op")) continue;
+            key.append('\0').append(param.getKey()).append('=').append(param.getValue());
+        }
+        return key.toString();
+    }
+
+    private static long estimateBytes(String key, List<String> rows) {
+        long estimate = ENTRY_OVERHEAD + 2L * key.length();
+        for (String row : rows) {
+            estimate += ROW_OVERHEAD + (row == null ? 0 : 2L * row.length());
+        }
+        return estimate;
+    }
+
+    /**
+     * @param conn connection to the SQLite database
+     * @return the data version stored in the database header
+     * @throws SQLException if the pragma throws an SQL error
+     */
+    public static long getDataVersion(Connection conn) throws SQLException {
+        PreparedStatement statement = StatementCache.prepare(conn, "PRAGMA user_version");
+        try (ResultSet rs = statement.executeQuery()) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    /**
+     * Increments the data version, as part of the connection's current transaction
+     * Called by the loaders before they commit new data
+     * @param conn connection to the SQLite database
+     * @throws SQLException if the pragma throws an SQL error
+     */
+    public static void bumpDataVersion(Connection conn) throws SQLException {
+        //a plain statement, as it runs once per load; the loaders' connections do use the StatementCache
+        //through IDResolver and close it through StatementCache.close before closing the connection
+        try (Statement statement = conn.createStatement()) {
+            long next;
+            try (ResultSet rs = statement.executeQuery("PRAGMA user_version")) {
+                next = (rs.next() ? rs.getLong(1) : 0) + 1;
+            }
+            //user_version is a signed 32 bit value in the header, so it wraps back to 1
+            if (next > Integer.MAX_VALUE) next = 1;
+            statement.executeUpdate("PRAGMA user_version = " + next);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class QueryResultCacheTest {
+
+   int loads = 0;
+
+   private List<String> load(String... rows){
+      loads++;
+      return Arrays.asList(rows);
+   }
+
+   @Test
+   public void repeatedLookupIsAHit() throws SQLException{
+      QueryResultCache cache = new QueryResultCache(10, 1 << 20);
+
+      List<String> first = cache.get(1, "4\0actor=Johnny Depp", () -> load("Gore Verbinski"));
+      List<String> second = cache.get(1, "4\0actor=Johnny Depp", () -> load("Gore Verbinski"));
+
+      assertSame(first, second);
+      assertEquals(1, loads);
+      assertEquals(0.5, cache.hitRatio(), 1e-9);
+   }
+
+   @Test
+   public void newDataVersionDropsEveryResult() throws SQLException{
+      QueryResultCache cache = new QueryResultCache(10, 1 << 20);
+
+      cache.get(1, "5\0genre=Action", () -> load("Johnny Depp"));
+      cache.get(2, "5\0genre=Action", () -> load("Johnny Depp", "Keira Knightley"));
+
+      assertEquals(2, loads);
+      assertEquals(1, cache.invalidations());
+      assertEquals(1, cache.size());
+   }
+
+   @Test
+   public void leastRecentlyUsedResultIsEvicted() throws SQLException{
+      QueryResultCache cache = new QueryResultCache(2, 1 << 20);
+
+      cache.get(1, "a", () -> load("1"));
+      cache.get(1, "b", () -> load("2"));
+      cache.get(1, "a", () -> load("1"));
+      cache.get(1, "c", () -> load("3"));
+      cache.get(1, "a", () -> load("1"));
+
+      assertEquals(3, loads);
+      assertEquals(1, cache.evictions());
+   }
+
+   @Test
+   public void memoryCapBoundsTheCache() throws SQLException{
+      QueryResultCache cache = new QueryResultCache(1000, 1000);
+      char[] row = new char[200];
+      Arrays.fill(row, 'x');
+
+      for (int i = 0; i < 10; i++) {
+         cache.get(1, "key" + i, () -> load(new String(row)));
+      }
+
+      assertTrue(cache.estimatedBytes() <= 1000);
+      assertEquals(10 - cache.size(), cache.evictions());
+   }
+
+   @Test
+   public void keyIgnoresParameterOrder(){
+      Map<String, String> first = new HashMap<>();
+      first.put("actor", "Johnny Depp");
+      first.put("director", "Gore Verbinski");
+      Map<String, String> second = new HashMap<>(first);
+      second.put("op", "3");
+
+      assertEquals(QueryResultCache.key("3", first), QueryResultCache.key("3", second));
+   }
+}
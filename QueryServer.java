@@ -0,0 +1,297 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Long-running query server: keeps the database open and serves the
+ * QueryDB options over HTTP on the loopback interface only
+ *
+ * GET /query?op=4&amp;actor=Johnny+Depp  runs an option and returns its rows as JSON
+ * GET /stats                         returns the latency percentiles per option, the pool and the cache counters
+ * GET /metrics                       returns every Metrics counter and timing in the Prometheus text format
+ *
+ * Requests run on virtual threads when the JVM has them, otherwise on a thread pool,
+ * and share a pool of read-only connections and a QueryResultCache
+ */
+public class QueryServer {
+
+    static final int DEFAULT_PORT = 8765;
+
+    private final ConnectionPool pool;
+    private final QueryResultCache cache;
+    private final Map<String, LatencyRecorder> latencies = new ConcurrentHashMap<>();
+    private HttpServer server;
+
+    /**
+     * @param pool the read-only connections the requests share
+     */
+    public QueryServer(ConnectionPool pool) {
+        this(pool, new QueryResultCache(QueryResultCache.DEFAULT_CAPACITY, Runtime.getRuntime().maxMemory() / 8));
+    }
+
+    /**
+     * @param pool the read-only connections the requests share
+     * @param cache the cache of query results the requests share
+     */
+    public QueryServer(ConnectionPool pool, QueryResultCache cache) {
+        this.pool = pool;
+        this.cache = cache;
+    }
+
+    /**
+     * Starts listening on 127.0.0.1
+     * @param port the port to listen on
+     * @throws IOException if the port cannot be bound
+     */
+    public void start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/query", this::handleQuery);
+        server.createContext("/stats", this::handleStats);
+        server.createContext("/metrics", this::handleMetrics);
+        server.setExecutor(createExecutor(pool.size()));
+        server.start();
+    }
+
+    /**
+     * Stops the server, waiting up to a second for requests in progress
+     */
+    public void stop() {
+        if (server != null) server.stop(1);
+    }
+
+    /**
+     * Loads the co-star graph from a snapshot file instead of the database, which is checked to
+     * have the snapshot's numbers of movies and actors; a snapshot that does not match is not used
+     * @param snapshotFile a file written by "java SnapshotFile export"
+     * @return true if the graph was loaded from the snapshot, otherwise returns false
+     * @throws IOException if the file cannot be read or fails its checksum
+     * @throws SQLException if the database cannot be read
+     */
+    public boolean preloadGraph(File snapshotFile) throws IOException, SQLException {
+
+        long startTime = System.nanoTime();
+        SnapshotFile snapshot = SnapshotFile.open(snapshotFile, true);
+        Connection conn;
+        try {
+            conn = pool.borrow();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        try (Statement statement = conn.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT (SELECT COUNT(*) FROM movies), (SELECT COUNT(*) FROM actors)")) {
+            rs.next();
+            if (rs.getInt(1) != snapshot.movieCount() || rs.getInt(2) != snapshot.actorCount()) {
+                System.err.println(snapshotFile + " does not match the database, the graph will be read from the database");
+                return false;
+            }
+            CollaborationGraph.preload(conn, new CollaborationGraph(snapshot.toColumnarSnapshot()));
+        } finally {
+            pool.release(conn);
+        }
+        Metrics.recordNanos("graph_load_seconds", System.nanoTime() - startTime);
+        return true;
+    }
+
+    /**
+     * @return the port the server is listening on
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handleQuery(HttpExchange exchange) throws IOException {
+
+        Map<String, String> params = parseQueryString(exchange.getRequestURI().getRawQuery());
+        String option = params.getOrDefault("op", "");
+
+        long startTime = System.nanoTime();
+        Connection conn = null;
+        try {
+            conn = pool.borrow();
+            List<String> rows = cache.get(conn, option, params);
+            long nanos = System.nanoTime() - startTime;
+            latencies.computeIfAbsent(option, key -> new LatencyRecorder()).record(nanos);
+
+            StringBuilder json = new StringBuilder("{\"op\":").append(quote(option))
+                    .append(",\"millis\":").append(String.format("%.3f", nanos / 1e6))
+                    .append(",\"rows\":[");
+            for (int i = 0; i < rows.size(); i++) {
+                if (i > 0) json.append(',');
+                json.append(quote(rows.get(i)));
+            }
+            send(exchange, 200, json.append("]}").toString());
+
+        } catch (IllegalArgumentException e) {
+            send(exchange, 400, "{\"error\":" + quote(e.getMessage()) + "}");
+        } catch (SQLException e) {
+            e.printStackTrace();
+            send(exchange, 500, "{\"error\":" + quote(e.getMessage()) + "}");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            send(exchange, 503, "{\"error\":\"interrupted\"}");
+        } finally {
+            if (conn != null) pool.release(conn);
+        }
+    }
+
+    private void handleStats(HttpExchange exchange) throws IOException {
+
+        StringBuilder json = new StringBuilder("{\"operations\":{");
+        boolean first = true;
+        for (Map.Entry<String, LatencyRecorder> entry : new TreeMap<>(latencies).entrySet()) {
+            LatencyRecorder recorder = entry.getValue();
+            if (!first) json.append(',');
+            first = false;
+            json.append(quote(entry.getKey())).append(String.format(
+                    ":{\"count\":%d,\"mean_ms\":%.3f,\"p50_ms\":%.3f,\"p90_ms\":%.3f,\"p99_ms\":%.3f,\"max_ms\":%.3f}",
+                    recorder.count(), recorder.meanMillis(), recorder.percentileMillis(50),
+                    recorder.percentileMillis(90), recorder.percentileMillis(99), recorder.maxMillis()));
+        }
+        json.append("},\"pool\":").append(quote(pool.stats()))
+                .append(",\"cache\":").append(quote(cache.stats())).append('}');
+        send(exchange, 200, json.toString());
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        send(exchange, 200, Metrics.prometheus(), "text/plain; version=0.0.4; charset=utf-8");
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        send(exchange, status, body, "application/json; charset=utf-8");
+    }
+
+    private static void send(HttpExchange exchange, int status, String body, String contentType) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * @param query a URL query string, e.g. op=4&amp;actor=Johnny+Depp
+     * @return the decoded parameters by name
+     */
+    static Map<String, String> parseQueryString(String query) {
+        Map<String, String> params = new HashMap<>();
+        if (query == null) return params;
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals <= 0) continue;
+            params.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+                    URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+    /**
+     * @return the value as a JSON string literal
+     */
+    static String quote(String value) {
+        if (value == null) return "null";
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    /**
+     * Uses a virtual thread per request on JVMs that have them (Java 21 and later),
+     * otherwise a fixed pool twice the size of the connection pool
+     */
+    private static ExecutorService createExecutor(int connections) {
+        try {
+            Method virtualThreads = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) virtualThreads.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(connections * 2);
+        }
+    }
+
+    /**
+     * Main method: starts the server until the process is stopped
+     * @param args database file name, then optionally the port and the number of connections,
+     * "--profile" followed by the connection pragmas to use (serve by default),
+     * and "--snapshot" followed by a snapshot file to load the co-star graph from
+     * @throws IOException if the port cannot be bound
+     * @throws SQLException if the connections cannot be opened
+     */
+    public static void main(String[] args) throws IOException, SQLException {
+
+        ConnectionProfile profile = ConnectionProfile.SERVE;
+        File snapshotFile = null;
+        List<String> positional = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--profile") && i + 1 < args.length) profile = ConnectionProfile.forName(args[++i]);
+            else if (args[i].equals("--snapshot") && i + 1 < args.length) snapshotFile = new File(args[++i]);
+            else positional.add(args[i]);
+        }
+        args = positional.toArray(new String[0]);
+
+        if (args.length < 1) {
+            System.out.println("Usage: java QueryServer <database_file_name> [port] [connections] [--profile <default|bulk-load|serve>] [--snapshot <file>]");
+            return;
+        }
+
+        String dbFileName = args[0];
+        if (!DatabaseGenerations.exists(dbFileName)) {
+            System.err.println("Database \"" + dbFileName + "\" has not been initialized");
+            return;
+        }
+
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PORT;
+        int connections = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        ConnectionPool pool = new ConnectionPool(dbFileName, connections, profile);
+        QueryServer queryServer = new QueryServer(pool);
+        if (snapshotFile != null && queryServer.preloadGraph(snapshotFile)) {
+            System.out.println("Co-star graph loaded from " + snapshotFile);
+        }
+        queryServer.start(port);
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            queryServer.stop();
+            try {
+                pool.close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }));
+
+        System.out.println("Serving \"" + dbFileName + "\" on http://127.0.0.1:" + queryServer.getPort()
+                + " with " + connections + " read-only connections, profile " + profile);
+    }
+}
@@ -0,0 +1,101 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class QueryServerTest {
+
+   File dbFile;
+   ConnectionPool pool;
+   QueryServer server;
+
+   @Before
+   public void startServer() throws IOException, SQLException{
+      dbFile = File.createTempFile("query-server", ".db");
+      dbFile.delete();
+      InitialiseDB.initialiseDB(dbFile.getPath());
+      try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + dbFile.getPath());
+           Statement statement = conn.createStatement()) {
+         statement.executeUpdate("INSERT INTO movies (Movie_ID, Title) VALUES (1, 'Pirates of the Caribbean')");
+         statement.executeUpdate("INSERT INTO actors (Actor_ID, Name) VALUES (1, 'Johnny Depp'), (2, 'Dwayne \"The Rock\" Johnson')");
+         statement.executeUpdate("INSERT INTO actors_to_movies VALUES (1, 1), (2, 1)");
+      }
+      pool = new ConnectionPool(dbFile.getPath(), 2, ConnectionProfile.DEFAULT);
+      server = new QueryServer(pool);
+      //port 0 lets the system pick a free port
+      server.start(0);
+   }
+
+   @After
+   public void stopServer() throws SQLException{
+      server.stop();
+      pool.close();
+      dbFile.delete();
+   }
+
+   //the status code, then the body of a GET request to the server
+   private String[] get(String pathAndQuery) throws IOException{
+      HttpURLConnection http = (HttpURLConnection) new URL("http://127.0.0.1:" + server.getPort() + pathAndQuery).openConnection();
+      try {
+         int status = http.getResponseCode();
+         try (InputStream in = status < 400 ? http.getInputStream() : http.getErrorStream()) {
+            return new String[] {String.valueOf(status), new String(in.readAllBytes(), StandardCharsets.UTF_8)};
+         }
+      } finally {
+         http.disconnect();
+      }
+   }
+
+   @Test
+   public void queryReturnsRowsAsJson() throws IOException{
+      String[] response = get("/query?op=2&title=Pirates+of+the%20Caribbean");
+
+      assertEquals("200", response[0]);
+      assertTrue(response[1], response[1].startsWith("{\"op\":\"2\",\"millis\":"));
+      //the cast is not ordered, so each row is looked for on its own
+      assertTrue(response[1], response[1].contains(",\"rows\":["));
+      assertTrue(response[1], response[1].contains("\"Johnny Depp\""));
+      assertTrue(response[1], response[1].contains("\"Dwayne \\\"The Rock\\\" Johnson\""));
+   }
+
+   @Test
+   public void missingParameterIsABadRequest() throws IOException{
+      String[] response = get("/query?op=2");
+
+      assertEquals("400", response[0]);
+      assertEquals("{\"error\":\"Missing parameter: title\"}", response[1]);
+   }
+
+   @Test
+   public void statsCountTheQueriesOfEachOption() throws IOException{
+      get("/query?op=2&title=Pirates+of+the+Caribbean");
+      get("/query?op=2&title=Pirates+of+the+Caribbean");
+      String[] response = get("/stats");
+
+      assertEquals("200", response[0]);
+      assertTrue(response[1], response[1].startsWith("{\"operations\":{\"2\":{\"count\":2,"));
+   }
+
+   @Test
+   public void queryStringIsDecoded(){
+      Map<String, String> params = QueryServer.parseQueryString("op=3&actor=Johnny+Depp&director=Gore%20Verbinski");
+
+      assertEquals("3", params.get("op"));
+      assertEquals("Johnny Depp", params.get("actor"));
+      assertEquals("Gore Verbinski", params.get("director"));
+   }
+}
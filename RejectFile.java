@@ -0,0 +1,82 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Records of the data files that failed validation, kept with the reason so the rest of the file still loads
+ * One line per record: data file, byte offset of the record, reason and the record's fields, separated by tabs
+ * The file is only created once the first record is rejected, and each rejection is also counted
+ * in the rows_skipped_total metric with reason "invalid"
+ */
+public class RejectFile implements AutoCloseable {
+
+    private final File file;
+    private PrintWriter out;
+    private long rejected = 0;
+
+    /**
+     * @param file the file to write rejected records to, or null to only count them
+     */
+    public RejectFile(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Records the current record of a reader as rejected
+     * @param fileName name of the data file, e.g. 'movies.csv'
+     * @param record the reader, positioned on the rejected record
+     * @param reason why the record was rejected
+     */
+    public synchronized void reject(String fileName, MappedCsvReader record, String reason) {
+
+        rejected++;
+        Metrics.increment("rows_skipped_total", "table", fileName.replace(".csv", ""), "reason", "invalid");
+        if (file == null) return;
+
+        try {
+            if (out == null) out = new PrintWriter(new BufferedWriter(new FileWriter(file, true)));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        StringBuilder line = new StringBuilder();
+        line.append(fileName).append('\t').append(record.recordStart()).append('\t').append(escape(reason)).append('\t');
+        for (int i = 0; i < record.fieldCount(); i++) {
+            if (i > 0) line.append(',');
+            line.append(escape(record.field(i)));
+        }
+        out.println(line);
+    }
+
+    /**
+     * @return the number of records rejected so far
+     */
+    public synchronized long getRejectedCount() {
+        return rejected;
+    }
+
+    /**
+     * @return the file rejected records are written to, or null if they are only counted
+     */
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+    /**
+     * Keeps each rejected record on one line of the file
+     */
+    private static String escape(CharSequence value) {
+        return value.toString().replace("\\", "\\\\").replace("\t", "\\t").replace("\r", "\\r").replace("\n", "\\n");
+    }
+}
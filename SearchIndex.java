@@ -0,0 +1,257 @@
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Ranked search over movie titles, plots and actor and director names,
+ * backed by the SQLite FTS5 tables in 'search.sql' that PopulateDB rebuilds after every load
+ *
+ * A search first matches every word of the input as a token prefix ("dep joh" finds Johnny Depp),
+ * ranked by bm25 with names weighted above plots
+ * If nothing matches, e.g. the input is misspelled, it falls back to the trigram table
+ * and ranks the candidates by how many three-letter sequences they share with the input
+ */
+public class SearchIndex {
+
+    //the kinds of entity in the index, as stored in its Kind column
+    static final String MOVIE = "movie";
+    static final String ACTOR = "actor";
+    static final String DIRECTOR = "director";
+
+    //bm25 weights of the Kind, Entity_ID, Name and Plot columns
+    static final String TOKEN_QUERY = "SELECT Kind, Entity_ID, Name, bm25(search_index, 0.0, 0.0, 10.0, 1.0) AS Score " +
+                       "FROM search_index WHERE search_index MATCH ? AND (? IS NULL OR Kind = ?) " +
+                       "ORDER BY Score LIMIT ?";
+
+    static final String TRIGRAM_QUERY = "SELECT Kind, Entity_ID, Name FROM search_trigrams " +
+                       "WHERE search_trigrams MATCH ? AND (? IS NULL OR Kind = ?) " +
+                       "ORDER BY bm25(search_trigrams) LIMIT ?";
+
+    //trigram candidates re-ranked per result asked for
+    static final int TRIGRAM_CANDIDATES_PER_RESULT = 20;
+
+    //trigrams of the input used in the fallback match, longer inputs are cut to these
+    static final int MAX_QUERY_TRIGRAMS = 32;
+
+    //fraction of trigrams a fuzzy match must share with the input
+    static final double MIN_SIMILARITY = 0.3;
+
+    /**
+     * One search result
+     */
+    public static final class Match {
+        final String kind;
+        final int id;
+        final String name;
+        final double score;
+
+        Match(String kind, int id, String name, double score) {
+            this.kind = kind;
+            this.id = id;
+            this.name = name;
+            this.score = score;
+        }
+
+        @Override
+        public String toString() {
+            return kind + ": " + name + " (" + id + ")";
+        }
+    }
+
+    private SearchIndex() {
+    }
+
+    /**
+     * Rebuilds the search tables in 'search.sql' from the loaded data in one transaction
+     * @param conn connection to the SQLite database
+     * @return true if the search index was rebuilt, otherwise returns false
+     */
+    public static boolean rebuild(Connection conn) {
+
+        String searchFileName = "search.sql";
+
+        try (Statement statement = conn.createStatement()) {
+            String searchString = InitialiseDB.readScript(searchFileName);
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            try {
+                long startTime = System.nanoTime();
+                statement.executeUpdate(searchString);
+                QueryResultCache.bumpDataVersion(conn);
+                conn.commit();
+                Metrics.recordNanos("script_seconds", System.nanoTime() - startTime, "script", searchFileName);
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(autoCommit);
+            }
+
+            System.out.println("Successfully rebuilt search index");
+            return true;
+
+        } catch (SQLException | IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Searches the index, by token prefix and then by trigram if nothing matched
+     * @param conn connection to the SQLite database
+     * @param text the words to search for
+     * @param kind "movie", "actor" or "director", or null for any
+     * @param limit the maximum number of results
+     * @return the best results first
+     * @throws SQLException if the search tables are missing or a query throws an SQL error
+     */
+    public static List<Match> search(Connection conn, String text, String kind, int limit) throws SQLException {
+        List<Match> matches = searchTokens(conn, text, kind, limit);
+        if (matches.isEmpty()) matches = searchTrigrams(conn, text, kind, limit);
+        return matches;
+    }
+
+    /**
+     * Resolves typed input to the name of an entity as it is stored,
+     * preferring an exact match, ignoring case, over the best ranked one
+     * @param conn connection to the SQLite database
+     * @param kind "movie", "actor" or "director"
+     * @param text the typed title or name
+     * @return the stored title or name, or null if nothing matches
+     * @throws SQLException if a query throws an SQL error
+     */
+    public static String resolve(Connection conn, String kind, String text) throws SQLException {
+        List<Match> matches = search(conn, text, kind, 10);
+        for (Match match : matches) {
+            if (match.name.equalsIgnoreCase(text.trim())) return match.name;
+        }
+        return matches.isEmpty() ? null : matches.get(0).name;
+    }
+
+    /**
+     * Replaces the title, actor, other (actor) and director parameters of a QueryDB option
+     * with the stored names they resolve to
+     * Parameters that match nothing are left as they were, so the option returns no rows for them
+     * @param conn connection to the SQLite database
+     * @param params the parameters of the option
+     * @return a copy of the parameters with the names resolved
+     * @throws SQLException if a query throws an SQL error
+     */
+    public static Map<String, String> resolveParams(Connection conn, Map<String, String> params) throws SQLException {
+        Map<String, String> resolved = new HashMap<>(params);
+        String[][] kinds = {{"title", MOVIE}, {"actor", ACTOR}, {"other", ACTOR}, {"director", DIRECTOR}};
+        for (String[] param : kinds) {
+            String value = params.get(param[0]);
+            if (value == null || value.isEmpty()) continue;
+            String name = resolve(conn, param[1], value);
+            if (name != null) resolved.put(param[0], name);
+        }
+        return resolved;
+    }
+
+    private static List<Match> searchTokens(Connection conn, String text, String kind, int limit) throws SQLException {
+        String expression = tokenExpression(text);
+        List<Match> matches = new ArrayList<>();
+        if (expression.isEmpty()) return matches;
+
+        long startTime = System.nanoTime();
+        PreparedStatement statement = StatementCache.prepare(conn, TOKEN_QUERY);
+        statement.setString(1, expression);
+        statement.setString(2, kind);
+        statement.setString(3, kind);
+        statement.setInt(4, limit);
+        try (ResultSet rs = statement.executeQuery()) {
+            while (rs.next()) {
+                //bm25 is lower for better matches
+                matches.add(new Match(rs.getString(1), rs.getInt(2), rs.getString(3), -rs.getDouble(4)));
+            }
+        }
+        Metrics.recordNanos("search_seconds", System.nanoTime() - startTime, "mode", "token");
+        return matches;
+    }
+
+    private static List<Match> searchTrigrams(Connection conn, String text, String kind, int limit) throws SQLException {
+        Set<String> trigrams = trigrams(text);
+        List<Match> matches = new ArrayList<>();
+        if (trigrams.isEmpty()) return matches;
+
+        StringBuilder expression = new StringBuilder();
+        int used = 0;
+        for (String trigram : trigrams) {
+            if (used++ == MAX_QUERY_TRIGRAMS) break;
+            if (expression.length() > 0) expression.append(" OR ");
+            expression.append(quote(trigram));
+        }
+
+        long startTime = System.nanoTime();
+        PreparedStatement statement = StatementCache.prepare(conn, TRIGRAM_QUERY);
+        statement.setString(1, expression.toString());
+        statement.setString(2, kind);
+        statement.setString(3, kind);
+        statement.setInt(4, limit * TRIGRAM_CANDIDATES_PER_RESULT);
+        try (ResultSet rs = statement.executeQuery()) {
+            while (rs.next()) {
+                double similarity = similarity(trigrams, trigrams(rs.getString(3)));
+                if (similarity >= MIN_SIMILARITY) matches.add(new Match(rs.getString(1), rs.getInt(2), rs.getString(3), similarity));
+            }
+        }
+        matches.sort((a, b) -> Double.compare(b.score, a.score));
+        Metrics.recordNanos("search_seconds", System.nanoTime() - startTime, "mode", "trigram");
+        return matches.size() > limit ? new ArrayList<>(matches.subList(0, limit)) : matches;
+    }
+
+    /**
+     * @return every word of the input as a quoted prefix, all of which must match, e.g. "johnny"* "dep"*
+     */
+    static String tokenExpression(String text) {
+        StringBuilder expression = new StringBuilder();
+        for (String token : text.split("[^\\p{L}\\p{N}]+")) {
+            if (token.isEmpty()) continue;
+            if (expression.length() > 0) expression.append(' ');
+            expression.append(quote(token)).append('*');
+        }
+        return expression.toString();
+    }
+
+    /**
+     * @return the distinct lower case three character sequences of the input, in order
+     */
+    static Set<String> trigrams(String text) {
+        Set<String> trigrams = new LinkedHashSet<>();
+        if (text == null) return trigrams;
+        String lower = text.trim().toLowerCase(Locale.ROOT);
+        for (int i = 0; i + 3 <= lower.length(); i++) {
+            trigrams.add(lower.substring(i, i + 3));
+        }
+        return trigrams;
+    }
+
+    /**
+     * @return the Jaccard similarity of two trigram sets
+     */
+    static double similarity(Set<String> a, Set<String> b) {
+        if (a.isEmpty() || b.isEmpty()) return 0;
+        int shared = 0;
+        for (String trigram : a) {
+            if (b.contains(trigram)) shared++;
+        }
+        return (double) shared / (a.size() + b.size() - shared);
+    }
+
+    /**
+     * FTS5 strings are double quoted, with quotes inside doubled
+     */
+    private static String quote(String value) {
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
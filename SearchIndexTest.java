@@ -0,0 +1,36 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Set;
+
+import org.junit.Test;
+
+public class SearchIndexTest {
+
+   @Test
+   public void everyWordBecomesAPrefix(){
+      assertEquals("\"johnny\"* \"dep\"*", SearchIndex.tokenExpression("  johnny, dep "));
+      assertEquals("", SearchIndex.tokenExpression("-- !"));
+   }
+
+   @Test
+   public void trigramsIgnoreCase(){
+      Set<String> trigrams = SearchIndex.trigrams("Depp");
+
+      assertEquals(2, trigrams.size());
+      assertTrue(trigrams.contains("dep"));
+      assertTrue(trigrams.contains("epp"));
+      assertTrue(SearchIndex.trigrams("Jo").isEmpty());
+   }
+
+   @Test
+   public void misspellingsAreMoreSimilarThanOtherNames(){
+      Set<String> typed = SearchIndex.trigrams("Jonny Dep");
+      double misspelled = SearchIndex.similarity(typed, SearchIndex.trigrams("Johnny Depp"));
+      double other = SearchIndex.similarity(typed, SearchIndex.trigrams("Keira Knightley"));
+
+      assertTrue(misspelled >= SearchIndex.MIN_SIMILARITY);
+      assertTrue(other < SearchIndex.MIN_SIMILARITY);
+      assertEquals(1.0, SearchIndex.similarity(typed, typed), 1e-9);
+   }
+}
@@ -0,0 +1,580 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * Binary file holding a ColumnarSnapshot, so a query service can start from the file
+ * instead of reading every table out of SQLite and rebuilding its indices
+ *
+ * The file is a header (magic, format version, CRC32C of everything after the header),
+ * a table of section offsets and lengths, then the sections: the ID, genre, year,
+ * director and rating columns, the adjacency of the link tables, and for titles, genres
+ * and names the UTF-8 bytes, their offsets and an open-addressing hash table from name to index
+ * Every number is little-endian and every section is 8-byte aligned
+ *
+ * Opening maps each section with FileChannel.map and reads it in place: looking up
+ * a name hashes its bytes into the mapped table, and nothing is decoded until asked for
+ */
+public class SnapshotFile {
+
+    //first bytes of every snapshot file
+    static final byte[] MAGIC = "MOVIESNP".getBytes(StandardCharsets.US_ASCII);
+
+    //incremented whenever the sections or their encoding change
+    static final int FORMAT_VERSION = 1;
+
+    //magic, version, section count and checksum
+    static final int HEADER_BYTES = 20;
+
+    //largest region mapped at once while checksumming
+    private static final long CHECKSUM_CHUNK = 1L << 30;
+
+    /**
+     * The sections in file order
+     * Each string table is three consecutive sections: offsets, bytes and hash table
+     */
+    enum Section {
+        MOVIE_IDS, MOVIE_GENRES, MOVIE_YEARS, MOVIE_DIRECTORS, MOVIE_MAX_RATINGS,
+        ACTOR_IDS, DIRECTOR_IDS, AWARD_IDS, RATING_MOVIES, RATING_VALUES,
+        ACTOR_MOVIE_OFFSETS, ACTOR_MOVIES, MOVIE_ACTOR_OFFSETS, MOVIE_ACTORS,
+        MOVIE_AWARD_OFFSETS, MOVIE_AWARDS, ACTOR_AWARD_OFFSETS, ACTOR_AWARDS,
+        TITLE_OFFSETS, TITLE_BYTES, TITLE_HASH,
+        GENRE_OFFSETS, GENRE_BYTES, GENRE_HASH,
+        ACTOR_NAME_OFFSETS, ACTOR_NAME_BYTES, ACTOR_NAME_HASH,
+        DIRECTOR_NAME_OFFSETS, DIRECTOR_NAME_BYTES, DIRECTOR_NAME_HASH,
+        AWARD_NAME_OFFSETS, AWARD_NAME_BYTES, AWARD_NAME_HASH
+    }
+
+    private final File file;
+    private final ByteBuffer[] sections;
+    private final IntBuffer[] ints;
+
+    private SnapshotFile(File file, ByteBuffer[] sections) {
+        this.file = file;
+        this.sections = sections;
+        this.ints = new IntBuffer[sections.length];
+        for (int i = 0; i < sections.length; i++) {
+            ints[i] = sections[i].asIntBuffer();
+        }
+    }
+
+    /**
+     * Writes a snapshot to a file, replacing it only once the new file is complete
+     * @param snapshot the snapshot to write
+     * @param file the file to write
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(ColumnarSnapshot snapshot, File file) throws IOException {
+
+        Path target = file.toPath().toAbsolutePath();
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            SectionWriter writer = new SectionWriter(channel);
+            writer.ints(Section.MOVIE_IDS, snapshot.movieIds);
+            writer.ints(Section.MOVIE_GENRES, snapshot.movieGenres);
+            writer.ints(Section.MOVIE_YEARS, snapshot.movieYears);
+            writer.ints(Section.MOVIE_DIRECTORS, snapshot.movieDirectors);
+            writer.floats(Section.MOVIE_MAX_RATINGS, snapshot.movieMaxRatings);
+            writer.ints(Section.ACTOR_IDS, snapshot.actorIds);
+            writer.ints(Section.DIRECTOR_IDS, snapshot.directorIds);
+            writer.ints(Section.AWARD_IDS, snapshot.awardIds);
+            writer.ints(Section.RATING_MOVIES, snapshot.ratingMovies);
+            writer.floats(Section.RATING_VALUES, snapshot.ratingValues);
+            writer.ints(Section.ACTOR_MOVIE_OFFSETS, snapshot.actorMovieOffsets);
+            writer.ints(Section.ACTOR_MOVIES, snapshot.actorMovies);
+            writer.ints(Section.MOVIE_ACTOR_OFFSETS, snapshot.movieActorOffsets);
+            writer.ints(Section.MOVIE_ACTORS, snapshot.movieActors);
+            writer.ints(Section.MOVIE_AWARD_OFFSETS, snapshot.movieAwardOffsets);
+            writer.ints(Section.MOVIE_AWARDS, snapshot.movieAwards);
+            writer.ints(Section.ACTOR_AWARD_OFFSETS, snapshot.actorAwardOffsets);
+            writer.ints(Section.ACTOR_AWARDS, snapshot.actorAwards);
+            writer.strings(Section.TITLE_OFFSETS, snapshot.titles);
+            writer.strings(Section.GENRE_OFFSETS, snapshot.genres);
+            writer.strings(Section.ACTOR_NAME_OFFSETS, snapshot.actorNames);
+            writer.strings(Section.DIRECTOR_NAME_OFFSETS, snapshot.directorNames);
+            writer.strings(Section.AWARD_NAME_OFFSETS, snapshot.awardNames);
+            writer.finish();
+            channel.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Maps a snapshot file
+     * @param file the snapshot file
+     * @param verifyChecksum whether to read the whole file once to check it against its checksum
+     * @return the mapped snapshot
+     * @throws IOException if the file cannot be read, is not a snapshot of this format version or is corrupt
+     */
+    public static SnapshotFile open(File file, boolean verifyChecksum) throws IOException {
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            int sectionCount = Section.values().length;
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES + 16 * sectionCount).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, header, 0);
+            header.flip();
+
+            byte[] magic = new byte[MAGIC.length];
+            header.get(magic);
+            if (!Arrays.equals(magic, MAGIC)) throw new IOException(file + " is not a snapshot file");
+            int version = header.getInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException(file + " has snapshot format version " + version + ", expected " + FORMAT_VERSION);
+            }
+            if (header.getInt() != sectionCount) throw new IOException(file + " has the wrong number of sections");
+            int expectedChecksum = header.getInt();
+
+            if (verifyChecksum && checksum(channel) != expectedChecksum) {
+                throw new IOException(file + " does not match its checksum");
+            }
+
+            ByteBuffer[] sections = new ByteBuffer[sectionCount];
+            for (int i = 0; i < sectionCount; i++) {
+                long offset = header.getLong();
+                long length = header.getLong();
+                if (offset < 0 || length < 0 || offset + length > channel.size()) {
+                    throw new IOException(file + " is truncated");
+                }
+                //the mapping stays valid after the channel is closed
+                sections[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset, length).order(ByteOrder.LITTLE_ENDIAN);
+            }
+            return new SnapshotFile(file, sections);
+        }
+    }
+
+    /**
+     * @param file the file to check
+     * @return true if the file starts like a snapshot file, otherwise returns false
+     */
+    public static boolean isSnapshot(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(MAGIC.length);
+            readFully(channel, magic, 0);
+            return Arrays.equals(magic.array(), MAGIC);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the number of movies in the snapshot
+     */
+    public int movieCount() {
+        return ints(Section.MOVIE_IDS).limit();
+    }
+
+    /**
+     * @return the number of actors in the snapshot
+     */
+    public int actorCount() {
+        return ints(Section.ACTOR_IDS).limit();
+    }
+
+    /**
+     * @return the number of actor to movie links in the snapshot
+     */
+    public int castLinkCount() {
+        return ints(Section.ACTOR_MOVIES).limit();
+    }
+
+    /**
+     * @param title the movie title
+     * @return the ID of the movie, or 0 if it is not in the snapshot
+     */
+    public int movieID(String title) {
+        int index = find(Section.TITLE_OFFSETS, title);
+        return index < 0 ? 0 : ints(Section.MOVIE_IDS).get(index);
+    }
+
+    /**
+     * @param name the actor's name
+     * @return the ID of the actor, or 0 if they are not in the snapshot
+     */
+    public int actorID(String name) {
+        int index = find(Section.ACTOR_NAME_OFFSETS, name);
+        return index < 0 ? 0 : ints(Section.ACTOR_IDS).get(index);
+    }
+
+    /**
+     * @param name the director's name
+     * @return the ID of the director, or 0 if they are not in the snapshot
+     */
+    public int directorID(String name) {
+        int index = find(Section.DIRECTOR_NAME_OFFSETS, name);
+        return index < 0 ? 0 : ints(Section.DIRECTOR_IDS).get(index);
+    }
+
+    /**
+     * @param name the award name
+     * @return the ID of the award, or 0 if it is not in the snapshot
+     */
+    public int awardID(String name) {
+        int index = find(Section.AWARD_NAME_OFFSETS, name);
+        return index < 0 ? 0 : ints(Section.AWARD_IDS).get(index);
+    }
+
+    /**
+     * @param movieID the movie ID
+     * @return the title of the movie, or null if it is not in the snapshot
+     */
+    public String movieTitle(int movieID) {
+        int index = indexOf(Section.MOVIE_IDS, movieID);
+        return index < 0 ? null : string(Section.TITLE_OFFSETS, index);
+    }
+
+    /**
+     * @param actorID the actor ID
+     * @return the name of the actor, or null if they are not in the snapshot
+     */
+    public String actorName(int actorID) {
+        int index = indexOf(Section.ACTOR_IDS, actorID);
+        return index < 0 ? null : string(Section.ACTOR_NAME_OFFSETS, index);
+    }
+
+    /**
+     * @param movieID the movie ID
+     * @return the best rating of the movie, NaN if it has none or is not in the snapshot
+     */
+    public float maxRating(int movieID) {
+        int index = indexOf(Section.MOVIE_IDS, movieID);
+        return index < 0 ? Float.NaN : sections[Section.MOVIE_MAX_RATINGS.ordinal()].asFloatBuffer().get(index);
+    }
+
+    /**
+     * @param actorID the actor ID
+     * @return the IDs of the movies the actor acted in
+     */
+    public int[] movieIDsOfActor(int actorID) {
+        return linked(Section.ACTOR_IDS, actorID, Section.ACTOR_MOVIE_OFFSETS, Section.ACTOR_MOVIES, Section.MOVIE_IDS);
+    }
+
+    /**
+     * @param movieID the movie ID
+     * @return the IDs of the actors who acted in the movie
+     */
+    public int[] actorIDsOfMovie(int movieID) {
+        return linked(Section.MOVIE_IDS, movieID, Section.MOVIE_ACTOR_OFFSETS, Section.MOVIE_ACTORS, Section.ACTOR_IDS);
+    }
+
+    /**
+     * @param movieID the movie ID
+     * @return the IDs of the awards the movie won
+     */
+    public int[] awardIDsOfMovie(int movieID) {
+        return linked(Section.MOVIE_IDS, movieID, Section.MOVIE_AWARD_OFFSETS, Section.MOVIE_AWARDS, Section.AWARD_IDS);
+    }
+
+    /**
+     * Copies the mapped sections into a ColumnarSnapshot for the analytics scans
+     * @return the snapshot
+     */
+    public ColumnarSnapshot toColumnarSnapshot() {
+        return new ColumnarSnapshot(intArray(Section.MOVIE_IDS), strings(Section.TITLE_OFFSETS), intArray(Section.MOVIE_GENRES),
+                intArray(Section.MOVIE_YEARS), intArray(Section.MOVIE_DIRECTORS), strings(Section.GENRE_OFFSETS),
+                intArray(Section.ACTOR_IDS), strings(Section.ACTOR_NAME_OFFSETS), intArray(Section.DIRECTOR_IDS),
+                strings(Section.DIRECTOR_NAME_OFFSETS), intArray(Section.AWARD_IDS), strings(Section.AWARD_NAME_OFFSETS),
+                intArray(Section.RATING_MOVIES), floatArray(Section.RATING_VALUES),
+                intArray(Section.ACTOR_MOVIE_OFFSETS), intArray(Section.ACTOR_MOVIES),
+                intArray(Section.MOVIE_ACTOR_OFFSETS), intArray(Section.MOVIE_ACTORS),
+                intArray(Section.MOVIE_AWARD_OFFSETS), intArray(Section.MOVIE_AWARDS),
+                intArray(Section.ACTOR_AWARD_OFFSETS), intArray(Section.ACTOR_AWARDS));
+    }
+
+    /**
+     * @return the size of the file and of its largest sections
+     */
+    public String report() {
+        long bytes = 0;
+        for (ByteBuffer section : sections) {
+            bytes += section.capacity();
+        }
+        return String.format("snapshot %s (format %d): %d movies, %d actors, %d cast links, %.1f MB",
+                file, FORMAT_VERSION, movieCount(), actorCount(), castLinkCount(), bytes / (1024.0 * 1024.0));
+    }
+
+    private IntBuffer ints(Section section) {
+        return ints[section.ordinal()];
+    }
+
+    /**
+     * @return the index of an ID in a sorted ID column, -1 if it is not there
+     */
+    private int indexOf(Section ids, int id) {
+        IntBuffer column = ints(ids);
+        int low = 0;
+        int high = column.limit() - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int value = column.get(middle);
+            if (value < id) low = middle + 1;
+            else if (value > id) high = middle - 1;
+            else return middle;
+        }
+        return -1;
+    }
+
+    private int[] linked(Section fromIds, int id, Section offsets, Section targets, Section toIds) {
+        int index = indexOf(fromIds, id);
+        if (index < 0) return new int[0];
+        int start = ints(offsets).get(index);
+        int[] linked = new int[ints(offsets).get(index + 1) - start];
+        for (int i = 0; i < linked.length; i++) {
+            linked[i] = ints(toIds).get(ints(targets).get(start + i));
+        }
+        return linked;
+    }
+
+    /**
+     * Looks a string up in the hash table of a string table, comparing its bytes in place
+     * @return the index of the string, -1 if it is not there
+     */
+    private int find(Section offsetSection, String value) {
+        if (value == null || value.isEmpty()) return -1;
+        byte[] key = value.getBytes(StandardCharsets.UTF_8);
+        IntBuffer offsets = ints(offsetSection);
+        ByteBuffer bytes = sections[offsetSection.ordinal() + 1];
+        IntBuffer slots = ints[offsetSection.ordinal() + 2];
+
+        int mask = slots.limit() - 1;
+        for (int slot = hash(key, 0, key.length) & mask; ; slot = (slot + 1) & mask) {
+            int entry = slots.get(slot);
+            if (entry == 0) return -1;
+            int index = entry - 1;
+            int start = offsets.get(index);
+            if (offsets.get(index + 1) - start == key.length && equalsAt(bytes, start, key)) return index;
+        }
+    }
+
+    private static boolean equalsAt(ByteBuffer bytes, int start, byte[] key) {
+        for (int i = 0; i < key.length; i++) {
+            if (bytes.get(start + i) != key[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Empty strings are read back as null, the tables hold NULL rather than ''
+     */
+    private String string(Section offsetSection, int index) {
+        IntBuffer offsets = ints(offsetSection);
+        int start = offsets.get(index);
+        int length = offsets.get(index + 1) - start;
+        if (length == 0) return null;
+        byte[] value = new byte[length];
+        sections[offsetSection.ordinal() + 1].get(start, value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    private String[] strings(Section offsetSection) {
+        String[] values = new String[ints(offsetSection).limit() - 1];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = string(offsetSection, i);
+        }
+        return values;
+    }
+
+    private int[] intArray(Section section) {
+        int[] values = new int[ints(section).limit()];
+        ints(section).get(0, values);
+        return values;
+    }
+
+    private float[] floatArray(Section section) {
+        FloatBuffer buffer = sections[section.ordinal()].asFloatBuffer();
+        float[] values = new float[buffer.limit()];
+        buffer.get(0, values);
+        return values;
+    }
+
+    /**
+     * FNV-1a, the same on write and lookup
+     */
+    static int hash(byte[] bytes, int start, int end) {
+        int hash = 0x811c9dc5;
+        for (int i = start; i < end; i++) {
+            hash = (hash ^ (bytes[i] & 0xff)) * 0x01000193;
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * @return the CRC32C of everything after the header
+     */
+    private static int checksum(FileChannel channel) throws IOException {
+        CRC32C crc = new CRC32C();
+        long size = channel.size();
+        for (long position = HEADER_BYTES; position < size; position += CHECKSUM_CHUNK) {
+            crc.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(CHECKSUM_CHUNK, size - position)));
+        }
+        return (int) crc.getValue();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) throw new IOException("Unexpected end of snapshot file");
+            position += read;
+        }
+    }
+
+    /**
+     * Writes the sections one after another, then the section table and header
+     */
+    private static final class SectionWriter {
+        private final FileChannel channel;
+        private final long[] offsets = new long[Section.values().length];
+        private final long[] lengths = new long[Section.values().length];
+        private long position = HEADER_BYTES + 16L * Section.values().length;
+
+        SectionWriter(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void ints(Section section, int[] values) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(4 * values.length).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.asIntBuffer().put(values);
+            write(section, buffer);
+        }
+
+        void floats(Section section, float[] values) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(4 * values.length).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.asFloatBuffer().put(values);
+            write(section, buffer);
+        }
+
+        /**
+         * Writes the offsets, bytes and hash table of a string table, starting at its offsets section
+         */
+        void strings(Section offsetSection, String[] values) throws IOException {
+            Section[] all = Section.values();
+            byte[][] encoded = new byte[values.length][];
+            int[] offsets = new int[values.length + 1];
+            long total = 0;
+            for (int i = 0; i < values.length; i++) {
+                encoded[i] = values[i] == null ? new byte[0] : values[i].getBytes(StandardCharsets.UTF_8);
+                total += encoded[i].length;
+                if (total > Integer.MAX_VALUE) throw new IOException("Too many bytes in " + offsetSection);
+                offsets[i + 1] = (int) total;
+            }
+
+            //at most half full, so probes stay short; 0 marks an empty slot and the first of equal strings is kept
+            int[] slots = new int[Math.max(2, Integer.highestOneBit(Math.max(1, values.length * 2 - 1)) << 1)];
+            int mask = slots.length - 1;
+            for (int i = 0; i < values.length; i++) {
+                if (encoded[i].length == 0) continue;
+                int slot = hash(encoded[i], 0, encoded[i].length) & mask;
+                while (slots[slot] != 0 && !Arrays.equals(encoded[slots[slot] - 1], encoded[i])) {
+                    slot = (slot + 1) & mask;
+                }
+                if (slots[slot] == 0) slots[slot] = i + 1;
+            }
+
+            ints(offsetSection, offsets);
+            ByteBuffer bytes = ByteBuffer.allocate((int) total);
+            for (byte[] value : encoded) {
+                bytes.put(value);
+            }
+            bytes.flip();
+            write(all[offsetSection.ordinal() + 1], bytes);
+            ints(all[offsetSection.ordinal() + 2], slots);
+        }
+
+        private void write(Section section, ByteBuffer buffer) throws IOException {
+            position = (position + 7) & ~7L;
+            offsets[section.ordinal()] = position;
+            lengths[section.ordinal()] = buffer.remaining();
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+        }
+
+        void finish() throws IOException {
+            Section[] all = Section.values();
+            //pads the last section, so the file length is part of the checksum
+            position = (position + 7) & ~7L;
+            if (channel.size() < position) channel.write(ByteBuffer.allocate((int) (position - channel.size())), channel.size());
+
+            ByteBuffer table = ByteBuffer.allocate(16 * all.length).order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < all.length; i++) {
+                table.putLong(offsets[i]).putLong(lengths[i]);
+            }
+            table.flip();
+            channel.write(table, HEADER_BYTES);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.put(MAGIC).putInt(FORMAT_VERSION).putInt(all.length).putInt(checksum(channel));
+            header.flip();
+            channel.write(header, 0);
+        }
+    }
+
+    /**
+     * Main method: exports a database to a snapshot file, or opens a snapshot and looks up an actor's movies
+     * @param args "export" with the database and snapshot file names,
+     * or "open" with the snapshot file name and optionally an actor's name
+     * @throws IOException if a file cannot be read or written
+     * @throws SQLException if the database cannot be read
+     */
+    public static void main(String[] args) throws IOException, SQLException {
+
+        if (args.length < 2 || (args[0].equals("export") && args.length < 3)) {
+            System.out.println("Usage: java SnapshotFile export <database_file_name> <snapshot_file>");
+            System.out.println("       java SnapshotFile open <snapshot_file> [actor_name]");
+            return;
+        }
+
+        if (args[0].equals("export")) {
+            long startTime = System.nanoTime();
+            ColumnarSnapshot snapshot;
+            try (Connection conn = ConnectionProfile.SERVE.openReadOnly(args[1])) {
+                snapshot = ColumnarSnapshot.load(conn);
+            }
+            long loaded = System.nanoTime();
+            write(snapshot, new File(args[2]));
+            System.out.printf("Read the database in %.2fs and wrote %s in %.2fs%n", (loaded - startTime) / 1e9, args[2],
+                    (System.nanoTime() - loaded) / 1e9);
+            return;
+        }
+
+        if (!args[0].equals("open")) {
+            System.err.println("Unknown command: " + args[0]);
+            return;
+        }
+
+        long startTime = System.nanoTime();
+        SnapshotFile snapshot = open(new File(args[1]), false);
+        long mapped = System.nanoTime();
+        System.out.printf("Mapped in %.2f ms: %s%n", (mapped - startTime) / 1e6, snapshot.report());
+        try {
+            open(new File(args[1]), true);
+            System.out.printf("Checksum verified in %.2f ms%n", (System.nanoTime() - mapped) / 1e6);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
+
+        if (args.length > 2) {
+            long lookupStart = System.nanoTime();
+            int actorID = snapshot.actorID(args[2]);
+            int[] movieIDs = snapshot.movieIDsOfActor(actorID);
+            for (int movieID : movieIDs) {
+                System.out.println(snapshot.movieTitle(movieID));
+            }
+            System.out.printf("%d movies in %.3f ms%n", movieIDs.length, (System.nanoTime() - lookupStart) / 1e6);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class SnapshotFileTest {
+
+   private static File writeSample() throws IOException {
+      File file = File.createTempFile("snapshot", ".bin");
+      file.deleteOnExit();
+      SnapshotFile.write(ColumnarSnapshotTest.sample(), file);
+      return file;
+   }
+
+   @Test
+   public void namesResolveThroughTheMappedFile() throws IOException {
+      SnapshotFile snapshot = SnapshotFile.open(writeSample(), true);
+
+      assertEquals(4, snapshot.movieCount());
+      assertEquals(1, snapshot.actorID("Johnny Depp"));
+      assertEquals(2, snapshot.directorID("Tim Burton"));
+      assertEquals(3, snapshot.movieID("Edward Scissorhands"));
+      assertEquals(0, snapshot.actorID("Johnny"));
+      assertEquals("Orlando Bloom", snapshot.actorName(3));
+      assertNull(snapshot.movieTitle(99));
+   }
+
+   @Test
+   public void adjacencyAndRatingsAreKept() throws IOException {
+      SnapshotFile snapshot = SnapshotFile.open(writeSample(), true);
+
+      int[] movies = snapshot.movieIDsOfActor(1);
+      Arrays.sort(movies);
+      assertArrayEquals(new int[]{1, 2, 3}, movies);
+      assertArrayEquals(new int[]{1}, snapshot.awardIDsOfMovie(2));
+      assertEquals(8.0f, snapshot.maxRating(1), 0);
+      assertTrue(Float.isNaN(snapshot.maxRating(3)));
+
+      ColumnarSnapshot copy = snapshot.toColumnarSnapshot();
+      assertEquals(Arrays.asList("Johnny Depp"), copy.actorsWithAwardsInGenre("Musical"));
+      assertArrayEquals(new int[]{0, 2}, copy.awardCountsByDirector());
+   }
+
+   @Test
+   public void corruptFileIsRejected() throws IOException {
+      File file = writeSample();
+      try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+         long offset = raf.length() - 12;
+         raf.seek(offset);
+         int flipped = raf.read() ^ 0xff;
+         raf.seek(offset);
+         raf.write(flipped);
+      }
+
+      assertTrue(SnapshotFile.isSnapshot(file));
+      try {
+         SnapshotFile.open(file, true);
+         fail("Expected a checksum mismatch");
+      } catch (IOException e) {
+         assertTrue(e.getMessage().contains("checksum"));
+      }
+   }
+
+   @Test
+   public void otherFilesAreNotSnapshots() throws IOException {
+      File file = File.createTempFile("snapshot", ".txt");
+      file.deleteOnExit();
+
+      assertFalse(SnapshotFile.isSnapshot(file));
+   }
+}
@@ -0,0 +1,152 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Least-recently-used cache of prepared statements for one connection, keyed by the SQL text
+ * so a query is only parsed by SQLite the first time it runs on that connection
+ * Statements handed out by the cache stay open and must not be closed by the caller;
+ * they are closed when evicted or when the connection's cache is closed
+ */
+public class StatementCache {
+
+    //statements kept per connection when no capacity is given
+    static final int DEFAULT_CAPACITY = 32;
+
+    //one cache per open connection, removed by close(conn); the cached statements hold their
+    //connection, so a weak map would not let it go either and every connection that used the cache
+    //must be closed through close(conn) first
+    private static final Map<Connection, StatementCache> caches = new IdentityHashMap<>();
+
+    //totals across every connection
+    private static final LongAdder totalHits = new LongAdder();
+    private static final LongAdder totalMisses = new LongAdder();
+    private static final LongAdder totalEvictions = new LongAdder();
+
+    private final Connection conn;
+    private final LinkedHashMap<String, PreparedStatement> statements;
+
+    private StatementCache(Connection conn, int capacity) {
+        this.conn = conn;
+        //access-ordered, so the eldest entry is the least recently used statement
+        this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() <= capacity) return false;
+                totalEvictions.increment();
+                closeQuietly(eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Gets a prepared statement for the SQL on the connection, preparing it on a miss
+     * @param conn connection to the SQLite database
+     * @param sql the SQL text of the statement
+     * @return the cached statement, which must not be closed by the caller
+     * @throws SQLException if the statement cannot be prepared
+     */
+    public static PreparedStatement prepare(Connection conn, String sql) throws SQLException {
+        return forConnection(conn).get(sql);
+    }
+
+    /**
+     * @param conn connection to the SQLite database
+     * @return the statement cache of the connection, created on first use
+     */
+    public static StatementCache forConnection(Connection conn) {
+        synchronized (caches) {
+            StatementCache cache = caches.get(conn);
+            if (cache == null) {
+                cache = new StatementCache(conn, DEFAULT_CAPACITY);
+                caches.put(conn, cache);
+            }
+            return cache;
+        }
+    }
+
+    /**
+     * Closes every cached statement of the connection and forgets its cache,
+     * must be called before a connection that used the cache is closed
+     * @param conn connection to the SQLite database
+     */
+    public static void close(Connection conn) {
+        StatementCache cache;
+        synchronized (caches) {
+            cache = caches.remove(conn);
+        }
+        if (cache != null) cache.closeAll();
+    }
+
+    /**
+     * @param conn connection to the SQLite database
+     * @return true if the connection has a cache that has not been closed
+     */
+    static boolean isCached(Connection conn) {
+        synchronized (caches) {
+            return caches.containsKey(conn);
+        }
+    }
+
+    /**
+     * @return the hit, miss and eviction counts across every connection
+     */
+    public static String stats() {
+        long hits = totalHits.sum();
+        long misses = totalMisses.sum();
+        double hitRate = hits + misses > 0 ? 100.0 * hits / (hits + misses) : 0;
+        return String.format("statement cache: %d hits, %d misses (%.1f%% hit rate), %d evictions",
+                hits, misses, hitRate, totalEvictions.sum());
+    }
+
+    /**
+     * @return the number of cache hits across every connection
+     */
+    public static long hits() {
+        return totalHits.sum();
+    }
+
+    /**
+     * @return the number of cache misses across every connection
+     */
+    public static long misses() {
+        return totalMisses.sum();
+    }
+
+    /**
+     * @param sql the SQL text of the statement
+     * @return the cached statement, prepared on a miss
+     * @throws SQLException if the statement cannot be prepared
+     */
+    public synchronized PreparedStatement get(String sql) throws SQLException {
+        PreparedStatement statement = statements.get(sql);
+        if (statement != null && !statement.isClosed()) {
+            totalHits.increment();
+            return statement;
+        }
+        totalMisses.increment();
+        statement = conn.prepareStatement(sql);
+        statements.put(sql, statement);
+        return statement;
+    }
+
+    private synchronized void closeAll() {
+        for (PreparedStatement statement : statements.values()) {
+            closeQuietly(statement);
+        }
+        statements.clear();
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+}
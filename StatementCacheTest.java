@@ -0,0 +1,91 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StatementCacheTest {
+
+   Connection conn;
+
+   @Before
+   public void openConnection() throws SQLException{
+      conn = DriverManager.getConnection("jdbc:sqlite::memory:");
+   }
+
+   @After
+   public void closeConnection() throws SQLException{
+      StatementCache.close(conn);
+      conn.close();
+   }
+
+   private static String select(int i){
+      return "SELECT " + i;
+   }
+
+   @Test
+   public void repeatedSqlIsAHit() throws SQLException{
+      long hits = StatementCache.hits();
+      long misses = StatementCache.misses();
+
+      PreparedStatement first = StatementCache.prepare(conn, select(1));
+      PreparedStatement second = StatementCache.prepare(conn, select(1));
+
+      assertSame(first, second);
+      assertEquals(1, StatementCache.hits() - hits);
+      assertEquals(1, StatementCache.misses() - misses);
+   }
+
+   @Test
+   public void leastRecentlyUsedStatementIsEvicted() throws SQLException{
+      PreparedStatement first = StatementCache.prepare(conn, select(0));
+      PreparedStatement second = StatementCache.prepare(conn, select(1));
+      for (int i = 2; i < StatementCache.DEFAULT_CAPACITY; i++) {
+         StatementCache.prepare(conn, select(i));
+      }
+      //using the first statement again leaves the second as the least recently used
+      assertSame(first, StatementCache.prepare(conn, select(0)));
+
+      StatementCache.prepare(conn, select(StatementCache.DEFAULT_CAPACITY));
+
+      assertFalse(first.isClosed());
+      assertTrue(second.isClosed());
+      assertSame(first, StatementCache.prepare(conn, select(0)));
+      assertNotSame(second, StatementCache.prepare(conn, select(1)));
+   }
+
+   @Test
+   public void connectionsHaveSeparateCaches() throws SQLException{
+      try (Connection other = DriverManager.getConnection("jdbc:sqlite::memory:")) {
+         PreparedStatement statement = StatementCache.prepare(conn, select(1));
+         PreparedStatement otherStatement = StatementCache.prepare(other, select(1));
+
+         assertNotSame(statement, otherStatement);
+         StatementCache.close(other);
+         assertTrue(otherStatement.isClosed());
+         assertFalse(statement.isClosed());
+      }
+   }
+
+   @Test
+   public void closeClosesStatementsAndForgetsTheConnection() throws SQLException{
+      PreparedStatement statement = StatementCache.prepare(conn, select(1));
+      assertTrue(StatementCache.isCached(conn));
+
+      StatementCache.close(conn);
+
+      assertTrue(statement.isClosed());
+      assertFalse(StatementCache.isCached(conn));
+      //a later prepare starts a new cache
+      assertNotSame(statement, StatementCache.prepare(conn, select(1)));
+   }
+}
@@ -0,0 +1,394 @@
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+
+/**
+ * Typed, validated rows of the data files, parsed straight from a MappedCsvReader record
+ * and bound to the insert statements with their column types:
+ * Running_Time as whole minutes, Birthday and Release_Date as ISO dates (yyyy-MM-dd,
+ * which sort and range-scan in index order) and Rating_Value as a REAL between 0 and 10
+ *
+ * Each loader reuses one row object per file, so parsing a record allocates only the
+ * Strings that are bound; a record that fails validation is rejected with the reason
+ * rather than stopping the load
+ */
+public class TypedRows {
+
+    //highest value accepted for Rating_Value, as in the CHECK constraint of ddl.sql
+    static final double MAX_RATING = 10;
+
+    //longest running time accepted, in minutes
+    static final int MAX_RUNNING_MINUTES = 100000;
+
+    //other date layouts found in data files, tried when a date is not already ISO
+    private static final DateTimeFormatter[] DATE_FORMATS = {
+        DateTimeFormatter.ofPattern("d MMMM uuuu", Locale.ENGLISH),
+        DateTimeFormatter.ofPattern("d MMM uuuu", Locale.ENGLISH),
+        DateTimeFormatter.ofPattern("MMMM d, uuuu", Locale.ENGLISH),
+        DateTimeFormatter.ofPattern("uuuu/MM/dd", Locale.ENGLISH),
+    };
+
+    private TypedRows() {
+    }
+
+    /**
+     * One record of a data file
+     */
+    interface Row {
+
+        /**
+         * Reads and validates the fields of a record into the row
+         * @param record the reader, positioned on the record
+         * @return null if the record is valid, otherwise the reason it is rejected
+         */
+        String parse(MappedCsvReader record);
+
+        /**
+         * Binds the row to its insert statement, in the statement's parameter order
+         * @param statement the insert statement
+         * @throws SQLException if a value cannot be bound
+         */
+        void bind(PreparedStatement statement) throws SQLException;
+
+        /**
+         * @return the values of the row in parameter order, for rows that are queued before they are bound
+         */
+        Object[] values();
+    }
+
+    /**
+     * @param fileName name of an entity data file
+     * @return a new row for the file's table, or null if the file is not an entity table
+     */
+    static Row forFile(String fileName) {
+        switch (fileName) {
+            case "actors.csv":
+                return new ActorRow();
+            case "awards.csv":
+                return new AwardRow();
+            case "movies.csv":
+                return new MovieRow();
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * A line of 'actors.csv': Name, Birthday
+     */
+    static final class ActorRow implements Row {
+        String name;
+        String birthday;
+
+        @Override
+        public String parse(MappedCsvReader record) {
+            if (isBlank(record, 0)) return "missing Name";
+            name = record.getString(0);
+            birthday = null;
+            if (!isBlank(record, 1)) {
+                birthday = parseDate(record.field(1));
+                if (birthday == null) return "invalid Birthday: " + record.field(1);
+            }
+            return null;
+        }
+
+        @Override
+        public void bind(PreparedStatement statement) throws SQLException {
+            statement.setString(1, name);
+            statement.setString(2, birthday);
+        }
+
+        @Override
+        public Object[] values() {
+            return new Object[]{name, birthday};
+        }
+    }
+
+    /**
+     * A line of 'awards.csv': Award_Name
+     */
+    static final class AwardRow implements Row {
+        String name;
+
+        @Override
+        public String parse(MappedCsvReader record) {
+            if (isBlank(record, 0)) return "missing Award_Name";
+            name = record.getString(0);
+            return null;
+        }
+
+        @Override
+        public void bind(PreparedStatement statement) throws SQLException {
+            statement.setString(1, name);
+        }
+
+        @Override
+        public Object[] values() {
+            return new Object[]{name};
+        }
+    }
+
+    /**
+     * A line of 'movies.csv': Title, Genre, Running_Time, Plot, Release_Date
+     */
+    static final class MovieRow implements Row {
+        String title;
+        String genre;
+        //-1 when the running time is not given
+        int runningMinutes;
+        String plot;
+        String releaseDate;
+
+        @Override
+        public String parse(MappedCsvReader record) {
+            if (isBlank(record, 0)) return "missing Title";
+            title = record.getString(0);
+            genre = isBlank(record, 1) ? null : record.getString(1);
+            plot = isBlank(record, 3) ? null : record.getString(3);
+
+            runningMinutes = -1;
+            if (!isBlank(record, 2)) {
+                runningMinutes = parseMinutes(record.field(2));
+                if (runningMinutes < 0) return "invalid Running_Time: " + record.field(2);
+            }
+            releaseDate = null;
+            if (!isBlank(record, 4)) {
+                releaseDate = parseDate(record.field(4));
+                if (releaseDate == null) return "invalid Release_Date: " + record.field(4);
+            }
+            return null;
+        }
+
+        @Override
+        public void bind(PreparedStatement statement) throws SQLException {
+            statement.setString(1, title);
+            statement.setString(2, genre);
+            if (runningMinutes < 0) statement.setNull(3, Types.INTEGER);
+            else statement.setInt(3, runningMinutes);
+            statement.setString(4, plot);
+            statement.setString(5, releaseDate);
+        }
+
+        @Override
+        public Object[] values() {
+            return new Object[]{title, genre, runningMinutes < 0 ? null : runningMinutes, plot, releaseDate};
+        }
+    }
+
+    /**
+     * A line of 'ratings.csv': Rating_Value, Rating_Source, movie title
+     * The title is left as a view of the record for the caller to resolve to movieID before binding
+     */
+    static final class RatingRow implements Row {
+        double value;
+        String source;
+        CharSequence title;
+        int movieID;
+
+        @Override
+        public String parse(MappedCsvReader record) {
+            if (record.fieldCount() < 3) return "expected 3 fields, found " + record.fieldCount();
+            value = parseRating(record.field(0));
+            if (Double.isNaN(value)) return "invalid Rating_Value: " + record.field(0);
+            if (value < 0 || value > MAX_RATING) return "Rating_Value out of range: " + record.field(0);
+            source = isBlank(record, 1) ? null : record.getString(1);
+            title = record.field(2);
+            movieID = 0;
+            return null;
+        }
+
+        @Override
+        public void bind(PreparedStatement statement) throws SQLException {
+            statement.setDouble(1, value);
+            statement.setString(2, source);
+            statement.setInt(3, movieID);
+        }
+
+        @Override
+        public Object[] values() {
+            return new Object[]{value, source, movieID};
+        }
+    }
+
+    /**
+     * @return true if the record has no such field or the field is only spaces
+     */
+    static boolean isBlank(MappedCsvReader record, int index) {
+        if (index >= record.fieldCount()) return true;
+        CharSequence field = record.field(index);
+        for (int i = 0; i < field.length(); i++) {
+            if (!Character.isWhitespace(field.charAt(i))) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Parses a running time: "143 minutes", "143 min", "143", "2h 23m" or "2 hours 23 minutes"
+     * @param text the running time
+     * @return the running time in minutes, or -1 if it is not one of those forms
+     */
+    static int parseMinutes(CharSequence text) {
+
+        int[] position = {skipSpaces(text, 0)};
+        long first = readNumber(text, position);
+        if (first < 0) return -1;
+
+        long minutes;
+        int unitStart = skipSpaces(text, position[0]);
+        int unitEnd = skipLetters(text, unitStart);
+        char unit = unitStart < unitEnd ? Character.toLowerCase(text.charAt(unitStart)) : 'm';
+
+        if (unit == 'h') {
+            minutes = first * 60;
+            position[0] = skipSpaces(text, unitEnd);
+            if (position[0] < text.length()) {
+                long extra = readNumber(text, position);
+                if (extra < 0) return -1;
+                int extraUnitStart = skipSpaces(text, position[0]);
+                int extraUnitEnd = skipLetters(text, extraUnitStart);
+                if (extraUnitStart < extraUnitEnd && Character.toLowerCase(text.charAt(extraUnitStart)) != 'm') return -1;
+                minutes += extra;
+                unitEnd = extraUnitEnd;
+            }
+        } else if (unit == 'm') {
+            minutes = first;
+        } else {
+            return -1;
+        }
+
+        if (skipSpaces(text, unitEnd) != text.length() || minutes > MAX_RUNNING_MINUTES) return -1;
+        return (int) minutes;
+    }
+
+    /**
+     * Parses a date into ISO form, checking the day exists
+     * ISO dates are checked in place, other layouts go through DATE_FORMATS
+     * @param text the date
+     * @return the date as yyyy-MM-dd, or null if it is not a date
+     */
+    static String parseDate(CharSequence text) {
+
+        String trimmed = null;
+        CharSequence date = text;
+        if (text.length() > 0 && (Character.isWhitespace(text.charAt(0)) || Character.isWhitespace(text.charAt(text.length() - 1)))) {
+            trimmed = text.toString().trim();
+            date = trimmed;
+        }
+
+        if (date.length() == 10 && date.charAt(4) == '-' && date.charAt(7) == '-') {
+            int year = digits(date, 0, 4);
+            int month = digits(date, 5, 7);
+            int day = digits(date, 8, 10);
+            if (year < 0 || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)) return null;
+            return trimmed != null ? trimmed : date.toString();
+        }
+
+        String value = trimmed != null ? trimmed : date.toString();
+        for (DateTimeFormatter format : DATE_FORMATS) {
+            try {
+                return LocalDate.parse(value, format).toString();
+            } catch (DateTimeParseException e) {
+                //tries the next layout
+            }
+        }
+        return null;
+    }
+
+    //powers of ten that are exact as doubles, for the fraction digits of a rating
+    private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15};
+
+    /**
+     * Parses a rating such as "7", "7.5" or " 8.25 "
+     * The digits are read as one integer and divided once by a power of ten, so the result is
+     * the closest double to the text, the same as Double.parseDouble gives
+     * @param text the rating
+     * @return the rating, or NaN if it is not a plain decimal number
+     */
+    static double parseRating(CharSequence text) {
+
+        int i = skipSpaces(text, 0);
+        int end = text.length();
+        while (end > i && Character.isWhitespace(text.charAt(end - 1))) end--;
+        if (i == end) return Double.NaN;
+        int start = i;
+
+        long mantissa = 0;
+        int digits = 0;
+        while (i < end && text.charAt(i) >= '0' && text.charAt(i) <= '9') {
+            mantissa = mantissa * 10 + (text.charAt(i++) - '0');
+            if (++digits > 9) return Double.NaN;
+        }
+        int fractionDigits = 0;
+        if (i < end && text.charAt(i) == '.') {
+            i++;
+            while (i < end && text.charAt(i) >= '0' && text.charAt(i) <= '9') {
+                if (digits < POWERS_OF_TEN.length) mantissa = mantissa * 10 + (text.charAt(i) - '0');
+                i++;
+                fractionDigits++;
+                digits++;
+            }
+        }
+        if (i != end || digits == 0) return Double.NaN;
+        //too many digits to hold exactly, which no rating in the data files has
+        if (digits >= POWERS_OF_TEN.length) return Double.parseDouble(text.subSequence(start, end).toString());
+        return mantissa / POWERS_OF_TEN[fractionDigits];
+    }
+
+    private static int skipSpaces(CharSequence text, int i) {
+        while (i < text.length() && Character.isWhitespace(text.charAt(i))) i++;
+        return i;
+    }
+
+    private static int skipLetters(CharSequence text, int i) {
+        while (i < text.length() && Character.isLetter(text.charAt(i))) i++;
+        return i;
+    }
+
+    /**
+     * Reads the digits at position[0], moving it past them
+     * @return the number, or -1 if there are no digits or too many
+     */
+    private static long readNumber(CharSequence text, int[] position) {
+        int i = position[0];
+        long value = 0;
+        int start = i;
+        while (i < text.length() && text.charAt(i) >= '0' && text.charAt(i) <= '9') {
+            value = value * 10 + (text.charAt(i++) - '0');
+            if (i - start > 9) return -1;
+        }
+        position[0] = i;
+        return i == start ? -1 : value;
+    }
+
+    /**
+     * @return the number written in text[start, end), or -1 if any of it is not a digit
+     */
+    private static int digits(CharSequence text, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static int daysInMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+                return leap ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+}
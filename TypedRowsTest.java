@@ -0,0 +1,139 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TypedRowsTest {
+
+   File csvFile;
+   File rejectsFile;
+
+   @Before
+   public void createFiles() throws IOException{
+      csvFile = File.createTempFile("typed-rows", ".csv");
+      rejectsFile = File.createTempFile("typed-rows", ".rejects");
+      rejectsFile.delete();
+   }
+
+   @After
+   public void deleteFiles(){
+      csvFile.delete();
+      rejectsFile.delete();
+   }
+
+   private MappedCsvReader reader(String contents) throws IOException{
+      Files.write(csvFile.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+      return new MappedCsvReader(csvFile);
+   }
+
+   @Test
+   public void parsesRunningTimes(){
+      assertEquals(143, TypedRows.parseMinutes("143 minutes"));
+      assertEquals(143, TypedRows.parseMinutes(" 143 min "));
+      assertEquals(143, TypedRows.parseMinutes("143"));
+      assertEquals(143, TypedRows.parseMinutes("2h 23m"));
+      assertEquals(143, TypedRows.parseMinutes("2 hours 23 minutes"));
+      assertEquals(120, TypedRows.parseMinutes("2 hours"));
+      assertEquals(-1, TypedRows.parseMinutes("two hours"));
+      assertEquals(-1, TypedRows.parseMinutes("143 seconds"));
+      assertEquals(-1, TypedRows.parseMinutes("143 minutes long"));
+   }
+
+   @Test
+   public void parsesDatesToIso(){
+      assertEquals("1963-06-09", TypedRows.parseDate("1963-06-09"));
+      assertEquals("1963-06-09", TypedRows.parseDate(" 1963-06-09 "));
+      assertEquals("1963-06-09", TypedRows.parseDate("9 June 1963"));
+      assertEquals("1963-06-09", TypedRows.parseDate("June 9, 1963"));
+      assertEquals("2000-02-29", TypedRows.parseDate("2000-02-29"));
+      assertNull(TypedRows.parseDate("1900-02-29"));
+      assertNull(TypedRows.parseDate("1963-13-01"));
+      assertNull(TypedRows.parseDate("sometime in 1963"));
+   }
+
+   @Test
+   public void parsesRatings(){
+      assertEquals(7.0, TypedRows.parseRating("7"), 0);
+      assertEquals(7.5, TypedRows.parseRating(" 7.5 "), 1e-9);
+      assertEquals(8.25, TypedRows.parseRating("8.25"), 1e-9);
+      assertTrue(Double.isNaN(TypedRows.parseRating("seven")));
+      assertTrue(Double.isNaN(TypedRows.parseRating("-1")));
+      assertTrue(Double.isNaN(TypedRows.parseRating(".")));
+   }
+
+   @Test
+   public void parsesMovieRow() throws IOException{
+      try (MappedCsvReader reader = reader("Pirates,Adventure,143 minutes,A plot,2003-07-09\nUntitled,,,,\n")) {
+         TypedRows.MovieRow row = new TypedRows.MovieRow();
+
+         assertTrue(reader.next());
+         assertNull(row.parse(reader));
+         assertEquals("Pirates", row.title);
+         assertEquals(143, row.runningMinutes);
+         assertEquals("2003-07-09", row.releaseDate);
+
+         assertTrue(reader.next());
+         assertNull(row.parse(reader));
+         assertEquals(-1, row.runningMinutes);
+         assertNull(row.values()[2]);
+         assertNull(row.releaseDate);
+      }
+   }
+
+   @Test
+   public void rejectsInvalidRows() throws IOException{
+      try (MappedCsvReader reader = reader("11,IMDb,Pirates\nPirates,Adventure,long,A plot,2003-07-09\n,1963-06-09\n")) {
+         assertTrue(reader.next());
+         assertEquals("Rating_Value out of range: 11", new TypedRows.RatingRow().parse(reader));
+
+         assertTrue(reader.next());
+         assertEquals("invalid Running_Time: long", new TypedRows.MovieRow().parse(reader));
+
+         assertTrue(reader.next());
+         assertEquals("missing Name", new TypedRows.ActorRow().parse(reader));
+      }
+   }
+
+   @Test
+   public void writesRejectedRecordsWithReason() throws IOException{
+      RejectFile rejects = new RejectFile(rejectsFile);
+      try (MappedCsvReader reader = reader("Johnny Depp,1963-06-09\nKeira Knightley,someday\n")) {
+         TypedRows.ActorRow row = new TypedRows.ActorRow();
+         while (reader.next()) {
+            String reason = row.parse(reader);
+            if (reason != null) rejects.reject("actors.csv", reader, reason);
+         }
+      }
+      rejects.close();
+
+      assertEquals(1, rejects.getRejectedCount());
+      String line = new String(Files.readAllBytes(rejectsFile.toPath()), StandardCharsets.UTF_8);
+      assertEquals("actors.csv\t23\tinvalid Birthday: someday\tKeira Knightley,someday\n", line.replace("\r\n", "\n"));
+   }
+
+   @Test
+   public void forFileMatchesInsertStatements(){
+      assertNotNull(TypedRows.forFile("actors.csv"));
+      assertNotNull(TypedRows.forFile("awards.csv"));
+      assertNotNull(TypedRows.forFile("movies.csv"));
+      assertNull(TypedRows.forFile("ratings.csv"));
+   }
+
+   @Test
+   public void ratingsAreParsedLikeDoubleParseDouble(){
+      for (int hundredths = 100; hundredths < 1100; hundredths++) {
+         String text = (hundredths / 100) + "." + String.format("%02d", hundredths % 100);
+         assertEquals(text, Double.parseDouble(text), TypedRows.parseRating(text), 0);
+      }
+      assertEquals(Double.parseDouble("1.1400000000000000001"), TypedRows.parseRating("1.1400000000000000001"), 0);
+   }
+}
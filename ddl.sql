@@ -7,7 +7,7 @@ CREATE TABLE actors(
  CREATE TABLE movies(
     Movie_ID INTEGER PRIMARY KEY AUTOINCREMENT,
      Title VARCHAR(100), Genre VARCHAR(100), 
-     Running_Time TIME, Plot VARCHAR(100), 
+     Running_Time INTEGER, Plot VARCHAR(100), 
      Release_Date DATE, 
      Director_ID INTEGER,
      FOREIGN KEY (Director_ID) REFERENCES directors(Director_ID));  
@@ -38,12 +38,11 @@ CREATE TABLE actors(
 
     CREATE TABLE directors(
         Director_ID INTEGER PRIMARY KEY AUTOINCREMENT,
-        Name VARCHAR(100),
-        Movie_Title VARCHAR(100));
+        Name VARCHAR(100));
 
     CREATE TABLE ratings(
         Rating_ID INTEGER PRIMARY KEY AUTOINCREMENT, 
-        Rating_Value INTEGER CHECK (Rating_Value >= 0 AND Rating_Value <=10), 
+        Rating_Value REAL CHECK (Rating_Value >= 0 AND Rating_Value <=10), 
         Rating_Source VARCHAR(100), Movie_ID INTEGER,  
         FOREIGN KEY (Movie_ID) REFERENCES movies(Movie_ID)); 
 
@@ -0,0 +1,23 @@
+
+
+CREATE INDEX IF NOT EXISTS idx_actors_name ON actors(Name);
+
+CREATE INDEX IF NOT EXISTS idx_movies_title ON movies(Title);
+CREATE INDEX IF NOT EXISTS idx_movies_genre ON movies(Genre);
+CREATE INDEX IF NOT EXISTS idx_movies_director ON movies(Director_ID);
+CREATE INDEX IF NOT EXISTS idx_movies_release_date ON movies(Release_Date);
+
+CREATE INDEX IF NOT EXISTS idx_awards_name ON awards(Award_Name);
+
+CREATE INDEX IF NOT EXISTS idx_directors_name ON directors(Name);
+
+CREATE INDEX IF NOT EXISTS idx_ratings_movie ON ratings(Movie_ID, Rating_Value);
+
+CREATE INDEX IF NOT EXISTS idx_actors_to_movies_actor ON actors_to_movies(Actor_ID, Movie_ID);
+CREATE INDEX IF NOT EXISTS idx_actors_to_movies_movie ON actors_to_movies(Movie_ID, Actor_ID);
+
+CREATE INDEX IF NOT EXISTS idx_actors_to_awards_actor ON actors_to_awards(Actor_ID, Award_ID);
+CREATE INDEX IF NOT EXISTS idx_actors_to_awards_award ON actors_to_awards(Award_ID, Actor_ID);
+
+CREATE INDEX IF NOT EXISTS idx_movies_to_awards_movie ON movies_to_awards(Movie_ID, Award_ID);
+CREATE INDEX IF NOT EXISTS idx_movies_to_awards_award ON movies_to_awards(Award_ID, Movie_ID);
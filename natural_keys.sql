@@ -0,0 +1,20 @@
+
+
+CREATE TABLE IF NOT EXISTS ingest_manifest(
+    File_Name VARCHAR(100) PRIMARY KEY,
+    Size INTEGER NOT NULL,
+    Byte_Offset INTEGER NOT NULL,
+    Checksum INTEGER NOT NULL,
+    Ingested_At DATE);
+
+CREATE UNIQUE INDEX IF NOT EXISTS ux_actors_name ON actors(Name);
+CREATE UNIQUE INDEX IF NOT EXISTS ux_movies_title ON movies(Title);
+CREATE UNIQUE INDEX IF NOT EXISTS ux_awards_name ON awards(Award_Name);
+CREATE UNIQUE INDEX IF NOT EXISTS ux_directors_name ON directors(Name);
+
+CREATE UNIQUE INDEX IF NOT EXISTS ux_actors_to_movies ON actors_to_movies(Actor_ID, Movie_ID);
+CREATE UNIQUE INDEX IF NOT EXISTS ux_actors_to_awards ON actors_to_awards(Actor_ID, Award_ID);
+CREATE UNIQUE INDEX IF NOT EXISTS ux_movies_to_awards ON movies_to_awards(Movie_ID, Award_ID);
+-- a rating without a source is keyed as '', as NULLs are all distinct in a unique index
+DROP INDEX IF EXISTS ux_ratings_movie_source;
+CREATE UNIQUE INDEX IF NOT EXISTS ux_ratings_movie_source_key ON ratings(Movie_ID, COALESCE(Rating_Source, ''));
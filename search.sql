@@ -0,0 +1,27 @@
+CREATE VIRTUAL TABLE IF NOT EXISTS search_index USING fts5(
+    Kind UNINDEXED,
+    Entity_ID UNINDEXED,
+    Name,
+    Plot,
+    tokenize = 'unicode61 remove_diacritics 2',
+    prefix = '2 3');
+
+CREATE VIRTUAL TABLE IF NOT EXISTS search_trigrams USING fts5(
+    Kind UNINDEXED,
+    Entity_ID UNINDEXED,
+    Name,
+    tokenize = 'trigram');
+
+DELETE FROM search_index;
+INSERT INTO search_index(Kind, Entity_ID, Name, Plot)
+    SELECT 'movie', Movie_ID, Title, Plot FROM movies WHERE Title IS NOT NULL;
+INSERT INTO search_index(Kind, Entity_ID, Name, Plot)
+    SELECT 'actor', Actor_ID, Name, NULL FROM actors;
+INSERT INTO search_index(Kind, Entity_ID, Name, Plot)
+    SELECT 'director', Director_ID, Name, NULL FROM directors WHERE Name IS NOT NULL;
+INSERT INTO search_index(search_index) VALUES('optimize');
+
+DELETE FROM search_trigrams;
+INSERT INTO search_trigrams(Kind, Entity_ID, Name)
+    SELECT Kind, Entity_ID, Name FROM search_index;
+INSERT INTO search_trigrams(search_trigrams) VALUES('optimize');
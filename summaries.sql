@@ -0,0 +1,48 @@
+CREATE TABLE IF NOT EXISTS movie_summary(
+    Movie_ID INTEGER PRIMARY KEY,
+    Genre VARCHAR(100),
+    Director_ID INTEGER,
+    Max_Rating REAL,
+    Avg_Rating REAL,
+    Rating_Count INTEGER NOT NULL,
+    Award_Count INTEGER NOT NULL);
+
+CREATE TABLE IF NOT EXISTS actor_award_genres(
+    Genre VARCHAR(100) NOT NULL,
+    Name VARCHAR(100) NOT NULL,
+    Award_Count INTEGER NOT NULL,
+    PRIMARY KEY (Genre, Name)) WITHOUT ROWID;
+
+CREATE TABLE IF NOT EXISTS director_award_ratings(
+    Name VARCHAR(100) PRIMARY KEY,
+    Max_Awarded_Rating REAL NOT NULL) WITHOUT ROWID;
+
+CREATE INDEX IF NOT EXISTS idx_movie_summary_genre ON movie_summary(Genre);
+CREATE INDEX IF NOT EXISTS idx_director_award_ratings_rating ON director_award_ratings(Max_Awarded_Rating, Name);
+
+DELETE FROM movie_summary;
+INSERT INTO movie_summary(Movie_ID, Genre, Director_ID, Max_Rating, Avg_Rating, Rating_Count, Award_Count)
+    SELECT m.Movie_ID, m.Genre, m.Director_ID, r.Max_Rating, r.Avg_Rating, COALESCE(r.Rating_Count, 0), COALESCE(a.Award_Count, 0)
+    FROM movies m
+    LEFT JOIN (SELECT Movie_ID, MAX(Rating_Value) AS Max_Rating, AVG(Rating_Value) AS Avg_Rating, COUNT(*) AS Rating_Count
+               FROM ratings GROUP BY Movie_ID) r ON r.Movie_ID = m.Movie_ID
+    LEFT JOIN (SELECT Movie_ID, COUNT(*) AS Award_Count
+               FROM movies_to_awards GROUP BY Movie_ID) a ON a.Movie_ID = m.Movie_ID;
+
+DELETE FROM actor_award_genres;
+INSERT INTO actor_award_genres(Genre, Name, Award_Count)
+    SELECT g.Genre, ac.Name, SUM(aw.Award_Count)
+    FROM (SELECT DISTINCT atm.Actor_ID, m.Genre
+          FROM actors_to_movies atm JOIN movies m ON m.Movie_ID = atm.Movie_ID
+          WHERE m.Genre IS NOT NULL) g
+    JOIN (SELECT Actor_ID, COUNT(*) AS Award_Count FROM actors_to_awards GROUP BY Actor_ID) aw ON aw.Actor_ID = g.Actor_ID
+    JOIN actors ac ON ac.Actor_ID = g.Actor_ID
+    WHERE ac.Name IS NOT NULL
+    GROUP BY g.Genre, ac.Name;
+
+DELETE FROM director_award_ratings;
+INSERT INTO director_award_ratings(Name, Max_Awarded_Rating)
+    SELECT d.Name, MAX(ms.Max_Rating)
+    FROM movie_summary ms JOIN directors d ON d.Director_ID = ms.Director_ID
+    WHERE ms.Award_Count > 0 AND ms.Max_Rating IS NOT NULL AND d.Name IS NOT NULL
+    GROUP BY d.Name;